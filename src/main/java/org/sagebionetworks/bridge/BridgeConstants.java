@@ -93,9 +93,18 @@ public class BridgeConstants {
     // 5 hrs
     public static final int BRIDGE_VIEW_EXPIRE_IN_SECONDS = 5 * 60 * 60;
     
+    // Bounds staleness when a shared assessment referenced by many apps changes
+    public static final int RESOLVED_APP_CONFIG_EXPIRE_IN_SECONDS = 60 * 60;
+    
+    // 5 minutes before a cached view expires, it is rebuilt in the background
+    public static final int BRIDGE_VIEW_REFRESH_AHEAD_IN_SECONDS = 5 * 60;
+    
     // 3 minutes
     public static final int APP_LINKS_EXPIRE_IN_SECONDS = 3* 60;
     
+    // 30 seconds
+    public static final int APP_LINKS_REFRESH_AHEAD_IN_SECONDS = 30;
+    
     public static final String SCHEDULE_STRATEGY_PACKAGE = "org.sagebionetworks.bridge.models.schedules.";
 
     public static final String ASSETS_HOST = "assets.sagebridge.org";
@@ -0,0 +1,104 @@
+package org.sagebionetworks.bridge.cache;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Encodes and decodes the larger objects we cache on every request (sessions and apps). The
+ * binary format is Smile, a binary equivalent of JSON that Jackson reads and writes with the same
+ * annotations and filters as JSON. It is smaller on the wire and in Redis, and faster to parse.
+ *
+ * The format of a stored entry is identified by its first bytes: Smile content always starts
+ * with the Smile header (":)\n" followed by a version/flags byte), while JSON starts with a
+ * bracket. So entries can always be read in either format, and the format for writing is
+ * negotiated by configuration. During a rolling deploy, leave cache.binary.codec.enabled off
+ * until every node can read Smile, then turn it on; JSON entries continue to be read until they
+ * expire.
+ */
+@Component
+public class CacheCodec {
+    static final String ENABLED_PROPERTY = "cache.binary.codec.enabled";
+
+    private static final byte[] SMILE_HEADER = new byte[] { ':', ')', '\n' };
+    private static final ObjectMapper SMILE_MAPPER = new BridgeObjectMapper(new SmileFactory());
+    private static final ObjectWriter SMILE_SESSION_WRITER = SMILE_MAPPER
+            .writer(StudyParticipant.CACHE_WRITER.getConfig().getFilterProvider());
+
+    private boolean binaryEnabled;
+
+    @Autowired
+    final void setBridgeConfig(BridgeConfig config) {
+        this.binaryEnabled = Boolean.valueOf(config.get(ENABLED_PROPERTY));
+    }
+
+    final void setBinaryEnabled(boolean binaryEnabled) {
+        this.binaryEnabled = binaryEnabled;
+    }
+
+    public boolean isBinaryEnabled() {
+        return binaryEnabled;
+    }
+
+    /** Encode an object in the configured format. */
+    public byte[] encode(Object object) throws IOException {
+        checkNotNull(object);
+        if (binaryEnabled) {
+            return SMILE_MAPPER.writeValueAsBytes(object);
+        }
+        return BridgeObjectMapper.get().writeValueAsBytes(object);
+    }
+
+    /**
+     * Encode a session in the configured format. Sessions are written with a filter that stores
+     * the encrypted health code rather than the health code.
+     */
+    public byte[] encodeSession(Object session) throws IOException {
+        checkNotNull(session);
+        if (binaryEnabled) {
+            return SMILE_SESSION_WRITER.writeValueAsBytes(session);
+        }
+        return StudyParticipant.CACHE_WRITER.writeValueAsBytes(session);
+    }
+
+    /**
+     * Returns true if this is a Smile-encoded entry. Anything else is UTF-8 JSON.
+     */
+    public static boolean isBinary(byte[] bytes) {
+        if (bytes == null || bytes.length < SMILE_HEADER.length) {
+            return false;
+        }
+        for (int i=0; i < SMILE_HEADER.length; i++) {
+            if (bytes[i] != SMILE_HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decode a binary entry. JSON entries should be converted to a string with {@link #toJson} and
+     * read through the JSON path, which handles legacy fields.
+     */
+    public static <T> T decodeBinary(byte[] bytes, Class<T> clazz) throws IOException {
+        checkNotNull(bytes);
+        checkNotNull(clazz);
+        return SMILE_MAPPER.readValue(bytes, clazz);
+    }
+
+    public static String toJson(byte[] bytes) {
+        return new String(bytes, UTF_8);
+    }
+}
@@ -6,6 +6,7 @@ import java.util.Objects;
 import org.sagebionetworks.bridge.models.ThrottleRequestType;
 import org.sagebionetworks.bridge.models.accounts.Phone;
 import org.sagebionetworks.bridge.models.accounts.SignIn;
+import org.sagebionetworks.bridge.models.reports.ReportDataKey;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
 
 import com.google.common.base.Joiner;
@@ -54,6 +55,13 @@ public final class CacheKey {
     public static final CacheKey appConfigList(String appId) {
         return new CacheKey(appId, "AppConfigList");
     }
+    /**
+     * An app config with its survey, assessment, and config element references resolved. A new
+     * revision of the app config has a new modifiedOn timestamp and so a new key.
+     */
+    public static final CacheKey resolvedAppConfig(String appId, String guid, long modifiedOn) {
+        return new CacheKey(guid, Long.toString(modifiedOn), appId, "ResolvedAppConfig");
+    }
     /**
      * Cache key for mapping a used channel sign-in token to the cached session token, used for when a second channel
      * sign-in call is made within the grace period.
@@ -104,6 +112,20 @@ public final class CacheKey {
     public static final CacheKey subpopList(String appId) {
         return new CacheKey(appId, "SubpopulationList");
     }
+    /** A report index, which is only held in the near cache (not in Redis). */
+    public static final CacheKey reportIndex(ReportDataKey key) {
+        return new CacheKey(key.getIdentifier(), key.getIndexKeyString(), "ReportIndex");
+    }
+    /**
+     * A study's Exporter 3.0 notification topic, which is only held in the near cache (not in Redis). StudyService
+     * invalidates it whenever the study changes.
+     */
+    public static final CacheKey studyExportTopic(String appId, String studyId) {
+        return new CacheKey(appId, studyId, "StudyExportTopic");
+    }
+    public static final CacheKey uploadRedriveJob(String jobGuid) {
+        return new CacheKey(jobGuid, "UploadRedriveJob");
+    }
     public static final CacheKey userIdToSession(String userId) {
         return new CacheKey(userId, "session2", "user");
     }
@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.cache;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.util.List;
 import java.util.Set;
@@ -12,17 +13,24 @@ import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.RequestInfo;
-import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
 import org.sagebionetworks.bridge.models.apps.App;
 import org.sagebionetworks.bridge.redis.JedisOps;
 import org.sagebionetworks.bridge.redis.JedisTransaction;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisDataException;
 
 /**
  * A wrapper around our use of Redis.
@@ -30,7 +38,28 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 @Component
 public class CacheProvider {
     private static final String LOCAL_SERVICE_ERROR = "Cannot find cache service, have you started Redis? (original message: %s)";
+    /** The part of the userId --> session key that follows the user ID. */
+    static final String USER_ID_TO_SESSION_SUFFIX = CacheKey.userIdToSession("").toString();
+    /**
+     * Resolves sessionToken --> userId --> session on the server, so retrieving a session is one 
+     * round trip to Redis rather than two. The session key is built from the user ID inside the 
+     * script, so it cannot be declared in KEYS. This requires a single (non-clustered) Redis node, 
+     * which is how Bridge is deployed; it would not work with Redis Cluster or a key-routing proxy.
+     */
+    static final String GET_SESSION_BY_TOKEN_SCRIPT = "local userId = redis.call('GET', KEYS[1]) "
+            + "if not userId then return nil end "
+            + "return redis.call('GET', userId .. ARGV[1])";
+    private static final byte[] GET_SESSION_BY_TOKEN_SCRIPT_BYTES = GET_SESSION_BY_TOKEN_SCRIPT.getBytes(UTF_8);
+    /** The script is called by its SHA1 digest, and only loaded when Redis doesn't have it yet. */
+    static final byte[] GET_SESSION_BY_TOKEN_SCRIPT_SHA = Hashing.sha1()
+            .hashBytes(GET_SESSION_BY_TOKEN_SCRIPT_BYTES).toString().getBytes(UTF_8);
+    private static final String NO_SCRIPT_ERROR_PREFIX = "NOSCRIPT";
+    private static final byte[] USER_ID_TO_SESSION_SUFFIX_BYTES = USER_ID_TO_SESSION_SUFFIX.getBytes(UTF_8);
+    private static final String[] LEGACY_APP_ID_FIELDS = new String[] { "\"studyIdentifier\"", "\"studyId\"" };
     private JedisOps jedisOps;
+    private JedisPool jedisPool;
+    private NearCache nearCache = new NearCache();
+    private CacheCodec cacheCodec = new CacheCodec();
     private int sessionExpireInSeconds;
 
     @Resource(name = "jedisOps")
@@ -38,6 +67,21 @@ public class CacheProvider {
         this.jedisOps = jedisOps;
     }
 
+    @Resource(name = "jedisPool")
+    final void setJedisPool(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+
+    @Autowired
+    final void setNearCache(NearCache nearCache) {
+        this.nearCache = nearCache;
+    }
+
+    @Autowired
+    final void setCacheCodec(CacheCodec cacheCodec) {
+        this.cacheCodec = cacheCodec;
+    }
+
     @Resource(name = "sessionExpireInSeconds")
     final void setSessionExpireInSeconds(@SuppressWarnings("SameParameterValue") int sessionExpireInSeconds) {
         this.sessionExpireInSeconds = sessionExpireInSeconds;
@@ -90,18 +134,20 @@ public class CacheProvider {
         CacheKey tokenToUserIdKey = CacheKey.tokenToUserId(session.getSessionToken());
         CacheKey userIdToSessionKey = CacheKey.userIdToSession(session.getId());
         
-        try (JedisTransaction transaction = jedisOps.getTransaction()) {
+        byte[] userIdToSessionBytes = userIdToSessionKey.toString().getBytes(UTF_8);
+        
+        try (Jedis jedis = jedisPool.getResource()) {
             // If the key exists, get the remaining time to expiration. If it doesn't exist
             // then save with the full expiration period.
-            Long ttl = jedisOps.ttl(userIdToSessionKey.toString());
+            Long ttl = jedis.ttl(userIdToSessionBytes);
             int expiration = (ttl != null && ttl > 0L) ? ttl.intValue() : sessionExpireInSeconds;
                    
-            String ser = StudyParticipant.CACHE_WRITER.writeValueAsString(session);
+            byte[] ser = cacheCodec.encodeSession(session);
             
-            List<Object> results = transaction
-                .setex(tokenToUserIdKey.toString(), expiration, session.getId())
-                .setex(userIdToSessionKey.toString(), expiration, ser)
-                .exec();
+            Transaction transaction = jedis.multi();
+            transaction.setex(tokenToUserIdKey.toString().getBytes(UTF_8), expiration, session.getId().getBytes(UTF_8));
+            transaction.setex(userIdToSessionBytes, expiration, ser);
+            List<Object> results = transaction.exec();
             
             if (results == null) {
                 throw new BridgeServiceException("Session storage error.");
@@ -122,25 +168,23 @@ public class CacheProvider {
         checkNotNull(sessionToken);
         try {
             CacheKey tokenToUserIdKey = CacheKey.tokenToUserId(sessionToken);
-            String userId = jedisOps.get(tokenToUserIdKey.toString());
-            if (userId != null) {
-                CacheKey userIdToSessionKey = CacheKey.userIdToSession(userId);
-                String ser = jedisOps.get(userIdToSessionKey.toString());
-                if (ser != null) {
-                    JsonNode node = adjustJsonWithStudyIdentifier(ser);
-                    UserSession session = BridgeObjectMapper.get().treeToValue(node,  UserSession.class);
-                    
-                    // The token --> userId look up is not replaced on session invalidation. 
-                    // Check here and only return if the sessionToken is valid. It is possible 
-                    // to successfully sign in and then have this fail due to concurrent requests.
-                    // The client needs to manage concurrent requests if it doesn't want to 
-                    // invalidate its own session.
-                    if (session.getSessionToken().equals(sessionToken)) {
-                        return session;
-                    }
-                    // Otherwise, delete the key sessionToken key (it's known to be invalid)
-                    removeObject(tokenToUserIdKey);
+            byte[] ser = null;
+            try (Jedis jedis = jedisPool.getResource()) {
+                ser = evalSessionScript(jedis, tokenToUserIdKey);
+            }
+            if (ser != null) {
+                UserSession session = decode(ser, UserSession.class);
+                
+                // The token --> userId look up is not replaced on session invalidation. 
+                // Check here and only return if the sessionToken is valid. It is possible 
+                // to successfully sign in and then have this fail due to concurrent requests.
+                // The client needs to manage concurrent requests if it doesn't want to 
+                // invalidate its own session.
+                if (session.getSessionToken().equals(sessionToken)) {
+                    return session;
                 }
+                // Otherwise, delete the key sessionToken key (it's known to be invalid)
+                removeObject(tokenToUserIdKey);
             }
             return null;
         } catch (Throwable e) {
@@ -149,23 +193,80 @@ public class CacheProvider {
         }
     }
     
+    /**
+     * Runs the session script with EVALSHA. Redis drops loaded scripts when it restarts or fails 
+     * over, so on a NOSCRIPT error the script is loaded again and the call is retried.
+     */
+    private byte[] evalSessionScript(Jedis jedis, CacheKey tokenToUserIdKey) {
+        List<byte[]> keys = ImmutableList.of(tokenToUserIdKey.toString().getBytes(UTF_8));
+        List<byte[]> args = ImmutableList.of(USER_ID_TO_SESSION_SUFFIX_BYTES);
+        try {
+            return (byte[])jedis.evalsha(GET_SESSION_BY_TOKEN_SCRIPT_SHA, keys, args);
+        } catch(JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith(NO_SCRIPT_ERROR_PREFIX)) {
+                throw e;
+            }
+            jedis.scriptLoad(GET_SESSION_BY_TOKEN_SCRIPT_BYTES);
+            return (byte[])jedis.evalsha(GET_SESSION_BY_TOKEN_SCRIPT_SHA, keys, args);
+        }
+    }
+    
     public UserSession getUserSessionByUserId(String userId) {
         checkNotNull(userId);
         
         try {
             CacheKey userIdToSessionKey = CacheKey.userIdToSession(userId);
-            String ser = jedisOps.get(userIdToSessionKey.toString());
+            byte[] ser = null;
+            try (Jedis jedis = jedisPool.getResource()) {
+                ser = jedis.get(userIdToSessionKey.toString().getBytes(UTF_8));
+            }
             if (ser == null) {
                 return null;
             }
-            JsonNode node = adjustJsonWithStudyIdentifier(ser);
-            return BridgeObjectMapper.get().treeToValue(node,  UserSession.class);
+            return decode(ser, UserSession.class);
         } catch(Throwable e) {
             promptToStartRedisIfLocal(e);
             throw new BridgeServiceException(e);
         }
     }
 
+    /**
+     * Decode an entry stored by the {@link CacheCodec}, which may be in either the binary or the 
+     * JSON format.
+     */
+    private <T> T decode(byte[] ser, Class<T> clazz) throws Exception {
+        if (CacheCodec.isBinary(ser)) {
+            return CacheCodec.decodeBinary(ser, clazz);
+        }
+        return readValue(CacheCodec.toJson(ser), clazz);
+    }
+
+    /**
+     * Deserialize directly from the string, unless the JSON contains a legacy study identifier 
+     * field, in which case it must be adjusted as a JSON tree first. Once entries written 
+     * before the migration have expired, the tree is never built.
+     */
+    private <T> T readValue(String ser, Class<T> clazz) throws Exception {
+        if (hasLegacyAppIdField(ser)) {
+            JsonNode node = adjustJsonWithStudyIdentifier(ser);
+            return BridgeObjectMapper.get().treeToValue(node, clazz);
+        }
+        return BridgeObjectMapper.get().readValue(ser, clazz);
+    }
+    
+    /**
+     * This can match a nested property with one of these names, which only means that we take 
+     * the slower (but still correct) path.
+     */
+    private boolean hasLegacyAppIdField(String ser) {
+        for (String field : LEGACY_APP_ID_FIELDS) {
+            if (ser.contains(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * During a transition period away from appId, we will need special handling to
      * ensure persisted sessions, subpopulations, and subpopulation lists are deserialized 
@@ -239,13 +340,45 @@ public class CacheProvider {
     public void setApp(App app) {
         checkNotNull(app);
         CacheKey redisKey = CacheKey.app(app.getIdentifier());
-        setObject(redisKey, app, BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS);
+        try (Jedis jedis = jedisPool.getResource()) {
+            byte[] ser = cacheCodec.encode(app);
+            String result = jedis.setex(redisKey.toString().getBytes(UTF_8),
+                    BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS, ser);
+            if (!"OK".equals(result)) {
+                throw new BridgeServiceException("App storage error");
+            }
+            nearCache.invalidate(redisKey);
+        } catch (Throwable e) {
+            promptToStartRedisIfLocal(e);
+            throw new BridgeServiceException(e);
+        }
     }
 
+    /**
+     * Get the app, resetting its expiration period. The expiration is not reset when the app is 
+     * served from the near cache.
+     */
     public App getApp(String appId) {
         checkNotNull(appId);
         CacheKey redisKey = CacheKey.app(appId);
-        return getObject(redisKey, App.class, BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS);
+        try {
+            byte[] ser = nearCache.get(redisKey);
+            if (ser == null) {
+                long generation = nearCache.getGeneration(redisKey);
+                try (Jedis jedis = jedisPool.getResource()) {
+                    byte[] keyBytes = redisKey.toString().getBytes(UTF_8);
+                    ser = jedis.get(keyBytes);
+                    if (ser != null) {
+                        jedis.expire(keyBytes, BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS);
+                        nearCache.put(redisKey, ser, generation);
+                    }
+                }
+            }
+            return (ser == null) ? null : decode(ser, App.class);
+        } catch (Throwable e) {
+            promptToStartRedisIfLocal(e);
+            throw new BridgeServiceException(e);
+        }
     }
 
     public void removeApp(String appId) {
@@ -258,10 +391,9 @@ public class CacheProvider {
         checkNotNull(cacheKey);
         checkNotNull(clazz);
         try {
-            String ser = jedisOps.get(cacheKey.toString());
+            String ser = getSerializedObject(cacheKey);
             if (ser != null) {
-                JsonNode node = adjustJsonWithStudyIdentifier(ser);                
-                return BridgeObjectMapper.get().treeToValue(node, clazz);
+                return readValue(ser, clazz);
             }
         } catch (Throwable e) {
             promptToStartRedisIfLocal(e);
@@ -274,10 +406,13 @@ public class CacheProvider {
         checkNotNull(cacheKey);
         checkNotNull(typeRef);
         try {
-            String ser = jedisOps.get(cacheKey.toString());
+            String ser = getSerializedObject(cacheKey);
             if (ser != null) {
-                JsonNode node = adjustJsonWithStudyIdentifier(ser);
-                return BridgeObjectMapper.get().readValue(node.toString(), typeRef);
+                if (hasLegacyAppIdField(ser)) {
+                    JsonNode node = adjustJsonWithStudyIdentifier(ser);
+                    return BridgeObjectMapper.get().readValue(node.toString(), typeRef);
+                }
+                return BridgeObjectMapper.get().readValue(ser, typeRef);
             }
         } catch (Throwable e) {
             promptToStartRedisIfLocal(e);
@@ -287,15 +422,23 @@ public class CacheProvider {
     }
     
     /**
-     * Get the object, resetting its expiration period.
+     * Get the object, resetting its expiration period. The expiration is not reset when the 
+     * object is served from the near cache.
      */
     public <T> T getObject(CacheKey cacheKey, Class<T> clazz, int expireInSeconds) {
         checkNotNull(cacheKey);
         checkNotNull(clazz);
         try {
-            String ser = jedisOps.get(cacheKey.toString());
+            String ser = getLocalObject(cacheKey);
+            if (ser == null) {
+                long generation = nearCache.getGeneration(cacheKey);
+                ser = jedisOps.get(cacheKey.toString());
+                if (ser != null) {
+                    jedisOps.expire(cacheKey.toString(), expireInSeconds);
+                    nearCache.put(cacheKey, ser.getBytes(UTF_8), generation);
+                }
+            }
             if (ser != null) {
-                jedisOps.expire(cacheKey.toString(), expireInSeconds);
                 return BridgeObjectMapper.get().readValue(ser, clazz);
             }
         } catch (Throwable e) {
@@ -328,6 +471,7 @@ public class CacheProvider {
             if (!"OK".equals(result)) {
                 throw new BridgeServiceException(object.getClass().getSimpleName() + " storage error");
             }
+            nearCache.invalidate(cacheKey);
         } catch (Throwable e) {
             promptToStartRedisIfLocal(e);
             throw new BridgeServiceException(e);
@@ -346,6 +490,7 @@ public class CacheProvider {
             if (!"OK".equals(result)) {
                 throw new BridgeServiceException(object.getClass().getSimpleName() + " storage error");
             }
+            nearCache.invalidate(cacheKey);
         } catch (Throwable e) {
             promptToStartRedisIfLocal(e);
             throw new BridgeServiceException(e);
@@ -359,6 +504,7 @@ public class CacheProvider {
         checkNotNull(cacheKey);
         try {
             jedisOps.del(cacheKey.toString());
+            nearCache.invalidate(cacheKey);
         } catch(Throwable e) {
             promptToStartRedisIfLocal(e);
             throw new BridgeServiceException(e);
@@ -389,6 +535,9 @@ public class CacheProvider {
                     transaction.del(cacheKeyOfSet.toString());
                     transaction.exec();
                 }
+                for (String oneMember : members) {
+                    nearCache.invalidate(oneMember);
+                }
             }
         } catch(Throwable e) {
             promptToStartRedisIfLocal(e);
@@ -396,6 +545,27 @@ public class CacheProvider {
         }        
     }
 
+    /**
+     * Get the serialized object from the near cache if it is held locally, otherwise from Redis 
+     * (holding it locally if its type is eligible).
+     */
+    private String getSerializedObject(CacheKey cacheKey) {
+        String ser = getLocalObject(cacheKey);
+        if (ser == null) {
+            long generation = nearCache.getGeneration(cacheKey);
+            ser = jedisOps.get(cacheKey.toString());
+            if (ser != null) {
+                nearCache.put(cacheKey, ser.getBytes(UTF_8), generation);
+            }
+        }
+        return ser;
+    }
+    
+    private String getLocalObject(CacheKey cacheKey) {
+        byte[] ser = nearCache.get(cacheKey);
+        return (ser == null) ? null : CacheCodec.toJson(ser);
+    }
+
     private void promptToStartRedisIfLocal(Throwable e) {
         if (BridgeConfigFactory.getConfig().isLocal()) {
             throw new BridgeServiceException(String.format(LOCAL_SERVICE_ERROR, e.getMessage()));
@@ -0,0 +1,280 @@
+package org.sagebionetworks.bridge.cache;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+
+/**
+ * An in-process (L1) cache that sits in front of Redis for objects that rarely change, like
+ * apps and subpopulation lists. Report indices and study export topics, which are read from the
+ * database, are held here too, so that changes to them are invalidated on every node. Only cache
+ * key types with a {@link Policy} are held locally; every other key always goes to Redis. The
+ * serialized form of each object is cached, exactly as it is stored in Redis (not the object
+ * itself), because our models are mutable and callers routinely change the objects they retrieve.
+ *
+ * When an object is updated or removed on one node, the key is published on a Redis pub/sub
+ * channel so that all other nodes drop their local copy. The policy's time-to-live bounds how
+ * stale a local copy can become if an invalidation message is missed.
+ *
+ * A reader that misses locally records the key's generation with {@link #getGeneration} before
+ * reading Redis, and passes it to {@link #put}. If the key was invalidated in the meantime, the
+ * value it read may be older than the write that caused the invalidation, and it is not held.
+ */
+@Component
+public class NearCache {
+    private static final Logger LOG = LoggerFactory.getLogger(NearCache.class);
+
+    static final String INVALIDATION_CHANNEL = "near-cache-invalidation";
+    static final String ENABLED_PROPERTY = "near.cache.enabled";
+    static final char MESSAGE_SEPARATOR = '|';
+    static final long RESUBSCRIBE_DELAY_MILLIS = 5000L;
+    // Generations are kept for stripes of keys rather than for each key, so they take a fixed amount
+    // of memory. An invalidation of one key in a stripe only makes puts of the others in flight skip.
+    static final int GENERATION_STRIPES = 64;
+
+    /**
+     * Size and time-to-live limits for one type of cache key. The type of a key is the last
+     * segment of the key (e.g. "App" in "api:App").
+     */
+    static final class Policy {
+        private final int maxSize;
+        private final int ttlSeconds;
+        Policy(int maxSize, int ttlSeconds) {
+            this.maxSize = maxSize;
+            this.ttlSeconds = ttlSeconds;
+        }
+        int getMaxSize() {
+            return maxSize;
+        }
+        int getTtlSeconds() {
+            return ttlSeconds;
+        }
+    }
+
+    static final Map<String, Policy> POLICIES = new ImmutableMap.Builder<String, Policy>()
+            .put("App", new Policy(500, 60))
+            .put("Subpopulation", new Policy(2000, 60))
+            .put("SubpopulationList", new Policy(500, 60))
+            .put("OrgSponsoredStudies", new Policy(5000, 60))
+            .put("ReportIndex", new Policy(10000, 60))
+            .put("StudyExportTopic", new Policy(10000, 60))
+            .build();
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Map<String, com.google.common.cache.Cache<String, byte[]>> caches;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    private boolean enabled;
+    private JedisPool jedisPool;
+    private JedisPubSub subscriber;
+    private volatile boolean running;
+
+    public NearCache() {
+        ImmutableMap.Builder<String, com.google.common.cache.Cache<String, byte[]>> builder =
+                new ImmutableMap.Builder<>();
+        for (Map.Entry<String, Policy> entry : POLICIES.entrySet()) {
+            builder.put(entry.getKey(), CacheBuilder.newBuilder()
+                    .maximumSize(entry.getValue().getMaxSize())
+                    .expireAfterWrite(entry.getValue().getTtlSeconds(), TimeUnit.SECONDS)
+                    .build());
+        }
+        this.caches = builder.build();
+    }
+
+    @Autowired
+    final void setBridgeConfig(BridgeConfig config) {
+        this.enabled = Boolean.valueOf(config.get(ENABLED_PROPERTY));
+    }
+
+    @Resource(name = "jedisPool")
+    final void setJedisPool(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+
+    final void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    final String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Returns the locally cached serialization of the object under this key, or null if the key
+     * is not held locally.
+     */
+    public byte[] get(CacheKey cacheKey) {
+        checkNotNull(cacheKey);
+        com.google.common.cache.Cache<String, byte[]> cache = getCache(cacheKey.toString());
+        return (cache == null) ? null : cache.getIfPresent(cacheKey.toString());
+    }
+
+    /**
+     * Returns the key's current generation, which changes whenever the key is invalidated on this
+     * node. Read this before reading the object from Redis, and pass it to {@link #put}.
+     */
+    public long getGeneration(CacheKey cacheKey) {
+        checkNotNull(cacheKey);
+        return generations.get(stripe(cacheKey.toString()));
+    }
+
+    /**
+     * Hold the serialization of an object locally, if the type of the key is eligible for local
+     * caching, and the key has not been invalidated since the given generation was read.
+     */
+    public void put(CacheKey cacheKey, byte[] ser, long generation) {
+        checkNotNull(cacheKey);
+        checkNotNull(ser);
+        String key = cacheKey.toString();
+        com.google.common.cache.Cache<String, byte[]> cache = getCache(key);
+        if (cache == null || generations.get(stripe(key)) != generation) {
+            return;
+        }
+        cache.put(key, ser);
+        // An invalidation can land between the check and the put. It bumps the generation before
+        // removing the key, so if it removed the key before our put, we see the new generation here.
+        if (generations.get(stripe(key)) != generation) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Remove the key locally and tell all other nodes to remove their local copy. Called whenever
+     * the object is written or deleted in Redis.
+     */
+    public void invalidate(CacheKey cacheKey) {
+        checkNotNull(cacheKey);
+        invalidate(cacheKey.toString());
+    }
+
+    /**
+     * Remove the key locally and tell all other nodes to remove their local copy. This variant is
+     * for administrative code that works directly with Redis keys.
+     */
+    public void invalidate(String key) {
+        checkNotNull(key);
+        if (getCache(key) == null) {
+            return;
+        }
+        invalidateLocally(key);
+        publish(key);
+    }
+
+    /** Remove everything held locally on this node. */
+    public void invalidateAll() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        for (com.google.common.cache.Cache<String, byte[]> cache : caches.values()) {
+            cache.invalidateAll();
+        }
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        if (!enabled || jedisPool == null) {
+            return;
+        }
+        running = true;
+        subscriber = new JedisPubSub() {
+            @Override
+            public void onMessage(String channel, String message) {
+                onInvalidationMessage(message);
+            }
+        };
+        Thread thread = new Thread(this::listen, "near-cache-invalidation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void unsubscribe() {
+        running = false;
+        if (subscriber != null && subscriber.isSubscribed()) {
+            subscriber.unsubscribe();
+        }
+    }
+
+    void onInvalidationMessage(String message) {
+        int index = message.indexOf(MESSAGE_SEPARATOR);
+        if (index < 0) {
+            return;
+        }
+        // This node removed its own copy when it published the message.
+        if (!nodeId.equals(message.substring(0, index))) {
+            invalidateLocally(message.substring(index + 1));
+        }
+    }
+
+    private void listen() {
+        while (running) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                // Blocks until unsubscribed or the connection fails.
+                jedis.subscribe(subscriber, INVALIDATION_CHANNEL);
+            } catch (Exception e) {
+                LOG.warn("Near cache lost its invalidation subscription, retrying", e);
+            }
+            // Invalidations may have been missed while we weren't subscribed.
+            invalidateAll();
+            if (running) {
+                try {
+                    Thread.sleep(RESUBSCRIBE_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void invalidateLocally(String key) {
+        com.google.common.cache.Cache<String, byte[]> cache = getCache(key);
+        if (cache != null) {
+            generations.incrementAndGet(stripe(key));
+            cache.invalidate(key);
+        }
+    }
+
+    private void publish(String key) {
+        if (jedisPool == null) {
+            return;
+        }
+        // Failing to publish should not fail the write; the TTL bounds staleness on other nodes.
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.publish(INVALIDATION_CHANNEL, nodeId + MESSAGE_SEPARATOR + key);
+        } catch (Exception e) {
+            LOG.warn("Could not publish near cache invalidation for key " + key, e);
+        }
+    }
+
+    private int stripe(String key) {
+        return Math.floorMod(key.hashCode(), GENERATION_STRIPES);
+    }
+
+    private com.google.common.cache.Cache<String, byte[]> getCache(String key) {
+        if (!enabled) {
+            return null;
+        }
+        return caches.get(key.substring(key.lastIndexOf(':') + 1));
+    }
+}
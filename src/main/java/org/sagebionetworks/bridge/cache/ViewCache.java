@@ -1,5 +1,15 @@
 package org.sagebionetworks.bridge.cache;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sagebionetworks.bridge.RequestContext;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -7,46 +17,111 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Supplier;
+import com.google.common.cache.CacheBuilder;
 
+/**
+ * Caches the JSON of views in Redis. Loading is single-flight on each node: when a view is
+ * missing, one caller builds it and other concurrent callers for the same key wait for that
+ * result, rather than all rebuilding it against the database at once.
+ *
+ * If a refresh-ahead period and an executor are configured, a view that this node loaded is
+ * rebuilt in the background once it is within that period of expiring, while callers continue to
+ * be served the cached copy. This node only knows the age of views it loaded itself; views cached
+ * by other nodes are rebuilt (single-flight) when they expire.
+ *
+ * Each key has a generation that {@link #removeView} increments. A load only caches its result if
+ * the generation is unchanged when it finishes, so a load that read the data before it changed
+ * cannot put the old view back after it is removed.
+ */
 public class ViewCache {
-    
+
     private static final Logger logger = LoggerFactory.getLogger(ViewCache.class);
     
+    static final int MAX_TRACKED_VIEWS = 10000;
+
+    private final ConcurrentMap<CacheKey, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final com.google.common.cache.Cache<CacheKey, Long> refreshAfter = CacheBuilder.newBuilder()
+            .maximumSize(MAX_TRACKED_VIEWS).build();
+    private final com.google.common.cache.Cache<CacheKey, AtomicLong> generations = CacheBuilder.newBuilder()
+            .maximumSize(MAX_TRACKED_VIEWS).build();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+
     private CacheProvider cache;
     private ObjectMapper objectMapper;
     private int cachePeriod;
-    
+    private int refreshAheadPeriod;
+    private ExecutorService refreshExecutor;
+
     public final void setCacheProvider(CacheProvider cacheProvider) {
         this.cache = cacheProvider;
     }
-    
+
     public final void setObjectMapper(ObjectMapper mapper) {
         this.objectMapper = mapper;
     }
-    
+
     public final void setCachePeriod(int cachePeriod) {
         this.cachePeriod = cachePeriod;
     }
-    
+
     /**
-     * Get the JSON for the viewCacheKey, or if nothing has been cached, call the supplier, 
+     * The number of seconds before a view expires that it will be rebuilt in the background.
+     * Zero (the default) disables refresh-ahead.
+     */
+    public final void setRefreshAheadPeriod(int refreshAheadPeriod) {
+        this.refreshAheadPeriod = refreshAheadPeriod;
+    }
+
+    public final void setRefreshExecutor(ExecutorService refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /** Number of requests served from the cache. */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** Number of requests that found no cached view and loaded it. */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** Number of requests that found no cached view and waited on another caller's load. */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /** Number of background refreshes started before a view expired. */
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    /**
+     * Get the JSON for the viewCacheKey, or if nothing has been cached, call the supplier,
      * cache the JSON representation of the object returned, and return that JSON.
      * @param key
      * @param supplier
      * @return
      */
     public <T> String getView(CacheKey key, Supplier<T> supplier) {
-        try {
-            String value = cache.getObject(key, String.class);
-            if (value == null) {
-                value = cacheView(key, supplier);
-            } else {
-                logger.debug("Retrieving "+key+"' JSON from cache");
-            }
+        String value = cache.getObject(key, String.class);
+        if (value != null) {
+            logger.debug("Retrieving "+key+"' JSON from cache");
+            hits.incrementAndGet();
+            refreshIfExpiring(key, supplier);
             return value;
-        } catch(JsonProcessingException e) {
-            throw new BridgeServiceException(e);
         }
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return await(existing);
+        }
+        misses.incrementAndGet();
+        return load(key, supplier, future);
     }
 
     /**
@@ -55,11 +130,18 @@ public class ViewCache {
      */
     public <T> void removeView(CacheKey key) {
         logger.debug("Deleting JSON for '"+key+"'");
-        cache.removeObject(key);
+        AtomicLong generation = getGeneration(key);
+        synchronized(generation) {
+            generation.incrementAndGet();
+            refreshAfter.invalidate(key);
+            // Callers after this point start a new load rather than waiting on one that may be stale
+            inFlight.remove(key);
+            cache.removeObject(key);
+        }
     }
-    
+
     /**
-     * Create a viewCacheKey for a particular type of entity, and the set of identifiers 
+     * Create a viewCacheKey for a particular type of entity, and the set of identifiers
      * that will identify that entity.
      * @param clazz
      * @param identifiers
@@ -68,12 +150,96 @@ public class ViewCache {
     public <T> CacheKey getCacheKey(Class<T> clazz, String... identifiers) {
         return CacheKey.viewKey(clazz, identifiers);
     }
-    
-    private <T> String cacheView(CacheKey key, Supplier<T> supplier) throws JsonProcessingException {
+
+    /**
+     * Build and cache the view, completing the future that concurrent callers are waiting on. The
+     * caller must have registered the future as the in-flight load for this key.
+     */
+    private <T> String load(CacheKey key, Supplier<T> supplier, CompletableFuture<String> future) {
+        try {
+            AtomicLong generation = getGeneration(key);
+            String value = cacheView(key, supplier, generation, generation.get());
+            future.complete(value);
+            return value;
+        } catch(JsonProcessingException e) {
+            BridgeServiceException bse = new BridgeServiceException(e);
+            future.completeExceptionally(bse);
+            throw bse;
+        } catch(RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private String await(CompletableFuture<String> future) {
+        try {
+            return future.join();
+        } catch(CompletionException e) {
+            // Callers see the same exception as the caller that loaded the view
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new BridgeServiceException(e.getCause());
+        }
+    }
+
+    private <T> void refreshIfExpiring(CacheKey key, Supplier<T> supplier) {
+        if (refreshAheadPeriod <= 0 || refreshExecutor == null) {
+            return;
+        }
+        Long refreshTime = refreshAfter.getIfPresent(key);
+        if (refreshTime == null || System.currentTimeMillis() < refreshTime) {
+            return;
+        }
+        CompletableFuture<String> future = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(key, future) != null) {
+            return;
+        }
+        refreshes.incrementAndGet();
+        RequestContext context = RequestContext.get();
+        try {
+            refreshExecutor.execute(() -> {
+                // The supplier may depend on the caller's request context
+                RequestContext.set(context);
+                try {
+                    load(key, supplier, future);
+                } catch(RuntimeException e) {
+                    // Stop refreshing ahead; the view will be rebuilt when it expires
+                    refreshAfter.invalidate(key);
+                    logger.warn("Background refresh of view '" + key + "' failed", e);
+                } finally {
+                    RequestContext.set(null);
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private <T> String cacheView(CacheKey key, Supplier<T> supplier, AtomicLong generation, long startGeneration)
+            throws JsonProcessingException {
         logger.debug("Caching JSON for "+key+"'");
         T object = supplier.get();
         String value = objectMapper.writeValueAsString(object);
-        cache.setObject(key, value, cachePeriod);
+        synchronized(generation) {
+            // If the generation entry was evicted, we can't tell whether the view was removed, so don't cache it.
+            if (generation.get() != startGeneration || generations.getIfPresent(key) != generation) {
+                logger.debug("View '" + key + "' was removed while loading; not caching it");
+                return value;
+            }
+            cache.setObject(key, value, cachePeriod);
+            refreshAfter.put(key, System.currentTimeMillis() + (cachePeriod - refreshAheadPeriod) * 1000L);
+        }
         return value;
     }
+    
+    private AtomicLong getGeneration(CacheKey key) {
+        try {
+            return generations.get(key, AtomicLong::new);
+        } catch(ExecutionException e) {
+            throw new BridgeServiceException(e.getCause());
+        }
+    }
 }
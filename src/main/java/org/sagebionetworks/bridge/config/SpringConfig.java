@@ -12,8 +12,13 @@ import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Resource;
 import javax.servlet.Filter;
@@ -53,6 +58,7 @@ import org.hibernate.service.spi.ServiceRegistryImplementor;
 import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataDocumentation;
 import org.sagebionetworks.bridge.dynamodb.DynamoParticipantFile;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.liquibase.LiquibaseDataSource;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
@@ -107,6 +113,7 @@ import org.sagebionetworks.bridge.file.FileHelper;
 import org.sagebionetworks.bridge.heartbeat.HeartbeatLogger;
 import org.sagebionetworks.bridge.hibernate.AccountPersistenceExceptionConverter;
 import org.sagebionetworks.bridge.hibernate.HibernateAccount;
+import org.sagebionetworks.bridge.hibernate.HibernateAccountSearchToken;
 import org.sagebionetworks.bridge.hibernate.HibernateAccountSecret;
 import org.sagebionetworks.bridge.hibernate.HibernateEnrollment;
 import org.sagebionetworks.bridge.hibernate.HibernateHelper;
@@ -151,6 +158,7 @@ import org.sagebionetworks.bridge.synapse.SynapseHelper;
 import org.sagebionetworks.bridge.upload.DecryptHandler;
 import org.sagebionetworks.bridge.upload.InitRecordHandler;
 import org.sagebionetworks.bridge.upload.S3DownloadHandler;
+import org.sagebionetworks.bridge.upload.StreamingUnzipHandler;
 import org.sagebionetworks.bridge.upload.StrictValidationHandler;
 import org.sagebionetworks.bridge.upload.TranscribeConsentHandler;
 import org.sagebionetworks.bridge.upload.UnzipHandler;
@@ -291,6 +299,26 @@ public class SpringConfig {
         return Executors.newFixedThreadPool(bridgeConfig.getPropertyAsInt("async.worker.thread.count"));
     }
 
+    /**
+     * Refresh-ahead loads for the view caches. The pool and its queue are small and bounded so that refreshes 
+     * cannot crowd out other asynchronous work; when full, the pool rejects the refresh and ViewCache drops it 
+     * (the view is then rebuilt by the first caller after it expires).
+     */
+    @Bean(name = "viewCacheRefreshExecutor")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService viewCacheRefreshExecutor(BridgeConfig bridgeConfig) {
+        int threadCount = bridgeConfig.getPropertyAsInt("view.cache.refresh.thread.count");
+        int queueSize = bridgeConfig.getPropertyAsInt("view.cache.refresh.queue.size");
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "view-cache-refresh-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
     @Bean(name = "supportEmail")
     @Resource(name = "bridgeConfig")
     public String supportEmail(BridgeConfig bridgeConfig) {
@@ -564,13 +592,19 @@ public class SpringConfig {
     @Bean(name = "uploadValidationHandlerList")
     @Autowired
     public List<UploadValidationHandler> uploadValidationHandlerList(S3DownloadHandler s3DownloadHandler,
-            DecryptHandler decryptHandler, UnzipHandler unzipHandler,
+            DecryptHandler decryptHandler, UnzipHandler unzipHandler, StreamingUnzipHandler streamingUnzipHandler,
             InitRecordHandler initRecordHandler, UploadFormatHandler uploadFormatHandler,
             StrictValidationHandler strictValidationHandler, TranscribeConsentHandler transcribeConsentHandler,
             UploadRawZipHandler uploadRawZipHandler, UploadArtifactsHandler uploadArtifactsHandler) {
-        return ImmutableList.of(s3DownloadHandler, decryptHandler, unzipHandler,
-                initRecordHandler, uploadFormatHandler, strictValidationHandler, transcribeConsentHandler,
-                uploadRawZipHandler, uploadArtifactsHandler);
+        ImmutableList.Builder<UploadValidationHandler> builder = ImmutableList.builder();
+        if (Boolean.parseBoolean(bridgeConfig().get("upload.validation.streaming"))) {
+            // Download, decrypt, and unzip in a single pass.
+            builder.add(streamingUnzipHandler);
+        } else {
+            builder.add(s3DownloadHandler, decryptHandler, unzipHandler);
+        }
+        return builder.add(initRecordHandler, uploadFormatHandler, strictValidationHandler,
+                transcribeConsentHandler, uploadRawZipHandler, uploadArtifactsHandler).build();
     }
 
     @Bean(name = "uploadSchemaDdbMapper")
@@ -646,6 +680,7 @@ public class SpringConfig {
         // For whatever reason, we need to list each Hibernate-enabled class individually.
         MetadataSources metadataSources = new MetadataSources(reg);
         metadataSources.addAnnotatedClass(HibernateAccount.class);
+        metadataSources.addAnnotatedClass(HibernateAccountSearchToken.class);
         metadataSources.addAnnotatedClass(HibernateStudy.class);
         metadataSources.addAnnotatedClass(HibernateUploadTableJob.class);
         metadataSources.addAnnotatedClass(HibernateUploadTableRow.class);
@@ -791,21 +826,27 @@ public class SpringConfig {
 
     @Bean(name = "genericViewCache")
     @Autowired
-    public ViewCache genericViewCache(CacheProvider cacheProvider) {
+    public ViewCache genericViewCache(CacheProvider cacheProvider, 
+            @Qualifier("viewCacheRefreshExecutor") ExecutorService executorService) {
         ViewCache cache = new ViewCache();
         cache.setCacheProvider(cacheProvider);
         cache.setObjectMapper(BridgeObjectMapper.get());
         cache.setCachePeriod(BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS);
+        cache.setRefreshAheadPeriod(BridgeConstants.BRIDGE_VIEW_REFRESH_AHEAD_IN_SECONDS);
+        cache.setRefreshExecutor(executorService);
         return cache;
     }
     
     @Bean(name = "appLinkViewCache")
     @Autowired
-    public ViewCache appLinkViewCache(CacheProvider cacheProvider) {
+    public ViewCache appLinkViewCache(CacheProvider cacheProvider, 
+            @Qualifier("viewCacheRefreshExecutor") ExecutorService executorService) {
         ViewCache cache = new ViewCache();
         cache.setCacheProvider(cacheProvider);
         cache.setObjectMapper(new ObjectMapper());
         cache.setCachePeriod(BridgeConstants.APP_LINKS_EXPIRE_IN_SECONDS);
+        cache.setRefreshAheadPeriod(BridgeConstants.APP_LINKS_REFRESH_AHEAD_IN_SECONDS);
+        cache.setRefreshExecutor(executorService);
         return cache;
     }
     
@@ -1,7 +1,9 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import org.sagebionetworks.bridge.models.AccountSummarySearch;
 import org.sagebionetworks.bridge.models.PagedResourceList;
@@ -44,6 +46,12 @@ public interface AccountDao {
      */
     Optional<Account> getAccount(AccountId accountId);
     
+    /**
+     * Get the accounts in an app with the given user IDs, with one query for the accounts (and one 
+     * query for each of their collections). IDs that do not match an account in the app are skipped.
+     */
+    List<Account> getAccountsById(String appId, Collection<String> userIds);
+    
     /**
      * Delete an account along with the authentication credentials.
      */
@@ -59,6 +67,14 @@ public interface AccountDao {
      */
     PagedResourceList<AccountSummary> getPagedAccountSummaries(String appId, AccountSummarySearch search);
     
+    /**
+     * Pass all the account summaries that match a search to the consumer, in order of account ID. Accounts 
+     * are retrieved in batches that seek past the last ID of the prior batch, so the cost of each batch is 
+     * the same regardless of how many accounts precede it, and only one batch is held in memory. The 
+     * paging parameters of the search are ignored.
+     */
+    void streamAccountSummaries(String appId, AccountSummarySearch search, Consumer<AccountSummary> consumer);
+    
     /**
      * Get a page of external IDs associated to the indicated study. These are really accounts, but 
      * older APIs continue to view these as paged external ID records.  
@@ -67,4 +83,12 @@ public interface AccountDao {
             Integer offsetBy, Integer pageSize);
     
     void deleteAllAccounts(String appId);
+    
+    /**
+     * Delete all the accounts enrolled in a study that have the given data group. Accounts are 
+     * selected and deleted in chunks with set-based statements; their collections, enrollments, and 
+     * other dependent records are removed by cascading deletes in the database. Returns the number 
+     * of accounts that were deleted.
+     */
+    int deleteAccountsInStudyWithDataGroup(String appId, String studyId, String dataGroup);
 }    
@@ -1,5 +1,8 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.List;
+import java.util.Set;
+
 import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.schedules2.adherence.AdherenceRecord;
 import org.sagebionetworks.bridge.models.schedules2.adherence.AdherenceRecordsSearch;
@@ -8,7 +11,20 @@ public interface AdherenceRecordDao {
     
     void updateAdherenceRecord(AdherenceRecord record);
     
+    /**
+     * Save, update, or delete a list of records in one transaction, with the same rules for each record
+     * as {@link #updateAdherenceRecord}.
+     */
+    void updateAdherenceRecords(List<AdherenceRecord> records);
+    
     PagedResourceList<AdherenceRecord> getAdherenceRecords(AdherenceRecordsSearch search);
+    
+    /**
+     * Get all the session adherence records (for all event timestamps) of a set of participants 
+     * in a study, ordered by user ID and then startedOn. Not paginated; callers should limit the 
+     * number of participants.
+     */
+    List<AdherenceRecord> getSessionAdherenceRecords(String studyId, Set<String> userIds);
 
     void deleteAdherenceRecordPermanently(AdherenceRecord record);
 
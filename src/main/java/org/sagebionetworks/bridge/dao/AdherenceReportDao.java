@@ -1,5 +1,7 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.List;
+
 import org.sagebionetworks.bridge.models.AdherenceReportSearch;
 import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.schedules2.adherence.AdherenceStatistics;
@@ -9,6 +11,12 @@ public interface AdherenceReportDao {
 
     void saveWeeklyAdherenceReport(WeeklyAdherenceReport report);
     
+    /**
+     * Save a set of reports (e.g. for a page of participants in a study) in one transaction, using
+     * JDBC batching.
+     */
+    void saveWeeklyAdherenceReports(List<WeeklyAdherenceReport> reports);
+    
     PagedResourceList<WeeklyAdherenceReport> getWeeklyAdherenceReports(String appId, String studyId,
             AdherenceReportSearch search);
     
@@ -1,5 +1,8 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.sagebionetworks.bridge.models.RequestInfo;
 
 public interface RequestInfoDao {
@@ -11,8 +14,20 @@ public interface RequestInfoDao {
      */    
     public void updateRequestInfo(RequestInfo requestInfo);
     
+    /**
+     * Update a batch of request info objects (at most one per user) in a single transaction, 
+     * augmenting existing data the same way as {@link #updateRequestInfo(RequestInfo)}.
+     */
+    public void updateRequestInfos(Collection<RequestInfo> requestInfos);
+    
     public RequestInfo getRequestInfo(String userId);
     
+    /**
+     * Get the request info objects for a set of users in one query. Users without a request info 
+     * record are omitted.
+     */
+    public List<RequestInfo> getRequestInfos(Collection<String> userIds);
+    
     public void removeRequestInfo(String userId);
     
 }
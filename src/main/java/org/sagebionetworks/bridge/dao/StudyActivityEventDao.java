@@ -1,6 +1,8 @@
 package org.sagebionetworks.bridge.dao;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.activities.StudyActivityEvent;
@@ -36,6 +38,13 @@ public interface StudyActivityEventDao {
      */
     List<StudyActivityEvent> getRecentStudyActivityEvents(String userId, String studyId);
     
+    /**
+     * Get the events that would be returned by {@link #getRecentStudyActivityEvents(String, String)} 
+     * for each of a set of participants, in one query. The map is keyed by user ID; participants 
+     * with no events are not in the map. 
+     */
+    Map<String, List<StudyActivityEvent>> getRecentStudyActivityEventsForUsers(Set<String> userIds, String studyId);
+    
     /**
      * Get all timestamps (in a paginated API) for a specific event ID. Note that 
      * for immutable events there should only ever be one timestamp. Returns an 
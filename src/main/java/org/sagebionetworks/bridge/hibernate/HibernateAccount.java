@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.hibernate;
 
 import static java.lang.Boolean.TRUE;
+import static org.sagebionetworks.bridge.BridgeConstants.API_MAXIMUM_PAGE_SIZE;
 import static org.sagebionetworks.bridge.BridgeUtils.collectExternalIds;
 import static org.sagebionetworks.bridge.models.accounts.AccountStatus.DISABLED;
 import static org.sagebionetworks.bridge.models.accounts.AccountStatus.ENABLED;
@@ -35,6 +36,7 @@ import javax.persistence.Table;
 import javax.persistence.Transient;
 import javax.persistence.Version;
 
+import org.hibernate.annotations.BatchSize;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
 import org.joda.time.DateTime;
@@ -118,7 +120,8 @@ public class HibernateAccount implements Account {
      * specifying a constructor.
      */
     public HibernateAccount(DateTime createdOn, String appId, String orgId, String firstName, String lastName,
-            String email, Phone phone, String id, AccountStatus status, String synapseUserId) {
+            String email, Phone phone, String id, AccountStatus status, String synapseUserId, String note,
+            String clientTimeZone) {
         this.createdOn = createdOn;
         this.appId = appId;
         this.orgMembership = orgId;
@@ -129,6 +132,8 @@ public class HibernateAccount implements Account {
         this.id = id;
         this.status = status;
         this.synapseUserId = synapseUserId;
+        this.note = note;
+        this.clientTimeZone = clientTimeZone;
     }
 
     /**
@@ -232,6 +237,7 @@ public class HibernateAccount implements Account {
             referencedColumnName = "id"))
     @Column(name = "attributeValue")
     @ElementCollection(fetch = FetchType.EAGER)
+    @BatchSize(size = API_MAXIMUM_PAGE_SIZE)
     @MapKeyColumn(name = "attributeKey")
     public Map<String, String> getAttributes() {
         if (attributes == null) {
@@ -250,6 +256,7 @@ public class HibernateAccount implements Account {
     @CollectionTable(name = "AccountConsents", joinColumns = @JoinColumn(name = "accountId",
             referencedColumnName = "id"))
     @ElementCollection(fetch = FetchType.EAGER)
+    @BatchSize(size = API_MAXIMUM_PAGE_SIZE)
     @MapKeyClass(HibernateAccountConsentKey.class)
     @JsonIgnore
     public Map<HibernateAccountConsentKey, HibernateAccountConsent> getConsents() {
@@ -366,6 +373,7 @@ public class HibernateAccount implements Account {
     @CollectionTable(name = "AccountRoles", joinColumns = @JoinColumn(name = "accountId", referencedColumnName = "id"))
     @Column(name = "role")
     @ElementCollection(fetch = FetchType.EAGER)
+    @BatchSize(size = API_MAXIMUM_PAGE_SIZE)
     @Enumerated(EnumType.STRING)
     public Set<Roles> getRoles() {
         if (roles == null) {
@@ -471,6 +479,7 @@ public class HibernateAccount implements Account {
     @CollectionTable(name = "AccountDataGroups", joinColumns = @JoinColumn(name = "accountId", referencedColumnName = "id"))
     @Column(name = "dataGroup")
     @ElementCollection(fetch = FetchType.EAGER)
+    @BatchSize(size = API_MAXIMUM_PAGE_SIZE)
     public Set<String> getDataGroups() {
         if (dataGroups == null) {
             dataGroups = new HashSet<>();
@@ -489,6 +498,7 @@ public class HibernateAccount implements Account {
     @Column(name = "language")
     @OrderColumn(name="order_index", insertable=true, updatable=true)
     @ElementCollection(fetch = FetchType.EAGER)
+    @BatchSize(size = API_MAXIMUM_PAGE_SIZE)
     public List<String> getLanguages() {
         if (languages == null) {
             languages = new ArrayList<>();
@@ -524,6 +534,7 @@ public class HibernateAccount implements Account {
     
     @OneToMany(mappedBy = "accountId", cascade = CascadeType.ALL, orphanRemoval = true, 
         fetch = FetchType.EAGER, targetEntity=HibernateEnrollment.class)
+    @BatchSize(size = API_MAXIMUM_PAGE_SIZE)
     @OnDelete(action=OnDeleteAction.CASCADE)
     @JsonIgnore
     @Override
@@ -15,6 +15,7 @@ import static org.sagebionetworks.bridge.models.ResourceList.END_TIME;
 import static org.sagebionetworks.bridge.models.ResourceList.ENROLLED_IN_STUDY_ID;
 import static org.sagebionetworks.bridge.models.ResourceList.ENROLLMENT;
 import static org.sagebionetworks.bridge.models.ResourceList.EXTERNAL_ID_FILTER;
+import static org.sagebionetworks.bridge.models.ResourceList.INCLUDE_TOTAL;
 import static org.sagebionetworks.bridge.models.ResourceList.IN_USE;
 import static org.sagebionetworks.bridge.models.ResourceList.LANGUAGE;
 import static org.sagebionetworks.bridge.models.ResourceList.NONE_OF_GROUPS;
@@ -27,35 +28,52 @@ import static org.sagebionetworks.bridge.models.ResourceList.START_TIME;
 import static org.sagebionetworks.bridge.models.ResourceList.STATUS;
 import static org.sagebionetworks.bridge.models.ResourceList.STRING_SEARCH_POSITION;
 import static org.sagebionetworks.bridge.models.SearchTermPredicate.AND;
+import static org.sagebionetworks.bridge.models.StringSearchPosition.INFIX;
+import static org.sagebionetworks.bridge.models.StringSearchPosition.POSTFIX;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import javax.annotation.Resource;
 
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.Session;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.BridgeUtils.StudyAssociations;
 import org.sagebionetworks.bridge.RequestContext;
+import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.dao.AccountDao;
 import org.sagebionetworks.bridge.hibernate.QueryBuilder.WhereClauseBuilder;
 import org.sagebionetworks.bridge.time.DateUtils;
 import org.sagebionetworks.bridge.models.AccountSummarySearch;
 import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.SearchTermPredicate;
+import org.sagebionetworks.bridge.models.StringSearchPosition;
 import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.AccountId;
 import org.sagebionetworks.bridge.models.accounts.AccountSummary;
 import org.sagebionetworks.bridge.models.accounts.ExternalIdentifierInfo;
+import org.sagebionetworks.bridge.models.studies.Enrollment;
 
 /** Hibernate implementation of Account Dao. */
 @Component
@@ -64,10 +82,48 @@ public class HibernateAccountDao implements AccountDao {
 
     static final String ID_QUERY = "SELECT acct.id FROM HibernateAccount AS acct";
     static final String FULL_QUERY = "SELECT acct FROM HibernateAccount AS acct";
+    static final String ACCOUNTS_BY_ID_QUERY = "SELECT acct FROM HibernateAccount AS acct "
+            + "WHERE acct.appId = :appId AND acct.id IN (:ids)";
     static final String COUNT_QUERY = "SELECT COUNT(DISTINCT acct.id) FROM HibernateAccount AS acct";
     static final String DELETE_ALL_ACCOUNTS_QUERY = "DELETE FROM Accounts WHERE studyId = :appId";
+    static final String SUMMARY_QUERY = "SELECT new org.sagebionetworks.bridge.hibernate.HibernateAccount("
+            + "acct.createdOn, acct.appId, acct.orgMembership, acct.firstName, acct.lastName, acct.email, "
+            + "acct.phone, acct.id, acct.status, acct.synapseUserId, acct.note, acct.clientTimeZone) "
+            + "FROM HibernateAccount AS acct WHERE acct.id IN (:ids)";
+    static final String SUMMARY_ATTRIBUTES_QUERY = "SELECT acct.id, KEY(attr), VALUE(attr) "
+            + "FROM HibernateAccount AS acct JOIN acct.attributes AS attr WHERE acct.id IN (:ids)";
+    static final String SUMMARY_ROLES_QUERY = "SELECT acct.id, role "
+            + "FROM HibernateAccount AS acct JOIN acct.roles AS role WHERE acct.id IN (:ids)";
+    static final String SUMMARY_DATA_GROUPS_QUERY = "SELECT acct.id, dataGroup "
+            + "FROM HibernateAccount AS acct JOIN acct.dataGroups AS dataGroup WHERE acct.id IN (:ids)";
+    static final String SUMMARY_ENROLLMENTS_QUERY = "SELECT en FROM HibernateEnrollment AS en "
+            + "WHERE en.accountId IN (:ids)";
     static final String APP_IDS_FOR_USER_QUERY = "SELECT DISTINCT acct.appId FROM HibernateAccount AS acct WHERE synapseUserId = :synapseUserId";
     
+    static final int STREAM_BATCH_SIZE = 500;
+    static final int DELETE_BATCH_SIZE = 500;
+    static final String IDS_IN_STUDY_WITH_DATA_GROUP_QUERY = "SELECT acct.id FROM HibernateAccount AS acct "
+            + "JOIN acct.enrollments AS enrollment WHERE acct.appId = :appId AND enrollment.studyId = :studyId "
+            + "AND :dataGroup IN ELEMENTS(acct.dataGroups)";
+    static final String DELETE_ACCOUNTS_QUERY = "DELETE FROM Accounts WHERE id IN (:ids)";
+    
+    static final String EMAIL_FIELD = "email";
+    static final String EXTERNAL_ID_FIELD = "externalId";
+    static final String ATTRIBUTE_FIELD_PREFIX = "attribute:";
+    static final int TOKEN_LENGTH = 3;
+    // Stands in for the trigrams of a value that is not entirely printable ASCII. It is a single non-ASCII 
+    // character, so it can never equal a trigram.
+    static final String NON_ASCII_TOKEN = "\u2026";
+    static final String SEARCH_TOKENS_QUERY = "FROM HibernateAccountSearchToken WHERE accountId = :accountId";
+    // Matches accounts that have every trigram of the search string in the given field, or that have a value in 
+    // that field which could not be tokenized. Parameter names are prefixed with the key of the LIKE expression 
+    // this filter accompanies.
+    static final String TOKEN_FILTER = "acct.id IN (SELECT tok.accountId FROM HibernateAccountSearchToken AS tok "
+            + "WHERE tok.appId = :appId AND tok.field = :%1$sField "
+            + "AND (tok.token IN (:%1$sTokens) OR tok.token = :nonAsciiToken) GROUP BY tok.accountId "
+            + "HAVING COUNT(DISTINCT tok.token) = :%1$sTokenCount "
+            + "OR SUM(CASE WHEN tok.token = :nonAsciiToken THEN 1 ELSE 0 END) > 0)";
+    
     static final String EXTID_BASE_QUERY = "from HibernateEnrollment as en "
             + "WHERE en.appId = :appId AND en.studyId = :studyId "
             + "AND en.externalId IS NOT NULL";
@@ -100,13 +156,102 @@ public class HibernateAccountDao implements AccountDao {
     /** {@inheritDoc} */
     @Override
     public void createAccount(Account account) {
-        hibernateHelper.create(account);
+        hibernateHelper.create(account, session -> updateSearchTokens(session, account));
     }
 
     /** {@inheritDoc} */
     @Override
     public void updateAccount(Account account) {
-        hibernateHelper.update(account);
+        hibernateHelper.update(account, session -> updateSearchTokens(session, account));
+    }
+    
+    /**
+     * Brings the search tokens of the account in line with its current email, external IDs and attributes. Only
+     * tokens that have been added or removed are written, so most updates only read the account's tokens. This 
+     * runs in the same transaction as the write of the account, so if the tokens cannot be written, neither is 
+     * the account, and searches never miss an account because its tokens are stale.
+     */
+    void updateSearchTokens(Session session, Account account) {
+        Set<HibernateAccountSearchToken> tokens = accountSearchTokens(account);
+        Set<HibernateAccountSearchToken> existing = new HashSet<>(session
+                .createQuery(SEARCH_TOKENS_QUERY, HibernateAccountSearchToken.class)
+                .setParameter("accountId", account.getId()).list());
+        for (HibernateAccountSearchToken token : existing) {
+            if (!tokens.contains(token)) {
+                session.delete(token);
+            }
+        }
+        for (HibernateAccountSearchToken token : tokens) {
+            if (!existing.contains(token)) {
+                session.save(token);
+            }
+        }
+    }
+    
+    static Set<HibernateAccountSearchToken> accountSearchTokens(Account account) {
+        Set<HibernateAccountSearchToken> tokens = new HashSet<>();
+        addSearchTokens(tokens, account, EMAIL_FIELD, account.getEmail());
+        if (account.getEnrollments() != null) {
+            for (Enrollment enrollment : account.getEnrollments()) {
+                addSearchTokens(tokens, account, EXTERNAL_ID_FIELD, enrollment.getExternalId());
+            }
+        }
+        if (account.getAttributes() != null) {
+            for (Map.Entry<String, String> entry : account.getAttributes().entrySet()) {
+                addSearchTokens(tokens, account, ATTRIBUTE_FIELD_PREFIX + entry.getKey(), entry.getValue());
+            }
+        }
+        return tokens;
+    }
+    
+    /**
+     * Values that are entirely printable ASCII are indexed by their trigrams. Other values get the NON_ASCII_TOKEN 
+     * instead, so they are always candidates for an infix search. The columns being searched use a case- and 
+     * accent-insensitive collation (where "cafe" matches "café", and "ss" matches "ß"), and rather than 
+     * reproduce that collation here, these values are left for the LIKE expression to match.
+     */
+    private static void addSearchTokens(Set<HibernateAccountSearchToken> tokens, Account account, String field,
+            String value) {
+        if (value == null) {
+            return;
+        }
+        Set<String> trigrams = isPrintableAscii(value) ? trigrams(value) : ImmutableSet.of(NON_ASCII_TOKEN);
+        for (String token : trigrams) {
+            tokens.add(new HibernateAccountSearchToken(account.getAppId(), field, token, account.getId()));
+        }
+    }
+    
+    /**
+     * The lower-cased three character substrings of the value. For printable ASCII, this is the same case folding 
+     * as the collation of the searched columns, and as LOWER() in the migration that created the tokens.
+     */
+    static Set<String> trigrams(String value) {
+        Set<String> trigrams = new TreeSet<>();
+        String lowerCased = value.toLowerCase(Locale.ROOT);
+        for (int i=0; i <= lowerCased.length() - TOKEN_LENGTH; i++) {
+            trigrams.add(lowerCased.substring(i, i + TOKEN_LENGTH));
+        }
+        return trigrams;
+    }
+    
+    /**
+     * The trigrams that any value matching this search string must contain. The string is split on LIKE wildcard
+     * and escape characters so that only literal runs of characters contribute tokens. A search string that is not 
+     * entirely printable ASCII produces no trigrams, since under the collation it can match values that do not 
+     * contain its trigrams.
+     */
+    static Set<String> searchTrigrams(String searchString) {
+        Set<String> trigrams = new TreeSet<>();
+        if (isPrintableAscii(searchString)) {
+            for (String segment : searchString.split("[%_\\\\]")) {
+                trigrams.addAll(trigrams(segment));
+            }
+        }
+        return trigrams;
+    }
+    
+    static boolean isPrintableAscii(String value) {
+        return value.chars().allMatch(ch -> ch >= ' ' && ch <= '~');
     }
     
     /** {@inheritDoc} */
@@ -141,7 +286,36 @@ public class HibernateAccountDao implements AccountDao {
         return Optional.of(account);
     }
     
+    /** {@inheritDoc} */
+    @Override
+    public List<Account> getAccountsById(String appId, Collection<String> userIds) {
+        checkNotNull(appId);
+        checkNotNull(userIds);
+        if (userIds.isEmpty()) {
+            return ImmutableList.of();
+        }
+        List<HibernateAccount> accountList = hibernateHelper.queryGet(ACCOUNTS_BY_ID_QUERY,
+                ImmutableMap.of("appId", appId, "ids", userIds), null, null, HibernateAccount.class);
+        List<Account> accounts = new ArrayList<>();
+        for (HibernateAccount account : accountList) {
+            if (validateHealthCode(account)) {
+                Account updated = hibernateHelper.update(account);
+                account.setVersion(updated.getVersion());
+            }
+            accounts.add(account);
+        }
+        return accounts;
+    }
+    
     QueryBuilder makeQuery(String prefix, String appId, AccountId accountId, AccountSummarySearch search, boolean isCount) {
+        return makeQuery(prefix, appId, accountId, search, isCount, null);
+    }
+    
+    /**
+     * If afterId is provided, the query returns accounts with IDs after that value, in order of ID.
+     */
+    QueryBuilder makeQuery(String prefix, String appId, AccountId accountId, AccountSummarySearch search,
+            boolean isCount, String afterId) {
         RequestContext context = RequestContext.get();
         Set<String> callerStudies = context.getOrgSponsoredStudies();
         
@@ -173,17 +347,21 @@ public class HibernateAccountDao implements AccountDao {
             }
         }
         if (search != null) {
-            where.like(search.getStringSearchPosition(), "acct.email LIKE :email", "email", search.getEmailFilter());
+            textSearch(where, search.getStringSearchPosition(), EMAIL_FIELD, "acct.email LIKE :email", "email",
+                    search.getEmailFilter());
             where.phone(search.getStringSearchPosition(), search.getPhoneFilter());
             where.append("acct.createdOn >= :startTime", "startTime", search.getStartTime());
             where.append("acct.createdOn <= :endTime", "endTime", search.getEndTime());
             where.append(":language IN ELEMENTS(acct.languages)", "language", search.getLanguage());
-            where.like(search.getStringSearchPosition(), "enrollment.externalId LIKE :extId", "extId", search.getExternalIdFilter());
+            textSearch(where, search.getStringSearchPosition(), EXTERNAL_ID_FIELD, 
+                    "enrollment.externalId LIKE :extId", "extId", search.getExternalIdFilter());
             where.append("acct.status = :status", "status", search.getStatus());
             where.appendBoolean("admin", search.isAdminOnly());
             where.dataGroups(search.getAllOfGroups(), "IN");
             where.dataGroups(search.getNoneOfGroups(), "NOT IN");
-            where.like(search.getStringSearchPosition(), "acct.attributes['"+search.getAttributeKey()+"'] LIKE :attValue", "attValue", search.getAttributeValueFilter());
+            textSearch(where, search.getStringSearchPosition(), ATTRIBUTE_FIELD_PREFIX + search.getAttributeKey(),
+                    "acct.attributes['"+search.getAttributeKey()+"'] LIKE :attValue", "attValue", 
+                    search.getAttributeValueFilter());
             
             // Perhaps confusing with the below enrollment code, this is a filter based on enrolled/withdrawn state.
             where.enrollment(search.getEnrollment(), true);
@@ -208,12 +386,40 @@ public class HibernateAccountDao implements AccountDao {
                 }
             }
         }
+        if (afterId != null) {
+            where.appendRequired("acct.id > :afterId", "afterId", afterId);
+        }
         if (!isCount) {
             builder.append("GROUP BY acct.id");
         }
+        if (afterId != null) {
+            builder.append("ORDER BY acct.id");
+        }
         return builder;
     }
 
+    /**
+     * A LIKE expression with a leading wildcard cannot use an index, so for infix and postfix searches, candidate 
+     * accounts are first selected through the account search tokens. The LIKE expression is still applied to those
+     * candidates, so results are unchanged. Search strings that produce no trigram (because they are too short, or 
+     * are not printable ASCII) use the LIKE alone.
+     */
+    void textSearch(WhereClauseBuilder where, StringSearchPosition pos, String field, String phrase, String key,
+            String value) {
+        if (StringUtils.isBlank(value)) {
+            return;
+        }
+        Set<String> tokens = (pos == INFIX || pos == POSTFIX) ? searchTrigrams(value) : ImmutableSet.of();
+        if (tokens.isEmpty()) {
+            where.like(pos, phrase, key, value);
+        } else {
+            String tokenFilter = String.format(TOKEN_FILTER, key);
+            where.like(pos, "(" + tokenFilter + " AND " + phrase + ")", key, value);
+            where.appendParameters(ImmutableMap.of(key + "Field", field, key + "Tokens", tokens, 
+                    key + "TokenCount", (long)tokens.size(), "nonAsciiToken", NON_ASCII_TOKEN));
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public void deleteAccount(String userId) {
@@ -223,27 +429,27 @@ public class HibernateAccountDao implements AccountDao {
     /** {@inheritDoc} */
     @Override
     public PagedResourceList<AccountSummary> getPagedAccountSummaries(String appId, AccountSummarySearch search) {
-        // Getting the IDs and loading the records individually leads to N+1 queries (one id query and a 
-        // query for each object), whereas querying for a constructor of a subset of columns leads to 
-        // (N*Y)+1 queries as we must load each collection individually... Y=1 in the prior code to load
-        // studies, and Y=2 once we add attributes. On the downside, this approach loads all 
-        // HibernateAccount fields, like clientData, though it is not returned.
+        // Loading each account by ID leads to N+1 queries, and then each account's eager collections are 
+        // loaded with further queries. Instead, we get the page of IDs, then load the summary columns and 
+        // each collection needed for the summaries with one query apiece for the whole page.
         QueryBuilder builder = makeQuery(ID_QUERY, appId, null, search, false);
         
         List<String> ids = hibernateHelper.queryGet(builder.getQuery(), builder.getParameters(),
                 search.getOffsetBy(), search.getPageSize(), String.class);
         
-        List<AccountSummary>accountSummaryList = ids.stream()
-                .map(id -> hibernateHelper.getById(HibernateAccount.class, id))
+        List<AccountSummary> accountSummaryList = loadAccountsForSummaries(ids).stream()
                 .map(this::unmarshallAccountSummary)
                 .collect(Collectors.toList());
 
-        // Get count of accounts.
-        builder = makeQuery(COUNT_QUERY, appId, null, search, true);
-        int count = hibernateHelper.queryCount(builder.getQuery(), builder.getParameters());
+        // Get count of accounts, if requested. Otherwise the total is left null.
+        Integer count = null;
+        if (Boolean.TRUE.equals(search.getIncludeTotal())) {
+            builder = makeQuery(COUNT_QUERY, appId, null, search, true);
+            count = hibernateHelper.queryCount(builder.getQuery(), builder.getParameters());
+        }
         
         // Package results and return.
-        return new PagedResourceList<>(accountSummaryList, count)
+        return new PagedResourceList<>(accountSummaryList, count, false)
                 .withRequestParam(ADMIN_ONLY, search.isAdminOnly())
                 .withRequestParam(ALL_OF_GROUPS, search.getAllOfGroups())
                 .withRequestParam(EMAIL_FILTER, search.getEmailFilter())
@@ -263,7 +469,60 @@ public class HibernateAccountDao implements AccountDao {
                 .withRequestParam(ATTRIBUTE_KEY, search.getAttributeKey())
                 .withRequestParam(ATTRIBUTE_VALUE_FILTER, search.getAttributeValueFilter())
                 .withRequestParam(ENROLLED_IN_STUDY_ID, search.getEnrolledInStudyId())
-                .withRequestParam(IN_USE, search.isInUse());
+                .withRequestParam(IN_USE, search.isInUse())
+                .withRequestParam(INCLUDE_TOTAL, search.getIncludeTotal());
+    }
+    
+    @Override
+    public void streamAccountSummaries(String appId, AccountSummarySearch search, Consumer<AccountSummary> consumer) {
+        checkNotNull(appId);
+        checkNotNull(search);
+        checkNotNull(consumer);
+        
+        // Every ID sorts after the empty string
+        String afterId = "";
+        List<String> ids;
+        do {
+            QueryBuilder builder = makeQuery(ID_QUERY, appId, null, search, false, afterId);
+            ids = hibernateHelper.queryGet(builder.getQuery(), builder.getParameters(), null, STREAM_BATCH_SIZE,
+                    String.class);
+            for (HibernateAccount account : loadAccountsForSummaries(ids)) {
+                consumer.accept(unmarshallAccountSummary(account));
+            }
+            afterId = Iterables.getLast(ids, null);
+        } while (ids.size() == STREAM_BATCH_SIZE);
+    }
+    
+    /**
+     * Load partial accounts with the fields and collections needed to create account summaries, 
+     * returned in the order of the IDs.
+     */
+    List<HibernateAccount> loadAccountsForSummaries(List<String> ids) {
+        if (ids.isEmpty()) {
+            return ImmutableList.of();
+        }
+        Map<String, Object> params = ImmutableMap.of("ids", ids);
+        
+        Map<String, HibernateAccount> accounts = new HashMap<>();
+        for (HibernateAccount account : hibernateHelper.queryGet(SUMMARY_QUERY, params, null, null, 
+                HibernateAccount.class)) {
+            accounts.put(account.getId(), account);
+        }
+        for (Object[] row : hibernateHelper.queryGet(SUMMARY_ATTRIBUTES_QUERY, params, null, null, Object[].class)) {
+            accounts.get((String)row[0]).getAttributes().put((String)row[1], (String)row[2]);
+        }
+        for (Object[] row : hibernateHelper.queryGet(SUMMARY_ROLES_QUERY, params, null, null, Object[].class)) {
+            accounts.get((String)row[0]).getRoles().add((Roles)row[1]);
+        }
+        for (Object[] row : hibernateHelper.queryGet(SUMMARY_DATA_GROUPS_QUERY, params, null, null, Object[].class)) {
+            accounts.get((String)row[0]).getDataGroups().add((String)row[1]);
+        }
+        for (HibernateEnrollment enrollment : hibernateHelper.queryGet(SUMMARY_ENROLLMENTS_QUERY, params, null, 
+                null, HibernateEnrollment.class)) {
+            accounts.get(enrollment.getAccountId()).getEnrollments().add(enrollment);
+        }
+        // An account deleted between the ID query and these queries is dropped from the page
+        return ids.stream().map(accounts::get).filter(account -> account != null).collect(Collectors.toList());
     }
     
     // Callers of AccountDao assume that an Account will always a health code and health ID. All accounts created
@@ -347,4 +606,35 @@ public class HibernateAccountDao implements AccountDao {
         
         hibernateHelper.nativeQueryUpdate(builder.getQuery(), builder.getParameters());
     }
+    
+    @Override
+    public int deleteAccountsInStudyWithDataGroup(String appId, String studyId, String dataGroup) {
+        checkNotNull(appId);
+        checkNotNull(studyId);
+        checkNotNull(dataGroup);
+        
+        Map<String, Object> params = ImmutableMap.of("appId", appId, "studyId", studyId, "dataGroup", dataGroup);
+        
+        // Deleted accounts no longer match the query, so each chunk is the first page of what remains.
+        int total = 0;
+        List<String> ids;
+        do {
+            ids = hibernateHelper.queryGet(IDS_IN_STUDY_WITH_DATA_GROUP_QUERY, params, null, DELETE_BATCH_SIZE,
+                    String.class);
+            if (ids.isEmpty()) {
+                break;
+            }
+            int deleted = hibernateHelper.nativeQueryUpdate(DELETE_ACCOUNTS_QUERY, ImmutableMap.of("ids", ids));
+            total += deleted;
+            LOG.info("Deleted " + total + " accounts with data group " + dataGroup + " in app " + appId
+                    + ", study " + studyId);
+            // Guard against looping on accounts that can't be deleted
+            if (deleted == 0) {
+                LOG.warn("Could not delete " + ids.size() + " accounts with data group " + dataGroup + " in app "
+                        + appId + ", study " + studyId);
+                break;
+            }
+        } while (ids.size() == DELETE_BATCH_SIZE);
+        return total;
+    }
 }
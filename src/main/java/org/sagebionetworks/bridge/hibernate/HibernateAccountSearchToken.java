@@ -0,0 +1,99 @@
+package org.sagebionetworks.bridge.hibernate;
+
+import java.util.Objects;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+
+/**
+ * A trigram of a searchable account value (email address, external ID, or the value of an attribute). A search for 
+ * a substring of one of these values can find candidate accounts through the index on this table, rather than 
+ * evaluating a leading-wildcard LIKE expression against every account in the app. Rows are maintained by 
+ * HibernateAccountDao when an account is created or updated, and are deleted with the account.
+ */
+@Entity
+@IdClass(HibernateAccountSearchTokenId.class)
+@Table(name = "AccountSearchTokens")
+public class HibernateAccountSearchToken {
+    @Id
+    private String appId;
+    @Id
+    private String field;
+    @Id
+    private String token;
+    @Id
+    private String accountId;
+    
+    public HibernateAccountSearchToken() {
+    }
+    
+    public HibernateAccountSearchToken(String appId, String field, String token, String accountId) {
+        this.appId = appId;
+        this.field = field;
+        this.token = token;
+        this.accountId = accountId;
+    }
+
+    public String getAppId() {
+        return appId;
+    }
+
+    public void setAppId(String appId) {
+        this.appId = appId;
+    }
+
+    /** The account value the token was taken from: "email", "externalId", or "attribute:" plus the attribute key. */
+    public String getField() {
+        return field;
+    }
+
+    public void setField(String field) {
+        this.field = field;
+    }
+
+    /** 
+     * A lower-cased, three-character substring of the field's value, or HibernateAccountDao.NON_ASCII_TOKEN if the 
+     * value is not entirely printable ASCII. 
+     */
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(String accountId) {
+        this.accountId = accountId;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(appId, field, token, accountId);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        HibernateAccountSearchToken other = (HibernateAccountSearchToken) obj;
+        return Objects.equals(appId, other.appId) && Objects.equals(field, other.field)
+                && Objects.equals(token, other.token) && Objects.equals(accountId, other.accountId);
+    }
+    
+    @Override
+    public String toString() {
+        return "HibernateAccountSearchToken [appId=" + appId + ", field=" + field + ", token=" + token
+                + ", accountId=" + accountId + "]";
+    }
+}
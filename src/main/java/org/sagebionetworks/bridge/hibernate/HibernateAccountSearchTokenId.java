@@ -0,0 +1,76 @@
+package org.sagebionetworks.bridge.hibernate;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Represents the composite key for HibernateAccountSearchToken, which is appId, field, token, and accountId. Default 
+ * constructor and setters are required by Hibernate.
+ */
+@SuppressWarnings("serial")
+public class HibernateAccountSearchTokenId implements Serializable {
+    private String appId;
+    private String field;
+    private String token;
+    private String accountId;
+
+    public HibernateAccountSearchTokenId() {
+    }
+
+    public HibernateAccountSearchTokenId(String appId, String field, String token, String accountId) {
+        this.appId = appId;
+        this.field = field;
+        this.token = token;
+        this.accountId = accountId;
+    }
+
+    public String getAppId() {
+        return appId;
+    }
+
+    public void setAppId(String appId) {
+        this.appId = appId;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public void setField(String field) {
+        this.field = field;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(String accountId) {
+        this.accountId = accountId;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(appId, field, token, accountId);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        HibernateAccountSearchTokenId other = (HibernateAccountSearchTokenId) obj;
+        return Objects.equals(appId, other.appId) && Objects.equals(field, other.field)
+                && Objects.equals(token, other.token) && Objects.equals(accountId, other.accountId);
+    }
+}
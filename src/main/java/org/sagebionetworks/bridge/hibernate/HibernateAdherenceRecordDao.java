@@ -2,13 +2,26 @@ package org.sagebionetworks.bridge.hibernate;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.lang.Boolean.FALSE;
+import static java.lang.Boolean.TRUE;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toSet;
 import static org.sagebionetworks.bridge.models.SearchTermPredicate.AND;
+import static org.sagebionetworks.bridge.models.schedules2.adherence.SortOrder.ASC;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Resource;
 
+import org.hibernate.Session;
+
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import org.joda.time.DateTime;
 import org.springframework.stereotype.Component;
 
@@ -20,6 +33,7 @@ import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.schedules2.adherence.AdherenceRecord;
 import org.sagebionetworks.bridge.models.schedules2.adherence.AdherenceRecordId;
 import org.sagebionetworks.bridge.models.schedules2.adherence.AdherenceRecordsSearch;
+import org.sagebionetworks.bridge.models.schedules2.adherence.SortOrder;
 
 @Component
 public class HibernateAdherenceRecordDao implements AdherenceRecordDao {
@@ -36,6 +50,17 @@ public class HibernateAdherenceRecordDao implements AdherenceRecordDao {
             "AND ar.eventTimestamp = au.eventTimestamp AND ar.instanceTimestamp = au.instanceTimestamp)";
     static final String WHERE_HAS_MULTIPLE_UPLOAD_IDS = UPLOAD_ID_SUBQUERY + " > 1";
     static final String WHERE_HAS_NO_UPLOAD_IDS = UPLOAD_ID_SUBQUERY + " = 0";
+    static final String SESSION_RECORDS_FOR_USERS_QUERY = "SELECT * " + BASE_QUERY 
+            + " WHERE ar.studyId = :studyId AND ar.userId IN (:userIds) AND tm.assessmentGuid IS NULL"
+            + " ORDER BY ar.userId, ar.startedOn ASC";
+    static final String RECORDS_FOR_UPDATE_QUERY = "SELECT DISTINCT ar FROM AdherenceRecord AS ar "
+            + "LEFT JOIN FETCH ar.uploadIds WHERE ar.userId = :userId AND ar.studyId = :studyId "
+            + "AND ar.instanceGuid IN (:instanceGuids)";
+    static final String INVALID_OFFSET_KEY_ERROR = "Invalid offsetKey: ";
+    // The primary key (studyId is always part of the search) breaks ties between records with 
+    // the same startedOn value, so every record has a unique position to page from.
+    static final String KEY_COLUMNS = "(ar.userId, ar.instanceGuid, ar.eventTimestamp, ar.instanceTimestamp)";
+    static final String KEY_PARAMS = "(:keyUserId, :keyInstanceGuid, :keyEventTimestamp, :keyInstanceTimestamp)";
 
     private HibernateHelper hibernateHelper;
 
@@ -70,56 +95,167 @@ public class HibernateAdherenceRecordDao implements AdherenceRecordDao {
                 hibernateHelper.deleteById(AdherenceRecord.class, id);
                 return;
             }
+            mergePreviousRecord(previousRecord, record);
+        }
+    
+        if (!deleteRecord) {
+            hibernateHelper.saveOrUpdate(record);
+        }
+    }
+    
+    /**
+     * Saves, updates, or deletes a set of records with the same rules as {@link #updateAdherenceRecord}, 
+     * in one transaction. The existing records are read with one query per participant, and the writes 
+     * are sent to the database as JDBC batches when the session is flushed. If the list contains more 
+     * than one record with the same key, they are applied in order.
+     */
+    @Override
+    public void updateAdherenceRecords(List<AdherenceRecord> records) {
+        checkNotNull(records);
+        
+        if (records.isEmpty()) {
+            return;
+        }
+        hibernateHelper.executeWithExceptionHandling(null, session -> {
+            session.setJdbcBatchSize(records.size());
             
-            // Persisted record keeps the earliest uploadedOn date.
-            DateTime previousUploadedOn = previousRecord.getUploadedOn();
-            if (previousUploadedOn != null && previousUploadedOn.isBefore(record.getUploadedOn())) {
-                record.setUploadedOn(previousUploadedOn);
+            Map<List<Object>, AdherenceRecord> previousRecords = getPreviousRecords(session, records);
+            for (AdherenceRecord record : records) {
+                boolean deleteRecord = record.getStartedOn() == null && !record.isDeclined();
+                
+                List<Object> key = recordKey(record);
+                AdherenceRecord previousRecord = previousRecords.get(key);
+                if (previousRecord != null) {
+                    if (deleteRecord) {
+                        session.delete(previousRecord);
+                        previousRecords.remove(key);
+                        continue;
+                    }
+                    mergePreviousRecord(previousRecord, record);
+                    // Copies the record's state onto the persisted record, which is already in the session
+                    previousRecords.put(key, (AdherenceRecord)session.merge(record));
+                } else if (!deleteRecord) {
+                    session.save(record);
+                    previousRecords.put(key, record);
+                }
             }
+            return null;
+        });
+    }
+    
+    private Map<List<Object>, AdherenceRecord> getPreviousRecords(Session session, List<AdherenceRecord> records) {
+        Map<List<Object>, AdherenceRecord> previousRecords = new HashMap<>();
+        
+        // Clients submit records for one participant at a time, so this is almost always one query.
+        Map<List<String>, List<AdherenceRecord>> byParticipant = records.stream()
+                .collect(groupingBy(record -> Arrays.asList(record.getUserId(), record.getStudyId())));
+        for (List<AdherenceRecord> participantRecords : byParticipant.values()) {
+            AdherenceRecord first = participantRecords.get(0);
+            Set<String> instanceGuids = participantRecords.stream()
+                    .map(AdherenceRecord::getInstanceGuid).collect(toSet());
             
-            // Keep uploadIds from both the previous and new record.
-            for (String uploadId : previousRecord.getUploadIds()) {
-                record.addUploadId(uploadId);
+            List<AdherenceRecord> persisted = session.createQuery(RECORDS_FOR_UPDATE_QUERY, AdherenceRecord.class)
+                    .setParameter("userId", first.getUserId())
+                    .setParameter("studyId", first.getStudyId())
+                    .setParameter("instanceGuids", instanceGuids)
+                    .list();
+            for (AdherenceRecord previousRecord : persisted) {
+                previousRecords.put(recordKey(previousRecord), previousRecord);
             }
+        }
+        return previousRecords;
+    }
+    
+    // Timestamps are compared by their millisecond values, which is how they are persisted.
+    private static List<Object> recordKey(AdherenceRecord record) {
+        return Arrays.asList(record.getUserId(), record.getStudyId(), record.getInstanceGuid(),
+                toMillis(record.getEventTimestamp()), toMillis(record.getInstanceTimestamp()));
+    }
+    
+    private static Long toMillis(DateTime dateTime) {
+        return (dateTime == null) ? null : dateTime.getMillis();
+    }
+    
+    /**
+     * Merge the values of a persisted record that should survive an update into the updated record.
+     */
+    private static void mergePreviousRecord(AdherenceRecord previousRecord, AdherenceRecord record) {
+        // Persisted record keeps the earliest uploadedOn date.
+        DateTime previousUploadedOn = previousRecord.getUploadedOn();
+        if (previousUploadedOn != null && previousUploadedOn.isBefore(record.getUploadedOn())) {
+            record.setUploadedOn(previousUploadedOn);
+        }
+        
+        // Keep uploadIds from both the previous and new record.
+        for (String uploadId : previousRecord.getUploadIds()) {
+            record.addUploadId(uploadId);
+        }
 
-            // Merge old post-processing attributes. Note that in the call to JsonUtils.mergeNode, later nodes take
-            // priority over earlier nodes in the list, so the new record will overwrite the old record for the keys
-            // that they share, but won't erase keys that are only in the old record. This is the behavior we want.
-            JsonNode mergedAttrNode = JsonUtils.mergeObjectNodes(previousRecord.getPostProcessingAttributes(),
-                    record.getPostProcessingAttributes());
-            record.setPostProcessingAttributes(mergedAttrNode);
+        // Merge old post-processing attributes. Note that in the call to JsonUtils.mergeNode, later nodes take
+        // priority over earlier nodes in the list, so the new record will overwrite the old record for the keys
+        // that they share, but won't erase keys that are only in the old record. This is the behavior we want.
+        JsonNode mergedAttrNode = JsonUtils.mergeObjectNodes(previousRecord.getPostProcessingAttributes(),
+                record.getPostProcessingAttributes());
+        record.setPostProcessingAttributes(mergedAttrNode);
 
-            // If the new record doesn't have post-processing completed on or status, retain the old ones.
-            if (record.getPostProcessingCompletedOn() == null) {
-                record.setPostProcessingCompletedOn(previousRecord.getPostProcessingCompletedOn());
-            }
-            if (record.getPostProcessingStatus() == null) {
-                record.setPostProcessingStatus(previousRecord.getPostProcessingStatus());
-            }
+        // If the new record doesn't have post-processing completed on or status, retain the old ones.
+        if (record.getPostProcessingCompletedOn() == null) {
+            record.setPostProcessingCompletedOn(previousRecord.getPostProcessingCompletedOn());
         }
-    
-        if (!deleteRecord) {
-            hibernateHelper.saveOrUpdate(record);
+        if (record.getPostProcessingStatus() == null) {
+            record.setPostProcessingStatus(previousRecord.getPostProcessingStatus());
         }
     }
 
+    /**
+     * Records can be paged with an offset, or with the nextPageOffsetKey of the previous page, which seeks 
+     * directly to the next record rather than reading and discarding all the preceding records. The total 
+     * is only counted if the search requests it; otherwise it is null.
+     */
     @Override
     public PagedResourceList<AdherenceRecord> getAdherenceRecords(AdherenceRecordsSearch search) {
         checkNotNull(search);
         
-        QueryBuilder builder = createQuery(search);
+        QueryBuilder builder = createQuery(search, search.getOffsetKey());
         
+        // Retrieve one more record than the page size, to determine if there is another page
         List<AdherenceRecord> records = hibernateHelper.nativeQueryGet(
                 "SELECT * " + builder.getQuery(), builder.getParameters(), 
-                search.getOffsetBy(), search.getPageSize(), AdherenceRecord.class);
-
-        int total = hibernateHelper.nativeQueryCount(
-                "SELECT count(*) " + builder.getQuery(), builder.getParameters());
+                search.getOffsetBy(), search.getPageSize()+1, AdherenceRecord.class);
+        
+        String nextPageOffsetKey = null;
+        if (records.size() > search.getPageSize()) {
+            records = records.subList(0, search.getPageSize());
+            nextPageOffsetKey = createOffsetKey(Iterables.getLast(records));
+        }
+        
+        Integer total = null;
+        if (TRUE.equals(search.getIncludeTotal())) {
+            // The total is the count of all matching records, not just the records after the offset key
+            QueryBuilder countBuilder = (search.getOffsetKey() == null) ? builder : createQuery(search);
+            total = hibernateHelper.nativeQueryCount(
+                    "SELECT count(*) " + countBuilder.getQuery(), countBuilder.getParameters());
+        }
+        return new PagedResourceList<>(records, total, true).withNextPageOffsetKey(nextPageOffsetKey);
+    }
 
-        return new PagedResourceList<>(records, total, true);
+    @Override
+    public List<AdherenceRecord> getSessionAdherenceRecords(String studyId, Set<String> userIds) {
+        checkNotNull(studyId);
+        checkNotNull(userIds);
+        
+        if (userIds.isEmpty()) {
+            return ImmutableList.of();
+        }
+        return hibernateHelper.nativeQueryGet(SESSION_RECORDS_FOR_USERS_QUERY, 
+                ImmutableMap.of("studyId", studyId, "userIds", userIds), null, null, AdherenceRecord.class);
     }
 
     protected QueryBuilder createQuery(AdherenceRecordsSearch search) {
+        return createQuery(search, null);
+    }
+    
+    protected QueryBuilder createQuery(AdherenceRecordsSearch search, String offsetKey) {
         QueryBuilder builder = new QueryBuilder();
 
         // Special query for upload IDs.
@@ -206,11 +342,61 @@ public class HibernateAdherenceRecordDao implements AdherenceRecordDao {
             where.append(WHERE_HAS_NO_UPLOAD_IDS);
         }
 
+        if (offsetKey != null) {
+            appendOffsetKey(where, offsetKey, search.getSortOrder());
+        }
+
         // Note: This needs to be last, because any call to builder.append() will close out the where clause.
-        builder.append("ORDER BY ar.startedOn " + search.getSortOrder().name());
+        String order = search.getSortOrder().name();
+        builder.append("ORDER BY ar.startedOn " + order + ", ar.userId " + order + ", ar.instanceGuid " + order
+                + ", ar.eventTimestamp " + order + ", ar.instanceTimestamp " + order);
 
         return builder;
     }
+    
+    /**
+     * The offset key is the sort position of the last record of the previous page: its startedOn value 
+     * (which can be null) and then its key. MySQL sorts null values first in ascending order, and last in 
+     * descending order.
+     */
+    private void appendOffsetKey(WhereClauseBuilder where, String offsetKey, SortOrder sortOrder) {
+        String[] components = offsetKey.split(":", 5);
+        if (components.length != 5) {
+            throw new BadRequestException(INVALID_OFFSET_KEY_ERROR + offsetKey);
+        }
+        Map<String, Object> params = new HashMap<>();
+        try {
+            params.put("keyUserId", components[1]);
+            params.put("keyEventTimestamp", Long.parseLong(components[2]));
+            params.put("keyInstanceTimestamp", Long.parseLong(components[3]));
+            params.put("keyInstanceGuid", components[4]);
+            if (!components[0].isEmpty()) {
+                params.put("keyStartedOn", Long.parseLong(components[0]));
+            }
+        } catch(NumberFormatException e) {
+            throw new BadRequestException(INVALID_OFFSET_KEY_ERROR + offsetKey);
+        }
+        boolean asc = (sortOrder == ASC);
+        String afterKey = KEY_COLUMNS + (asc ? " > " : " < ") + KEY_PARAMS;
+        
+        String phrase;
+        if (params.containsKey("keyStartedOn")) {
+            phrase = "(ar.startedOn " + (asc ? ">" : "<") + " :keyStartedOn"
+                    + (asc ? "" : " OR ar.startedOn IS NULL")
+                    + " OR (ar.startedOn = :keyStartedOn AND " + afterKey + "))";
+        } else if (asc) {
+            phrase = "(ar.startedOn IS NOT NULL OR (ar.startedOn IS NULL AND " + afterKey + "))";
+        } else {
+            phrase = "(ar.startedOn IS NULL AND " + afterKey + ")";
+        }
+        where.appendRequired(phrase, params);
+    }
+    
+    static String createOffsetKey(AdherenceRecord record) {
+        String startedOn = (record.getStartedOn() == null) ? "" : Long.toString(record.getStartedOn().getMillis());
+        return startedOn + ":" + record.getUserId() + ":" + record.getEventTimestamp().getMillis() + ":"
+                + record.getInstanceTimestamp().getMillis() + ":" + record.getInstanceGuid();
+    }
 
     @Override
     public void deleteAdherenceRecordPermanently(AdherenceRecord record) {
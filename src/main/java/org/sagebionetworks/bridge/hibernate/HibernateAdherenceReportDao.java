@@ -88,6 +88,21 @@ public class HibernateAdherenceReportDao implements AdherenceReportDao {
         hibernateHelper.saveOrUpdate(report);
     }
 
+    @Override
+    public void saveWeeklyAdherenceReports(List<WeeklyAdherenceReport> reports) {
+        checkNotNull(reports);
+        if (reports.isEmpty()) {
+            return;
+        }
+        hibernateHelper.executeWithExceptionHandling(null, session -> {
+            session.setJdbcBatchSize(reports.size());
+            for (WeeklyAdherenceReport report : reports) {
+                session.saveOrUpdate(report);
+            }
+            return null;
+        });
+    }
+
     @Override
     public PagedResourceList<WeeklyAdherenceReport> getWeeklyAdherenceReports(String appId, String studyId,
             AdherenceReportSearch search) {
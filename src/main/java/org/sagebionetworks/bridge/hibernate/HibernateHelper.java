@@ -5,6 +5,7 @@ import java.math.BigInteger;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import javax.persistence.PersistenceException;
@@ -39,6 +40,18 @@ public class HibernateHelper {
             return obj;
         });
     }
+    
+    /**
+     * Creates (inserts) an object, then passes the session to the consumer so it can write related rows in the 
+     * same transaction. If the consumer throws an exception, the object is not created either.
+     */
+    public <T> void create(T obj, Consumer<Session> consumer) {
+        executeWithExceptionHandling(obj, session -> {
+            session.save(obj);
+            consumer.accept(session);
+            return obj;
+        });
+    }
 
     /** Deletes the given object. */
     public <T> void deleteById(Class<T> clazz, Serializable id) {
@@ -235,6 +248,18 @@ public class HibernateHelper {
         });
     }
     
+    /**
+     * Updates a single object, then passes the session to the consumer so it can write related rows in the same 
+     * transaction. If the consumer throws an exception, the object is not updated either.
+     */
+    public <T> T update(T obj, Consumer<Session> consumer) {
+        return executeWithExceptionHandling(obj, session -> {
+            session.update(obj);
+            consumer.accept(session);
+            return obj;
+        });
+    }
+    
     <T> T executeWithExceptionHandling(T originalEntity, Function<Session, T> function) {
         try {
             return execute(function);
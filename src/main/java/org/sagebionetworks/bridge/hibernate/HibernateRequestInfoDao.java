@@ -1,6 +1,13 @@
 package org.sagebionetworks.bridge.hibernate;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 import javax.annotation.Resource;
 
@@ -9,8 +16,13 @@ import org.springframework.stereotype.Component;
 import org.sagebionetworks.bridge.dao.RequestInfoDao;
 import org.sagebionetworks.bridge.models.RequestInfo;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
 @Component
 public class HibernateRequestInfoDao implements RequestInfoDao {
+    static final String GET_REQUEST_INFOS_QUERY = "FROM RequestInfo WHERE userId IN (:userIds)";
+    
     private HibernateHelper hibernateHelper;
     
     @Resource(name = "basicHibernateHelper")
@@ -31,6 +43,40 @@ public class HibernateRequestInfoDao implements RequestInfoDao {
         }        
     }
 
+    @Override
+    public void updateRequestInfos(Collection<RequestInfo> requestInfos) {
+        checkNotNull(requestInfos);
+        if (requestInfos.isEmpty()) {
+            return;
+        }
+        List<String> userIds = requestInfos.stream().map(RequestInfo::getUserId).collect(toList());
+        
+        hibernateHelper.executeWithExceptionHandling(null, session -> {
+            // Statements are sent in JDBC batches, which the driver rewrites into multi-row statements
+            session.setJdbcBatchSize(requestInfos.size());
+            
+            Map<String, RequestInfo> existing = session
+                    .createQuery(GET_REQUEST_INFOS_QUERY, RequestInfo.class)
+                    .setParameterList("userIds", userIds)
+                    .list().stream()
+                    .collect(toMap(RequestInfo::getUserId, Function.identity()));
+            
+            for (RequestInfo requestInfo : requestInfos) {
+                RequestInfo existingRequestInfo = existing.get(requestInfo.getUserId());
+                if (existingRequestInfo != null) {
+                    RequestInfo.Builder builder = new RequestInfo.Builder();
+                    builder.copyOf(existingRequestInfo);
+                    builder.copyOf(requestInfo);
+                    // The existing record is attached to this session, so merge rather than update
+                    session.merge(builder.build());
+                } else {
+                    session.save(requestInfo);
+                }
+            }
+            return null;
+        });
+    }
+
     @Override
     public RequestInfo getRequestInfo(String userId) {
         checkNotNull(userId);
@@ -38,6 +84,16 @@ public class HibernateRequestInfoDao implements RequestInfoDao {
         return hibernateHelper.getById(RequestInfo.class, userId);
     }
     
+    @Override
+    public List<RequestInfo> getRequestInfos(Collection<String> userIds) {
+        checkNotNull(userIds);
+        if (userIds.isEmpty()) {
+            return ImmutableList.of();
+        }
+        return hibernateHelper.queryGet(GET_REQUEST_INFOS_QUERY, ImmutableMap.of("userIds", userIds), 
+                null, null, RequestInfo.class);
+    }
+    
     @Override
     public void removeRequestInfo(String userId) {
         checkNotNull(userId);
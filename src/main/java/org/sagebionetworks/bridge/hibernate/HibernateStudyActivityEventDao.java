@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.hibernate;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 import static org.sagebionetworks.bridge.models.ResourceList.OFFSET_BY;
@@ -8,11 +9,14 @@ import static org.sagebionetworks.bridge.models.ResourceList.PAGE_SIZE;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Resource;
 
 import org.springframework.stereotype.Component;
 
+import com.google.common.collect.ImmutableMap;
+
 import org.sagebionetworks.bridge.dao.StudyActivityEventDao;
 import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.activities.StudyActivityEvent;
@@ -36,6 +40,16 @@ public class HibernateStudyActivityEventDao implements StudyActivityEventDao {
             ":studyId AND eventId = sae.eventId ORDER BY createdOn DESC LIMIT 1) " +
             "ORDER BY eventId";
 
+    // The same query for a set of users. The subselects are correlated on each row's userId.
+    static final String GET_RECENT_FOR_USERS_SQL = "SELECT *, (SELECT count(*) as total FROM " +
+            "StudyActivityEvents WHERE eventId = sae.eventId AND studyId = :studyId " +
+            "AND userId = sae.userId GROUP BY eventId) FROM StudyActivityEvents AS sae " +
+            "WHERE userId IN (:userIds) AND studyId = :studyId AND eventTimestamp = (SELECT " +
+            "eventTimestamp FROM StudyActivityEvents WHERE userId = sae.userId AND studyId = " +
+            ":studyId AND eventId = sae.eventId ORDER BY createdOn DESC LIMIT 1) " +
+            "ORDER BY userId, eventId";
+    static final String USER_IDS_FIELD = "userIds";
+
     static final String HISTORY_SQL = "FROM StudyActivityEvents WHERE " +
             "userId = :userId AND studyId = :studyId AND eventId = :eventId " +
             "ORDER BY createdOn DESC";
@@ -77,6 +91,22 @@ public class HibernateStudyActivityEventDao implements StudyActivityEventDao {
         return results.stream().map(StudyActivityEvent::create).collect(toList());
     }
     
+    @Override
+    public Map<String, List<StudyActivityEvent>> getRecentStudyActivityEventsForUsers(Set<String> userIds,
+            String studyId) {
+        checkNotNull(userIds);
+        checkNotNull(studyId);
+        
+        if (userIds.isEmpty()) {
+            return ImmutableMap.of();
+        }
+        QueryBuilder builder = new QueryBuilder();
+        builder.append(GET_RECENT_FOR_USERS_SQL, USER_IDS_FIELD, userIds, STUDY_ID_FIELD, studyId);
+        
+        List<Object[]> results = helper.nativeQuery(builder.getQuery(), builder.getParameters());
+        return results.stream().map(StudyActivityEvent::create).collect(groupingBy(StudyActivityEvent::getUserId));
+    }
+    
     @Override
     public StudyActivityEvent getRecentStudyActivityEvent(String userId, String studyId, String eventId) {
         checkNotNull(userId);
@@ -107,6 +107,13 @@ class QueryBuilder {
                 whereParams.put(key, value);
             }
         }
+        public void appendRequired(String phrase, Map<String,Object> params) {
+            required.add(phrase);
+            whereParams.putAll(params);
+        }
+        public void appendParameters(Map<String,Object> params) {
+            whereParams.putAll(params);
+        }
         public void appendBoolean(String fieldName, Boolean value) {
             if (value != null) {
                 if (TRUE.equals(value)) {
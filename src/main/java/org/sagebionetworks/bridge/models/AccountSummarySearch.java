@@ -41,6 +41,7 @@ public final class AccountSummarySearch implements BridgeEntity {
     private final SearchTermPredicate predicate;
     private final StringSearchPosition stringSearchPosition;
     private final Boolean inUse;
+    private final Boolean includeTotal;
 
     private AccountSummarySearch(AccountSummarySearch.Builder builder) {
         this.offsetBy = builder.offsetBy;
@@ -63,6 +64,7 @@ public final class AccountSummarySearch implements BridgeEntity {
         this.predicate = builder.predicate;
         this.stringSearchPosition = builder.stringSearchPosition;
         this.inUse = builder.inUse;
+        this.includeTotal = builder.includeTotal;
     }
 
     public int getOffsetBy() {
@@ -148,6 +150,14 @@ public final class AccountSummarySearch implements BridgeEntity {
     public Boolean isInUse() {
         return inUse;
     }
+    /**
+     * Counting all the accounts that match a search is a separate and (for large apps) expensive 
+     * query. When false, the total of the returned page is null. 
+     * Defaults to true.
+     */
+    public Boolean getIncludeTotal() {
+        return includeTotal;
+    }
     public AccountSummarySearch.Builder toBuilder() {
         return new AccountSummarySearch.Builder()
             .withOffsetBy(offsetBy)
@@ -169,7 +179,8 @@ public final class AccountSummarySearch implements BridgeEntity {
             .withAttributeValueFilter(attributeValueFilter)
             .withPredicate(predicate)
             .withStringSearchPosition(stringSearchPosition)
-            .withInUse(inUse);
+            .withInUse(inUse)
+            .withIncludeTotal(includeTotal);
     }
 
     @Override
@@ -181,7 +192,7 @@ public final class AccountSummarySearch implements BridgeEntity {
         return Objects.hash(allOfGroups, emailFilter, nullsafeDateString(endTime), language, noneOfGroups, offsetBy,
                 pageSize, phoneFilter, nullsafeDateString(startTime), orgMembership, adminOnly, enrolledInStudyId,
                 externalIdFilter, status, enrollment, attributeKey, attributeValueFilter, predicate,
-                stringSearchPosition, inUse);
+                stringSearchPosition, inUse, includeTotal);
     }
 
     @Override
@@ -211,7 +222,8 @@ public final class AccountSummarySearch implements BridgeEntity {
                 && Objects.equals(attributeValueFilter, other.attributeValueFilter)
                 && Objects.equals(predicate, other.predicate)
                 && Objects.equals(stringSearchPosition, other.stringSearchPosition)
-                && Objects.equals(inUse, other.inUse);
+                && Objects.equals(inUse, other.inUse)
+                && Objects.equals(includeTotal, other.includeTotal);
     }
     
     private String nullsafeDateString(DateTime dateTime) {
@@ -226,7 +238,8 @@ public final class AccountSummarySearch implements BridgeEntity {
                 + orgMembership + ", adminOnly=" + adminOnly + ", enrolledInStudyId=" + enrolledInStudyId
                 + ", externalIdFilter=" + externalIdFilter + ", status=" + status + ", enrollment=" + enrollment
                 + ", attributeKey=" + attributeKey + ", attributeValueFilter=" + attributeValueFilter + ", predicate="
-                + predicate + ", stringSearchPosition=" + stringSearchPosition + ", inUse=" + inUse + "]";
+                + predicate + ", stringSearchPosition=" + stringSearchPosition + ", inUse=" + inUse
+                + ", includeTotal=" + includeTotal + "]";
     }
 
     public static class Builder {
@@ -250,6 +263,7 @@ public final class AccountSummarySearch implements BridgeEntity {
         private SearchTermPredicate predicate;
         private StringSearchPosition stringSearchPosition;
         private Boolean inUse;
+        private Boolean includeTotal;
         
         public Builder withOffsetBy(Integer offsetBy) {
             this.offsetBy = offsetBy;
@@ -337,6 +351,10 @@ public final class AccountSummarySearch implements BridgeEntity {
             this.inUse = inUse;
             return this;
         }
+        public Builder withIncludeTotal(Boolean includeTotal) {
+            this.includeTotal = includeTotal;
+            return this;
+        }
         public AccountSummarySearch build() {
             if (offsetBy == null) {
                 offsetBy = 0;
@@ -350,6 +368,9 @@ public final class AccountSummarySearch implements BridgeEntity {
             if (stringSearchPosition == null) {
                 stringSearchPosition = INFIX;
             }
+            if (includeTotal == null) {
+                includeTotal = Boolean.TRUE;
+            }
             return new AccountSummarySearch(this);
         }
     }
@@ -0,0 +1,223 @@
+package org.sagebionetworks.bridge.models;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * A precomputed form of the criteria of a list of objects, which produces the same results as
+ * {@link CriteriaUtils#filterByCriteria} for that list. Every data group and study ID mentioned
+ * by any of the criteria is assigned a bit position, so the all-of and none-of sets of each
+ * criteria object become bitmasks, and matching a user's data groups and studies is a few
+ * bitwise operations per object instead of set operations. The objects are also pre-sorted by
+ * the secondary comparator, so a request only needs to (stably) sort its matches by language.
+ *
+ * Compiled criteria refer to objects by their position in the list they were compiled from, so
+ * they can be reused with a fresh copy of the same list (our models are mutable, and each
+ * request should get its own copy of the objects it matches).
+ */
+public final class CompiledCriteria {
+
+    private static final long[] EMPTY_MASK = new long[0];
+
+    private final List<Object> fingerprint;
+    private final int size;
+    private final Map<String, Integer> groupBits;
+    private final Map<String, Integer> studyBits;
+    private final int[] order;
+    private final String[] languages;
+    private final Map<String, Integer>[] minAppVersions;
+    private final Map<String, Integer>[] maxAppVersions;
+    private final long[][] allOfGroups;
+    private final long[][] noneOfGroups;
+    private final long[][] allOfStudies;
+    private final long[][] noneOfStudies;
+
+    /**
+     * Compile the criteria of these objects. The fingerprint should change whenever the list
+     * changes in a way that could affect matching (e.g. a list of the IDs and versions of the
+     * objects). Objects with the same language are returned in the order of the second
+     * comparator, if one is provided, and otherwise in list order.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends HasCriteria> CompiledCriteria compile(List<T> items, Comparator<T> secondComparator,
+            List<Object> fingerprint) {
+        checkNotNull(items);
+        checkNotNull(fingerprint);
+        return new CompiledCriteria(items, (Comparator<HasCriteria>)secondComparator, fingerprint);
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompiledCriteria(List<? extends HasCriteria> items, Comparator<HasCriteria> secondComparator,
+            List<Object> fingerprint) {
+        this.fingerprint = fingerprint;
+        this.size = items.size();
+
+        Map<String, Integer> groupBits = new HashMap<>();
+        Map<String, Integer> studyBits = new HashMap<>();
+        for (HasCriteria item : items) {
+            Criteria criteria = item.getCriteria();
+            intern(groupBits, criteria.getAllOfGroups());
+            intern(groupBits, criteria.getNoneOfGroups());
+            intern(studyBits, criteria.getAllOfStudyIds());
+            intern(studyBits, criteria.getNoneOfStudyIds());
+        }
+        this.groupBits = ImmutableMap.copyOf(groupBits);
+        this.studyBits = ImmutableMap.copyOf(studyBits);
+
+        languages = new String[size];
+        minAppVersions = new Map[size];
+        maxAppVersions = new Map[size];
+        allOfGroups = new long[size][];
+        noneOfGroups = new long[size][];
+        allOfStudies = new long[size][];
+        noneOfStudies = new long[size][];
+        for (int i=0; i < size; i++) {
+            Criteria criteria = items.get(i).getCriteria();
+            languages[i] = criteria.getLanguage();
+            ImmutableMap.Builder<String, Integer> minBuilder = ImmutableMap.builder();
+            ImmutableMap.Builder<String, Integer> maxBuilder = ImmutableMap.builder();
+            for (String osName : criteria.getAppVersionOperatingSystems()) {
+                Integer min = criteria.getMinAppVersion(osName);
+                Integer max = criteria.getMaxAppVersion(osName);
+                if (min != null) {
+                    minBuilder.put(osName, min);
+                }
+                if (max != null) {
+                    maxBuilder.put(osName, max);
+                }
+            }
+            minAppVersions[i] = minBuilder.build();
+            maxAppVersions[i] = maxBuilder.build();
+            allOfGroups[i] = mask(criteria.getAllOfGroups(), this.groupBits);
+            noneOfGroups[i] = mask(criteria.getNoneOfGroups(), this.groupBits);
+            allOfStudies[i] = mask(criteria.getAllOfStudyIds(), this.studyBits);
+            noneOfStudies[i] = mask(criteria.getNoneOfStudyIds(), this.studyBits);
+        }
+
+        List<Integer> positions = new ArrayList<>(size);
+        for (int i=0; i < size; i++) {
+            positions.add(i);
+        }
+        if (secondComparator != null) {
+            // A stable sort, so ties remain in list order
+            positions.sort((i1, i2) -> secondComparator.compare(items.get(i1), items.get(i2)));
+        }
+        order = positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public List<Object> getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Return the objects in this list that match the context, in the same order as
+     * {@link CriteriaUtils#filterByCriteria}. The list must be the one these criteria were
+     * compiled from, or a copy of it.
+     */
+    public <T extends HasCriteria> List<T> filter(CriteriaContext context, List<T> items) {
+        checkNotNull(context);
+        checkNotNull(context.getLanguages());
+        checkNotNull(context.getClientInfo());
+        checkNotNull(context.getUserDataGroups());
+        checkNotNull(items);
+        checkArgument(items.size() == size, "List does not match compiled criteria");
+
+        long[] userGroups = mask(context.getUserDataGroups(), groupBits);
+        long[] userStudies = mask(context.getUserStudyIds(), studyBits);
+        Integer appVersion = context.getClientInfo().getAppVersion();
+        String appOs = context.getClientInfo().getOsName();
+
+        List<String> langs = context.getLanguages();
+        Set<String> userLanguages = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        langs.stream().filter(lang -> lang != null).forEach(userLanguages::add);
+        // Equivalent to langs.indexOf(), which is what the uncompiled comparator uses
+        Map<String, Integer> languagePositions = new HashMap<>();
+        for (int i=0; i < langs.size(); i++) {
+            languagePositions.putIfAbsent(langs.get(i), i);
+        }
+
+        List<Integer> matches = new ArrayList<>();
+        for (int i : order) {
+            if (appVersion != null && appOs != null) {
+                Integer minAppVersion = minAppVersions[i].get(appOs);
+                Integer maxAppVersion = maxAppVersions[i].get(appOs);
+                if ((minAppVersion != null && appVersion < minAppVersion) ||
+                    (maxAppVersion != null && appVersion > maxAppVersion)) {
+                    continue;
+                }
+            }
+            if (!containsAll(userGroups, allOfGroups[i]) || intersects(userGroups, noneOfGroups[i])) {
+                continue;
+            }
+            if (!containsAll(userStudies, allOfStudies[i]) || intersects(userStudies, noneOfStudies[i])) {
+                continue;
+            }
+            if (languages[i] != null && !userLanguages.contains(languages[i])) {
+                continue;
+            }
+            matches.add(i);
+        }
+        matches.sort(Comparator.comparingInt(i -> languagePositions.getOrDefault(languages[i], -1)));
+
+        List<T> results = new ArrayList<>(matches.size());
+        for (int i : matches) {
+            results.add(items.get(i));
+        }
+        return results;
+    }
+
+    private static void intern(Map<String, Integer> bits, Set<String> values) {
+        for (String value : values) {
+            bits.putIfAbsent(value, bits.size());
+        }
+    }
+
+    // Values that have no bit position are not mentioned by any criteria, so they can't affect a match.
+    private static long[] mask(Collection<String> values, Map<String, Integer> bits) {
+        if (values.isEmpty() || bits.isEmpty()) {
+            return EMPTY_MASK;
+        }
+        long[] mask = null;
+        for (String value : values) {
+            Integer bit = bits.get(value);
+            if (bit != null) {
+                if (mask == null) {
+                    mask = new long[(bits.size() + 63) / 64];
+                }
+                mask[bit / 64] |= 1L << (bit % 64);
+            }
+        }
+        return (mask == null) ? EMPTY_MASK : mask;
+    }
+
+    private static boolean containsAll(long[] set, long[] required) {
+        for (int i=0; i < required.length; i++) {
+            long have = (i < set.length) ? set[i] : 0L;
+            if ((required[i] & ~have) != 0L) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean intersects(long[] set, long[] prohibited) {
+        int length = Math.min(set.length, prohibited.length);
+        for (int i=0; i < length; i++) {
+            if ((set[i] & prohibited[i]) != 0L) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
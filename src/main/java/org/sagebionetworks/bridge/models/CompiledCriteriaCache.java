@@ -0,0 +1,52 @@
+package org.sagebionetworks.bridge.models;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.stream.Collectors.toList;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Holds the {@link CompiledCriteria} for one kind of object, per app. A list is only recompiled
+ * when its fingerprint changes, i.e. when an object is added, removed, or updated. The versioner
+ * must return a value for each object that changes whenever its criteria change (e.g. its GUID
+ * and version).
+ */
+public class CompiledCriteriaCache<T extends HasCriteria> {
+    
+    static final int MAX_APPS = 1000;
+    
+    private final com.google.common.cache.Cache<String, CompiledCriteria> cache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_APPS).build();
+    private final Function<T, Object> versioner;
+    private final Comparator<T> secondComparator;
+    
+    public CompiledCriteriaCache(Function<T, Object> versioner, Comparator<T> secondComparator) {
+        this.versioner = checkNotNull(versioner);
+        this.secondComparator = secondComparator;
+    }
+    
+    /**
+     * Filter the app's list by the criteria context, returning the same results as 
+     * {@link CriteriaUtils#filterByCriteria}.
+     */
+    public List<T> filterByCriteria(String appId, CriteriaContext context, List<T> items) {
+        checkNotNull(appId);
+        checkNotNull(items);
+        
+        List<Object> fingerprint = items.stream().map(versioner).collect(toList());
+        CompiledCriteria compiled = cache.getIfPresent(appId);
+        if (compiled == null || !compiled.getFingerprint().equals(fingerprint)) {
+            compiled = CompiledCriteria.compile(items, secondComparator, fingerprint);
+            cache.put(appId, compiled);
+        }
+        return compiled.filter(context, items);
+    }
+    
+    public void invalidate(String appId) {
+        cache.invalidate(appId);
+    }
+}
@@ -121,6 +121,14 @@ public class Metrics {
         json.put("upload_size", uploadSize);
     }
 
+    public void setUploadValidationQueueDepth(int queueDepth) {
+        json.put("upload_validation_queue_depth", queueDepth);
+    }
+
+    public void setUploadValidationInFlight(int inFlight) {
+        json.put("upload_validation_in_flight", inFlight);
+    }
+
     /**
      * Set the query params from the url request to json.
      *
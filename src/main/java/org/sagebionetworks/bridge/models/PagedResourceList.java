@@ -26,6 +26,7 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 public class PagedResourceList<T> extends ResourceList<T> {
     
     private final Integer total;
+    private String nextPageOffsetKey;
 
     // This could have a nextPageOffsetBy, but it's trivial to calculate client-side
     @JsonCreator
@@ -37,9 +38,13 @@ public class PagedResourceList<T> extends ResourceList<T> {
         this.total = total;
     }
 
+    /**
+     * Unlike the other constructor, the total can be null here. Some searches can skip counting the total 
+     * number of items; in that case the total is null (and is left out of the JSON), rather than a count 
+     * that only describes the page.
+     */
     public PagedResourceList(List<T> items, Integer total, boolean suppressDeprecated) {
         super(items, suppressDeprecated);
-        checkNotNull(total);
         this.total = total;
     }
     
@@ -68,6 +73,17 @@ public class PagedResourceList<T> extends ResourceList<T> {
     public Integer getTotal() {
         return total;
     }
+    /**
+     * Some searches can also be paged with a key rather than an offset. For these searches, this is
+     * the key for the next page of results, or null if this is the last page.
+     */
+    public String getNextPageOffsetKey() {
+        return nextPageOffsetKey;
+    }
+    public PagedResourceList<T> withNextPageOffsetKey(String nextPageOffsetKey) {
+        this.nextPageOffsetKey = nextPageOffsetKey;
+        return this;
+    }
     public PagedResourceList<T> withRequestParam(String key, Object value) {
         super.withRequestParam(key, value);
         return this;
@@ -47,6 +47,7 @@ public class ResourceList<T> {
     public static final String IDENTIFIER = "identifier";
     public static final String INCLUDE_DELETED = "includeDeleted";
     public static final String INCLUDE_REPEATS = "includeRepeats";
+    public static final String INCLUDE_TOTAL = "includeTotal";
     public static final String INSTANCE_GUIDS = "instanceGuids";
     public static final String IN_USE = "inUse";
     public static final String LABEL_FILTERS = "labelFilters";
@@ -59,6 +60,7 @@ public class ResourceList<T> {
     public static final String OFFSET_KEY = "offsetKey";
     public static final String ORG_MEMBERSHIP = "orgMembership";
     public static final String PAGE_SIZE = "pageSize";
+    public static final String PATTERN = "pattern";
     public static final String PHONE_FILTER = "phoneFilter";
     public static final String PREDICATE = "predicate";
     public static final String PROGRESSION_FILTERS = "progressionFilters";
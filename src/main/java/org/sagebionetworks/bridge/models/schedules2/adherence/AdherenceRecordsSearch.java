@@ -111,10 +111,22 @@ public class AdherenceRecordsSearch implements BridgeEntity {
      * The offset index (this API is paged).
      */
     private final Integer offsetBy;
+    /**
+     * The nextPageOffsetKey returned with a previous page of results. If provided, the page starts 
+     * after the last record of that page, without counting through the preceding records as an 
+     * offset would. This cannot be combined with offsetBy.
+     */
+    private final String offsetKey;
     /**
      * The page size (this API is paged). The default is 250 records.
      */
     private final Integer pageSize;
+    /**
+     * Should the total number of matching records be calculated? This requires an additional count 
+     * query over all the matching records. If false, the total returned is null, and 
+     * nextPageOffsetKey indicates whether there are more records. The default is true.
+     */
+    private final Boolean includeTotal;
     /**
      * Sort by the `startedOn` timestamp in either ascending or descending 
      * order. The default is ascending order.
@@ -161,7 +173,9 @@ public class AdherenceRecordsSearch implements BridgeEntity {
         this.startTime = builder.startTime;
         this.endTime = builder.endTime;
         this.offsetBy = builder.offsetBy;
+        this.offsetKey = builder.offsetKey;
         this.pageSize = builder.pageSize;
+        this.includeTotal = builder.includeTotal;
         this.sortOrder = builder.sortOrder;
         this.predicate = builder.predicate;
         this.stringSearchPosition = builder.stringSearchPosition;
@@ -239,9 +253,17 @@ public class AdherenceRecordsSearch implements BridgeEntity {
         return offsetBy;
     }
 
+    public String getOffsetKey() {
+        return offsetKey;
+    }
+
     public Integer getPageSize() {
         return pageSize;
     }
+
+    public Boolean getIncludeTotal() {
+        return includeTotal;
+    }
     
     public SortOrder getSortOrder() {
         return sortOrder;
@@ -292,7 +314,9 @@ public class AdherenceRecordsSearch implements BridgeEntity {
                 .withStartTime(startTime)
                 .withEndTime(endTime)
                 .withOffsetBy(offsetBy)
+                .withOffsetKey(offsetKey)
                 .withPageSize(pageSize)
+                .withIncludeTotal(includeTotal)
                 .withSortOrder(sortOrder)
                 .withPredicate(predicate)
                 .withStringSearchPosition(stringSearchPosition)
@@ -320,7 +344,9 @@ public class AdherenceRecordsSearch implements BridgeEntity {
         private DateTime startTime;
         private DateTime endTime;
         private Integer offsetBy;
+        private String offsetKey;
         private Integer pageSize;
+        private Boolean includeTotal;
         private SortOrder sortOrder;
         private SearchTermPredicate predicate;
         private StringSearchPosition stringSearchPosition;
@@ -401,10 +427,18 @@ public class AdherenceRecordsSearch implements BridgeEntity {
             this.offsetBy = offsetBy;
             return this;
         }
+        public Builder withOffsetKey(String offsetKey) {
+            this.offsetKey = offsetKey;
+            return this;
+        }
         public Builder withPageSize(Integer pageSize) {
             this.pageSize = pageSize;
             return this;
         }
+        public Builder withIncludeTotal(Boolean includeTotal) {
+            this.includeTotal = includeTotal;
+            return this;
+        }
         public Builder withSortOrder(SortOrder sortOrder) {
             this.sortOrder = sortOrder;
             return this;
@@ -468,6 +502,9 @@ public class AdherenceRecordsSearch implements BridgeEntity {
             if (offsetBy == null) {
                 offsetBy = Integer.valueOf(0);
             }
+            if (includeTotal == null) {
+                includeTotal = Boolean.TRUE;
+            }
             if (sortOrder == null) {
                 sortOrder = SortOrder.ASC;
             }
@@ -0,0 +1,94 @@
+package org.sagebionetworks.bridge.models.upload;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+
+import org.sagebionetworks.bridge.models.BridgeEntity;
+
+/**
+ * Handle for an upload redrive. Small redrives are run on the server, and this tracks each upload's result as it
+ * completes. Large redrives are sent to the Bridge Worker, and this only records that they were sent.
+ */
+public class UploadRedriveJob implements BridgeEntity {
+    public enum Status {
+        /** Uploads are being redriven on the server. */
+        IN_PROGRESS,
+        /** All uploads have been redriven. See the upload statuses and errors for results. */
+        COMPLETE,
+        /** Uploads were sent to the Bridge Worker for redrive. Results are not tracked here. */
+        SENT_TO_WORKER,
+    }
+
+    private String jobGuid;
+    private DateTime requestedOn;
+    private DateTime completedOn;
+    private Status status;
+    private int uploadCount;
+    private Map<String, UploadStatus> uploadStatuses = new HashMap<>();
+    private Map<String, String> errors = new HashMap<>();
+
+    /** Unique GUID for this job. */
+    public String getJobGuid() {
+        return jobGuid;
+    }
+
+    public void setJobGuid(String jobGuid) {
+        this.jobGuid = jobGuid;
+    }
+
+    /** Timestamp for when this job was requested. */
+    public DateTime getRequestedOn() {
+        return requestedOn;
+    }
+
+    public void setRequestedOn(DateTime requestedOn) {
+        this.requestedOn = requestedOn;
+    }
+
+    /** Timestamp for when all uploads were redriven. Null if the job isn't complete. */
+    public DateTime getCompletedOn() {
+        return completedOn;
+    }
+
+    public void setCompletedOn(DateTime completedOn) {
+        this.completedOn = completedOn;
+    }
+
+    /** Status of the redrive job. */
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    /** Number of uploads submitted for redrive. */
+    public int getUploadCount() {
+        return uploadCount;
+    }
+
+    public void setUploadCount(int uploadCount) {
+        this.uploadCount = uploadCount;
+    }
+
+    /** Validation status of each upload that was redriven, keyed by upload ID. */
+    public Map<String, UploadStatus> getUploadStatuses() {
+        return uploadStatuses;
+    }
+
+    public void setUploadStatuses(Map<String, UploadStatus> uploadStatuses) {
+        this.uploadStatuses = uploadStatuses != null ? uploadStatuses : new HashMap<>();
+    }
+
+    /** Error message for each upload that couldn't be redriven, keyed by upload ID. */
+    public Map<String, String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(Map<String, String> errors) {
+        this.errors = errors != null ? errors : new HashMap<>();
+    }
+}
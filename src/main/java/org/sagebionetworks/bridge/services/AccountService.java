@@ -7,7 +7,6 @@ import static org.sagebionetworks.bridge.AuthEvaluatorField.USER_ID;
 import static org.sagebionetworks.bridge.AuthUtils.CAN_READ_PARTICIPANTS;
 import static org.sagebionetworks.bridge.AuthUtils.CANNOT_ACCESS_PARTICIPANTS;
 import static org.sagebionetworks.bridge.AuthUtils.canAccessAccount;
-import static org.sagebionetworks.bridge.BridgeConstants.API_MAXIMUM_PAGE_SIZE;
 import static org.sagebionetworks.bridge.BridgeConstants.PREVIEW_USER_GROUP;
 import static org.sagebionetworks.bridge.BridgeConstants.TEST_USER_GROUP;
 import static org.sagebionetworks.bridge.BridgeUtils.addToSet;
@@ -15,13 +14,14 @@ import static org.sagebionetworks.bridge.BridgeUtils.collectStudyIds;
 import static org.sagebionetworks.bridge.dao.AccountDao.MIGRATION_VERSION;
 import static org.sagebionetworks.bridge.models.activities.ActivityEventObjectType.ENROLLMENT;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 
 import org.joda.time.DateTime;
@@ -264,12 +264,32 @@ public class AccountService {
         if (!optional.isPresent()) {
             return optional;
         }
-        if (!canAccessAccount( optional.get() )) {
+        return filterForCaller(optional.get());
+    }
+    
+    /**
+     * Get the accounts in an app with the given user IDs, loading them together rather than one at 
+     * a time. As with {@link #getAccount(AccountId)}, accounts the caller cannot access are omitted, 
+     * and the enrollments of each account are filtered to the studies the caller can access. IDs 
+     * that do not match an account are skipped.
+     */
+    public List<Account> getAccountsById(String appId, Collection<String> userIds) {
+        checkNotNull(appId);
+        checkNotNull(userIds);
+        
+        List<Account> accounts = new ArrayList<>();
+        for (Account account : accountDao.getAccountsById(appId, userIds)) {
+            filterForCaller(account).ifPresent(accounts::add);
+        }
+        return accounts;
+    }
+    
+    private Optional<Account> filterForCaller(Account account) {
+        if (!canAccessAccount(account)) {
             return Optional.empty();
         }
-        Account account = optional.get();
         if (CAN_READ_PARTICIPANTS.check(USER_ID, account.getId(), ORG_ID, account.getOrgMembership())) {
-            return optional;
+            return Optional.of(account);
         }
         // This was accessed through study rights, so remove the other studies from what the caller
         // can see.
@@ -278,7 +298,7 @@ public class AccountService {
         Set<Enrollment> removals = account.getEnrollments().stream()
                 .filter(en -> !callerStudies.contains(en.getStudyId())).collect(toSet());
         account.getEnrollments().removeAll(removals);
-        return optional;
+        return Optional.of(account);
     }
     
     /**
@@ -333,23 +353,9 @@ public class AccountService {
         checkNotNull(appId);
         checkNotNull(studyId);
 
-        AccountSummarySearch.Builder searchBuilder = new AccountSummarySearch.Builder()
-                .withPageSize(API_MAXIMUM_PAGE_SIZE)
-                .withAllOfGroups(ImmutableSet.of(PREVIEW_USER_GROUP))
-                .withEnrolledInStudyId(studyId);
-        
-        // Retrieve and delete pages from offset 0 until no items are returned. Currently
-        // an error will halt the process, but there are not many (or any) ways for a 
-        // participant to be unremovable in the database
-        PagedResourceList<AccountSummary> page = null;
-        do {
-            page = getPagedAccountSummaries(appId, searchBuilder.build());
-            for (AccountSummary summary : page.getItems()) {
-                // It is too slow to use deleteAccount because it cleans up a ton of
-                // DynamoDB resources. So... we leave all the non-relational data behind.
-                accountDao.deleteAccount(summary.getId());
-            }
-        } while(!page.getItems().isEmpty());
+        // It is too slow to use deleteAccount because it cleans up a ton of DynamoDB 
+        // resources. So... we leave all the non-relational data behind.
+        accountDao.deleteAccountsInStudyWithDataGroup(appId, studyId, PREVIEW_USER_GROUP);
     }
 
     /**
@@ -368,6 +374,18 @@ public class AccountService {
         return accountDao.getPagedAccountSummaries(appId, search);
     }
     
+    /**
+     * Pass all the account summaries that match the search to the consumer, without paging. The 
+     * paging parameters of the search are ignored. 
+     */
+    public void streamAccountSummaries(String appId, AccountSummarySearch search, Consumer<AccountSummary> consumer) {
+        checkNotNull(appId);
+        checkNotNull(search);
+        checkNotNull(consumer);
+        
+        accountDao.streamAccountSummaries(appId, search, consumer);
+    }
+    
     /**
      * Get the health code for an account.
      */
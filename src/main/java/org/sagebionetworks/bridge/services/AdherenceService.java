@@ -2,6 +2,8 @@ package org.sagebionetworks.bridge.services;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.lang.Boolean.TRUE;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 import static java.util.stream.Collectors.toSet;
 import static org.sagebionetworks.bridge.AuthUtils.CAN_ACCESS_ADHERENCE_DATA;
@@ -14,8 +16,10 @@ import static org.sagebionetworks.bridge.models.ResourceList.CURRENT_TIMESTAMPS_
 import static org.sagebionetworks.bridge.models.ResourceList.END_TIME;
 import static org.sagebionetworks.bridge.models.ResourceList.EVENT_TIMESTAMPS;
 import static org.sagebionetworks.bridge.models.ResourceList.INCLUDE_REPEATS;
+import static org.sagebionetworks.bridge.models.ResourceList.INCLUDE_TOTAL;
 import static org.sagebionetworks.bridge.models.ResourceList.INSTANCE_GUIDS;
 import static org.sagebionetworks.bridge.models.ResourceList.OFFSET_BY;
+import static org.sagebionetworks.bridge.models.ResourceList.OFFSET_KEY;
 import static org.sagebionetworks.bridge.models.ResourceList.PAGE_SIZE;
 import static org.sagebionetworks.bridge.models.ResourceList.PREDICATE;
 import static org.sagebionetworks.bridge.models.ResourceList.SESSION_GUIDS;
@@ -36,11 +40,18 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import java.util.Optional;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -118,6 +129,12 @@ public class AdherenceService {
     
     private RequestInfoService requestInfoService;
     
+    /**
+     * Batch report generation is CPU-bound once the data is loaded, so it runs on its own pool
+     * rather than the common pool (which is shared with parallel streams elsewhere).
+     */
+    private ForkJoinPool reportPool;
+    
     @Autowired
     final void setAdherenceRecordDao(AdherenceRecordDao recordDao) {
         this.recordDao = recordDao;
@@ -153,6 +170,33 @@ public class AdherenceService {
         this.requestInfoService = requestInfoService;
     }
     
+    // Provided to override in tests.
+    final void setReportPool(ForkJoinPool reportPool) {
+        this.reportPool = reportPool;
+    }
+    
+    ForkJoinPool getReportPool() {
+        return reportPool;
+    }
+    
+    @PostConstruct
+    public void startReportPool() {
+        if (reportPool != null) {
+            return;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        reportPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("adherence-report-" + threadNumber.incrementAndGet());
+            return thread;
+        }, null, false);
+    }
+    
+    @PreDestroy
+    public void stopReportPool() {
+        reportPool.shutdown();
+    }
+    
     protected DateTime getDateTime() {
         return DateTime.now();
     }
@@ -176,21 +220,25 @@ public class AdherenceService {
         
         MetadataContainer container = new MetadataContainer(scheduleService, recordList.getRecords());
         
-        // Update assessments
-        for (AdherenceRecord record : container.getAssessments()) {
-            TimelineMetadata meta = container.getMetadata(record.getInstanceGuid());
-            recordDao.updateAdherenceRecord(record);
-            publishEvent(appId, meta, record);
+        // Update assessments. These must be persisted before session state is calculated from them.
+        List<AdherenceRecord> assessments = ImmutableList.copyOf(container.getAssessments());
+        if (!assessments.isEmpty()) {
+            recordDao.updateAdherenceRecords(assessments);
+        }
+        for (AdherenceRecord record : assessments) {
+            publishEvent(appId, container.getMetadata(record.getInstanceGuid()), record);
         }
         // Update sessions implied by assessments
-        for (AdherenceRecord record : container.getAssessments()) {
+        for (AdherenceRecord record : assessments) {
             updateSessionState(appId, container, record);
         }
         // Update sessions
-        for (AdherenceRecord record : container.getSessionUpdates()) {
-            TimelineMetadata sessionMeta = container.getMetadata(record.getInstanceGuid());
-            recordDao.updateAdherenceRecord(record);
-            publishEvent(appId, sessionMeta, record);
+        List<AdherenceRecord> sessionUpdates = ImmutableList.copyOf(container.getSessionUpdates());
+        if (!sessionUpdates.isEmpty()) {
+            recordDao.updateAdherenceRecords(sessionUpdates);
+        }
+        for (AdherenceRecord record : sessionUpdates) {
+            publishEvent(appId, container.getMetadata(record.getInstanceGuid()), record);
         }
     }
     
@@ -209,7 +257,8 @@ public class AdherenceService {
                 .withUserId(asmt.getUserId())
                 .withStudyId(asmt.getStudyId())
                 .withEventTimestamps(ImmutableMap.of(asmtMeta.getSessionStartEventId(), asmt.getEventTimestamp()))
-                .withInstanceGuids(instanceGuids).build());
+                .withInstanceGuids(instanceGuids)
+                .withIncludeTotal(false).build());
         
         SessionState state = new SessionState(asmtMetas.size());
         
@@ -281,7 +330,9 @@ public class AdherenceService {
                 .withRequestParam(INCLUDE_REPEATS, search.getIncludeRepeats())
                 .withRequestParam(INSTANCE_GUIDS, originalInstanceGuids)
                 .withRequestParam(OFFSET_BY, search.getOffsetBy())
+                .withRequestParam(OFFSET_KEY, search.getOffsetKey())
                 .withRequestParam(PAGE_SIZE, search.getPageSize())
+                .withRequestParam(INCLUDE_TOTAL, search.getIncludeTotal())
                 .withRequestParam(PREDICATE, search.getPredicate())
                 .withRequestParam(ADHERENCE_RECORD_TYPE, search.getAdherenceRecordType())
                 .withRequestParam(SESSION_GUIDS, search.getSessionGuids())
@@ -407,7 +458,8 @@ public class AdherenceService {
                 .withEventTimestampEnd(eventTimestamp.plusMillis(1))
 
                 // Page size is required, but we're only looking for one record, so this is fine.
-                .withPageSize(1);
+                .withPageSize(1)
+                .withIncludeTotal(false);
 
         // If startedOn is specified, we need to search for that as well.
         if (attributes.getStartedOn() != null) {
@@ -524,9 +576,129 @@ public class AdherenceService {
         return weeklyReport;
     }
 
+    /**
+     * Generate and save the weekly adherence reports for a page of participants in a study, as
+     * {@link #getWeeklyAdherenceReportForWorker} does for one participant. The study, schedule, 
+     * and timeline metadata are loaded once, and the events, session adherence records, and request 
+     * infos of all the participants are each loaded in one query. The reports are then calculated in parallel,
+     * saved in one batch, and alerts are created for participants with low adherence. If a 
+     * participant's report cannot be generated, the error is logged and that participant is 
+     * omitted from the results.
+     */
+    public List<WeeklyAdherenceReport> getWeeklyAdherenceReportsForWorker(String appId, String studyId,
+            List<Account> accounts) {
+        checkNotNull(appId);
+        checkNotNull(studyId);
+        checkNotNull(accounts);
+        
+        if (accounts.isEmpty()) {
+            return ImmutableList.of();
+        }
+        Stopwatch watch = Stopwatch.createStarted();
+        
+        Study study = studyService.getStudy(appId, studyId, true);
+        if (study.getScheduleGuid() == null) {
+            throw new EntityNotFoundException(Schedule2.class);
+        }
+        Schedule2 schedule = scheduleService.getScheduleForStudy(appId, studyId)
+                .orElseThrow(() -> new EntityNotFoundException(Schedule2.class));
+        List<TimelineMetadata> metadata = scheduleService.getScheduleMetadata(study.getScheduleGuid());
+        StudyActivityEventIdsMap eventMap = studyService.getStudyActivityEventIdsMap(appId, studyId);
+        String studyZoneId = studyService.getZoneId(appId, studyId, null);
+        
+        Map<String, TimelineMetadata> sessionMetadata = metadata.stream()
+                .filter(meta -> meta.getAssessmentInstanceGuid() == null)
+                .collect(toMap(TimelineMetadata::getGuid, meta -> meta));
+        
+        Set<String> userIds = accounts.stream().map(Account::getId).collect(toSet());
+        Map<String, List<StudyActivityEvent>> eventsByUser = studyActivityEventService
+                .getRecentStudyActivityEventsForAccounts(appId, studyId, accounts);
+        Map<String, List<AdherenceRecord>> recordsByUser = recordDao.getSessionAdherenceRecords(studyId, userIds)
+                .stream().collect(groupingBy(AdherenceRecord::getUserId));
+        Map<String, RequestInfo> requestInfos = requestInfoService.getRequestInfos(userIds);
+        DateTime createdOn = getDateTime();
+        
+        List<WeeklyAdherenceReport> weeklyReports = reportPool.submit(() -> accounts.parallelStream().map(account -> {
+            try {
+                String zoneId = (account.getClientTimeZone() != null) ? account.getClientTimeZone() : studyZoneId;
+                List<StudyActivityEvent> events = eventsByUser.get(account.getId());
+                List<AdherenceRecord> records = currentSessionRecords(
+                        recordsByUser.getOrDefault(account.getId(), ImmutableList.of()), events, eventMap, sessionMetadata);
+                
+                AdherenceState state = new AdherenceState.Builder()
+                        .withNow(createdOn)
+                        .withClientTimeZone(zoneId)
+                        .withMetadata(metadata)
+                        .withEvents(events)
+                        .withAdherenceRecords(records)
+                        .withStudyStartEventId(study.getStudyStartEventId())
+                        .build();
+                StudyAdherenceReport report = StudyAdherenceReportGenerator.INSTANCE.generate(state, schedule);
+                report.setParticipant(new AccountRef(account, studyId));
+                report.setTestAccount(account.getDataGroups().contains(TEST_USER_GROUP));
+                report.setCreatedOn(createdOn);
+                report.setClientTimeZone(zoneId);
+                
+                return createWeeklyAdherenceReport(studyId, account, report, requestInfos.get(account.getId()));
+            } catch(RuntimeException e) {
+                LOG.error("Error generating weekly adherence report for account " + account.getId() 
+                    + " in study " + studyId, e);
+                return null;
+            }
+        }).filter(Objects::nonNull).collect(toList())).join();
+        
+        reportDao.saveWeeklyAdherenceReports(weeklyReports);
+        
+        Integer threshold = study.getAdherenceThresholdPercentage();
+        for (WeeklyAdherenceReport weeklyReport : weeklyReports) {
+            if (weeklyReport.getWeeklyAdherencePercent() != null && threshold != null
+                    && weeklyReport.getWeeklyAdherencePercent() <= threshold) {
+                alertService.createAlert(Alert.lowAdherence(studyId, appId, weeklyReport.getUserId(), threshold));
+            }
+        }
+        watch.stop();
+        LOG.info("Weekly adherence reports for " + accounts.size() + " participants took "
+                + watch.elapsed(TimeUnit.MILLISECONDS) + "ms");
+        return weeklyReports;
+    }
+    
+    /**
+     * Select the records that a search with currentTimestampsOnly=true would return: session records 
+     * whose event timestamp is the participant's current timestamp for the session’s start event.
+     */
+    protected List<AdherenceRecord> currentSessionRecords(List<AdherenceRecord> records,
+            List<StudyActivityEvent> events, StudyActivityEventIdsMap eventMap,
+            Map<String, TimelineMetadata> sessionMetadata) {
+        Map<String, DateTime> currentTimestamps = new HashMap<>();
+        addToMap(events.stream().collect(toMap(StudyActivityEvent::getEventId, StudyActivityEvent::getTimestamp)),
+                eventMap, currentTimestamps);
+        
+        List<AdherenceRecord> results = new ArrayList<>();
+        for (AdherenceRecord record : records) {
+            TimelineMetadata meta = sessionMetadata.get(record.getInstanceGuid());
+            if (meta == null || record.getEventTimestamp() == null) {
+                continue;
+            }
+            DateTime timestamp = currentTimestamps.get(meta.getSessionStartEventId());
+            if (timestamp != null && timestamp.getMillis() == record.getEventTimestamp().getMillis()) {
+                results.add(record);
+            }
+        }
+        return results;
+    }
+
     protected WeeklyAdherenceReport deriveWeeklyAdherenceFromStudyReportWeek(String studyId, Account account,
             StudyAdherenceReport report) {
         
+        RequestInfo info = requestInfoService.getRequestInfo(account.getId());
+        WeeklyAdherenceReport weeklyReport = createWeeklyAdherenceReport(studyId, account, report, info);
+        reportDao.saveWeeklyAdherenceReport(weeklyReport);
+        return weeklyReport;
+    }
+    
+    protected WeeklyAdherenceReport createWeeklyAdherenceReport(String studyId, Account account,
+            StudyAdherenceReport report, RequestInfo info) {
+        
         WeeklyAdherenceReport weeklyReport = new WeeklyAdherenceReport();
         weeklyReport.setAppId(account.getAppId());
         weeklyReport.setStudyId(studyId);
@@ -536,7 +708,6 @@ public class AdherenceService {
         weeklyReport.setClientTimeZone(report.getClientTimeZone());
         weeklyReport.setCreatedOn(report.getCreatedOn());
         
-        RequestInfo info = requestInfoService.getRequestInfo(account.getId());
         if (info == null || info.getSignedInOn() == null) {
             // Pad out this report so it is similar to reports that have no current active
             // tasks for the participant.
@@ -556,7 +727,6 @@ public class AdherenceService {
                 weeklyReport.setNextActivity(report.getNextActivity());    
             }
         }
-        reportDao.saveWeeklyAdherenceReport(weeklyReport);
         return weeklyReport;
     }
 
@@ -604,6 +774,7 @@ public class AdherenceService {
                 .withAdherenceRecordType(AdherenceRecordType.SESSION)
                 .withStudyId(studyId)
                 .withUserId(userId)
+                .withIncludeTotal(false)
                 .build()).getItems();
         
         builder.withMetadata(metadata);
@@ -660,8 +831,7 @@ public class AdherenceService {
                 appId, studyId, account.getId()).getItems();
         
         List<AdherenceRecord> adherenceRecords = new ArrayList<>();
-        int total;
-        int offset = 0;
+        String offsetKey = null;
         do {
             PagedResourceList<AdherenceRecord> pagedAdherenceRecords = getAdherenceRecords(appId, 
                     new AdherenceRecordsSearch.Builder()
@@ -672,14 +842,14 @@ public class AdherenceService {
                             .withStudyId(studyId)
                             .withUserId(account.getId())
                             .withPageSize(API_MAXIMUM_PAGE_SIZE)
-                            .withOffsetBy(offset)
+                            .withOffsetKey(offsetKey)
+                            .withIncludeTotal(false)
                             .build());
             
             adherenceRecords.addAll(pagedAdherenceRecords.getItems());
             
-            total = pagedAdherenceRecords.getTotal();
-            offset += API_MAXIMUM_PAGE_SIZE;
-        } while (offset < total);
+            offsetKey = pagedAdherenceRecords.getNextPageOffsetKey();
+        } while (offsetKey != null);
         
         builder.withMetadata(metadata);
         builder.withEvents(events);
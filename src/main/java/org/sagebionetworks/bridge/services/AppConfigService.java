@@ -4,21 +4,25 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.Comparator.comparingLong;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.sagebionetworks.bridge.BridgeConstants.RESOLVED_APP_CONFIG_EXPIRE_IN_SECONDS;
 import static org.sagebionetworks.bridge.BridgeConstants.SHARED_APP_ID;
 import static org.sagebionetworks.bridge.models.appconfig.ConfigResolver.INSTANCE;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.joda.time.DateTime;
 import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.dao.AppConfigDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoAppConfig;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.time.DateUtils;
+import org.sagebionetworks.bridge.models.CompiledCriteriaCache;
 import org.sagebionetworks.bridge.models.CriteriaContext;
-import org.sagebionetworks.bridge.models.CriteriaUtils;
 import org.sagebionetworks.bridge.models.GuidCreatedOnVersionHolder;
 import org.sagebionetworks.bridge.models.GuidCreatedOnVersionHolderImpl;
 import org.sagebionetworks.bridge.models.appconfig.AppConfig;
@@ -46,6 +50,12 @@ public class AppConfigService {
     
     private AppConfigDao appConfigDao;
     
+    private CacheProvider cacheProvider;
+    
+    private final CompiledCriteriaCache<AppConfig> compiledCriteria = new CompiledCriteriaCache<>(
+            appConfig -> Arrays.asList(appConfig.getGuid(), appConfig.getVersion()),
+            comparingLong(AppConfig::getCreatedOn));
+    
     private AppConfigElementService appConfigElementService;
     
     private AppService appService;
@@ -65,6 +75,11 @@ public class AppConfigService {
         this.appConfigDao = appConfigDao;
     }
     
+    @Autowired
+    final void setCacheProvider(CacheProvider cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
+    
     @Autowired
     final void setAppService(AppService appService) {
         this.appService = appService;
@@ -130,8 +145,7 @@ public class AppConfigService {
 
         List<AppConfig> appConfigs = getAppConfigs(context.getAppId(), false);
 
-        List<AppConfig> matches = CriteriaUtils.filterByCriteria(context, appConfigs,
-                comparingLong(AppConfig::getCreatedOn));
+        List<AppConfig> matches = compiledCriteria.filterByCriteria(context.getAppId(), context, appConfigs);
 
         // Should have matched one and only one app config.
         if (matches.isEmpty()) {
@@ -145,10 +159,30 @@ public class AppConfigService {
             LOG.info("CriteriaContext matches more than one app config: criteriaContext=" + context + ", appConfigs="+matches);
         }
         AppConfig matched = matches.get(0);
-        resolveReferences(context.getAppId(), matched);
+        resolveReferencesWithCache(context.getAppId(), matched);
         return matched;
     }
     
+    /**
+     * Resolving references requires a lookup for every survey, assessment, and config element in the
+     * app config, so the resolved references are cached for each revision of an app config. The keys
+     * are tracked in the app's AppConfigList set, which is cleared when app configs, config elements,
+     * surveys, or assessments in the app are changed.
+     */
+    protected void resolveReferencesWithCache(String appId, AppConfig config) {
+        CacheKey cacheKey = CacheKey.resolvedAppConfig(appId, config.getGuid(), config.getModifiedOn());
+        AppConfig resolved = cacheProvider.getObject(cacheKey, AppConfig.class);
+        if (resolved != null) {
+            config.setSurveyReferences(resolved.getSurveyReferences());
+            config.setAssessmentReferences(resolved.getAssessmentReferences());
+            config.setConfigElements(resolved.getConfigElements());
+            return;
+        }
+        resolveReferences(appId, config);
+        cacheProvider.setObject(cacheKey, config, RESOLVED_APP_CONFIG_EXPIRE_IN_SECONDS);
+        cacheProvider.addCacheKeyToSet(CacheKey.appConfigList(appId), cacheKey.toString());
+    }
+    
     protected void resolveReferences(String appId, AppConfig config) {
         config.setSurveyReferences(config.getSurveyReferences().stream()
                 .map(ref -> resolveSurvey(appId, ref))
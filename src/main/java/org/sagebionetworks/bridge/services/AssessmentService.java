@@ -49,6 +49,8 @@ import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.RequestContext;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.dao.AssessmentDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.EntityAlreadyExistsException;
@@ -71,6 +73,8 @@ public class AssessmentService {
     
     private OrganizationService organizationService;
     
+    private CacheProvider cacheProvider;
+    
     @Autowired
     final void setAssessmentDao(AssessmentDao assessmentDao) {
         this.dao = assessmentDao;
@@ -86,6 +90,11 @@ public class AssessmentService {
         this.organizationService = organizationService;
     }
     
+    @Autowired
+    final void setCacheProvider(CacheProvider cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
+    
     // accessor to mock for tests
     String generateGuid() {
         return BridgeUtils.generateGuid();
@@ -208,7 +217,9 @@ public class AssessmentService {
                     existing.getPhase().label() + " to " + assessment.getPhase().label() + ".");
         }
 
-        return dao.updateAssessment(appId, assessment);        
+        Assessment updated = dao.updateAssessment(appId, assessment);
+        expireResolvedAppConfigs(appId);
+        return updated;
     }
         
     public Assessment getAssessmentByGuid(String appId, String ownerId, String guid) {
@@ -329,7 +340,9 @@ public class AssessmentService {
         
         original.setOriginGuid(assessmentToPublish.getGuid());
         
-        return dao.publishAssessment(appId, original, assessmentToPublish, configToPublish);
+        Assessment published = dao.publishAssessment(appId, original, assessmentToPublish, configToPublish);
+        expireResolvedAppConfigs(appId);
+        return published;
     }
     
     /**
@@ -383,6 +396,7 @@ public class AssessmentService {
         assessment.setDeleted(true);
         assessment.setModifiedOn(getModifiedOn());
         dao.updateAssessment(appId, assessment);
+        expireResolvedAppConfigs(appId);
     }
         
     public void deleteAssessmentPermanently(String appId, String ownerId, String guid) {
@@ -393,6 +407,7 @@ public class AssessmentService {
         if (opt.isPresent()) {
             Assessment assessment = opt.get();
             dao.deleteAssessment(appId, assessment);
+            expireResolvedAppConfigs(appId);
         }
     }
     
@@ -400,6 +415,15 @@ public class AssessmentService {
         checkArgument(isNotBlank(appId));
         
         dao.deleteAllAssessments(appId);
+        expireResolvedAppConfigs(appId);
+    }
+    
+    /**
+     * App configs cache their resolved assessment references (see AppConfigService). Changes to 
+     * shared assessments are not propagated to every app, and are picked up when those entries expire.
+     */
+    private void expireResolvedAppConfigs(String appId) {
+        cacheProvider.removeSetOfCacheKeys(CacheKey.appConfigList(appId));
     }
 
     private Assessment createAssessmentInternal(String appId, Assessment assessment) {
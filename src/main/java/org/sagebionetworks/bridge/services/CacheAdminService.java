@@ -1,46 +1,125 @@
 package org.sagebionetworks.bridge.services;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.sagebionetworks.bridge.BridgeConstants.API_MAXIMUM_PAGE_SIZE;
+import static org.sagebionetworks.bridge.BridgeConstants.API_MINIMUM_PAGE_SIZE;
+import static org.sagebionetworks.bridge.BridgeConstants.PAGE_SIZE_ERROR;
+import static org.sagebionetworks.bridge.models.ResourceList.OFFSET_KEY;
+import static org.sagebionetworks.bridge.models.ResourceList.PAGE_SIZE;
+import static org.sagebionetworks.bridge.models.ResourceList.PATTERN;
+import static org.sagebionetworks.bridge.models.ResourceList.TYPE;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 import javax.annotation.Resource;
 
 import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.NearCache;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisDataException;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
+/**
+ * Administrative access to the Redis cache. Keys are enumerated with SCAN, a few hundred keys
+ * per call, rather than KEYS, which blocks Redis for as long as it takes to walk every key (and
+ * there is a key for every active session). SCAN guarantees that a key present for the whole
+ * iteration is returned at least once; keys added or removed during the iteration may or may not
+ * be returned, and a key can be returned more than once.
+ */
 @Component
 public class CacheAdminService {
     
+    /** Number of keys Redis examines in each SCAN call. */
+    static final int SCAN_BATCH_SIZE = 500;
+    
+    /** Maximum SCAN calls made to fill one page of filtered keys. */
+    static final int MAX_SCANS_PER_PAGE = 20;
+    
+    private static final String ALL_KEYS_PATTERN = "*";
+    
     private JedisPool jedisPool;
+    
+    private NearCache nearCache;
 
     @Resource(name = "jedisPool")
     public void setJedisPool(JedisPool jedisPool) {
         this.jedisPool = jedisPool;
     }
+    
+    @Autowired
+    public void setNearCache(NearCache nearCache) {
+        this.nearCache = nearCache;
+    }
 
     /**
      * Returns all keys in the cache that are not user session keys.
      * @return
      */
     public Set<String> listItems() {
+        Set<String> set = Sets.newHashSet();
         try (Jedis jedis = jedisPool.getResource()) {
-            Set<String> allKeys = jedis.keys("*");
-            Set<String> set = Sets.newHashSet();
-            for (String key : allKeys) {
-                if (CacheKey.isPublic(key)) {
-                    set.add(key);
-                }
-            }
-            return set;
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> result = jedis.scan(cursor, scanParams(ALL_KEYS_PATTERN, SCAN_BATCH_SIZE));
+                addPublicKeys(set, result.getResult(), null);
+                cursor = result.getStringCursor();
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
         }
+        return set;
+    }
+    
+    /**
+     * Returns a page of the keys in the cache that are not user session keys, optionally
+     * matching a Redis glob-style pattern and/or of one type (the last segment of the key, e.g.
+     * "App" or "view"). The nextPageOffsetKey is the SCAN cursor to continue from, and is null
+     * once the whole keyspace has been scanned. Redis examines roughly pageSize keys per call, and
+     * because filtering happens as keys are scanned, a page can contain somewhat more or fewer
+     * keys than the page size, and can even be empty while there are more pages.
+     */
+    public ForwardCursorPagedResourceList<String> listItems(String offsetKey, String pattern, String type,
+            int pageSize) {
+        if (pageSize < API_MINIMUM_PAGE_SIZE || pageSize > API_MAXIMUM_PAGE_SIZE) {
+            throw new BadRequestException(PAGE_SIZE_ERROR);
+        }
+        String cursor = isBlank(offsetKey) ? ScanParams.SCAN_POINTER_START : offsetKey;
+        String match = isBlank(pattern) ? ALL_KEYS_PATTERN : pattern;
+        String keyType = isBlank(type) ? null : type;
+        
+        List<String> keys = Lists.newArrayList();
+        try (Jedis jedis = jedisPool.getResource()) {
+            // Stop after a bounded number of calls, so a selective filter can't turn one page into
+            // a scan of the whole keyspace.
+            int calls = 0;
+            do {
+                ScanResult<String> result = jedis.scan(cursor, scanParams(match, pageSize));
+                addPublicKeys(keys, result.getResult(), keyType);
+                cursor = result.getStringCursor();
+            } while (keys.size() < pageSize && ++calls < MAX_SCANS_PER_PAGE
+                    && !ScanParams.SCAN_POINTER_START.equals(cursor));
+        } catch(JedisDataException e) {
+            throw new BadRequestException("Invalid offsetKey: " + offsetKey);
+        }
+        String nextPageOffsetKey = ScanParams.SCAN_POINTER_START.equals(cursor) ? null : cursor;
+        return new ForwardCursorPagedResourceList<String>(keys, nextPageOffsetKey, true)
+                .withRequestParam(OFFSET_KEY, offsetKey)
+                .withRequestParam(PATTERN, pattern)
+                .withRequestParam(TYPE, type)
+                .withRequestParam(PAGE_SIZE, pageSize);
     }
 
     /**
@@ -59,6 +138,47 @@ public class CacheAdminService {
         if (removed == null || removed == 0) {
             throw new BridgeServiceException("Item could not be removed from cache: does key '"+cacheKey+"' exist?"); 
         }
+        nearCache.invalidate(cacheKey);
+    }
+    
+    /**
+     * Delete all the keys matching a Redis glob-style pattern (sessions cannot be deleted). Keys
+     * are scanned and deleted a batch at a time, so Redis continues to serve other clients while
+     * this runs. Returns the number of keys that were deleted.
+     */
+    public int removeItems(String pattern) {
+        if (isBlank(pattern)) {
+            throw new BadRequestException("A pattern is required to remove items from the cache.");
+        }
+        int removed = 0;
+        try (Jedis jedis = jedisPool.getResource()) {
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> result = jedis.scan(cursor, scanParams(pattern, SCAN_BATCH_SIZE));
+                List<String> keys = Lists.newArrayList();
+                addPublicKeys(keys, result.getResult(), null);
+                if (!keys.isEmpty()) {
+                    Long count = jedis.del(keys.toArray(new String[keys.size()]));
+                    removed += (count == null) ? 0 : count.intValue();
+                    for (String key : keys) {
+                        nearCache.invalidate(key);
+                    }
+                }
+                cursor = result.getStringCursor();
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        }
+        return removed;
+    }
+    
+    private static ScanParams scanParams(String pattern, int count) {
+        return new ScanParams().match(pattern).count(count);
     }
     
+    private static void addPublicKeys(Collection<String> target, List<String> keys, String type) {
+        for (String key : keys) {
+            if (CacheKey.isPublic(key) && (type == null || key.endsWith(":" + type))) {
+                target.add(key);
+            }
+        }
+    }
 }
@@ -2,15 +2,24 @@ package org.sagebionetworks.bridge.services;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import com.amazonaws.services.s3.AmazonS3;
@@ -20,8 +29,6 @@ import com.amazonaws.services.sns.model.CreateTopicResult;
 import com.amazonaws.services.sns.model.PublishResult;
 import com.amazonaws.services.sns.model.SubscribeRequest;
 import com.amazonaws.services.sns.model.SubscribeResult;
-import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.model.SendMessageResult;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -60,6 +67,8 @@ import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.RequestContext;
 import org.sagebionetworks.bridge.SecureTokenGenerator;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.NearCache;
 import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
@@ -114,6 +123,7 @@ public class Exporter3Service {
     static final String CONFIG_KEY_DOWNSTREAM_ETL_SYNAPSE_ID = "downstream.etl.synapse.id";
     static final String CONFIG_KEY_EXPORTER_SYNAPSE_ID = "exporter.synapse.id";
     static final String CONFIG_KEY_EXPORTER_SYNAPSE_USER = "exporter.synapse.user";
+    static final String CONFIG_KEY_NOTIFICATION_THREAD_COUNT = "exporter3.notification.thread.count";
     static final String CONFIG_KEY_RAW_HEALTH_DATA_BUCKET = "health.data.bucket.raw";
     static final String CONFIG_KEY_SYNAPSE_TRACKING_VIEW = "synapse.tracking.view";
     static final String CONFIG_KEY_TEAM_BRIDGE_ADMIN = "team.bridge.admin";
@@ -276,11 +286,12 @@ public class Exporter3Service {
     private AppService appService;
     private BridgeConfig config;
     private HealthDataEx3Service healthDataEx3Service;
+    private NearCache nearCache;
     private ParticipantVersionService participantVersionService;
     private RequestInfoService requestInfoService;
     private S3Helper s3Helper;
     private AmazonSNS snsClient;
-    private AmazonSQS sqsClient;
+    private SqsBatchDispatcher sqsDispatcher;
     private StudyService studyService;
     private SynapseHelper synapseHelper;
     private Schedule2Service schedule2Service;
@@ -288,6 +299,8 @@ public class Exporter3Service {
     private FileService fileService;
     private DigestUtils md5DigestUtils;
     private AmazonS3 s3Client;
+    private ExecutorService notificationExecutor;
+    private int notificationThreadCount;
 
     @Autowired
     public final void setConfig(BridgeConfig config) {
@@ -299,6 +312,7 @@ public class Exporter3Service {
         exporterSynapseUser = config.getProperty(CONFIG_KEY_EXPORTER_SYNAPSE_USER);
         rawHealthDataBucket = config.getProperty(CONFIG_KEY_RAW_HEALTH_DATA_BUCKET);
         synapseTrackingViewId = config.getProperty(CONFIG_KEY_SYNAPSE_TRACKING_VIEW);
+        notificationThreadCount = config.getInt(CONFIG_KEY_NOTIFICATION_THREAD_COUNT);
 
         // It's called the bucket suffix in config, but it can be used as a general suffix for any resource.
         snsTopicSuffix = config.getProperty(CONFIG_KEY_BUCKET_SUFFIX);
@@ -318,6 +332,29 @@ public class Exporter3Service {
         }
     }
 
+    // Provided to override in tests.
+    final void setNotificationExecutor(ExecutorService notificationExecutor) {
+        this.notificationExecutor = notificationExecutor;
+    }
+
+    @PostConstruct
+    public void startNotificationExecutor() {
+        if (notificationExecutor != null) {
+            return;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        notificationExecutor = Executors.newFixedThreadPool(notificationThreadCount, runnable -> {
+            Thread thread = new Thread(runnable, "exporter3-notification-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stopNotificationExecutor() {
+        notificationExecutor.shutdown();
+    }
+
     @Autowired
     public final void setAccountService(AccountService accountService) {
         this.accountService = accountService;
@@ -354,8 +391,8 @@ public class Exporter3Service {
     }
 
     @Autowired
-    final void setSqsClient(AmazonSQS sqsClient) {
-        this.sqsClient = sqsClient;
+    final void setSqsDispatcher(SqsBatchDispatcher sqsDispatcher) {
+        this.sqsDispatcher = sqsDispatcher;
     }
 
     @Autowired
@@ -363,6 +400,11 @@ public class Exporter3Service {
         this.studyService = studyService;
     }
 
+    @Autowired
+    final void setNearCache(NearCache nearCache) {
+        this.nearCache = nearCache;
+    }
+
     @Resource(name="exporterSynapseClient")
     public final void setSynapseClient(SynapseClient synapseClient) {
         this.synapseClient = synapseClient;
@@ -693,58 +735,96 @@ public class Exporter3Service {
             throw new BadRequestException("App does not have Exporter 3.0 enabled");
         }
 
-        // Send app-wide notification.
+        // The app-wide and study-specific notifications are published together on the notification executor, and
+        // we wait for all of them. A failed notification doesn't stop the others.
+        Map<String, CompletableFuture<Void>> futuresByProject = new LinkedHashMap<>();
         Exporter3Configuration ex3Config = app.getExporter3Configuration();
         if (ex3Config != null && ex3Config.getExportNotificationTopicArn() != null) {
             String appNotificationTopicArn = ex3Config.getExportNotificationTopicArn();
-            try {
-                sendNotification(appId, null, type, appNotificationTopicArn, exportToAppNotification);
-            } catch (RuntimeException ex) {
-                LOG.error("Error notifying export for app-wide project, app=" + appId + ", record=" + recordId, ex);
-            }
+            futuresByProject.put("app-wide project", CompletableFuture.runAsync(() -> sendNotification(appId, null,
+                    type, appNotificationTopicArn, exportToAppNotification), notificationExecutor));
         } else {
             // This could happen if the study is configured for export, but not the app. Log at info level, so we can
             // trace with our logs.
             LOG.info("Export not enabled for app-wide project, app=" + appId + ", record=" + recordId);
         }
 
-        // Send study-specific notifications. Note that getStudyRecords() is never null.
+        // Note that getStudyRecords() is never null.
         Map<String, ExportedRecordInfo> studyRecordMap = exportToAppNotification.getStudyRecords();
         for (Map.Entry<String, ExportedRecordInfo> entry : studyRecordMap.entrySet()) {
             String studyId = entry.getKey();
+            ExportedRecordInfo recordInfo = entry.getValue();
+            futuresByProject.put("study " + studyId, CompletableFuture.runAsync(() -> sendStudyExportNotification(
+                    appId, studyId, recordId, type, recordInfo), notificationExecutor));
+        }
 
+        // Report all failures for this record together.
+        List<String> errorList = new ArrayList<>();
+        Throwable firstError = null;
+        for (Map.Entry<String, CompletableFuture<Void>> entry : futuresByProject.entrySet()) {
             try {
-                Study study = studyService.getStudy(appId, studyId, false);
-                if (study == null || !study.isExporter3Enabled() || study.getExporter3Configuration() == null) {
-                    // This is very unusual. Log and move on.
-                    LOG.error("Export for non-existent or non-configured study, app=" + appId + ", study=" +
-                            studyId + ", record=" + recordId);
-                    continue;
-                }
-                String studyNotificationTopicArn = study.getExporter3Configuration()
-                        .getExportNotificationTopicArn();
-                if (studyNotificationTopicArn == null) {
-                    // This is normal. Skip.
-                    continue;
+                entry.getValue().join();
+            } catch (CompletionException ex) {
+                Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                errorList.add(entry.getKey() + ": " + cause.getMessage());
+                if (firstError == null) {
+                    firstError = cause;
                 }
-
-                ExportedRecordInfo recordInfo = entry.getValue();
-                ExportToStudyNotification exportToStudyNotification = new ExportToStudyNotification();
-                exportToStudyNotification.setAppId(appId);
-                exportToStudyNotification.setStudyId(studyId);
-                exportToStudyNotification.setRecordId(recordId);
-                exportToStudyNotification.setParentProjectId(recordInfo.getParentProjectId());
-                exportToStudyNotification.setRawFolderId(recordInfo.getRawFolderId());
-                exportToStudyNotification.setFileEntityId(recordInfo.getFileEntityId());
-                exportToStudyNotification.setS3Bucket(recordInfo.getS3Bucket());
-                exportToStudyNotification.setS3Key(recordInfo.getS3Key());
-
-                sendNotification(appId, studyId, type, studyNotificationTopicArn, exportToStudyNotification);
-            } catch (RuntimeException ex) {
-                LOG.error("Error notifying export for study-specific project, app=" + appId + ", study=" +
-                        studyId + ", record=" + recordId, ex);
             }
         }
+        if (!errorList.isEmpty()) {
+            LOG.error("Error notifying export for " + errorList.size() + " of " + futuresByProject.size() +
+                    " projects, app=" + appId + ", record=" + recordId + ": " + String.join("; ", errorList),
+                    firstError);
+        }
+    }
+
+    // Sends the notification for one study's copy of an exported record, if the study has a notification topic.
+    private void sendStudyExportNotification(String appId, String studyId, String recordId, String type,
+            ExportedRecordInfo recordInfo) {
+        Optional<String> studyNotificationTopicArn = getStudyNotificationTopicArn(appId, studyId, recordId);
+        if (!studyNotificationTopicArn.isPresent()) {
+            return;
+        }
+
+        ExportToStudyNotification exportToStudyNotification = new ExportToStudyNotification();
+        exportToStudyNotification.setAppId(appId);
+        exportToStudyNotification.setStudyId(studyId);
+        exportToStudyNotification.setRecordId(recordId);
+        exportToStudyNotification.setParentProjectId(recordInfo.getParentProjectId());
+        exportToStudyNotification.setRawFolderId(recordInfo.getRawFolderId());
+        exportToStudyNotification.setFileEntityId(recordInfo.getFileEntityId());
+        exportToStudyNotification.setS3Bucket(recordInfo.getS3Bucket());
+        exportToStudyNotification.setS3Key(recordInfo.getS3Key());
+
+        sendNotification(appId, studyId, type, studyNotificationTopicArn.get(), exportToStudyNotification);
+    }
+
+    // Gets the study's export notification topic from the near cache, or from the study if it isn't cached. This
+    // saves looking up every study for every exported record. StudyService invalidates the cached topic (on every
+    // server) whenever the study changes. recordId is used for logging.
+    private Optional<String> getStudyNotificationTopicArn(String appId, String studyId, String recordId) {
+        CacheKey cacheKey = CacheKey.studyExportTopic(appId, studyId);
+        byte[] cached = nearCache.get(cacheKey);
+        if (cached != null) {
+            // A study with no topic is cached as an empty value.
+            return cached.length == 0 ? Optional.empty() : Optional.of(new String(cached, Charsets.UTF_8));
+        }
+
+        long generation = nearCache.getGeneration(cacheKey);
+        Study study = studyService.getStudy(appId, studyId, false);
+        if (study == null || !study.isExporter3Enabled() || study.getExporter3Configuration() == null) {
+            // This is very unusual. Log and move on. This isn't cached, so the study is looked up again once it's
+            // configured.
+            LOG.error("Export for non-existent or non-configured study, app=" + appId + ", study=" + studyId +
+                    ", record=" + recordId);
+            return Optional.empty();
+        }
+
+        // A study with no notification topic is normal.
+        String topicArn = study.getExporter3Configuration().getExportNotificationTopicArn();
+        nearCache.put(cacheKey, topicArn == null ? new byte[0] : topicArn.getBytes(Charsets.UTF_8), generation);
+        return Optional.ofNullable(topicArn);
     }
 
     // Helper method for sending SNS notifications. appId, studyId, and type are used for logging. topicArn is the SNS
@@ -885,6 +965,15 @@ public class Exporter3Service {
 
     /** Complete an upload for Exporter 3.0, and also export that upload. */
     public void completeUpload(App app, Upload upload) throws JsonProcessingException {
+        HealthDataRecordEx3 record = saveUploadRecord(app, upload);
+        exportUploadRecord(app.getIdentifier(), record);
+    }
+
+    /**
+     * Creates or updates the Exporter 3.0 record for the given upload, and returns the saved record. This overwrites
+     * the record with the same ID, so it is safe to call again if it fails.
+     */
+    public HealthDataRecordEx3 saveUploadRecord(App app, Upload upload) throws JsonProcessingException {
         String appId = app.getIdentifier();
         String healthCode = upload.getHealthCode();
 
@@ -950,9 +1039,15 @@ public class Exporter3Service {
         }
 
         // Save record.
-        record = healthDataEx3Service.createOrUpdateRecord(record);
+        return healthDataEx3Service.createOrUpdateRecord(record);
+    }
 
-        if (sharingScope != SharingScope.NO_SHARING) {
+    /**
+     * Sends the saved record to the Worker to be exported, unless the participant isn't sharing. Each call sends a
+     * new request, so calling this again after a failed send can export the record twice.
+     */
+    public void exportUploadRecord(String appId, HealthDataRecordEx3 record) {
+        if (record.getSharingScope() != SharingScope.NO_SHARING) {
             exportUpload(appId, record.getId());
         }
     }
@@ -983,9 +1078,9 @@ public class Exporter3Service {
         String workerQueueUrl = config.getProperty(BridgeConstants.CONFIG_KEY_WORKER_SQS_URL);
 
         // Sent to SQS.
-        SendMessageResult sqsResult = sqsClient.sendMessage(workerQueueUrl, requestJson);
+        String messageId = sqsDispatcher.sendMessage(workerQueueUrl, requestJson);
         LOG.info("Sent export request for app " + appId + " record " + recordId + "; received message ID=" +
-                sqsResult.getMessageId());
+                messageId);
     }
 
     // Export timeline from Bridge to Synapse (Some researchers only have access to Synapse, not Bridge,
@@ -34,6 +34,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.model.SendMessageResult;
@@ -360,13 +361,28 @@ public class ParticipantService {
     public PagedResourceList<AccountSummary> getPagedAccountSummaries(App app, AccountSummarySearch search) {
         checkNotNull(app);
         
+        return accountService.getPagedAccountSummaries(app.getIdentifier(), scopeSearch(app, search));
+    }
+    
+    /**
+     * Pass all the account summaries that match the search to the consumer, regardless of the number 
+     * of matching accounts. The paging parameters of the search are ignored.
+     */
+    public void streamAccountSummaries(App app, AccountSummarySearch search, Consumer<AccountSummary> consumer) {
+        checkNotNull(app);
+        checkNotNull(consumer);
+        
+        accountService.streamAccountSummaries(app.getIdentifier(), scopeSearch(app, search), consumer);
+    }
+    
+    private AccountSummarySearch scopeSearch(App app, AccountSummarySearch search) {
         Validate.entityThrowingException(new AccountSummarySearchValidator(app.getDataGroups()), search);
         
         if (CANNOT_ACCESS_PARTICIPANTS.check()) {
             Set<String> newDataGroups = addToSet(search.getAllOfGroups(), TEST_USER_GROUP);
             search = search.toBuilder().withAllOfGroups(newDataGroups).build();
         }
-        return accountService.getPagedAccountSummaries(app.getIdentifier(), search);
+        return search;
     }
 
     /**
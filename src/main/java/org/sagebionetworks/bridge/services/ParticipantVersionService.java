@@ -8,8 +8,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
-import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.model.SendMessageResult;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
@@ -46,7 +44,7 @@ public class ParticipantVersionService {
     private DemographicService demographicService;
     private BridgeConfig config;
     private ParticipantVersionDao participantVersionDao;
-    private AmazonSQS sqsClient;
+    private SqsBatchDispatcher sqsDispatcher;
 
     @Autowired
     public final void setAppService(AppService appService) {
@@ -69,8 +67,8 @@ public class ParticipantVersionService {
     }
 
     @Autowired
-    public final void setSqsClient(AmazonSQS sqsClient) {
-        this.sqsClient = sqsClient;
+    public final void setSqsDispatcher(SqsBatchDispatcher sqsDispatcher) {
+        this.sqsDispatcher = sqsDispatcher;
     }
 
     /** Creates a participant version from an account. */
@@ -281,9 +279,9 @@ public class ParticipantVersionService {
         String workerQueueUrl = config.getProperty(BridgeConstants.CONFIG_KEY_WORKER_SQS_URL);
 
         // Sent to SQS.
-        SendMessageResult sqsResult = sqsClient.sendMessage(workerQueueUrl, requestJson);
+        String messageId = sqsDispatcher.sendMessage(workerQueueUrl, requestJson);
         LOG.info("Sent export participant version request for app " + appId + " healthCode " + healthCode +
-                " version " + versionNum + "; received message ID=" + sqsResult.getMessageId());
+                " version " + versionNum + "; received message ID=" + messageId);
     }
 
     /** Delete all participant versions for the given health code. This is called by integration tests. */
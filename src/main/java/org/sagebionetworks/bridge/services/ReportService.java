@@ -10,6 +10,7 @@ import static org.sagebionetworks.bridge.BridgeConstants.API_MINIMUM_PAGE_SIZE;
 import static org.sagebionetworks.bridge.BridgeUtils.isEmpty;
 import static org.sagebionetworks.bridge.models.ResourceList.REPORT_TYPE;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -25,10 +26,14 @@ import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.RequestContext;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.NearCache;
 import org.sagebionetworks.bridge.dao.ReportDataDao;
 import org.sagebionetworks.bridge.dao.ReportIndexDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.time.DateUtils;
 import org.sagebionetworks.bridge.models.DateRangeResourceList;
 import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
@@ -68,6 +73,7 @@ public class ReportService {
     
     private ReportDataDao reportDataDao;
     private ReportIndexDao reportIndexDao;
+    private NearCache nearCache;
     
     @Autowired
     final void setReportDataDao(ReportDataDao reportDataDao) {
@@ -79,6 +85,11 @@ public class ReportService {
         this.reportIndexDao = reportIndexDao;
     }
     
+    @Autowired
+    final void setNearCache(NearCache nearCache) {
+        this.nearCache = nearCache;
+    }
+    
     /**
      * Get a report index.
      */
@@ -204,7 +215,7 @@ public class ReportService {
                 .withAppId(appId).build();
         reportData.setReportDataKey(key);
         
-        ReportIndex index = reportIndexDao.getIndex(key);
+        ReportIndex index = getCachedIndex(key);
         checkStudyReportAccess(index);
         
         ReportDataValidator validator = new ReportDataValidator(index);
@@ -233,7 +244,7 @@ public class ReportService {
                 .withAppId(appId).build();
         reportData.setReportDataKey(key);
         
-        ReportIndex index = reportIndexDao.getIndex(key);
+        ReportIndex index = getCachedIndex(key);
         checkParticipantReportAccess(userId, index);
         
         ReportDataValidator validator = new ReportDataValidator(index);
@@ -260,6 +271,7 @@ public class ReportService {
         
         reportDataDao.deleteReportData(key);
         reportIndexDao.removeIndex(key);
+        invalidateCachedIndex(key);
     }
     
     /**
@@ -287,6 +299,7 @@ public class ReportService {
         DateRangeResourceList<? extends ReportData> results = getStudyReport(appId, identifier, startDate, endDate);
         if (results.getItems().isEmpty()) {
             reportIndexDao.removeIndex(key);
+            invalidateCachedIndex(key);
         }
     }
     
@@ -362,6 +375,7 @@ public class ReportService {
         checkParticipantReportAccess(userId, index);
         
         reportIndexDao.removeIndex(key);
+        invalidateCachedIndex(key);
     }
 
     /**
@@ -393,6 +407,11 @@ public class ReportService {
             index.setStudyIds(existingIndex.getStudyIds());
         }
         reportIndexDao.updateIndex(index);
+        // The key above is always a study key, but a participant index is cached under a participant key.
+        invalidateCachedIndex(new ReportDataKey.Builder()
+                .withReportType(reportType)
+                .withIdentifier(index.getIdentifier())
+                .withAppId(appId).build());
     }
     
     protected void checkParticipantReportAccess(String userId, ReportIndex index) {
@@ -436,6 +455,34 @@ public class ReportService {
         reportIndexDao.addIndex(key, studies);
     }
     
+    // Gets the index from the near cache, or from DynamoDB if it isn't held locally. Clients that upload a report 
+    // record per participant per day hit the same few indices over and over, so this saves a DynamoDB read on 
+    // most saves. The index is used for access checks, so every change to it is invalidated on all nodes through 
+    // the near cache. A missing index isn't cached, because the save that finds it missing is about to create it.
+    private ReportIndex getCachedIndex(ReportDataKey key) {
+        CacheKey cacheKey = CacheKey.reportIndex(key);
+        try {
+            byte[] ser = nearCache.get(cacheKey);
+            if (ser != null) {
+                ReportIndex index = BridgeObjectMapper.get().readValue(ser, ReportIndex.class);
+                index.setKey(key.getIndexKeyString());
+                return index;
+            }
+            long generation = nearCache.getGeneration(cacheKey);
+            ReportIndex index = reportIndexDao.getIndex(key);
+            if (index != null) {
+                nearCache.put(cacheKey, BridgeObjectMapper.get().writeValueAsBytes(index), generation);
+            }
+            return index;
+        } catch (IOException e) {
+            throw new BridgeServiceException(e);
+        }
+    }
+    
+    private void invalidateCachedIndex(ReportDataKey key) {
+        nearCache.invalidate(CacheKey.reportIndex(key));
+    }
+    
     private RangeTuple<DateTime> validateDateTimeRange(DateTime startTime, DateTime endTime) {
         // If nothing is provided, we will default to 13 days prior to today
         if (startTime == null && endTime == null) {
@@ -3,19 +3,61 @@ package org.sagebionetworks.bridge.services;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.dao.RequestInfoDao;
 import org.sagebionetworks.bridge.models.RequestInfo;
 
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+/**
+ * Request info is updated on many calls a participant makes. When a flush interval is configured,
+ * updates are coalesced per user in memory on this node and written in batches on that interval,
+ * so a busy participant costs one write per interval rather than one per request. Reads on this
+ * node see the buffered values; other nodes see them after the next flush. The buffer holds at
+ * most a fixed number of users; once it is full, updates for other users are written directly.
+ * Buffered updates are flushed when the server shuts down.
+ */
 @Component
 public class RequestInfoService {
-    
+    private static final Logger LOG = LoggerFactory.getLogger(RequestInfoService.class);
+
+    static final String FLUSH_INTERVAL_PROPERTY = "request.info.flush.interval.millis";
+    static final String MAX_BUFFERED_PROPERTY = "request.info.max.buffered";
+    static final int FLUSH_BATCH_SIZE = 500;
+
+    private final ConcurrentMap<String, RequestInfo> buffer = new ConcurrentHashMap<>();
+    // Entries removed from the buffer that are being written, so reads still see them
+    private final ConcurrentMap<String, RequestInfo> flushing = new ConcurrentHashMap<>();
+    // Held while a batch is written and while a user's request info is removed, so a flush that has
+    // already taken a user's entry can't write it after the record is deleted.
+    private final Object writeLock = new Object();
     private CacheProvider cacheProvider;
     private RequestInfoDao requestInfoDao;
-    
+    private long flushIntervalMillis;
+    private int maxBuffered;
+    private ScheduledExecutorService flushExecutor;
+
     @Autowired
     final void setCacheProvider(CacheProvider cacheProvider) {
         this.cacheProvider = cacheProvider;
@@ -24,17 +66,65 @@ public class RequestInfoService {
     final void setRequestInfoDao(RequestInfoDao requestInfoDao) {
         this.requestInfoDao = requestInfoDao;
     }
-    
+    @Autowired
+    final void setBridgeConfig(BridgeConfig config) {
+        this.flushIntervalMillis = config.getInt(FLUSH_INTERVAL_PROPERTY);
+        this.maxBuffered = config.getInt(MAX_BUFFERED_PROPERTY);
+    }
+    // Zero (the default) disables buffering, and updates are written immediately.
+    final void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+    final void setMaxBuffered(int maxBuffered) {
+        this.maxBuffered = maxBuffered;
+    }
+
+    @PostConstruct
+    public void startFlushing() {
+        if (flushIntervalMillis <= 0) {
+            return;
+        }
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "request-info-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushExecutor.scheduleWithFixedDelay(this::flushSafely, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stopFlushing() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+            try {
+                flushExecutor.awaitTermination(flushIntervalMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
     public void updateRequestInfo(RequestInfo requestInfo) {
         checkNotNull(requestInfo);
-        
-        requestInfoDao.updateRequestInfo(requestInfo);
+
+        if (!isBuffering() || (buffer.size() >= maxBuffered && !buffer.containsKey(requestInfo.getUserId()))) {
+            requestInfoDao.updateRequestInfo(requestInfo);
+            return;
+        }
+        buffer.merge(requestInfo.getUserId(), requestInfo, RequestInfoService::merge);
     }
-    
+
     public RequestInfo getRequestInfo(String userId) {
         isNotBlank(userId);
-        
+
         RequestInfo requestInfo = requestInfoDao.getRequestInfo(userId);
+        RequestInfo inFlush = flushing.get(userId);
+        RequestInfo buffered = buffer.get(userId);
+        if (inFlush != null || buffered != null) {
+            return merge(merge(requestInfo, inFlush), buffered);
+        }
         if (requestInfo == null) {
             requestInfo = cacheProvider.getRequestInfo(userId);
             if (requestInfo != null) {
@@ -43,11 +133,127 @@ public class RequestInfoService {
         }
         return requestInfo;
     }
-    
+
+    /**
+     * Get the request infos of a set of users, keyed by user ID, with one database query. Like 
+     * {@link #getRequestInfo(String)}, this includes updates buffered on this node, and falls back 
+     * to the cache for users that have no record in the database. Users with no request info are 
+     * omitted.
+     */
+    public Map<String, RequestInfo> getRequestInfos(Collection<String> userIds) {
+        checkNotNull(userIds);
+        
+        Map<String, RequestInfo> requestInfos = new HashMap<>();
+        for (RequestInfo requestInfo : requestInfoDao.getRequestInfos(userIds)) {
+            requestInfos.put(requestInfo.getUserId(), requestInfo);
+        }
+        for (String userId : userIds) {
+            RequestInfo requestInfo = requestInfos.get(userId);
+            RequestInfo inFlush = flushing.get(userId);
+            RequestInfo buffered = buffer.get(userId);
+            if (inFlush != null || buffered != null) {
+                requestInfos.put(userId, merge(merge(requestInfo, inFlush), buffered));
+            } else if (requestInfo == null) {
+                requestInfo = cacheProvider.getRequestInfo(userId);
+                if (requestInfo != null) {
+                    requestInfoDao.updateRequestInfo(requestInfo);
+                    requestInfos.put(userId, requestInfo);
+                }
+            }
+        }
+        return requestInfos;
+    }
+
     public void removeRequestInfo(String userId) {
         isNotBlank(userId);
-        
-        requestInfoDao.removeRequestInfo(userId);
-        cacheProvider.removeRequestInfo(userId);
+
+        synchronized(writeLock) {
+            buffer.remove(userId);
+            // The flush skips entries that are no longer in this map
+            flushing.remove(userId);
+            requestInfoDao.removeRequestInfo(userId);
+            cacheProvider.removeRequestInfo(userId);
+        }
+    }
+
+    /**
+     * Write all buffered updates to the database. Each user's entry is removed from the buffer
+     * before it is written, so updates that arrive during the flush are written by the next flush.
+     */
+    void flush() {
+        write(takeBuffered());
+    }
+
+    /** Move all buffered updates into the set of updates being flushed, and return them. */
+    List<RequestInfo> takeBuffered() {
+        List<RequestInfo> pending = Lists.newArrayList();
+        for (String userId : buffer.keySet()) {
+            RequestInfo requestInfo = buffer.remove(userId);
+            if (requestInfo != null) {
+                flushing.put(userId, requestInfo);
+                pending.add(requestInfo);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Write updates taken from the buffer in batches. Updates for users whose request info was removed
+     * after they were taken are skipped.
+     */
+    void write(List<RequestInfo> pending) {
+        for (List<RequestInfo> partition : Iterables.partition(pending, FLUSH_BATCH_SIZE)) {
+            synchronized(writeLock) {
+                writeBatch(partition);
+            }
+        }
+    }
+
+    private void writeBatch(List<RequestInfo> partition) {
+        List<RequestInfo> batch = partition.stream()
+                .filter(requestInfo -> flushing.get(requestInfo.getUserId()) == requestInfo)
+                .collect(Collectors.toList());
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            requestInfoDao.updateRequestInfos(batch);
+        } catch(RuntimeException e) {
+            // e.g. another node created one of these records concurrently. Fall back to
+            // writing each record individually so one failure doesn't lose the whole batch.
+            LOG.warn("Could not write batch of " + batch.size() + " request infos, writing individually", e);
+            for (RequestInfo requestInfo : batch) {
+                try {
+                    requestInfoDao.updateRequestInfo(requestInfo);
+                } catch(RuntimeException re) {
+                    LOG.error("Could not write request info for user " + requestInfo.getUserId(), re);
+                }
+            }
+        } finally {
+            for (RequestInfo requestInfo : batch) {
+                flushing.remove(requestInfo.getUserId(), requestInfo);
+            }
+        }
+    }
+
+    int getBufferedCount() {
+        return buffer.size();
+    }
+
+    private boolean isBuffering() {
+        return flushIntervalMillis > 0 && (flushExecutor == null || !flushExecutor.isShutdown());
+    }
+
+    // An exception in a scheduled task cancels all future executions, so never let one escape.
+    private void flushSafely() {
+        try {
+            flush();
+        } catch(Throwable t) {
+            LOG.error("Error flushing request infos", t);
+        }
+    }
+
+    private static RequestInfo merge(RequestInfo existing, RequestInfo update) {
+        return new RequestInfo.Builder().copyOf(existing).copyOf(update).build();
     }
 }
@@ -20,6 +20,7 @@ import static org.sagebionetworks.bridge.models.ResourceList.OFFSET_BY;
 import static org.sagebionetworks.bridge.models.ResourceList.PAGE_SIZE;
 import static org.sagebionetworks.bridge.validators.Schedule2Validator.INSTANCE;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
@@ -31,6 +32,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.RequestContext;
@@ -66,6 +69,20 @@ import org.slf4j.LoggerFactory;
 @Component
 public class Schedule2Service {
     private static final Logger LOG = LoggerFactory.getLogger(Schedule2Service.class);
+    
+    static final int MAX_CACHED_TIMELINES = 1000;
+    
+    /**
+     * Timelines are calculated from the whole schedule, and for schedules with many sessions, 
+     * windows, and study bursts, this dominates the time it takes to generate a participant 
+     * schedule. They are cached on each node by app, schedule GUID, schedule modifiedOn, and 
+     * the caller's languages (which determine the labels that are selected). A change to a 
+     * schedule changes its modifiedOn, so stale timelines are never returned, but they are also 
+     * removed when a schedule is changed so they don't occupy the cache. Cached timelines are 
+     * shared between requests and must not be modified.
+     */
+    private final Cache<List<Object>, Timeline> timelineCache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_TIMELINES).expireAfterAccess(1, TimeUnit.HOURS).build();
 
     @Autowired
     private OrganizationService organizationService;
@@ -276,6 +293,7 @@ public class Schedule2Service {
 
         Validate.entityThrowingException(INSTANCE, schedule);
         
+        invalidateTimelines(schedule.getGuid());
         return dao.updateSchedule(schedule);
     }
     
@@ -299,6 +317,7 @@ public class Schedule2Service {
         
         studyService.updateStudyEtags(appId, guid, existing.getModifiedOn());
         
+        invalidateTimelines(guid);
         return dao.updateSchedule(existing);
     }
     
@@ -319,6 +338,7 @@ public class Schedule2Service {
         
         studyService.removeStudyEtags(appId, guid);
         
+        invalidateTimelines(guid);
         dao.deleteSchedule(existing);
     }
     
@@ -338,6 +358,7 @@ public class Schedule2Service {
         
         studyService.removeStudyEtags(appId, guid);
         
+        invalidateTimelines(guid);
         dao.deleteSchedulePermanently(existing);
     }
     
@@ -345,8 +366,7 @@ public class Schedule2Service {
         Schedule2 schedule = dao.getSchedule(appId, guid)
                 .orElseThrow(() -> new EntityNotFoundException(Schedule2.class));
         
-        // This is calculated so quickly it is not worth caching
-        return Scheduler.INSTANCE.calculateTimeline(schedule);
+        return getTimeline(schedule);
     }
     
     public List<TimelineMetadata> getScheduleMetadata(String guid) {
@@ -368,6 +388,7 @@ public class Schedule2Service {
     public void deleteAllSchedules(String appId) {
         checkNotNull(appId);
         
+        timelineCache.asMap().keySet().removeIf(key -> appId.equals(key.get(0)));
         dao.deleteAllSchedules(appId);
     }
     
@@ -417,12 +438,33 @@ public class Schedule2Service {
         builder.withClientTimeZone(zoneId);
         AdherenceState state = builder.build();
 
-        Timeline timeline = Scheduler.INSTANCE.calculateTimeline(schedule);
+        Timeline timeline = getTimeline(schedule);
         ParticipantSchedule participantSchedule = ParticipantScheduleGenerator.INSTANCE.generate(state, timeline);
         
         watch.stop();
         LOG.info("Participant schedule took " + watch.elapsed(TimeUnit.MILLISECONDS) + "ms");
         return participantSchedule;
     }
-
+    
+    /**
+     * Get the timeline for this schedule from the cache, calculating it if necessary.
+     */
+    Timeline getTimeline(Schedule2 schedule) {
+        List<Object> key = Arrays.asList(schedule.getAppId(), schedule.getGuid(), 
+                schedule.getModifiedOn(), RequestContext.get().getCallerLanguages());
+        Timeline timeline = timelineCache.getIfPresent(key);
+        if (timeline == null) {
+            timeline = Scheduler.INSTANCE.calculateTimeline(schedule);
+            timelineCache.put(key, timeline);
+        }
+        return timeline;
+    }
+    
+    long getCachedTimelineCount() {
+        return timelineCache.size();
+    }
+    
+    private void invalidateTimelines(String scheduleGuid) {
+        timelineCache.asMap().keySet().removeIf(key -> scheduleGuid.equals(key.get(1)));
+    }
 }
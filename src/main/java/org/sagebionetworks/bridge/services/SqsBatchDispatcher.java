@@ -0,0 +1,318 @@
+package org.sagebionetworks.bridge.services;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.ServiceUnavailableException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+
+/**
+ * Sends SQS messages in batches. Messages are buffered per queue for a few milliseconds and then sent with
+ * SendMessageBatch, so a burst of uploads costs one SQS call per 10 messages instead of one per message. Callers of
+ * {@link #sendMessage} still block until their message is sent and get its message ID, so errors reach them as they
+ * did with AmazonSQS.sendMessage(). Entries that fail on the SQS side are retried. Whole-batch errors are not, since
+ * the SQS client has already retried those. The buffer is bounded: when it's full, new messages are rejected with a
+ * ServiceUnavailableException.
+ */
+@Component
+public class SqsBatchDispatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(SqsBatchDispatcher.class);
+
+    static final String CONFIG_KEY_LINGER_MILLIS = "sqs.batch.linger.millis";
+    static final String CONFIG_KEY_BUFFER_CAPACITY = "sqs.batch.buffer.capacity";
+    static final String CONFIG_KEY_MAX_ATTEMPTS = "sqs.batch.max.attempts";
+    static final String CONFIG_KEY_THREAD_COUNT = "sqs.batch.thread.count";
+
+    // SQS limits on the number of messages and the total payload of a batch.
+    static final int MAX_BATCH_SIZE = 10;
+    static final int MAX_BATCH_BYTES = 256 * 1024;
+
+    static final long SEND_TIMEOUT_SECONDS = 60;
+    static final long METRICS_LOG_INTERVAL_SECONDS = 60;
+
+    private final ConcurrentMap<String, QueueBuffer> buffers = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder batchesSent = new LongAdder();
+    private final LongAdder messagesRetried = new LongAdder();
+    private final LongAdder messagesFailed = new LongAdder();
+    private final LongAdder messagesRejected = new LongAdder();
+    private AmazonSQS sqsClient;
+    private ScheduledExecutorService flushExecutor;
+    private long lingerMillis;
+    private int bufferCapacity;
+    private int maxAttempts;
+    private int threadCount;
+    private boolean synchronousFlush;
+
+    @Autowired
+    final void setBridgeConfig(BridgeConfig config) {
+        this.lingerMillis = config.getInt(CONFIG_KEY_LINGER_MILLIS);
+        this.bufferCapacity = config.getInt(CONFIG_KEY_BUFFER_CAPACITY);
+        this.maxAttempts = config.getInt(CONFIG_KEY_MAX_ATTEMPTS);
+        this.threadCount = config.getInt(CONFIG_KEY_THREAD_COUNT);
+    }
+
+    @Autowired
+    final void setSqsClient(AmazonSQS sqsClient) {
+        this.sqsClient = sqsClient;
+    }
+
+    // Provided to override in tests.
+    final void setFlushExecutor(ScheduledExecutorService flushExecutor) {
+        this.flushExecutor = flushExecutor;
+    }
+
+    /**
+     * If true, each message is sent on the caller's thread as soon as it is buffered, along with anything else
+     * buffered for its queue. Used by tests.
+     */
+    final void setSynchronousFlush(boolean synchronousFlush) {
+        this.synchronousFlush = synchronousFlush;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (flushExecutor != null) {
+            return;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        flushExecutor = Executors.newScheduledThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "sqs-batch-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushExecutor.scheduleAtFixedRate(() -> LOG.info("SQS batch dispatcher metrics: " + getMetrics()),
+                METRICS_LOG_INTERVAL_SECONDS, METRICS_LOG_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Sends whatever is still buffered before shutting down, so those messages aren't lost. Messages sent after this
+     * are sent on the caller's thread.
+     */
+    @PreDestroy
+    public void stop() {
+        flushExecutor.shutdown();
+        flush();
+    }
+
+    /**
+     * Sends a message to the given queue, as part of a batch, and returns its message ID. Blocks until the batch is
+     * sent.
+     */
+    public String sendMessage(String queueUrl, String messageBody) {
+        CompletableFuture<String> future = sendMessageAsync(queueUrl, messageBody);
+        try {
+            return future.get(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BridgeServiceException("Interrupted while sending SQS message to " + queueUrl, ex);
+        } catch (TimeoutException ex) {
+            throw new BridgeServiceException("Timed out sending SQS message to " + queueUrl, ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new BridgeServiceException(cause);
+        }
+    }
+
+    /**
+     * Buffers a message for the given queue and returns a future with its message ID, which completes when the
+     * message's batch is sent.
+     */
+    public CompletableFuture<String> sendMessageAsync(String queueUrl, String messageBody) {
+        checkNotNull(queueUrl);
+        checkNotNull(messageBody);
+
+        if (pendingCount.incrementAndGet() > bufferCapacity) {
+            pendingCount.decrementAndGet();
+            messagesRejected.increment();
+            throw new ServiceUnavailableException("Too many messages are waiting to be sent. Please try again later.");
+        }
+
+        PendingMessage message = new PendingMessage(messageBody);
+        QueueBuffer buffer = buffers.computeIfAbsent(queueUrl, QueueBuffer::new);
+        boolean full;
+        boolean scheduleFlush = false;
+        synchronized (buffer) {
+            buffer.messages.add(message);
+            full = buffer.messages.size() >= MAX_BATCH_SIZE;
+            if (!buffer.flushScheduled) {
+                buffer.flushScheduled = true;
+                scheduleFlush = true;
+            }
+        }
+
+        if (synchronousFlush) {
+            flush(buffer);
+            return message.future;
+        }
+        try {
+            if (full) {
+                // No point waiting for more messages.
+                flushExecutor.execute(() -> flush(buffer));
+            } else if (scheduleFlush) {
+                flushExecutor.schedule(() -> flush(buffer), lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException ex) {
+            // The executor has been shut down, so nothing else will flush this buffer. Send it on the caller's thread.
+            flush(buffer);
+        }
+        return message.future;
+    }
+
+    /** Sends everything buffered for every queue, on the caller's thread. */
+    public void flush() {
+        for (QueueBuffer buffer : buffers.values()) {
+            flush(buffer);
+        }
+    }
+
+    /** Number of messages buffered or being sent. */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /** Throughput and error counts since this server started, and the number of messages currently pending. */
+    public ObjectNode getMetrics() {
+        ObjectNode node = BridgeObjectMapper.get().createObjectNode();
+        node.put("messagesSent", messagesSent.sum());
+        node.put("batchesSent", batchesSent.sum());
+        node.put("messagesRetried", messagesRetried.sum());
+        node.put("messagesFailed", messagesFailed.sum());
+        node.put("messagesRejected", messagesRejected.sum());
+        node.put("pending", getPendingCount());
+        return node;
+    }
+
+    // Sends the buffer's messages in batches, until the buffer is empty. Failed entries that can be retried are put
+    // back in the buffer, so they go out with the next batch.
+    private void flush(QueueBuffer buffer) {
+        while (true) {
+            List<PendingMessage> batch = new ArrayList<>();
+            synchronized (buffer) {
+                int batchBytes = 0;
+                while (!buffer.messages.isEmpty() && batch.size() < MAX_BATCH_SIZE) {
+                    PendingMessage next = buffer.messages.peek();
+                    if (!batch.isEmpty() && batchBytes + next.bytes > MAX_BATCH_BYTES) {
+                        break;
+                    }
+                    batch.add(buffer.messages.poll());
+                    batchBytes += next.bytes;
+                }
+                if (batch.isEmpty()) {
+                    buffer.flushScheduled = false;
+                    return;
+                }
+            }
+            sendBatch(buffer, batch);
+        }
+    }
+
+    private void sendBatch(QueueBuffer buffer, List<PendingMessage> batch) {
+        // Entry IDs are indexes into the batch.
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            entries.add(new SendMessageBatchRequestEntry(String.valueOf(i), batch.get(i).body));
+        }
+
+        SendMessageBatchResult result;
+        try {
+            result = sqsClient.sendMessageBatch(new SendMessageBatchRequest(buffer.queueUrl, entries));
+        } catch (RuntimeException ex) {
+            LOG.error("Error sending batch of " + batch.size() + " SQS messages to " + buffer.queueUrl + ": " +
+                    ex.getMessage(), ex);
+            for (PendingMessage message : batch) {
+                fail(message, ex);
+            }
+            return;
+        }
+        batchesSent.increment();
+
+        for (SendMessageBatchResultEntry entry : result.getSuccessful()) {
+            PendingMessage message = batch.get(Integer.parseInt(entry.getId()));
+            pendingCount.decrementAndGet();
+            messagesSent.increment();
+            message.future.complete(entry.getMessageId());
+        }
+        for (BatchResultErrorEntry entry : result.getFailed()) {
+            PendingMessage message = batch.get(Integer.parseInt(entry.getId()));
+            message.attempts++;
+            if (!Boolean.TRUE.equals(entry.getSenderFault()) && message.attempts < maxAttempts) {
+                messagesRetried.increment();
+                synchronized (buffer) {
+                    buffer.messages.add(message);
+                }
+            } else {
+                String errorMessage = "Error sending SQS message to " + buffer.queueUrl + " after " +
+                        message.attempts + " attempt(s): " + entry.getCode() + " " + entry.getMessage();
+                LOG.error(errorMessage);
+                fail(message, new BridgeServiceException(errorMessage));
+            }
+        }
+    }
+
+    private void fail(PendingMessage message, RuntimeException ex) {
+        pendingCount.decrementAndGet();
+        messagesFailed.increment();
+        message.future.completeExceptionally(ex);
+    }
+
+    private static final class QueueBuffer {
+        private final String queueUrl;
+        // Guarded by this buffer's lock.
+        private final Deque<PendingMessage> messages = new ArrayDeque<>();
+        private boolean flushScheduled;
+
+        QueueBuffer(String queueUrl) {
+            this.queueUrl = queueUrl;
+        }
+    }
+
+    private static final class PendingMessage {
+        private final String body;
+        private final int bytes;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+        private int attempts;
+
+        PendingMessage(String body) {
+            this.body = body;
+            this.bytes = body.getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+}
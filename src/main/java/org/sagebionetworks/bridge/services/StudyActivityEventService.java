@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.services;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.stream.Collectors.toSet;
 import static org.sagebionetworks.bridge.BridgeConstants.API_MAXIMUM_PAGE_SIZE;
 import static org.sagebionetworks.bridge.BridgeConstants.API_MINIMUM_PAGE_SIZE;
 import static org.sagebionetworks.bridge.BridgeConstants.NEGATIVE_OFFSET_ERROR;
@@ -17,9 +18,11 @@ import static org.sagebionetworks.bridge.validators.StudyActivityEventValidator.
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
@@ -251,6 +254,35 @@ public class StudyActivityEventService {
                 .orElseThrow(() -> new EntityNotFoundException(Account.class));
 
         List<StudyActivityEvent> events = dao.getRecentStudyActivityEvents(userId, studyId);
+        addSyntheticEvents(appId, studyId, account, events);
+        return new ResourceList<>(events, true); 
+    }
+    
+    /**
+     * The same events as {@link #getRecentStudyActivityEvents(String, String, String)} for a set of 
+     * accounts that the caller has already loaded. The study-scoped events of all the accounts are 
+     * retrieved in one query. Returns a map of each account's events, keyed by account ID.
+     */
+    public Map<String, List<StudyActivityEvent>> getRecentStudyActivityEventsForAccounts(String appId, 
+            String studyId, List<Account> accounts) {
+        checkNotNull(appId);
+        checkNotNull(studyId);
+        checkNotNull(accounts);
+        
+        Set<String> userIds = accounts.stream().map(Account::getId).collect(toSet());
+        Map<String, List<StudyActivityEvent>> eventsByUser = dao.getRecentStudyActivityEventsForUsers(userIds, studyId);
+        
+        Map<String, List<StudyActivityEvent>> results = new HashMap<>();
+        for (Account account : accounts) {
+            List<StudyActivityEvent> events = new ArrayList<>(
+                    eventsByUser.getOrDefault(account.getId(), ImmutableList.of()));
+            addSyntheticEvents(appId, studyId, account, events);
+            results.put(account.getId(), events);
+        }
+        return results;
+    }
+    
+    private void addSyntheticEvents(String appId, String studyId, Account account, List<StudyActivityEvent> events) {
         addEnrollmentIfMissing(account, events, studyId);
         
         // There are some global events related to authentication and account creation that 
@@ -261,7 +293,6 @@ public class StudyActivityEventService {
             addIfPresent(events, map, fieldName, true);    
         }
         events.sort(Comparator.comparing(StudyActivityEvent::getEventId));
-        return new ResourceList<>(events, true); 
     }
     
     /**
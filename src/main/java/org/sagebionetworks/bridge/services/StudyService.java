@@ -37,6 +37,7 @@ import org.joda.time.DateTimeZone;
 import org.sagebionetworks.bridge.RequestContext;
 import org.sagebionetworks.bridge.cache.CacheKey;
 import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.cache.NearCache;
 import org.sagebionetworks.bridge.dao.StudyDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.EntityAlreadyExistsException;
@@ -69,6 +70,8 @@ public class StudyService {
     @Autowired
     private CacheProvider cacheProvider;
     @Autowired
+    private NearCache nearCache;
+    @Autowired
     private Schedule2Service scheduleService;
     @Autowired
     private AccountService accountService;
@@ -276,6 +279,8 @@ public class StudyService {
         cacheKey = CacheKey.etag(Study.class, appId, study.getIdentifier());
         cacheProvider.setObject(cacheKey, study.getModifiedOn());
         
+        nearCache.invalidate(CacheKey.studyExportTopic(appId, study.getIdentifier()));
+        
         return keys;
     }
     
@@ -300,6 +305,8 @@ public class StudyService {
         cacheKey = CacheKey.etag(Study.class, appId, studyId);
         cacheProvider.removeObject(cacheKey);
 
+        nearCache.invalidate(CacheKey.studyExportTopic(appId, studyId));
+
         // delete alerts for this study
         alertService.deleteAlertsForStudy(appId, studyId);
     }
@@ -327,6 +334,8 @@ public class StudyService {
         cacheKey = CacheKey.etag(Study.class, appId, studyId);
         cacheProvider.removeObject(cacheKey);
 
+        nearCache.invalidate(CacheKey.studyExportTopic(appId, studyId));
+
         demographicService.deleteAllValidationConfigs(appId, studyId);
     }
     
@@ -423,6 +432,8 @@ public class StudyService {
         cacheKey = CacheKey.etag(Study.class, appId, studyId);
         cacheProvider.setObject(cacheKey, study.getModifiedOn());
     
+        nearCache.invalidate(CacheKey.studyExportTopic(appId, studyId));
+    
         return study;
     }
     
@@ -458,6 +469,8 @@ public class StudyService {
         cacheKey = CacheKey.etag(Study.class, appId, studyId);
         cacheProvider.setObject(cacheKey, study.getModifiedOn());
 
+        nearCache.invalidate(CacheKey.studyExportTopic(appId, studyId));
+
         // delete alerts for this study if it is transitioned to completed
         if (targetPhase == StudyPhase.COMPLETED) {
             alertService.deleteAlertsForStudy(appId, studyId);
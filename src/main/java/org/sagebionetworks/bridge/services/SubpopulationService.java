@@ -4,6 +4,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
@@ -21,8 +22,8 @@ import org.sagebionetworks.bridge.cache.CacheKey;
 import org.sagebionetworks.bridge.dao.StudyConsentDao;
 import org.sagebionetworks.bridge.dao.SubpopulationDao;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
+import org.sagebionetworks.bridge.models.CompiledCriteriaCache;
 import org.sagebionetworks.bridge.models.CriteriaContext;
-import org.sagebionetworks.bridge.models.CriteriaUtils;
 import org.sagebionetworks.bridge.models.apps.App;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.subpopulations.StudyConsent;
@@ -44,6 +45,8 @@ public class SubpopulationService {
     private StudyService studyService;
     private StudyConsentForm defaultConsentDocument;
     private CacheProvider cacheProvider;
+    private final CompiledCriteriaCache<Subpopulation> compiledCriteria = new CompiledCriteriaCache<>(
+            subpop -> Arrays.asList(subpop.getGuidString(), subpop.getVersion()), null);
     
     @Autowired
     final void setSubpopulationDao(SubpopulationDao subpopDao) {
@@ -207,7 +210,7 @@ public class SubpopulationService {
         
         List<Subpopulation> subpops = getSubpopulations(context.getAppId(), false);
         
-        return CriteriaUtils.filterByCriteria(context, subpops, null);
+        return compiledCriteria.filterByCriteria(context.getAppId(), context, subpops);
     }
 
     /**
@@ -2,6 +2,7 @@ package org.sagebionetworks.bridge.services;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static org.apache.commons.io.IOUtils.closeQuietly;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -20,6 +21,7 @@ import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -163,6 +165,28 @@ public class UploadArchiveService {
         }
     }
 
+    /**
+     * Decrypts the data stream opened by the given supplier, using the encryption materials for the specified app,
+     * and returns a stream of decrypted data. The caller is responsible for closing the returned stream, which also
+     * closes the source stream. The supplier may be called more than once, if decryption has to be retried with 
+     * different encryption materials.
+     */
+    public InputStream decrypt(String appId, Supplier<InputStream> sourceSupplier) {
+        checkNotNull(sourceSupplier);
+
+        InputStream source = sourceSupplier.get();
+        try {
+            return decrypt(appId, source);
+        } catch (CertificateEncodingException | CMSException | IOException | WrongEncryptionKeyException ex) {
+            closeQuietly(source);
+            // The same workaround for DIAN-749 as in decrypt(String, File, File).
+            if (ex instanceof WrongEncryptionKeyException && appId.equals("inv-arc")) {
+                return decrypt("arc", sourceSupplier);
+            }
+            throw new BridgeServiceException(ex);
+        }
+    }
+
     /**
      * Decrypts the specified data stream, using the encryption materials for the specified app, and returns the a
      * stream of decrypted data. The caller is responsible for closing both streams.
@@ -13,6 +13,7 @@ import static org.sagebionetworks.bridge.BridgeConstants.API_APP_ID;
 import static org.sagebionetworks.bridge.BridgeConstants.API_DEFAULT_PAGE_SIZE;
 import static org.sagebionetworks.bridge.BridgeConstants.CANNOT_BE_BLANK;
 import static org.sagebionetworks.bridge.BridgeUtils.COMMA_SPACE_JOINER;
+import static org.sagebionetworks.bridge.BridgeUtils.generateGuid;
 
 import java.io.IOException;
 import java.net.URL;
@@ -21,19 +22,35 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.HttpMethod;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.retry.RetryUtils;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.model.SendMessageResult;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -41,6 +58,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.RateLimiter;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 
@@ -59,6 +77,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.RequestContext;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.dao.UploadDao;
 import org.sagebionetworks.bridge.dao.UploadDedupeDao;
@@ -71,12 +91,15 @@ import org.sagebionetworks.bridge.models.ClientInfo;
 import org.sagebionetworks.bridge.models.apps.App;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordEx3;
 import org.sagebionetworks.bridge.models.schedules2.timelines.TimelineMetadataView;
+import org.sagebionetworks.bridge.models.upload.UploadRedriveJob;
 import org.sagebionetworks.bridge.models.upload.UploadRedriveList;
 import org.sagebionetworks.bridge.models.upload.UploadViewEx3;
 import org.sagebionetworks.bridge.models.worker.UploadRedriveWorkerRequest;
 import org.sagebionetworks.bridge.models.worker.WorkerRequest;
 import org.sagebionetworks.bridge.s3.S3Helper;
 import org.sagebionetworks.bridge.time.DateUtils;
+import org.sagebionetworks.bridge.upload.UploadValidationMetrics;
+import org.sagebionetworks.bridge.upload.UploadValidationNotifier;
 import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
@@ -106,6 +129,19 @@ public class UploadService {
     static final String METADATA_KEY_INSTANCE_GUID = "instanceGuid";
     static final String METADATA_KEY_STARTED_ON = "startedOn";
     static final String WORKER_NAME_UPLOAD_REDRIVE = "UploadRedriveWorker";
+    static final String CONFIG_KEY_REDRIVE_THREAD_COUNT = "upload.redrive.thread.count";
+    static final String CONFIG_KEY_REDRIVE_APP_RATE_PER_SECOND = "upload.redrive.app.rate.per.second";
+    static final String CONFIG_KEY_REDRIVE_IN_PROCESS_MAX = "upload.redrive.in.process.max";
+    static final int REDRIVE_JOB_EXPIRE_IN_SECONDS = 24 * 60 * 60;
+    static final long REDRIVE_VALIDATION_TIMEOUT_MILLIS = 30000;
+    static final String CONFIG_KEY_COMPLETION_THREAD_COUNT = "upload.completion.thread.count";
+    static final String CONFIG_KEY_COMPLETION_QUEUE_CAPACITY = "upload.completion.queue.capacity";
+    static final String CONFIG_KEY_COMPLETION_MAX_ATTEMPTS = "upload.completion.max.attempts";
+    static final String CONFIG_KEY_COMPLETION_RETRY_DELAY_MILLIS = "upload.completion.retry.delay.millis";
+    static final String COMPLETION_STAGE_EXPORTER_3 = "Exporter3";
+    static final String COMPLETION_STAGE_EXPORTER_3_EXPORT = "Exporter3Export";
+    static final String COMPLETION_STAGE_VALIDATION = "LegacyValidation";
+    static final String COMPLETION_STAGE_ADHERENCE = "Adherence";
 
     private AccountService accountService;
     private AdherenceService adherenceService;
@@ -122,11 +158,32 @@ public class UploadService {
     private UploadDao uploadDao;
     private UploadDedupeDao uploadDedupeDao;
     private UploadValidationService uploadValidationService;
+    private UploadValidationNotifier uploadValidationNotifier;
+    private UploadValidationMetrics validationMetrics;
     private HealthCodeDao healthCodeDao;
     private String workerQueueUrl;
-    private AmazonSQS sqsClient;
+    private SqsBatchDispatcher sqsDispatcher;
     private S3Helper s3Helper;
     private BridgeConfig config;
+    private CacheProvider cacheProvider;
+    private ExecutorService redriveExecutor;
+    private ScheduledExecutorService redriveTimer;
+    private int redriveThreadCount;
+    private int redriveAppRatePerSecond;
+    private int redriveInProcessMax;
+    private ExecutorService completionExecutor;
+    private int completionThreadCount;
+    private int completionQueueCapacity;
+    private int completionMaxAttempts;
+    private long completionRetryDelayMillis;
+
+    // IDs of uploads whose completion stages are queued or running on this server.
+    private final Set<String> completionsInFlight = ConcurrentHashMap.newKeySet();
+    // Number of uploads whose completion stages have been submitted, but that haven't reached validation yet.
+    private final AtomicInteger awaitingValidationCount = new AtomicInteger();
+
+    // Limits how fast each app's uploads are redriven, keyed by app ID.
+    private final Map<String, RateLimiter> redriveRateLimiters = new ConcurrentHashMap<>();
 
     // These parameters can be overriden to facilitate testing.
     // By default, we sleep 5 seconds, including right at the start and end. This means on our 7th iteration,
@@ -160,6 +217,92 @@ public class UploadService {
         this.config = config;
         uploadBucket = config.getProperty(CONFIG_KEY_UPLOAD_BUCKET);
         redriveUploadBucket = config.getProperty(CONFIG_KEY_BACKFILL_BUCKET);
+        redriveThreadCount = config.getInt(CONFIG_KEY_REDRIVE_THREAD_COUNT);
+        redriveAppRatePerSecond = config.getInt(CONFIG_KEY_REDRIVE_APP_RATE_PER_SECOND);
+        redriveInProcessMax = config.getInt(CONFIG_KEY_REDRIVE_IN_PROCESS_MAX);
+        completionThreadCount = config.getInt(CONFIG_KEY_COMPLETION_THREAD_COUNT);
+        completionQueueCapacity = config.getInt(CONFIG_KEY_COMPLETION_QUEUE_CAPACITY);
+        completionMaxAttempts = config.getInt(CONFIG_KEY_COMPLETION_MAX_ATTEMPTS);
+        completionRetryDelayMillis = config.getInt(CONFIG_KEY_COMPLETION_RETRY_DELAY_MILLIS);
+    }
+
+    /** Cache provider, used to store redrive jobs. This is configured by Spring. */
+    @Autowired
+    final void setCacheProvider(CacheProvider cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
+
+    // Provided to override in tests.
+    final void setRedriveExecutor(ExecutorService redriveExecutor) {
+        this.redriveExecutor = redriveExecutor;
+    }
+
+    // Provided to override in tests.
+    final void setRedriveTimer(ScheduledExecutorService redriveTimer) {
+        this.redriveTimer = redriveTimer;
+    }
+
+    @PostConstruct
+    public void startRedriveExecutor() {
+        if (redriveTimer == null) {
+            // Only times out redrives that are waiting for validation, so one thread is plenty.
+            redriveTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "upload-redrive-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (redriveExecutor != null) {
+            return;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        redriveExecutor = Executors.newFixedThreadPool(redriveThreadCount, runnable -> {
+            Thread thread = new Thread(runnable, "upload-redrive-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stopRedriveExecutor() {
+        redriveTimer.shutdownNow();
+        int remaining = redriveExecutor.shutdownNow().size();
+        if (remaining > 0) {
+            logger.warn(remaining + " uploads were not redriven before shutdown");
+        }
+    }
+
+    // Provided to override in tests.
+    final void setCompletionExecutor(ExecutorService completionExecutor) {
+        this.completionExecutor = completionExecutor;
+    }
+    
+    int getAwaitingValidationCount() {
+        return awaitingValidationCount.get();
+    }
+
+    @PostConstruct
+    public void startCompletionExecutor() {
+        if (completionExecutor != null) {
+            return;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        // When the queue is full, the request thread runs the stages itself, as it did before this executor existed.
+        completionExecutor = new ThreadPoolExecutor(completionThreadCount, completionThreadCount, 0L,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(completionQueueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "upload-completion-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void stopCompletionExecutor() {
+        int remaining = completionExecutor.shutdownNow().size();
+        if (remaining > 0) {
+            logger.warn(remaining + " uploads were marked complete but not exported or validated before " +
+                    "shutdown. They can be redriven.");
+        }
     }
 
     /**
@@ -212,14 +355,26 @@ public class UploadService {
         this.uploadValidationService = uploadValidationService;
     }
 
+    /** Notifies waiters when upload validation is complete. This is configured by Spring. */
+    @Autowired
+    final void setUploadValidationNotifier(UploadValidationNotifier uploadValidationNotifier) {
+        this.uploadValidationNotifier = uploadValidationNotifier;
+    }
+
+    /** Records latency and failures of the upload completion stages. This is configured by Spring. */
+    @Autowired
+    final void setValidationMetrics(UploadValidationMetrics validationMetrics) {
+        this.validationMetrics = validationMetrics;
+    }
+
     @Autowired
     final void setHealthCodeDao(HealthCodeDao healthCodeDao) {
         this.healthCodeDao = healthCodeDao;
     }
 
     @Autowired
-    final void setSqsClient(AmazonSQS sqsClient) {
-        this.sqsClient = sqsClient;
+    final void setSqsDispatcher(SqsBatchDispatcher sqsDispatcher) {
+        this.sqsDispatcher = sqsDispatcher;
     }
 
     @Resource(name = "s3Helper")
@@ -509,6 +664,35 @@ public class UploadService {
         }
     }
 
+    /**
+     * Returns a future with the validation status for a given upload ID, once validation is complete or otherwise in
+     * a state where further waiting won't get any results. Unlike pollUploadValidationStatusUntilComplete(), this
+     * doesn't block: the future is completed when the validation task (on any server) writes the status. The future
+     * never times out on its own. Callers should cancel it when they stop waiting, and re-check the status, since
+     * notifications can be missed.
+     */
+    public CompletableFuture<UploadValidationStatus> waitForUploadValidationStatus(String uploadId) {
+        // Register before reading the status, so that a validation that completes in between isn't missed.
+        CompletableFuture<Void> completion = uploadValidationNotifier.register(uploadId);
+        UploadValidationStatus validationStatus;
+        try {
+            validationStatus = getUploadValidationStatus(uploadId);
+        } catch (RuntimeException ex) {
+            completion.cancel(false);
+            throw ex;
+        }
+        if (validationStatus.getStatus() != UploadStatus.VALIDATION_IN_PROGRESS) {
+            completion.cancel(false);
+            return CompletableFuture.completedFuture(validationStatus);
+        }
+
+        CompletableFuture<UploadValidationStatus> result = completion.thenApply(
+                v -> getUploadValidationStatus(uploadId));
+        // If the caller cancels the result, stop listening for the upload.
+        result.whenComplete((status, ex) -> completion.cancel(false));
+        return result;
+    }
+
     public void uploadComplete(String appId, UploadCompletionClient completedBy, Upload upload,
             boolean redrive) throws JsonProcessingException {
         String uploadId = upload.getUploadId();
@@ -539,6 +723,10 @@ public class UploadService {
             logger.error("Missing S3 server-side encryption (SSE) for presigned upload " + uploadId + ".");
         }
 
+        // Apply backpressure before the upload is marked complete, so a rejected upload can be completed again.
+        // Uploads waiting for their completion stages count toward the validation queue's capacity.
+        uploadValidationService.checkCapacity(awaitingValidationCount.get());
+
         try {
             uploadDao.uploadComplete(completedBy, upload);
         } catch (ConcurrentModificationException ex) {
@@ -552,21 +740,139 @@ public class UploadService {
             return;
         }
 
-        // kick off upload validation
-        App app = appService.getApp(appId);
-        if (app.isExporter3Enabled()) {
-            exporter3Service.completeUpload(app, upload);
+        // The upload is now durably marked complete, so the caller doesn't need to wait for the rest. If this server
+        // goes down before the stages run, the upload stays in VALIDATION_IN_PROGRESS and can be redriven.
+        submitCompletionStages(appId, upload, redrive);
+    }
+
+    /**
+     * Runs the stages that follow marking an upload complete (Exporter 3, legacy validation, and adherence) on the
+     * completion executor. The upload ID is the idempotency key: if this upload's stages are already queued or
+     * running on this server, for example because a redrive raced with a completion, they aren't submitted again.
+     * Package-scoped for unit tests.
+     */
+    void submitCompletionStages(String appId, Upload upload, boolean redrive) {
+        String uploadId = upload.getUploadId();
+        if (!completionsInFlight.add(uploadId)) {
+            logger.info("Completion of upload " + uploadId + " is already in progress");
+            return;
+        }
+
+        // Exporter 3 reads the caller's client info from the request context. Metrics are left out, because they
+        // belong to the request, which may have finished by the time the stages run. (The validation queue's
+        // metrics are recorded by checkCapacity(), on the request thread.)
+        RequestContext context = RequestContext.get().toBuilder().withMetrics(null).build();
+        awaitingValidationCount.incrementAndGet();
+        completionExecutor.execute(() -> {
+            // This may run on the request thread if the queue is full, so restore its context afterwards.
+            RequestContext previousContext = RequestContext.get();
+            RequestContext.set(context);
+            try {
+                runCompletionStages(appId, upload, redrive);
+            } finally {
+                RequestContext.set(previousContext);
+                completionsInFlight.remove(uploadId);
+            }
+        });
+    }
+
+    // The stages don't depend on each other, so a stage that fails after all its retries doesn't stop the stages
+    // after it.
+    private void runCompletionStages(String appId, Upload upload, boolean redrive) {
+        String uploadId = upload.getUploadId();
+        try {
+            // Saving the record overwrites the same record, so it can be retried. The export request is only sent
+            // once: a send that failed may still have reached the queue, and sending it again would export the upload
+            // twice.
+            AtomicReference<HealthDataRecordEx3> exporter3Record = new AtomicReference<>();
+            runCompletionStage(COMPLETION_STAGE_EXPORTER_3, uploadId, completionMaxAttempts, () -> {
+                App app = appService.getApp(appId);
+                if (app.isExporter3Enabled()) {
+                    exporter3Record.set(exporter3Service.saveUploadRecord(app, upload));
+                }
+            });
+            if (exporter3Record.get() != null) {
+                runCompletionStage(COMPLETION_STAGE_EXPORTER_3_EXPORT, uploadId, 1,
+                        () -> exporter3Service.exportUploadRecord(appId, exporter3Record.get()));
+            }
+
+            // For backwards compatibility, always call Legacy Exporter 2.0. In the future, we may introduce a setting
+            // to disable this for new apps.
+            runCompletionStage(COMPLETION_STAGE_VALIDATION, uploadId, completionMaxAttempts,
+                    () -> uploadValidationService.validateUpload(appId, upload, redrive));
+        } finally {
+            // From here on, the upload is counted by the validation queue (if it was submitted).
+            awaitingValidationCount.decrementAndGet();
         }
 
-        // For backwards compatibility, always call Legacy Exporter 2.0. In the future, we may introduce a setting to
-        // disable this for new apps.
-        uploadValidationService.validateUpload(appId, upload);
-        
         // Save uploadedOn date and uploadId to related adherence records.
-        updateAdherenceWithUploadInfo(appId, upload);
+        runCompletionStage(COMPLETION_STAGE_ADHERENCE, uploadId, completionMaxAttempts,
+                () -> updateAdherenceWithUploadInfo(appId, upload));
     }
 
-    public void redriveUpload(UploadRedriveList redriveList) throws IOException {
+    /**
+     * Runs one completion stage, retrying transient errors with a linear backoff, up to the given number of attempts.
+     * Every attempt is recorded in the validation metrics. Returns true if the stage succeeded. Package-scoped for
+     * unit tests.
+     */
+    boolean runCompletionStage(String stageName, String uploadId, int maxAttempts, CompletionStageRunner stage) {
+        for (int attempt = 1; ; attempt++) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            Exception failure = null;
+            try {
+                stage.run();
+            } catch (Exception ex) {
+                failure = ex;
+            }
+            validationMetrics.recordCompletionStage(stageName, stopwatch.elapsed(TimeUnit.MILLISECONDS), failure);
+            if (failure == null) {
+                return true;
+            }
+
+            if (attempt >= maxAttempts || !isRetryable(failure)) {
+                logger.error("Upload completion stage " + stageName + " failed for upload " + uploadId + " after " +
+                        attempt + " attempt(s): " + failure.getMessage(), failure);
+                return false;
+            }
+            logger.warn("Upload completion stage " + stageName + " failed for upload " + uploadId + " on attempt " +
+                    attempt + ", retrying: " + failure.getMessage());
+            try {
+                Thread.sleep(completionRetryDelayMillis * attempt);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                logger.error("Interrupted while retrying upload completion stage " + stageName + " for upload " +
+                        uploadId);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Only transient failures are retried: server errors and throttling from AWS or from our own services, and
+     * network errors talking to AWS. Client errors (like a missing account) and bugs (like a null pointer) won't go
+     * away on retry. Package-scoped for unit tests.
+     */
+    static boolean isRetryable(Exception ex) {
+        if (ex instanceof BridgeServiceException) {
+            return ((BridgeServiceException) ex).getStatusCode() >= 500;
+        }
+        if (ex instanceof AmazonServiceException) {
+            return ((AmazonServiceException) ex).getStatusCode() >= 500 || RetryUtils.isThrottlingException(
+                    (AmazonServiceException) ex);
+        }
+        if (ex instanceof SdkClientException) {
+            return ex.getCause() instanceof IOException;
+        }
+        return false;
+    }
+
+    /**
+     * Redrives the given uploads and returns a job handle immediately. Small redrives are run on this server, on a
+     * thread pool of their own, and each app's uploads are rate limited so a redrive doesn't crowd out the app's new
+     * uploads. Their progress is recorded in the job, which can be fetched with getUploadRedriveJob(). Large redrives
+     * are sent to the Bridge Worker.
+     */
+    public UploadRedriveJob redriveUpload(UploadRedriveList redriveList) throws IOException {
         checkNotNull(redriveList);
 
         if (redriveList.getUploadIds().isEmpty()) {
@@ -577,32 +883,151 @@ public class UploadService {
 
         logger.info("Redrive uploads" + " with " + redriveSize + " upload ids");
 
+        UploadRedriveJob job = new UploadRedriveJob();
+        job.setJobGuid(generateGuid());
+        job.setRequestedOn(DateUtils.getCurrentDateTime());
+        job.setUploadCount(redriveSize);
+
         // Redrive upload.
-        if (redriveSize <= 10) {
-            redriveSmallAmountOfUploads(redriveList.getUploadIds());
+        if (redriveSize <= redriveInProcessMax) {
+            job.setStatus(UploadRedriveJob.Status.IN_PROGRESS);
+            saveRedriveJob(job);
+            // Return a copy, since the redrive threads modify the job.
+            UploadRedriveJob handle = copyRedriveJob(job);
+            redriveSmallAmountOfUploads(job, redriveList.getUploadIds());
+            return handle;
         } else {
             redriveLargeAmountOfUploads(redriveList.getUploadIds());
+            job.setStatus(UploadRedriveJob.Status.SENT_TO_WORKER);
+            saveRedriveJob(job);
+            return job;
         }
     }
 
-    private void redriveSmallAmountOfUploads(List<String> uploadIds) throws JsonProcessingException {
+    /** Gets an upload redrive job. Jobs expire a day after they're last updated. */
+    public UploadRedriveJob getUploadRedriveJob(String jobGuid) {
+        if (Strings.isNullOrEmpty(jobGuid)) {
+            throw new BadRequestException(String.format(CANNOT_BE_BLANK, "jobGuid"));
+        }
+        UploadRedriveJob job = cacheProvider.getObject(CacheKey.uploadRedriveJob(jobGuid), UploadRedriveJob.class);
+        if (job == null) {
+            throw new EntityNotFoundException(UploadRedriveJob.class);
+        }
+        return job;
+    }
+
+    private void redriveSmallAmountOfUploads(UploadRedriveJob job, List<String> uploadIds) {
+        AtomicInteger remaining = new AtomicInteger(uploadIds.size());
         for (String uploadId : uploadIds) {
-            Upload upload = getUpload(uploadId);
-            String appId = upload.getAppId();
-            if (appId == null) {
-                appId = healthCodeDao.getAppId(upload.getHealthCode());
-            }
-            uploadComplete(appId, UploadCompletionClient.REDRIVE, upload, true);
+            redriveExecutor.execute(() -> {
+                CompletableFuture<UploadValidationStatus> future;
+                try {
+                    future = redriveOneUpload(uploadId);
+                } catch (Exception ex) {
+                    future = new CompletableFuture<>();
+                    future.completeExceptionally(ex);
+                }
+                // The redrive thread doesn't wait for validation, so it can go on to the next upload. The result is
+                // recorded back on the redrive pool when validation finishes.
+                future.whenCompleteAsync((validationStatus, ex) -> recordRedriveResult(job, remaining, uploadId,
+                        validationStatus, ex), redriveExecutor);
+            });
         }
+    }
 
-        for (String uploadId: uploadIds) {
-            UploadValidationStatus validationStatus = pollUploadValidationStatusUntilComplete(uploadId);
-            if (validationStatus.getStatus() != UploadStatus.SUCCEEDED) {
+    private void recordRedriveResult(UploadRedriveJob job, AtomicInteger remaining, String uploadId,
+            UploadValidationStatus validationStatus, Throwable ex) {
+        UploadStatus status = null;
+        String error = null;
+        if (ex == null) {
+            status = validationStatus.getStatus();
+            if (status != UploadStatus.SUCCEEDED) {
                 logErrorMessage(uploadId, validationStatus);
             }
+        } else {
+            if (ex instanceof CompletionException && ex.getCause() != null) {
+                ex = ex.getCause();
+            }
+            // This runs in the background, so ExceptionInterceptor won't see it. Log it and record it in the job.
+            logger.error("Redrive failed for uploadId=" + uploadId + ": " + ex.getMessage(), ex);
+            error = ex.getClass().getSimpleName() + ": " + ex.getMessage();
+        }
+        synchronized (job) {
+            if (status != null) {
+                job.getUploadStatuses().put(uploadId, status);
+            } else {
+                job.getErrors().put(uploadId, error);
+            }
+            if (remaining.decrementAndGet() == 0) {
+                job.setStatus(UploadRedriveJob.Status.COMPLETE);
+                job.setCompletedOn(DateUtils.getCurrentDateTime());
+            }
+            try {
+                saveRedriveJob(job);
+            } catch (RuntimeException saveEx) {
+                logger.error("Error saving upload redrive job " + job.getJobGuid() + ": " + saveEx.getMessage(),
+                        saveEx);
+            }
         }
     }
 
+    /**
+     * Redrives one upload and returns a future with its validation status. The future is completed when the upload's
+     * validation completion is notified, or, if that takes longer than the redrive timeout, with the status at that
+     * point (failing if validation is still in progress). Package-scoped for unit tests.
+     */
+    CompletableFuture<UploadValidationStatus> redriveOneUpload(String uploadId) throws JsonProcessingException {
+        Upload upload = getUpload(uploadId);
+        String appId = upload.getAppId();
+        if (appId == null) {
+            appId = healthCodeDao.getAppId(upload.getHealthCode());
+        }
+        redriveRateLimiters.computeIfAbsent(appId, id -> RateLimiter.create(redriveAppRatePerSecond)).acquire();
+        uploadComplete(appId, UploadCompletionClient.REDRIVE, upload, true);
+
+        CompletableFuture<UploadValidationStatus> validation = waitForUploadValidationStatus(uploadId);
+        if (validation.isDone()) {
+            return validation;
+        }
+        CompletableFuture<UploadValidationStatus> result = new CompletableFuture<>();
+        validation.whenComplete((validationStatus, ex) -> {
+            if (ex == null) {
+                result.complete(validationStatus);
+            } else if (!(ex instanceof CancellationException)) {
+                result.completeExceptionally(ex);
+            }
+        });
+        ScheduledFuture<?> timeout = redriveTimer.schedule(() -> onRedriveTimeout(uploadId, validation, result),
+                REDRIVE_VALIDATION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        result.whenComplete((validationStatus, ex) -> timeout.cancel(false));
+        return result;
+    }
+
+    private void onRedriveTimeout(String uploadId, CompletableFuture<UploadValidationStatus> validation,
+            CompletableFuture<UploadValidationStatus> result) {
+        validation.cancel(false);
+        // The completion notification may have been missed. Check the status one last time.
+        try {
+            UploadValidationStatus validationStatus = getUploadValidationStatus(uploadId);
+            if (validationStatus.getStatus() == UploadStatus.VALIDATION_IN_PROGRESS) {
+                result.completeExceptionally(new BridgeServiceException(
+                        "Timeout waiting for validation status for upload " + uploadId));
+            } else {
+                result.complete(validationStatus);
+            }
+        } catch (RuntimeException ex) {
+            result.completeExceptionally(ex);
+        }
+    }
+
+    private void saveRedriveJob(UploadRedriveJob job) {
+        cacheProvider.setObject(CacheKey.uploadRedriveJob(job.getJobGuid()), job, REDRIVE_JOB_EXPIRE_IN_SECONDS);
+    }
+
+    private static UploadRedriveJob copyRedriveJob(UploadRedriveJob job) {
+        return BridgeObjectMapper.get().convertValue(job, UploadRedriveJob.class);
+    }
+
     // For unit test.
     protected void logErrorMessage(String uploadId, UploadValidationStatus validationStatus) {
         logger.error("Redrive failed for uploadId=" + uploadId + ": " + COMMA_SPACE_JOINER.join(
@@ -643,9 +1068,9 @@ public class UploadService {
         // Note: SqsInitializer runs after Spring, so we need to grab the queue URL dynamically.
         workerQueueUrl = config.getProperty(BridgeConstants.CONFIG_KEY_WORKER_SQS_URL);
 
-        SendMessageResult sqsResult = sqsClient.sendMessage(workerQueueUrl, requestJson);
+        String messageId = sqsDispatcher.sendMessage(workerQueueUrl, requestJson);
         logger.info("Sent redrive upload request for file " + s3Key +
-                sqsResult.getMessageId());
+                messageId);
     }
     
     public void deleteUploadsForHealthCode(String healthCode) {
@@ -779,6 +1204,7 @@ public class UploadService {
                             .withPageSize(AdherenceRecordsSearchValidator.MAX_PAGE_SIZE)
                             .withStudyId(studyId)
                             .withUserId(userId)
+                            .withIncludeTotal(false)
                             .build();
                     List<AdherenceRecord> adherenceRecords = adherenceService.getAdherenceRecords(appId,
                             adherenceSearch).getItems();
@@ -796,6 +1222,7 @@ public class UploadService {
                     .withStudyId(studyId)
                     .withUploadId(uploadId)
                     .withUserId(userId)
+                    .withIncludeTotal(false)
                     .build();
             List<AdherenceRecord> adherenceRecords = adherenceService.getAdherenceRecords(appId, adherenceSearch)
                     .getItems();
@@ -856,7 +1283,8 @@ public class UploadService {
                         AdherenceRecordsSearch.Builder search = new AdherenceRecordsSearch.Builder()
                                 .withInstanceGuids(ImmutableSet.of(instanceGuid))
                                 .withUserId(userId)
-                                .withStudyId(studyId);
+                                .withStudyId(studyId)
+                                .withIncludeTotal(false);
                         if (timelineMetadata.isTimeWindowPersistent()) {
                             search.withStartTime(startedOn);
                             search.withEndTime(startedOn);
@@ -921,6 +1349,11 @@ public class UploadService {
         }
     }
 
+    @FunctionalInterface
+    static interface CompletionStageRunner {
+        void run() throws Exception;
+    }
+
     @FunctionalInterface
     private static interface UploadSupplier {
         ForwardCursorPagedResourceList<Upload> get(DateTime startTime, DateTime endTime);
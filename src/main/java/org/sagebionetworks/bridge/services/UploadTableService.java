@@ -7,8 +7,6 @@ import java.util.List;
 import com.amazonaws.HttpMethod;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
-import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.model.SendMessageResult;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.joda.time.DateTime;
@@ -55,7 +53,7 @@ public class UploadTableService {
     private BridgeConfig config;
     private String rawHealthDataBucket;
     private AmazonS3 s3Client;
-    private AmazonSQS sqsClient;
+    private SqsBatchDispatcher sqsDispatcher;
     private StudyService studyService;
     private UploadService uploadService;
     private UploadTableJobDao uploadTableJobDao;
@@ -73,8 +71,8 @@ public class UploadTableService {
     }
 
     @Autowired
-    public final void setSqsClient(AmazonSQS sqsClient) {
-        this.sqsClient = sqsClient;
+    public final void setSqsDispatcher(SqsBatchDispatcher sqsDispatcher) {
+        this.sqsDispatcher = sqsDispatcher;
     }
 
     @Autowired
@@ -217,9 +215,9 @@ public class UploadTableService {
         String workerQueueUrl = config.getProperty(BridgeConstants.CONFIG_KEY_WORKER_SQS_URL);
 
         // Sent to SQS.
-        SendMessageResult sqsResult = sqsClient.sendMessage(workerQueueUrl, requestJson);
+        String messageId = sqsDispatcher.sendMessage(workerQueueUrl, requestJson);
         LOG.info("Sent CSV request for app " + appId + " study " + studyId + "; received message ID=" +
-                sqsResult.getMessageId());
+                messageId);
 
         return new UploadTableJobGuidHolder(jobGuid);
     }
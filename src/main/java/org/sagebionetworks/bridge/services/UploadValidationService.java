@@ -1,26 +1,61 @@
 package org.sagebionetworks.bridge.services;
 
 import javax.annotation.Nonnull;
-import javax.annotation.Resource;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
-import java.util.concurrent.ExecutorService;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.RequestContext;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.exceptions.ServiceUnavailableException;
+import org.sagebionetworks.bridge.models.Metrics;
 import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.upload.UploadValidationMetrics;
 import org.sagebionetworks.bridge.upload.UploadValidationTask;
 import org.sagebionetworks.bridge.upload.UploadValidationTaskFactory;
 
-/** Service handler for upload validation. */
+/**
+ * Service handler for upload validation. Validation runs on a thread pool of its own, so a burst of uploads cannot 
+ * starve other asynchronous work. The pool's queue is bounded at admission: when it is full, 
+ * {@link #checkCapacity(int)} rejects new uploads before they are marked complete, so callers can retry them later. 
+ * Redrives are validated ahead of fresh uploads. On shutdown, queued validations are given time to finish, and the 
+ * IDs of any that don't are logged so they can be redriven.
+ */
 @Component
 public class UploadValidationService {
-    private ExecutorService asyncExecutorService;
+    private static final Logger LOG = LoggerFactory.getLogger(UploadValidationService.class);
+
+    static final String THREAD_COUNT_PROPERTY = "upload.validation.thread.count";
+    static final String QUEUE_CAPACITY_PROPERTY = "upload.validation.queue.capacity";
+    static final String SHUTDOWN_WAIT_SECONDS_PROPERTY = "upload.validation.shutdown.wait.seconds";
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private ThreadPoolExecutor validationExecutor;
     private UploadValidationTaskFactory taskFactory;
+    private UploadValidationMetrics validationMetrics;
+    private int threadCount;
+    private int queueCapacity;
+    private long shutdownWaitSeconds;
 
-    /** Async thread pool. This is configured by Spring. */
-    @Resource(name = "asyncExecutorService")
-    public void setAsyncExecutorService(ExecutorService asyncExecutorService) {
-        this.asyncExecutorService = asyncExecutorService;
+    @Autowired
+    final void setBridgeConfig(BridgeConfig config) {
+        this.threadCount = config.getInt(THREAD_COUNT_PROPERTY);
+        this.queueCapacity = config.getInt(QUEUE_CAPACITY_PROPERTY);
+        this.shutdownWaitSeconds = config.getInt(SHUTDOWN_WAIT_SECONDS_PROPERTY);
     }
 
     /** Task factory. This is configured by Spring. */
@@ -29,6 +64,75 @@ public class UploadValidationService {
         this.taskFactory = taskFactory;
     }
 
+    @Autowired
+    final void setValidationMetrics(UploadValidationMetrics validationMetrics) {
+        this.validationMetrics = validationMetrics;
+    }
+
+    // Provided to override in tests.
+    final void setValidationExecutor(ThreadPoolExecutor validationExecutor) {
+        this.validationExecutor = validationExecutor;
+    }
+    final void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+    final void setShutdownWaitSeconds(long shutdownWaitSeconds) {
+        this.shutdownWaitSeconds = shutdownWaitSeconds;
+    }
+
+    @PostConstruct
+    public void startExecutor() {
+        if (validationExecutor != null) {
+            return;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "upload-validation-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // The priority queue is unbounded; its size is bounded by checkCapacity().
+        validationExecutor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), threadFactory);
+    }
+
+    @PreDestroy
+    public void drain() {
+        validationExecutor.shutdown();
+        try {
+            if (validationExecutor.awaitTermination(shutdownWaitSeconds, TimeUnit.SECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Runnable> remaining = validationExecutor.shutdownNow();
+        for (Runnable runnable : remaining) {
+            LOG.error("Upload validation not run before shutdown, uploadId=" + ((PrioritizedTask)runnable).uploadId);
+        }
+    }
+
+    /**
+     * Throws a ServiceUnavailableException if the validation queue is full. This is called before an upload is 
+     * marked complete, so the upload can be completed again once the queue has drained. Uploads that have been 
+     * accepted but not yet submitted for validation (pendingCount) count toward the queue's capacity. This runs on 
+     * the request thread, so it also records the state of the queue in the request's metrics.
+     */
+    public void checkCapacity(int pendingCount) {
+        int queueDepth = getQueueDepth();
+        Metrics metrics = RequestContext.get().getMetrics();
+        if (metrics != null) {
+            metrics.setUploadValidationQueueDepth(queueDepth);
+            metrics.setUploadValidationInFlight(getInFlightCount());
+        }
+        if (queueDepth + pendingCount >= queueCapacity) {
+            long rejected = rejectedCount.incrementAndGet();
+            LOG.warn("Upload validation queue is full, queueDepth=" + queueDepth + ", pendingCount=" + pendingCount
+                    + ", inFlight=" + getInFlightCount() + ", rejectedCount=" + rejected);
+            throw new ServiceUnavailableException("Too many uploads are being validated. Please try again later.");
+        }
+    }
+
     /**
      * <p>
      * Kick off upload validation. Since upload validation can take some time, we handle this asynchronously. This
@@ -43,9 +147,71 @@ public class UploadValidationService {
      *         app this upload lives in
      * @param upload
      *         upload metadata object for the upload
+     * @param redrive
+     *         true if this is a redrive of an upload, which is validated ahead of fresh uploads
      */
-    public void validateUpload(@Nonnull String appId, @Nonnull Upload upload) {
+    public void validateUpload(@Nonnull String appId, @Nonnull Upload upload, boolean redrive) {
         UploadValidationTask task = taskFactory.newTask(appId, upload);
-        asyncExecutorService.execute(task);
+        validationExecutor.execute(new PrioritizedTask(task, upload.getUploadId(), redrive,
+                sequence.incrementAndGet()));
+    }
+
+    /** Number of validations waiting for a thread. */
+    public int getQueueDepth() {
+        return validationExecutor.getQueue().size();
+    }
+
+    /** Number of validations currently running. */
+    public int getInFlightCount() {
+        return validationExecutor.getActiveCount();
+    }
+
+    /** Number of uploads rejected because the queue was full, since this server started. */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Per-handler latency and failure metrics, bytes validated, and the current state of the validation queue, since
+     * this server started.
+     */
+    public ObjectNode getValidationMetrics() {
+        ObjectNode node = validationMetrics.snapshot();
+        node.put("queueDepth", getQueueDepth());
+        node.put("inFlight", getInFlightCount());
+        node.put("rejectedCount", getRejectedCount());
+        return node;
+    }
+
+    /** Orders redrives ahead of fresh uploads, and otherwise in order of submission. */
+    static final class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final Runnable task;
+        private final String uploadId;
+        private final boolean redrive;
+        private final long sequence;
+
+        PrioritizedTask(Runnable task, String uploadId, boolean redrive, long sequence) {
+            this.task = task;
+            this.uploadId = uploadId;
+            this.redrive = redrive;
+            this.sequence = sequence;
+        }
+
+        Runnable getTask() {
+            return task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            if (redrive != other.redrive) {
+                return redrive ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
     }
 }
@@ -6,6 +6,7 @@ import static org.sagebionetworks.bridge.AuthUtils.CANNOT_ACCESS_PARTICIPANTS;
 import static org.sagebionetworks.bridge.AuthUtils.CAN_ACCESS_ADHERENCE_DATA;
 import static org.sagebionetworks.bridge.AuthUtils.CAN_READ_PARTICIPANT_REPORTS;
 import static org.sagebionetworks.bridge.AuthUtils.CAN_READ_STUDIES;
+import static org.sagebionetworks.bridge.BridgeConstants.API_MAXIMUM_PAGE_SIZE;
 import static org.sagebionetworks.bridge.Roles.DEVELOPER;
 import static org.sagebionetworks.bridge.Roles.RESEARCHER;
 import static org.sagebionetworks.bridge.Roles.STUDY_COORDINATOR;
@@ -13,6 +14,8 @@ import static org.sagebionetworks.bridge.Roles.STUDY_DESIGNER;
 import static org.sagebionetworks.bridge.Roles.WORKER;
 import static org.sagebionetworks.bridge.models.AccountTestFilter.TEST;
 
+import java.util.List;
+
 import org.joda.time.DateTime;
 
 import org.sagebionetworks.bridge.models.schedules2.adherence.AdherencePostProcessingAttributes;
@@ -26,9 +29,11 @@ import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.models.AdherenceReportSearch;
 import org.sagebionetworks.bridge.models.PagedResourceList;
+import org.sagebionetworks.bridge.models.ResourceList;
 import org.sagebionetworks.bridge.models.StatusMessage;
 import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.AccountId;
@@ -42,12 +47,17 @@ import org.sagebionetworks.bridge.models.schedules2.adherence.study.StudyAdheren
 import org.sagebionetworks.bridge.models.schedules2.adherence.weekly.WeeklyAdherenceReport;
 import org.sagebionetworks.bridge.services.AdherenceService;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+
 @CrossOrigin
 @RestController
 public class AdherenceController extends BaseController {
     
     static final StatusMessage SAVED_MSG = new StatusMessage("Adherence records saved.");
     static final StatusMessage DELETED_MSG = new StatusMessage("Adherence record deleted");
+    static final TypeReference<List<String>> USER_ID_LIST_TYPE = new TypeReference<List<String>>() {};
+    static final String TOO_MANY_USER_IDS_ERROR = "Reports can be generated for at most " + API_MAXIMUM_PAGE_SIZE
+            + " participants at a time.";
     
     private AdherenceService service;
 
@@ -125,6 +135,24 @@ public class AdherenceController extends BaseController {
         return service.getWeeklyAdherenceReportForWorker(appId, studyId, account);
     }
     
+    /**
+     * Generate the weekly adherence reports of a page of participants in one call (the body is a JSON
+     * array of user IDs). IDs that do not match an account are skipped.
+     */
+    @PostMapping("/v1/apps/{appId}/studies/{studyId}/adherence/weekly/batch")
+    public ResourceList<WeeklyAdherenceReport> getWeeklyAdherenceReportsForWorker(@PathVariable String appId,
+            @PathVariable String studyId) {
+        getAuthenticatedSession(WORKER);
+        
+        List<String> userIds = parseJson(USER_ID_LIST_TYPE);
+        if (userIds.size() > API_MAXIMUM_PAGE_SIZE) {
+            throw new BadRequestException(TOO_MANY_USER_IDS_ERROR);
+        }
+        List<Account> accounts = accountService.getAccountsById(appId, userIds);
+        List<WeeklyAdherenceReport> reports = service.getWeeklyAdherenceReportsForWorker(appId, studyId, accounts);
+        return new ResourceList<>(reports, true);
+    }
+    
     @PostMapping("/v5/studies/{studyId}/adherence/weekly")    
     public PagedResourceList<WeeklyAdherenceReport> getWeeklyAdherenceReports(@PathVariable String studyId) {
         UserSession session = getAuthenticatedSession(DEVELOPER, RESEARCHER, STUDY_DESIGNER, STUDY_COORDINATOR);
@@ -1,5 +1,7 @@
 package org.sagebionetworks.bridge.spring.controllers;
 
+import static org.sagebionetworks.bridge.BridgeConstants.API_DEFAULT_PAGE_SIZE;
+import static org.sagebionetworks.bridge.BridgeUtils.getIntOrDefault;
 import static org.sagebionetworks.bridge.Roles.SUPERADMIN;
 
 import java.util.Set;
@@ -10,8 +12,10 @@ import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.StatusMessage;
 import org.sagebionetworks.bridge.services.CacheAdminService;
 
@@ -34,6 +38,26 @@ public class CacheAdminController extends BaseController {
         return cacheAdminService.listItems();
     }
     
+    @GetMapping("keys")
+    public ForwardCursorPagedResourceList<String> listItemsPage(@RequestParam(required = false) String offsetKey,
+            @RequestParam(required = false) String pattern, @RequestParam(required = false) String type,
+            @RequestParam(required = false) String pageSize) {
+        getAuthenticatedSession(SUPERADMIN);
+        
+        int pageSizeInt = getIntOrDefault(pageSize, API_DEFAULT_PAGE_SIZE);
+        
+        return cacheAdminService.listItems(offsetKey, pattern, type, pageSizeInt);
+    }
+    
+    @DeleteMapping
+    public StatusMessage removeItems(@RequestParam(required = false) String pattern) {
+        getAuthenticatedSession(SUPERADMIN);
+        
+        int removed = cacheAdminService.removeItems(pattern);
+        
+        return new StatusMessage(removed + " item(s) removed from cache.");
+    }
+    
     @DeleteMapping("{cacheKey}")
     public StatusMessage removeItem(@PathVariable String cacheKey) {
         getAuthenticatedSession(SUPERADMIN);
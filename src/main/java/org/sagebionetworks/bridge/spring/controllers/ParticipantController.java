@@ -22,10 +22,15 @@ import static org.sagebionetworks.bridge.models.sms.SmsType.PROMOTIONAL;
 import static org.sagebionetworks.bridge.spring.controllers.StudyParticipantController.INSTALL_LINK_SEND_MSG;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.servlet.http.HttpServletResponse;
+
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectWriter;
@@ -52,6 +57,7 @@ import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.RequestContext;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.exceptions.UnauthorizedException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.AccountSummarySearch;
 import org.sagebionetworks.bridge.models.CriteriaContext;
 import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
@@ -332,6 +338,51 @@ public class ParticipantController extends BaseController {
         AccountSummarySearch search = parseJson(AccountSummarySearch.class);
         return participantService.getPagedAccountSummaries(app, search);
     }
+    
+    /**
+     * Returns a JSON array of all the account summaries that match the search (the paging parameters 
+     * are ignored). The summaries are written to the response as they are retrieved, so large exports 
+     * do not have to be paged or held in memory. If an error occurs before the first summary is 
+     * retrieved (for example, if the search is invalid), nothing has been written, and the error is 
+     * returned normally. If an error occurs after that, part of the array may already have been sent, 
+     * so the response is a 200 with an incomplete array that is not valid JSON.
+     */
+    @PostMapping(path = "/v1/apps/{appId}/participants/search/stream", produces = {APPLICATION_JSON_VALUE})
+    public void streamAccountSummariesForWorker(@PathVariable String appId) throws IOException {
+        getAuthenticatedSession(WORKER);
+        App app = appService.getApp(appId);
+        
+        AccountSummarySearch search = parseJson(AccountSummarySearch.class);
+        
+        HttpServletResponse response = response();
+        response.setContentType(APPLICATION_JSON_VALUE);
+        // Closing the generator doesn't close or flush the response, so an error response can still be 
+        // written if nothing else has been, and it doesn't end the array, so a partial array isn't 
+        // mistaken for a complete one.
+        JsonGenerator generator = BridgeObjectMapper.get().getFactory().createGenerator(response.getOutputStream())
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        try {
+            // The array is started with the first summary, so nothing is written before the search succeeds.
+            participantService.streamAccountSummaries(app, search, summary -> {
+                try {
+                    if (generator.getOutputContext().inRoot()) {
+                        generator.writeStartArray();
+                    }
+                    generator.writeObject(summary);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            if (generator.getOutputContext().inRoot()) {
+                generator.writeStartArray();
+            }
+            generator.writeEndArray();
+        } finally {
+            generator.close();
+        }
+    }
 
     @PostMapping("/v3/participants")
     @ResponseStatus(HttpStatus.CREATED)
@@ -301,5 +301,7 @@ public class SurveyController extends BaseController {
         viewCache.removeView(viewCache.getCacheKey(Survey.class, surveyGuid, createdOnString, appId));
         viewCache.removeView(viewCache.getCacheKey(Survey.class, surveyGuid, PUBLISHED_KEY, appId));
         viewCache.removeView(viewCache.getCacheKey(Survey.class, surveyGuid, MOSTRECENT_KEY, appId));
+        // App configs cache their resolved survey references
+        cacheProvider.removeSetOfCacheKeys(CacheKey.appConfigList(appId));
     }
 }
\ No newline at end of file
@@ -10,37 +10,47 @@ import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 import java.io.IOException;
 import java.util.EnumSet;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableSet;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.dao.HealthCodeDao;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.exceptions.UnauthorizedException;
 import org.sagebionetworks.bridge.models.Metrics;
 import org.sagebionetworks.bridge.models.RequestInfo;
-import org.sagebionetworks.bridge.models.StatusMessage;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
 import org.sagebionetworks.bridge.models.upload.Upload;
 import org.sagebionetworks.bridge.models.upload.UploadCompletionClient;
+import org.sagebionetworks.bridge.models.upload.UploadRedriveJob;
 import org.sagebionetworks.bridge.models.upload.UploadRedriveList;
 import org.sagebionetworks.bridge.models.upload.UploadRequest;
 import org.sagebionetworks.bridge.models.upload.UploadSession;
+import org.sagebionetworks.bridge.models.upload.UploadStatus;
 import org.sagebionetworks.bridge.models.upload.UploadValidationStatus;
 import org.sagebionetworks.bridge.models.upload.UploadView;
 import org.sagebionetworks.bridge.models.upload.UploadViewEx3;
 import org.sagebionetworks.bridge.services.HealthDataService;
 import org.sagebionetworks.bridge.services.UploadService;
+import org.sagebionetworks.bridge.services.UploadValidationService;
 import org.sagebionetworks.bridge.time.DateUtils;
 
 @CrossOrigin
@@ -53,7 +63,10 @@ public class UploadController extends BaseController {
     
     private HealthCodeDao healthCodeDao;
 
-    static final StatusMessage REDRIVE_COMPLETE_MSG = new StatusMessage("Upload redrive completed.");
+    private UploadValidationService uploadValidationService;
+
+    /** How long a synchronous upload complete call waits for validation, before it fails with a timeout. */
+    static final long VALIDATION_STATUS_TIMEOUT_MILLIS = 35000;
 
     @Autowired
     final void setUploadService(UploadService uploadService) {
@@ -69,6 +82,11 @@ public class UploadController extends BaseController {
     final void setHealthCodeDao(HealthCodeDao healthCodeDao) {
         this.healthCodeDao = healthCodeDao;
     }
+
+    @Autowired
+    final void setUploadValidationService(UploadValidationService uploadValidationService) {
+        this.uploadValidationService = uploadValidationService;
+    }
     
     /** Gets validation status and messages for the given upload ID. 
      * @throws JsonProcessingException */
@@ -117,7 +135,7 @@ public class UploadController extends BaseController {
      * <p>
      * If synchronous is set to "true", we will wait until upload validation is complete, then return the upload
      * validation status. This is generally recommended only for App Development, as some large uploads might take
-     * several seconds to complete.
+     * several seconds to complete. The request thread is not held while waiting.
      * </p>
      * <p>
      * If synchronous is set to anything else, we will return a validation status immediately (which will often be in
@@ -129,7 +147,7 @@ public class UploadController extends BaseController {
      * </p>
      */
     @PostMapping(path={"/v3/uploads/{uploadId}/complete", "/api/v1/upload/{uploadId}/complete"}, produces={APPLICATION_JSON_VALUE})
-    public String uploadComplete(@PathVariable String uploadId,
+    public DeferredResult<String> uploadComplete(@PathVariable String uploadId,
             @RequestParam(defaultValue = "false") boolean synchronous,
             @RequestParam(defaultValue = "false") boolean redrive) throws Exception {
         final Metrics metrics = getMetrics();
@@ -162,26 +180,86 @@ public class UploadController extends BaseController {
         uploadService.uploadComplete(appId, uploadCompletionClient, upload, redrive);
 
         // In async mode, we get the validation status (probably in validation_in_progress) and return immediately.
-        // In sync mode, we poll until the validation status is complete (or failed or another non-transient status).
+        DeferredResult<String> result = new DeferredResult<>(VALIDATION_STATUS_TIMEOUT_MILLIS);
+        if (!synchronous) {
+            result.setResult(writeValidationStatus(uploadService.getUploadValidationStatus(uploadId)));
+            return result;
+        }
+
+        // In sync mode, we wait until the validation status is complete (or failed or another non-transient status).
+        // The request thread is released while we wait.
+        CompletableFuture<UploadValidationStatus> future = uploadService.waitForUploadValidationStatus(uploadId);
+        future.whenComplete((validationStatus, ex) -> {
+            if (ex instanceof CancellationException) {
+                // We timed out. The timeout callback sets the result.
+                return;
+            }
+            if (ex != null) {
+                result.setErrorResult(ex instanceof CompletionException ? ex.getCause() : ex);
+                return;
+            }
+            setValidationStatusResult(result, validationStatus);
+        });
+        result.onTimeout(() -> onValidationStatusTimeout(result, future, uploadId));
+        return result;
+    }
+
+    // Package-scoped for unit tests.
+    void onValidationStatusTimeout(DeferredResult<String> result, CompletableFuture<UploadValidationStatus> future,
+            String uploadId) {
+        future.cancel(false);
+        // The completion notification may have been missed. Check the status one last time.
         UploadValidationStatus validationStatus;
-        if (synchronous) {
-            validationStatus = uploadService.pollUploadValidationStatusUntilComplete(uploadId);
-        } else {
+        try {
             validationStatus = uploadService.getUploadValidationStatus(uploadId);
+        } catch (RuntimeException ex) {
+            result.setErrorResult(ex);
+            return;
         }
+        if (validationStatus.getStatus() == UploadStatus.VALIDATION_IN_PROGRESS) {
+            result.setErrorResult(new BridgeServiceException(
+                    "Timeout waiting for validation status for upload " + uploadId));
+            return;
+        }
+        setValidationStatusResult(result, validationStatus);
+    }
 
-        // Upload validation status may contain the health data record. Use the filter to filter out health code.
+    // Upload validation status may contain the health data record. Use the filter to filter out health code.
+    private static String writeValidationStatus(UploadValidationStatus validationStatus)
+            throws JsonProcessingException {
         return HealthDataRecord.PUBLIC_RECORD_WRITER.writeValueAsString(validationStatus);
     }
 
+    private static void setValidationStatusResult(DeferredResult<String> result,
+            UploadValidationStatus validationStatus) {
+        try {
+            result.setResult(writeValidationStatus(validationStatus));
+        } catch (JsonProcessingException ex) {
+            result.setErrorResult(ex);
+        }
+    }
+
+    /** Starts an upload redrive. Returns a job handle, which can be used to check the redrive's progress. */
     @PostMapping("/v3/uploads/redrive")
-    public StatusMessage redriveUploads() throws IOException {
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public UploadRedriveJob redriveUploads() throws IOException {
         getAuthenticatedSession(Roles.SUPERADMIN);
 
         UploadRedriveList redriveList = parseJson(UploadRedriveList.class);
-        uploadService.redriveUpload(redriveList);
+        return uploadService.redriveUpload(redriveList);
+    }
+
+    @GetMapping("/v3/uploads/redrive/{jobGuid}")
+    public UploadRedriveJob getUploadRedriveJob(@PathVariable String jobGuid) {
+        getAuthenticatedSession(Roles.SUPERADMIN);
+        return uploadService.getUploadRedriveJob(jobGuid);
+    }
 
-        return REDRIVE_COMPLETE_MSG;
+    /** Upload validation metrics for this server: handler latencies and failures, bytes validated, and queue state. */
+    @GetMapping(path="/v3/uploads/validation/metrics", produces={APPLICATION_JSON_VALUE})
+    public JsonNode getValidationMetrics() {
+        getAuthenticatedSession(SUPERADMIN, WORKER);
+        return uploadValidationService.getValidationMetrics();
     }
     
     @GetMapping("/v3/uploads/{uploadId}")
@@ -7,6 +7,8 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -62,23 +64,55 @@ public class MetricsFilter implements Filter {
 
         metrics.setQueryParams(paramsMap);
 
+        boolean async = false;
         try {
             chain.doFilter(req, res);
-            metrics.setStatus(response.getStatus());
-        } finally {
-            // Log session info when a session is present
-            UserSession session = (UserSession) request.getAttribute("CreatedUserSession");
-            if (session != null) {
-                // Record UserSession to Metrics.
-                writeSessionInfoToMetrics(metrics, session);
+            if (request.isAsyncStarted()) {
+                // The response is written later on another thread (for example, a synchronous upload complete
+                // waiting for validation). Record the metrics when it's complete.
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        metrics.setStatus(response.getStatus());
+                        finishMetrics(metrics, request, response);
+                    }
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                        // no-op, onComplete is still called
+                    }
+                    @Override
+                    public void onError(AsyncEvent event) {
+                        // no-op, onComplete is still called
+                    }
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                        // no-op
+                    }
+                });
+                async = true;
+            } else {
+                metrics.setStatus(response.getStatus());
             }
-            if (response.getHeader(X_PASSTHROUGH) == null) {
-                metrics.end();
-                LOG.info(metrics.toJsonString());
+        } finally {
+            if (!async) {
+                finishMetrics(metrics, request, response);
             }
         }
     }
 
+    private void finishMetrics(Metrics metrics, HttpServletRequest request, HttpServletResponse response) {
+        // Log session info when a session is present
+        UserSession session = (UserSession) request.getAttribute("CreatedUserSession");
+        if (session != null) {
+            // Record UserSession to Metrics.
+            writeSessionInfoToMetrics(metrics, session);
+        }
+        if (response.getHeader(X_PASSTHROUGH) == null) {
+            metrics.end();
+            LOG.info(metrics.toJsonString());
+        }
+    }
+
     private String header(HttpServletRequest request, String name, String defaultVal) {
         final String value = request.getHeader(name);
         return (value != null) ? value : defaultVal;
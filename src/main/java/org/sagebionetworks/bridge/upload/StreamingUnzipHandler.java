@@ -0,0 +1,254 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+import javax.annotation.Resource;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.google.common.base.Stopwatch;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfigFactory;
+import org.sagebionetworks.bridge.file.FileHelper;
+import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.services.UploadArchiveService;
+
+/**
+ * Validation handler that replaces {@link S3DownloadHandler}, {@link DecryptHandler}, and {@link UnzipHandler} with a
+ * single pass over the upload. The upload is streamed from S3, through decryption, and into the unzipper, without
+ * writing the encrypted upload to disk or reading the decrypted upload back from disk. The decrypted data is still 
+ * written to {@link org.sagebionetworks.bridge.upload.UploadValidationContext#setDecryptedDataFile} as it streams by,
+ * because it is uploaded as the raw data attachment, and the unzipped entries are written to
+ * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getUnzippedDataFileMap}, because the handlers that
+ * follow read them. The zip entry count and size limits of the {@link UploadArchiveService} apply as before.
+ * <p>
+ * Because everything happens in one pass, the handler's own timing can't tell decrypting from unzipping, so each is
+ * also recorded as a handler stage in the {@link UploadValidationMetrics}. The decrypt stage is the time spent waiting
+ * on the decrypted stream (which includes downloading from S3) and the number of decrypted bytes. The unzip stage is
+ * the rest of the pass (reading the zip and writing the files) and the number of unzipped bytes.
+ */
+@Component
+public class StreamingUnzipHandler implements UploadValidationHandler {
+    private static final String UPLOAD_BUCKET = BridgeConfigFactory.getConfig().getProperty("upload.bucket");
+
+    static final String STAGE_DECRYPT = "StreamingUnzipHandler.Decrypt";
+    static final String STAGE_UNZIP = "StreamingUnzipHandler.Unzip";
+
+    private FileHelper fileHelper;
+    private AmazonS3 s3Client;
+    private UploadArchiveService uploadArchiveService;
+    private UploadValidationMetrics validationMetrics;
+
+    /** File helper, used to create the decrypted and unzipped files and to get file streams. */
+    @Autowired
+    public final void setFileHelper(FileHelper fileHelper) {
+        this.fileHelper = fileHelper;
+    }
+
+    /** S3 client, for streaming the upload from S3. This is configured by Spring. */
+    @Resource(name = "s3Client")
+    public final void setS3Client(AmazonS3 s3Client) {
+        this.s3Client = s3Client;
+    }
+
+    /** Upload archive service, which handles decrypting and unzipping of files. This is configured by Spring. */
+    @Autowired
+    public final void setUploadArchiveService(UploadArchiveService uploadArchiveService) {
+        this.uploadArchiveService = uploadArchiveService;
+    }
+
+    /** Validation metrics, where the decrypt and unzip stages are recorded. This is configured by Spring. */
+    @Autowired
+    public final void setValidationMetrics(UploadValidationMetrics validationMetrics) {
+        this.validationMetrics = validationMetrics;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void handle(@Nonnull UploadValidationContext context) throws UploadValidationException {
+        Upload upload = context.getUpload();
+        Map<String, File> unzippedDataFileMap = new HashMap<>();
+        context.setUnzippedDataFileMap(unzippedDataFileMap);
+
+        // Temp file name in the form "[uploadId].zip", as in the DecryptHandler.
+        File decryptedFile = fileHelper.newFile(context.getTempDir(), context.getUploadId() + ".zip");
+        context.setDecryptedDataFile(decryptedFile);
+
+        Supplier<InputStream> s3Source = () -> s3Client.getObject(UPLOAD_BUCKET, upload.getObjectId())
+                .getObjectContent();
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        LongAdder unzippedBytes = new LongAdder();
+        try (TimedInputStream decryptedStream = openDecryptedStream(context.getAppId(), upload, s3Source);
+                OutputStream decryptedFileStream = new BufferedOutputStream(
+                        fileHelper.getOutputStream(decryptedFile))) {
+            TeeInputStream teeStream = new TeeInputStream(decryptedStream, decryptedFileStream);
+            if (upload.isZipped()) {
+                uploadArchiveService.unzip(teeStream,
+                        entryName -> {
+                            File unzippedFile = fileHelper.newFile(context.getTempDir(), entryName);
+                            unzippedDataFileMap.put(entryName, unzippedFile);
+                            try {
+                                return new CountingOutputStream(new BufferedOutputStream(
+                                        fileHelper.getOutputStream(unzippedFile)));
+                            } catch (FileNotFoundException ex) {
+                                // Function doesn't throw, so wrap this in a RuntimeException.
+                                throw new RuntimeException(ex);
+                            }
+                        },
+                        (entryName, outputStream) -> {
+                            try {
+                                outputStream.close();
+                            } catch (IOException ex) {
+                                // BiConsumer doesn't throw, so wrap this in a RuntimeException.
+                                throw new RuntimeException(ex);
+                            }
+                            unzippedBytes.add(((CountingOutputStream) outputStream).getCount());
+                        });
+            } else {
+                // If this isn't a zip file, then the decrypted data file is the only entry in our map.
+                unzippedDataFileMap.put(upload.getFilename(), decryptedFile);
+            }
+            // Unzipping stops at the zip's central directory. Read the rest so the decrypted file is complete.
+            ByteStreams.exhaust(teeStream);
+
+            // Whatever time wasn't spent waiting on the decrypted stream was spent unzipping.
+            long decryptNanos = decryptedStream.getElapsedNanos();
+            if (upload.isEncrypted()) {
+                validationMetrics.recordHandlerStage(STAGE_DECRYPT, TimeUnit.NANOSECONDS.toMillis(decryptNanos),
+                        decryptedStream.getBytesRead());
+            }
+            if (upload.isZipped()) {
+                long unzipNanos = stopwatch.elapsed(TimeUnit.NANOSECONDS) - decryptNanos;
+                validationMetrics.recordHandlerStage(STAGE_UNZIP, TimeUnit.NANOSECONDS.toMillis(unzipNanos),
+                        unzippedBytes.sum());
+            }
+        } catch (IOException ex) {
+            throw new UploadValidationException("Error streaming upload: " + ex.getMessage(), ex);
+        }
+    }
+
+    // Opening the stream is timed too, because it reads the CMS header and starts the S3 download.
+    private TimedInputStream openDecryptedStream(String appId, Upload upload, Supplier<InputStream> s3Source) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        InputStream source = upload.isEncrypted() ? uploadArchiveService.decrypt(appId, s3Source) : s3Source.get();
+        return new TimedInputStream(source, stopwatch.elapsed(TimeUnit.NANOSECONDS));
+    }
+
+    /** Counts the bytes read from the source stream, and the time spent waiting for them. */
+    static class TimedInputStream extends FilterInputStream {
+        private long elapsedNanos;
+        private long bytesRead;
+
+        TimedInputStream(InputStream source, long openNanos) {
+            super(source);
+            this.elapsedNanos = openNanos;
+        }
+
+        long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        long getBytesRead() {
+            return bytesRead;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long startNanos = System.nanoTime();
+            int b = super.read();
+            elapsedNanos += System.nanoTime() - startNanos;
+            if (b >= 0) {
+                bytesRead++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long startNanos = System.nanoTime();
+            int count = super.read(buffer, offset, length);
+            elapsedNanos += System.nanoTime() - startNanos;
+            if (count > 0) {
+                bytesRead += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long startNanos = System.nanoTime();
+            long skipped = super.skip(n);
+            elapsedNanos += System.nanoTime() - startNanos;
+            bytesRead += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Copies everything read from the source stream to the given output stream. Closing this stream does not close 
+     * the source stream, so the remainder of the source can still be copied after the unzipper closes its stream.
+     */
+    static class TeeInputStream extends FilterInputStream {
+        private final OutputStream copy;
+
+        TeeInputStream(InputStream source, OutputStream copy) {
+            super(source);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                copy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int bytesRead = super.read(buffer, offset, length);
+            if (bytesRead > 0) {
+                copy.write(buffer, offset, bytesRead);
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes must still be copied, so read them instead.
+            byte[] buffer = new byte[(int) Math.min(n, 4096)];
+            int bytesRead = read(buffer, 0, buffer.length);
+            return Math.max(bytesRead, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // The owner of the source stream closes it.
+        }
+    }
+}
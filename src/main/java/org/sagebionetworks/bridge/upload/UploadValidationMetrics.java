@@ -0,0 +1,157 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+
+/**
+ * In-memory metrics for upload validation, collected for the lifetime of this server: a latency histogram and
+ * failure counts (by exception type) for each validation handler and for each upload completion stage, a latency
+ * histogram and byte count for each stage within a handler (like decrypting and unzipping), and the number of bytes
+ * validated per upload.
+ * {@link #snapshot()} renders these as JSON, so they can be scraped through the API instead of parsed out of the
+ * logs.
+ */
+@Component
+public class UploadValidationMetrics {
+    /** Upper bounds (inclusive) of the handler latency buckets. Anything slower goes in the overflow bucket. */
+    static final long[] LATENCY_BUCKETS_MILLIS = { 10, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000 };
+    static final String OVERFLOW_BUCKET = "+Inf";
+
+    private final ConcurrentMap<String, HandlerStats> handlerStats = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, HandlerStats> completionStageStats = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, HandlerStats> handlerStageStats = new ConcurrentHashMap<>();
+    private final LongAdder uploadCount = new LongAdder();
+    private final LongAdder totalBytes = new LongAdder();
+    private final AtomicLong maxBytes = new AtomicLong();
+
+    /**
+     * Records one run of a validation handler.
+     * @param handlerName name of the handler, generally its simple class name
+     * @param elapsedMillis how long the handler took
+     * @param failure exception thrown by the handler, or null if it succeeded
+     */
+    public void recordHandler(String handlerName, long elapsedMillis, Throwable failure) {
+        record(handlerStats, handlerName, elapsedMillis, failure);
+    }
+
+    /**
+     * Records one attempt at an upload completion stage, such as Exporter 3 or adherence, which run after the upload
+     * is marked complete.
+     * @param stageName name of the stage
+     * @param elapsedMillis how long the attempt took
+     * @param failure exception thrown by the attempt, or null if it succeeded
+     */
+    public void recordCompletionStage(String stageName, long elapsedMillis, Throwable failure) {
+        record(completionStageStats, stageName, elapsedMillis, failure);
+    }
+
+    /**
+     * Records one run of a stage within a validation handler, for handlers that do more than one thing in a single
+     * pass over the upload. Stages are only recorded when the handler succeeds. (Its failures are recorded by
+     * {@link #recordHandler}.)
+     * @param stageName name of the stage, generally the handler's simple class name and the stage, like
+     *                  "StreamingUnzipHandler.Decrypt"
+     * @param elapsedMillis how long the stage took
+     * @param bytes number of bytes the stage produced
+     */
+    public void recordHandlerStage(String stageName, long elapsedMillis, long bytes) {
+        HandlerStats stats = record(handlerStageStats, stageName, elapsedMillis, null);
+        stats.totalBytes.add(bytes);
+    }
+
+    private static HandlerStats record(ConcurrentMap<String, HandlerStats> statsMap, String name, long elapsedMillis,
+            Throwable failure) {
+        HandlerStats stats = statsMap.computeIfAbsent(name, key -> new HandlerStats());
+        stats.record(elapsedMillis);
+        if (failure != null) {
+            stats.failures.computeIfAbsent(failure.getClass().getName(), key -> new LongAdder()).increment();
+        }
+        return stats;
+    }
+
+    /** Records the size of an upload that was validated. */
+    public void recordUpload(long contentLength) {
+        uploadCount.increment();
+        totalBytes.add(contentLength);
+        maxBytes.accumulateAndGet(contentLength, Math::max);
+    }
+
+    /**
+     * Returns the current metrics as JSON. Latency buckets are cumulative: each bucket counts the handler runs that
+     * took at most that many milliseconds.
+     */
+    public ObjectNode snapshot() {
+        ObjectNode node = BridgeObjectMapper.get().createObjectNode();
+        node.put("uploadCount", uploadCount.sum());
+        node.put("totalBytes", totalBytes.sum());
+        node.put("maxBytes", maxBytes.get());
+
+        writeTo(handlerStats, node.putObject("handlers"));
+        writeTo(completionStageStats, node.putObject("completionStages"));
+
+        // Handler stages also count the bytes they produced.
+        ObjectNode handlerStagesNode = node.putObject("handlerStages");
+        for (Map.Entry<String, HandlerStats> entry : handlerStageStats.entrySet()) {
+            ObjectNode stageNode = handlerStagesNode.putObject(entry.getKey());
+            entry.getValue().writeTo(stageNode);
+            stageNode.put("totalBytes", entry.getValue().totalBytes.sum());
+        }
+        return node;
+    }
+
+    private static void writeTo(ConcurrentMap<String, HandlerStats> statsMap, ObjectNode node) {
+        for (Map.Entry<String, HandlerStats> entry : statsMap.entrySet()) {
+            entry.getValue().writeTo(node.putObject(entry.getKey()));
+        }
+    }
+
+    private static final class HandlerStats {
+        private final AtomicLongArray buckets = new AtomicLongArray(LATENCY_BUCKETS_MILLIS.length + 1);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMillis = new LongAdder();
+        private final AtomicLong maxMillis = new AtomicLong();
+        private final ConcurrentMap<String, LongAdder> failures = new ConcurrentHashMap<>();
+        // Only recorded for handler stages.
+        private final LongAdder totalBytes = new LongAdder();
+
+        void record(long elapsedMillis) {
+            int i = 0;
+            while (i < LATENCY_BUCKETS_MILLIS.length && elapsedMillis > LATENCY_BUCKETS_MILLIS[i]) {
+                i++;
+            }
+            buckets.incrementAndGet(i);
+            count.increment();
+            totalMillis.add(elapsedMillis);
+            maxMillis.accumulateAndGet(elapsedMillis, Math::max);
+        }
+
+        void writeTo(ObjectNode node) {
+            node.put("count", count.sum());
+            node.put("totalMillis", totalMillis.sum());
+            node.put("maxMillis", maxMillis.get());
+
+            ObjectNode bucketsNode = node.putObject("latencyMillis");
+            long cumulative = 0;
+            for (int i = 0; i < LATENCY_BUCKETS_MILLIS.length; i++) {
+                cumulative += buckets.get(i);
+                bucketsNode.put(String.valueOf(LATENCY_BUCKETS_MILLIS[i]), cumulative);
+            }
+            cumulative += buckets.get(LATENCY_BUCKETS_MILLIS.length);
+            bucketsNode.put(OVERFLOW_BUCKET, cumulative);
+
+            ObjectNode failuresNode = node.putObject("failures");
+            for (Map.Entry<String, LongAdder> entry : failures.entrySet()) {
+                failuresNode.put(entry.getKey(), entry.getValue().sum());
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+
+/**
+ * Notifies callers waiting on an upload when its validation status has been written, so they don't have to poll
+ * DynamoDB. Callers {@link #register} before checking the upload's status. When a validation task finishes, it calls
+ * {@link #notifyValidationComplete}, which completes the local waiters and publishes the upload ID on a Redis
+ * channel, so waiters on other servers are completed as well. Redis pub/sub is fire-and-forget, so a waiter that
+ * misses a notification should re-check the status when it times out.
+ */
+@Component
+public class UploadValidationNotifier {
+    private static final Logger LOG = LoggerFactory.getLogger(UploadValidationNotifier.class);
+
+    static final String CHANNEL = "upload-validation-complete";
+    static final int CALLBACK_THREAD_COUNT = 4;
+    static final long RESUBSCRIBE_DELAY_MILLIS = 5000;
+
+    // Sets are only read or modified inside ConcurrentHashMap.compute(), or after being removed from the map.
+    private final ConcurrentMap<String, Set<CompletableFuture<Void>>> waiters = new ConcurrentHashMap<>();
+    private final JedisPubSub subscriber = new JedisPubSub() {
+        @Override
+        public void onMessage(String channel, String uploadId) {
+            completeWaiters(uploadId);
+        }
+    };
+    private JedisPool jedisPool;
+    private ExecutorService callbackExecutor;
+    private volatile boolean running;
+
+    @Resource(name = "jedisPool")
+    final void setJedisPool(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+
+    // Waiters are completed on this executor, so the work they chain on (like re-reading the upload) runs neither
+    // on the validation thread nor on the Redis subscriber thread. Provided to override in tests.
+    final void setCallbackExecutor(ExecutorService callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (callbackExecutor == null) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            callbackExecutor = Executors.newFixedThreadPool(CALLBACK_THREAD_COUNT, runnable -> {
+                Thread thread = new Thread(runnable, "upload-validation-callback-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        running = true;
+        Thread subscriberThread = new Thread(this::subscribe, "upload-validation-subscriber");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (subscriber.isSubscribed()) {
+            subscriber.unsubscribe();
+        }
+        callbackExecutor.shutdown();
+    }
+
+    // Subscribing blocks this thread (and a pooled connection) until we unsubscribe. If the connection drops,
+    // subscribe again after a delay.
+    private void subscribe() {
+        while (running) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                jedis.subscribe(subscriber, CHANNEL);
+            } catch (RuntimeException ex) {
+                LOG.error("Error subscribing to upload validation notifications: " + ex.getMessage(), ex);
+            }
+            if (running) {
+                try {
+                    Thread.sleep(RESUBSCRIBE_DELAY_MILLIS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a future that completes when validation of the given upload is complete on any server. Cancel the
+     * future to stop waiting.
+     */
+    public CompletableFuture<Void> register(String uploadId) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        waiters.compute(uploadId, (key, set) -> {
+            Set<CompletableFuture<Void>> futures = (set == null) ? new HashSet<>() : set;
+            futures.add(future);
+            return futures;
+        });
+        // However the future completes, including by cancellation, it no longer needs to be notified.
+        future.whenComplete((result, ex) -> waiters.computeIfPresent(uploadId, (key, set) -> {
+            set.remove(future);
+            return set.isEmpty() ? null : set;
+        }));
+        return future;
+    }
+
+    /**
+     * Called after an upload's validation status is written. Completes waiters on this server, and publishes the
+     * upload ID for the other servers. Publish errors are logged and not thrown, since validation itself succeeded.
+     */
+    public void notifyValidationComplete(String uploadId) {
+        completeWaiters(uploadId);
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.publish(CHANNEL, uploadId);
+        } catch (RuntimeException ex) {
+            LOG.error("Error publishing upload validation notification for upload " + uploadId + ": " +
+                    ex.getMessage(), ex);
+        }
+    }
+
+    /** Number of uploads with callers waiting on them. Package-scoped for unit tests. */
+    int getWaitingUploadCount() {
+        return waiters.size();
+    }
+
+    // Package-scoped so unit tests can simulate a notification from another server.
+    void completeWaiters(String uploadId) {
+        Set<CompletableFuture<Void>> futures = waiters.remove(uploadId);
+        if (futures != null) {
+            for (CompletableFuture<Void> future : futures) {
+                callbackExecutor.execute(() -> future.complete(null));
+            }
+        }
+    }
+}
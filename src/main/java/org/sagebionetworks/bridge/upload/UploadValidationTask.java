@@ -29,6 +29,8 @@ public class UploadValidationTask implements Runnable {
     private List<UploadValidationHandler> handlerList;
     private UploadDao uploadDao;
     private HealthDataService healthDataService;
+    private UploadValidationMetrics validationMetrics;
+    private UploadValidationNotifier validationNotifier;
 
     public final void setHealthDataService(HealthDataService healthDataService) {
         this.healthDataService = healthDataService;
@@ -82,21 +84,44 @@ public class UploadValidationTask implements Runnable {
         return uploadDao;
     }
 
+    /** Metrics for handler latency, failures, and upload size. This is configured by Spring through the factory. */
+    public final void setValidationMetrics(UploadValidationMetrics validationMetrics) {
+        this.validationMetrics = validationMetrics;
+    }
+
+    /** This is package-scoped to facilitate unit tests. */
+    /* package-scoped*/ UploadValidationMetrics getValidationMetrics() {
+        return validationMetrics;
+    }
+
+    /** Notifies callers waiting on this upload. This is configured by Spring through the factory. */
+    public final void setValidationNotifier(UploadValidationNotifier validationNotifier) {
+        this.validationNotifier = validationNotifier;
+    }
+
+    /** This is package-scoped to facilitate unit tests. */
+    /* package-scoped*/ UploadValidationNotifier getValidationNotifier() {
+        return validationNotifier;
+    }
+
     /** {@inheritDoc} */
     @Override
     public void run() {
         // Create temp dir.
         File tempDir = fileHelper.createTempDir();
         context.setTempDir(tempDir);
+        validationMetrics.recordUpload(context.getUpload().getContentLength());
 
         Stopwatch stopwatch = Stopwatch.createUnstarted();
         for (UploadValidationHandler oneHandler : handlerList) {
             String handlerName = oneHandler.getClass().getName();
+            Throwable failure = null;
             stopwatch.start();
 
             try {
                 oneHandler.handle(context);
             } catch (Throwable ex) {
+                failure = ex;
                 context.setSuccess(false);
                 context.addMessage(String.format("Exception thrown from upload validation handler %s: %s: %s",
                         handlerName, ex.getClass().getName(), ex.getMessage()));
@@ -120,7 +145,7 @@ public class UploadValidationTask implements Runnable {
             } finally {
                 long elapsedMillis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
                 stopwatch.reset();
-                // TODO: send this to somewhere other than the logs
+                validationMetrics.recordHandler(oneHandler.getClass().getSimpleName(), elapsedMillis, failure);
                 logger.info(String.format("Upload validation handler %s took %d ms", handlerName, elapsedMillis));
             }
         }
@@ -133,6 +158,7 @@ public class UploadValidationTask implements Runnable {
             logger.info(String.format("Upload validation for app %s, upload %s, record %s, with status %s",
                     context.getAppId(), context.getUpload().getUploadId(), context.getRecordId(),
                     status));
+            validationNotifier.notifyValidationComplete(context.getUpload().getUploadId());
         } catch (RuntimeException ex) {
             // ExceptionInterceptor doesn't handle asynchronous tasks, so we'll need to catch exceptions and log them
             // manually. Use the log helper function so we can verify it in unit tests.
@@ -23,6 +23,8 @@ public class UploadValidationTaskFactory {
     private List<UploadValidationHandler> handlerList;
     private UploadDao uploadDao;
     private HealthDataService healthDataService;
+    private UploadValidationMetrics validationMetrics;
+    private UploadValidationNotifier validationNotifier;
 
     /** File helper, used to create and delete the temp directory in which we process uploads. */
     @Autowired
@@ -47,6 +49,18 @@ public class UploadValidationTaskFactory {
         this.healthDataService = healthDataService;
     }
 
+    /** Metrics shared by all validation tasks. This is configured by Spring. */
+    @Autowired
+    public final void setValidationMetrics(UploadValidationMetrics validationMetrics) {
+        this.validationMetrics = validationMetrics;
+    }
+
+    /** Notifies callers waiting on an upload when its validation is complete. This is configured by Spring. */
+    @Autowired
+    public final void setValidationNotifier(UploadValidationNotifier validationNotifier) {
+        this.validationNotifier = validationNotifier;
+    }
+
     /**
      * Factory method for creating a validation task instance, for validating a single upload.
      *
@@ -69,6 +83,8 @@ public class UploadValidationTaskFactory {
         task.setHandlerList(handlerList);
         task.setUploadDao(uploadDao);
         task.setHealthDataService(healthDataService);
+        task.setValidationMetrics(validationMetrics);
+        task.setValidationNotifier(validationNotifier);
         return task;
     }
 }
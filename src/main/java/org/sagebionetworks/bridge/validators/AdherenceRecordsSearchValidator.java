@@ -35,6 +35,7 @@ public class AdherenceRecordsSearchValidator extends AbstractValidator {
             "must be within " + MAX_DATE_RANGE_IN_DAYS + " days of eventTimestampStart";
     public static final String HAS_NO_HAS_MULTIPLE_UPLOAD_IDS_ERROR =
             "cannot specify both hasMultipleUploadIds and hasNoUploadIds";
+    public static final String OFFSET_KEY_AND_OFFSET_BY_ERROR = "cannot be combined with offsetBy";
 
     static final String EVENT_TIMESTAMPS_FIELD = "eventTimestamps";
     static final String EVENT_TIMESTAMP_START_FIELD = "eventTimestampStart";
@@ -45,6 +46,7 @@ public class AdherenceRecordsSearchValidator extends AbstractValidator {
     static final String ASSESSMENT_IDS_FIELD = "assessmentIds";
     static final String PAGE_SIZE_FIELD = "pageSize";
     static final String OFFSET_BY_FIELD = "offsetBy";
+    static final String OFFSET_KEY_FIELD = "offsetKey";
     static final String STUDY_ID_FIELD = "studyId";
     static final String USER_ID_FIELD = "userId";
     static final String START_TIME_FIELD = "startTime";
@@ -112,6 +114,9 @@ public class AdherenceRecordsSearchValidator extends AbstractValidator {
         if (search.getOffsetBy() < 0) {
             errors.rejectValue(OFFSET_BY_FIELD, CANNOT_BE_NEGATIVE);
         }
+        if (search.getOffsetKey() != null && search.getOffsetBy() > 0) {
+            errors.rejectValue(OFFSET_KEY_FIELD, OFFSET_KEY_AND_OFFSET_BY_ERROR);
+        }
         if (search.getPageSize() < 1 || search.getPageSize() > MAX_PAGE_SIZE) {
             errors.rejectValue(PAGE_SIZE_FIELD, PAGE_SIZE_ERROR);
         }
@@ -1137,3 +1137,73 @@ CREATE TABLE IF NOT EXISTS `UploadTableJobs` (
     CONSTRAINT `UploadTableJobs-Study-Constraint` FOREIGN KEY (`studyId`, `appId`) REFERENCES `Substudies` (`id`, `studyId`) ON DELETE CASCADE ON UPDATE CASCADE,
     INDEX (`appId`, `studyId`, `requestedOn`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
+
+-- changeset bridge:84
+
+ALTER TABLE `AdherenceRecords`
+ADD INDEX `AdherenceRecords-UserId-StudyId-StartedOn` (userId, studyId, startedOn),
+ADD INDEX `AdherenceRecords-AppId-StudyId-StartedOn-UserId` (appId, studyId, startedOn, userId);
+
+-- changeset bridge:85
+
+CREATE TABLE IF NOT EXISTS `AccountSearchTokens` (
+  `appId` varchar(60) NOT NULL,
+  `field` varchar(255) NOT NULL,
+  `token` varchar(3) CHARACTER SET utf8 COLLATE utf8_bin NOT NULL,
+  `accountId` varchar(255) NOT NULL,
+  PRIMARY KEY (`appId`, `field`, `token`, `accountId`),
+  INDEX `AccountSearchTokens-AccountId` (`accountId`),
+  CONSTRAINT `AccountSearchTokens-Account-Constraint` FOREIGN KEY (`accountId`) REFERENCES `Accounts` (`id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
+
+-- changeset bridge:86
+
+-- Values that are entirely printable ASCII are indexed by their lower-cased trigrams. Any other value gets the 
+-- single token U+2026 instead (HibernateAccountDao.NON_ASCII_TOKEN), so it is always a search candidate.
+
+INSERT IGNORE INTO `AccountSearchTokens` (appId, field, token, accountId)
+SELECT a.studyId, 'email', LOWER(SUBSTRING(a.email, seq.n, 3)), a.id
+FROM Accounts AS a
+JOIN (SELECT ones.n + tens.n * 10 + hundreds.n * 100 + 1 AS n
+    FROM (SELECT 0 AS n UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4 UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9) AS ones
+    CROSS JOIN (SELECT 0 AS n UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4 UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9) AS tens
+    CROSS JOIN (SELECT 0 AS n UNION ALL SELECT 1 UNION ALL SELECT 2) AS hundreds) AS seq
+ON seq.n <= CHAR_LENGTH(a.email) - 2
+WHERE a.email COLLATE utf8_bin NOT REGEXP '[^ -~]';
+
+INSERT IGNORE INTO `AccountSearchTokens` (appId, field, token, accountId)
+SELECT a.studyId, 'email', _utf8 X'E280A6', a.id
+FROM Accounts AS a
+WHERE a.email COLLATE utf8_bin REGEXP '[^ -~]';
+
+INSERT IGNORE INTO `AccountSearchTokens` (appId, field, token, accountId)
+SELECT en.studyId, 'externalId', LOWER(SUBSTRING(en.externalId, seq.n, 3)), en.accountId
+FROM AccountsSubstudies AS en
+JOIN (SELECT ones.n + tens.n * 10 + hundreds.n * 100 + 1 AS n
+    FROM (SELECT 0 AS n UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4 UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9) AS ones
+    CROSS JOIN (SELECT 0 AS n UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4 UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9) AS tens
+    CROSS JOIN (SELECT 0 AS n UNION ALL SELECT 1 UNION ALL SELECT 2) AS hundreds) AS seq
+ON seq.n <= CHAR_LENGTH(en.externalId) - 2
+WHERE en.externalId COLLATE utf8_bin NOT REGEXP '[^ -~]';
+
+INSERT IGNORE INTO `AccountSearchTokens` (appId, field, token, accountId)
+SELECT en.studyId, 'externalId', _utf8 X'E280A6', en.accountId
+FROM AccountsSubstudies AS en
+WHERE en.externalId COLLATE utf8_bin REGEXP '[^ -~]';
+
+INSERT IGNORE INTO `AccountSearchTokens` (appId, field, token, accountId)
+SELECT a.studyId, CONCAT('attribute:', attr.attributeKey), LOWER(SUBSTRING(attr.attributeValue, seq.n, 3)), a.id
+FROM AccountAttributes AS attr
+JOIN Accounts AS a ON a.id = attr.accountId
+JOIN (SELECT ones.n + tens.n * 10 + hundreds.n * 100 + 1 AS n
+    FROM (SELECT 0 AS n UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4 UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9) AS ones
+    CROSS JOIN (SELECT 0 AS n UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4 UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9) AS tens
+    CROSS JOIN (SELECT 0 AS n UNION ALL SELECT 1 UNION ALL SELECT 2) AS hundreds) AS seq
+ON seq.n <= CHAR_LENGTH(attr.attributeValue) - 2
+WHERE attr.attributeValue COLLATE utf8_bin NOT REGEXP '[^ -~]';
+
+INSERT IGNORE INTO `AccountSearchTokens` (appId, field, token, accountId)
+SELECT a.studyId, CONCAT('attribute:', attr.attributeKey), _utf8 X'E280A6', a.id
+FROM AccountAttributes AS attr
+JOIN Accounts AS a ON a.id = attr.accountId
+WHERE attr.attributeValue COLLATE utf8_bin REGEXP '[^ -~]';
@@ -0,0 +1,76 @@
+package org.sagebionetworks.bridge.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
+import org.sagebionetworks.bridge.models.accounts.UserSession;
+import org.sagebionetworks.bridge.models.apps.App;
+
+public class CacheCodecTest {
+
+    CacheCodec codec;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        codec = new CacheCodec();
+    }
+
+    @Test
+    public void encodesJsonByDefault() throws Exception {
+        App app = TestUtils.getValidApp(CacheCodecTest.class);
+
+        byte[] ser = codec.encode(app);
+
+        assertFalse(codec.isBinaryEnabled());
+        assertFalse(CacheCodec.isBinary(ser));
+        assertEquals(CacheCodec.toJson(ser), BridgeObjectMapper.get().writeValueAsString(app));
+    }
+
+    @Test
+    public void encodesBinaryWhenEnabled() throws Exception {
+        codec.setBinaryEnabled(true);
+        App app = TestUtils.getValidApp(CacheCodecTest.class);
+
+        byte[] ser = codec.encode(app);
+
+        assertTrue(CacheCodec.isBinary(ser));
+        assertEquals(CacheCodec.decodeBinary(ser, App.class), app);
+    }
+
+    @Test
+    public void encodeSessionExcludesHealthCode() throws Exception {
+        StudyParticipant participant = new StudyParticipant.Builder().withId("userId")
+                .withHealthCode("healthCode").build();
+        UserSession session = new UserSession(participant);
+        session.setSessionToken("sessionToken");
+
+        String json = CacheCodec.toJson(codec.encodeSession(session));
+        assertFalse(json.contains("\"healthCode\""));
+        assertTrue(json.contains("\"encryptedHealthCode\""));
+
+        codec.setBinaryEnabled(true);
+        byte[] ser = codec.encodeSession(session);
+        assertTrue(CacheCodec.isBinary(ser));
+
+        UserSession decoded = CacheCodec.decodeBinary(ser, UserSession.class);
+        assertEquals(decoded.getSessionToken(), "sessionToken");
+        assertEquals(decoded.getHealthCode(), "healthCode");
+    }
+
+    @Test
+    public void isBinary() {
+        assertFalse(CacheCodec.isBinary(null));
+        assertFalse(CacheCodec.isBinary(new byte[0]));
+        assertFalse(CacheCodec.isBinary(":)".getBytes(UTF_8)));
+        assertFalse(CacheCodec.isBinary("{\"a\":1}".getBytes(UTF_8)));
+        assertTrue(CacheCodec.isBinary(":)\n\u0001".getBytes(UTF_8)));
+    }
+}
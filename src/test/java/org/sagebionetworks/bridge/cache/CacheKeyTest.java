@@ -136,6 +136,11 @@ public class CacheKeyTest {
         assertEquals(CacheKey.requestInfo("userId").toString(), "userId:request-info");
     }
     
+    @Test
+    public void uploadRedriveJob() {
+        assertEquals(CacheKey.uploadRedriveJob("jobGuid").toString(), "jobGuid:UploadRedriveJob");
+    }
+
     @Test
     public void app() {
         assertEquals(CacheKey.app(TEST_APP_ID).toString(), TEST_APP_ID + ":App");
@@ -185,4 +190,10 @@ public class CacheKeyTest {
         String key = TEST_APP_ID + ":" + TEST_STUDY_ID + ":PublicStudy";
         assertEquals(CacheKey.publicStudy(TEST_APP_ID, TEST_STUDY_ID).toString(), key);
     }
+    
+    @Test
+    public void studyExportTopic() {
+        String key = TEST_APP_ID + ":" + TEST_STUDY_ID + ":StudyExportTopic";
+        assertEquals(CacheKey.studyExportTopic(TEST_APP_ID, TEST_STUDY_ID).toString(), key);
+    }
 }
@@ -1,5 +1,6 @@
 package org.sagebionetworks.bridge.cache;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.testng.Assert.assertEquals;
 
 import java.util.List;
@@ -7,6 +8,7 @@ import java.util.List;
 import com.fasterxml.jackson.core.type.TypeReference;
 
 import static org.sagebionetworks.bridge.TestConstants.TEST_APP_ID;
+import static org.sagebionetworks.bridge.cache.CacheProvider.GET_SESSION_BY_TOKEN_SCRIPT_SHA;
 
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
@@ -23,12 +25,21 @@ import org.sagebionetworks.bridge.models.subpopulations.Subpopulation;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
 import org.sagebionetworks.bridge.redis.JedisOps;
 
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
 public class CacheProviderStudyMigrationTest extends Mockito {
     private static final TypeReference<List<Subpopulation>> SURVEY_LIST_REF = new TypeReference<List<Subpopulation>>() {};
     
     @Mock
     JedisOps mockJedisOps;
     
+    @Mock
+    JedisPool mockJedisPool;
+    
+    @Mock
+    Jedis mockJedis;
+    
     @InjectMocks
     CacheProvider provider;
     
@@ -36,6 +47,8 @@ public class CacheProviderStudyMigrationTest extends Mockito {
     public void beforeMethod() {
         MockitoAnnotations.initMocks(this);
         provider.setSessionExpireInSeconds(10);
+        provider.setJedisPool(mockJedisPool);
+        when(mockJedisPool.getResource()).thenReturn(mockJedis);
     }
 
     @Test
@@ -67,8 +80,8 @@ public class CacheProviderStudyMigrationTest extends Mockito {
         String json = TestUtils.createJson(
                 "{'studyIdentifier':'"+TEST_APP_ID+"','sessionToken':'aToken'}");
 
-        doReturn("aUser").when(mockJedisOps).get("aToken:session2");
-        doReturn(json).when(mockJedisOps).get("aUser:session2:user");
+        doReturn(json.getBytes(UTF_8)).when(mockJedis).evalsha(eq(GET_SESSION_BY_TOKEN_SCRIPT_SHA),
+                anyList(), anyList());
         
         UserSession session = provider.getUserSession("aToken");
         assertEquals(session.getAppId(), TEST_APP_ID);
@@ -79,8 +92,8 @@ public class CacheProviderStudyMigrationTest extends Mockito {
         String json = TestUtils.createJson(
                 "{'appId':'"+TEST_APP_ID+"','sessionToken':'aToken'}");
 
-        doReturn("aUser").when(mockJedisOps).get("aToken:session2");
-        doReturn(json).when(mockJedisOps).get("aUser:session2:user");
+        doReturn(json.getBytes(UTF_8)).when(mockJedis).evalsha(eq(GET_SESSION_BY_TOKEN_SCRIPT_SHA),
+                anyList(), anyList());
         
         UserSession session = provider.getUserSession("aToken");
         assertEquals(session.getAppId(), TEST_APP_ID);
@@ -1,6 +1,8 @@
 package org.sagebionetworks.bridge.cache;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyList;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.eq;
@@ -9,9 +11,13 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.TestConstants.TEST_APP_ID;
+import static org.sagebionetworks.bridge.cache.CacheProvider.GET_SESSION_BY_TOKEN_SCRIPT;
+import static org.sagebionetworks.bridge.cache.CacheProvider.GET_SESSION_BY_TOKEN_SCRIPT_SHA;
+import static org.sagebionetworks.bridge.cache.CacheProvider.USER_ID_TO_SESSION_SUFFIX;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
@@ -37,6 +43,7 @@ import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.sagebionetworks.bridge.config.Environment;
 import org.sagebionetworks.bridge.crypto.AesGcmEncryptor;
 import org.sagebionetworks.bridge.crypto.Encryptor;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.RequestInfo;
 import org.sagebionetworks.bridge.models.accounts.ConsentStatus;
@@ -49,7 +56,11 @@ import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
 import org.sagebionetworks.bridge.redis.JedisOps;
 import org.sagebionetworks.bridge.redis.JedisTransaction;
 
+import redis.clients.jedis.Transaction;
+
+import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisDataException;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.ImmutableList;
@@ -75,10 +86,25 @@ public class CacheProviderTest {
 
     @Mock
     private JedisOps jedisOps;
+    
+    @Mock
+    private JedisPool jedisPool;
+    
+    @Mock
+    private Jedis jedis;
+
+    @Mock
+    private Transaction jedisTransaction;
 
     @Captor
     private ArgumentCaptor<String> stringCaptor;
 
+    @Captor
+    private ArgumentCaptor<List<byte[]>> bytesListCaptor;
+
+    @Captor
+    private ArgumentCaptor<byte[]> bytesCaptor;
+
     @Test
     public void addAndRemoveViewFromCacheProvider() throws Exception {
         final CacheProvider simpleCacheProvider = new CacheProvider();
@@ -114,13 +140,13 @@ public class CacheProviderTest {
         verify(jedisOps).sadd(CACHE_KEY.toString(), "member");
     }
 
+    private void mockSessionLookup(String json) {
+        when(jedis.evalsha(eq(GET_SESSION_BY_TOKEN_SCRIPT_SHA), anyList(), anyList()))
+                .thenReturn(json.getBytes(UTF_8));
+    }
+    
     private void assertSession(String json) {
-        JedisOps jedisOps = mock(JedisOps.class);
-        
-        when(jedisOps.get(TOKEN_TO_USER_ID.toString())).thenReturn(USER_ID);
-        when(jedisOps.get(USER_ID_TO_SESSION.toString())).thenReturn(json);
-        
-        cacheProvider.setJedisOps(jedisOps);
+        mockSessionLookup(json);
         
         UserSession session = cacheProvider.getUserSession(DECRYPTED_SESSION_TOKEN);
 
@@ -161,8 +187,13 @@ public class CacheProviderTest {
         when(jedisOps.getTransaction()).thenReturn(transaction);
         when(jedisOps.get(TOKEN_TO_USER_ID.toString())).thenReturn(USER_ID);
 
+        when(jedisPool.getResource()).thenReturn(jedis);
+        when(jedis.multi()).thenReturn(jedisTransaction);
+        when(jedisTransaction.exec()).thenReturn(Arrays.asList((Object)"OK", "OK"));
+
         cacheProvider = new CacheProvider();
         cacheProvider.setJedisOps(jedisOps);
+        cacheProvider.setJedisPool(jedisPool);
     }
 
     private UserSession createUserSession() {
@@ -336,7 +367,7 @@ public class CacheProviderTest {
         UserSession session = new UserSession();
         session.setSessionToken(DECRYPTED_SESSION_TOKEN);
         String ser = BridgeObjectMapper.get().writeValueAsString(session);
-        when(jedisOps.get(USER_ID_TO_SESSION.toString())).thenReturn(ser);
+        when(jedis.get(USER_ID_TO_SESSION.toString().getBytes(UTF_8))).thenReturn(ser.getBytes(UTF_8));
         
         UserSession retrieved = cacheProvider.getUserSessionByUserId(USER_ID);
         assertEquals(retrieved.getSessionToken(), DECRYPTED_SESSION_TOKEN);
@@ -347,11 +378,13 @@ public class CacheProviderTest {
         UserSession session = new UserSession(new StudyParticipant.Builder().build());
         session.setSessionToken("notTheSessionTokenWereLookingFor");
         
-        when(jedisOps.get(USER_ID_TO_SESSION.toString()))
-                .thenReturn(BridgeObjectMapper.get().writeValueAsString(session));
+        mockSessionLookup(BridgeObjectMapper.get().writeValueAsString(session));
 
         UserSession retrieved = cacheProvider.getUserSession(DECRYPTED_SESSION_TOKEN);
         assertNull(retrieved);
+        
+        // The stale token --> userId mapping is removed
+        verify(jedisOps).del(TOKEN_TO_USER_ID.toString());
     }
 
     @Test
@@ -359,11 +392,53 @@ public class CacheProviderTest {
         UserSession session = new UserSession(new StudyParticipant.Builder().build());
         session.setSessionToken(DECRYPTED_SESSION_TOKEN);
         
-        when(jedisOps.get(USER_ID_TO_SESSION.toString()))
-                .thenReturn(BridgeObjectMapper.get().writeValueAsString(session));
+        mockSessionLookup(BridgeObjectMapper.get().writeValueAsString(session));
 
         UserSession retrieved = cacheProvider.getUserSession(DECRYPTED_SESSION_TOKEN);
         assertEquals(retrieved.getSessionToken(), session.getSessionToken());
+        
+        // One round trip, and the connection is returned to the pool
+        verify(jedisOps, never()).get(anyString());
+        verify(jedis).evalsha(eq(GET_SESSION_BY_TOKEN_SCRIPT_SHA), bytesListCaptor.capture(),
+                bytesListCaptor.capture());
+        assertEquals(new String(bytesListCaptor.getAllValues().get(0).get(0), UTF_8), TOKEN_TO_USER_ID.toString());
+        assertEquals(new String(bytesListCaptor.getAllValues().get(1).get(0), UTF_8), USER_ID_TO_SESSION_SUFFIX);
+        verify(jedis).close();
+    }
+    
+    @Test
+    public void getUserSessionLoadsScriptWhenMissing() throws Exception {
+        UserSession session = new UserSession(new StudyParticipant.Builder().build());
+        session.setSessionToken(DECRYPTED_SESSION_TOKEN);
+        byte[] ser = BridgeObjectMapper.get().writeValueAsBytes(session);
+        when(jedis.evalsha(eq(GET_SESSION_BY_TOKEN_SCRIPT_SHA), anyList(), anyList()))
+                .thenThrow(new JedisDataException("NOSCRIPT No matching script. Please use EVAL."))
+                .thenReturn(ser);
+        
+        UserSession retrieved = cacheProvider.getUserSession(DECRYPTED_SESSION_TOKEN);
+        assertEquals(retrieved.getSessionToken(), DECRYPTED_SESSION_TOKEN);
+        
+        verify(jedis).scriptLoad(GET_SESSION_BY_TOKEN_SCRIPT.getBytes(UTF_8));
+        verify(jedis, times(2)).evalsha(eq(GET_SESSION_BY_TOKEN_SCRIPT_SHA), anyList(), anyList());
+    }
+    
+    @Test
+    public void getUserSessionScriptErrorNotRetried() {
+        when(jedis.evalsha(eq(GET_SESSION_BY_TOKEN_SCRIPT_SHA), anyList(), anyList()))
+                .thenThrow(new JedisDataException("ERR Error running script"));
+        try {
+            cacheProvider.getUserSession(DECRYPTED_SESSION_TOKEN);
+            fail("Should have thrown exception");
+        } catch(BridgeServiceException e) {
+            // expected exception
+        }
+        verify(jedis, never()).scriptLoad(any(byte[].class));
+        verify(jedis).evalsha(eq(GET_SESSION_BY_TOKEN_SCRIPT_SHA), anyList(), anyList());
+    }
+    
+    @Test
+    public void userIdToSessionSuffix() {
+        assertEquals(USER_ID + USER_ID_TO_SESSION_SUFFIX, USER_ID_TO_SESSION.toString());
     }
     
     @Test
@@ -486,7 +561,7 @@ public class CacheProviderTest {
         CacheProvider mockCacheProvider = spy(cacheProvider);
         mockCacheProvider.getUserSessionByUserId(USER_ID);
         
-        verify(jedisOps).get("userId:session2:user");
+        verify(jedis).get("userId:session2:user".getBytes(UTF_8));
     }
     
     @Test
@@ -509,7 +584,7 @@ public class CacheProviderTest {
         UserSession session = createUserSession();
         String ser = BridgeObjectMapper.get().writeValueAsString(session);
 
-        when(jedisOps.get(USER_ID_TO_SESSION.toString())).thenReturn(ser);
+        when(jedis.get(USER_ID_TO_SESSION.toString().getBytes(UTF_8))).thenReturn(ser.getBytes(UTF_8));
         
         cacheProvider.removeSessionByUserId(USER_ID);
         
@@ -523,9 +598,53 @@ public class CacheProviderTest {
         UserSession session = createUserSession();
         cacheProvider.setUserSession(session);
         
-        verify(transaction).setex(eq(TOKEN_TO_USER_ID.toString()), anyInt(), eq(USER_ID));
-        verify(transaction).setex(eq(USER_ID_TO_SESSION.toString()), anyInt(), anyString());
-        verify(transaction).exec();
+        verify(jedisTransaction).setex(eq(TOKEN_TO_USER_ID.toString().getBytes(UTF_8)), anyInt(),
+                eq(USER_ID.getBytes(UTF_8)));
+        verify(jedisTransaction).setex(eq(USER_ID_TO_SESSION.toString().getBytes(UTF_8)), anyInt(),
+                bytesCaptor.capture());
+        verify(jedisTransaction).exec();
+        
+        // By default the session is stored as JSON, without the health code
+        String json = new String(bytesCaptor.getValue(), UTF_8);
+        assertFalse(CacheCodec.isBinary(bytesCaptor.getValue()));
+        assertFalse(json.contains("\"healthCode\""));
+    }
+    
+    @Test
+    public void setUserSessionRetainsRemainingTtl() throws Exception {
+        when(jedis.ttl(USER_ID_TO_SESSION.toString().getBytes(UTF_8))).thenReturn(100L);
+        
+        cacheProvider.setUserSession(createUserSession());
+        
+        verify(jedisTransaction).setex(eq(USER_ID_TO_SESSION.toString().getBytes(UTF_8)), eq(100), any());
+    }
+    
+    @Test(expectedExceptions = BridgeServiceException.class)
+    public void setUserSessionFails() throws Exception {
+        when(jedisTransaction.exec()).thenReturn(Arrays.asList((Object)"OK", "ERROR"));
+        
+        cacheProvider.setUserSession(createUserSession());
+    }
+    
+    @Test
+    public void userSessionBinaryRoundTrip() throws Exception {
+        CacheCodec codec = new CacheCodec();
+        codec.setBinaryEnabled(true);
+        cacheProvider.setCacheCodec(codec);
+        
+        UserSession session = createUserSession();
+        cacheProvider.setUserSession(session);
+        
+        verify(jedisTransaction).setex(eq(USER_ID_TO_SESSION.toString().getBytes(UTF_8)), anyInt(),
+                bytesCaptor.capture());
+        byte[] ser = bytesCaptor.getValue();
+        assertTrue(CacheCodec.isBinary(ser));
+        when(jedis.evalsha(eq(GET_SESSION_BY_TOKEN_SCRIPT_SHA), anyList(), anyList())).thenReturn(ser);
+        
+        UserSession retrieved = cacheProvider.getUserSession(DECRYPTED_SESSION_TOKEN);
+        assertEquals(retrieved.getSessionToken(), DECRYPTED_SESSION_TOKEN);
+        assertEquals(retrieved.getId(), USER_ID);
+        assertEquals(retrieved.getHealthCode(), "healthCode");
     }
     
     @Test
@@ -590,11 +709,42 @@ public class CacheProviderTest {
         app.setIdentifier(TEST_APP_ID);
         String ser = BridgeObjectMapper.get().writeValueAsString(app);
 
-        when(jedisOps.setex(any(), anyInt(), any())).thenReturn("OK");
+        when(jedis.setex(any(byte[].class), anyInt(), any(byte[].class))).thenReturn("OK");
 
         cacheProvider.setApp(app);
 
-        verify(jedisOps).setex(TEST_ID_KEY, BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS, ser);
+        verify(jedis).setex(TEST_ID_KEY.getBytes(UTF_8), BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS,
+                ser.getBytes(UTF_8));
+    }
+    
+    @Test(expectedExceptions = BridgeServiceException.class)
+    public void setAppFails() {
+        App app = App.create();
+        app.setIdentifier(TEST_APP_ID);
+        
+        cacheProvider.setApp(app);
+    }
+    
+    @Test
+    public void appBinaryRoundTrip() throws Exception {
+        CacheCodec codec = new CacheCodec();
+        codec.setBinaryEnabled(true);
+        cacheProvider.setCacheCodec(codec);
+        
+        App app = TestUtils.getValidApp(CacheProviderTest.class);
+        when(jedis.setex(any(byte[].class), anyInt(), any(byte[].class))).thenReturn("OK");
+        cacheProvider.setApp(app);
+        
+        verify(jedis).setex(eq(CacheKey.app(app.getIdentifier()).toString().getBytes(UTF_8)), anyInt(),
+                bytesCaptor.capture());
+        byte[] ser = bytesCaptor.getValue();
+        assertTrue(CacheCodec.isBinary(ser));
+        // Binary encoding is smaller than JSON
+        assertTrue(ser.length < BridgeObjectMapper.get().writeValueAsBytes(app).length);
+        
+        when(jedis.get(CacheKey.app(app.getIdentifier()).toString().getBytes(UTF_8))).thenReturn(ser);
+        App retrieved = cacheProvider.getApp(app.getIdentifier());
+        assertEquals(retrieved, app);
     }
 
     @Test
@@ -603,13 +753,13 @@ public class CacheProviderTest {
         app.setIdentifier(TEST_APP_ID);
         String ser = BridgeObjectMapper.get().writeValueAsString(app);
 
-        when(jedisOps.get(TEST_ID_KEY)).thenReturn(ser);
+        when(jedis.get(TEST_ID_KEY.getBytes(UTF_8))).thenReturn(ser.getBytes(UTF_8));
 
         App returned = cacheProvider.getApp(TEST_APP_ID);
         assertEquals(app, returned);
 
-        verify(jedisOps).get(TEST_ID_KEY);
-        verify(jedisOps).expire(TEST_ID_KEY, BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS);
+        verify(jedis).get(TEST_ID_KEY.getBytes(UTF_8));
+        verify(jedis).expire(TEST_ID_KEY.getBytes(UTF_8), BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS);
     }
 
     @Test
@@ -617,4 +767,116 @@ public class CacheProviderTest {
         cacheProvider.removeApp(TEST_APP_ID);
         verify(jedisOps).del(TEST_ID_KEY);
     }
+
+    @Test
+    public void getAppServedFromNearCache() throws Exception {
+        NearCache nearCache = new NearCache();
+        nearCache.setEnabled(true);
+        cacheProvider.setNearCache(nearCache);
+        
+        App app = App.create();
+        app.setIdentifier(TEST_APP_ID);
+        String ser = BridgeObjectMapper.get().writeValueAsString(app);
+        when(jedis.get(TEST_ID_KEY.getBytes(UTF_8))).thenReturn(ser.getBytes(UTF_8));
+
+        assertEquals(cacheProvider.getApp(TEST_APP_ID), app);
+        assertEquals(cacheProvider.getApp(TEST_APP_ID), app);
+        
+        // Second call does not go to Redis, or reset the expiration
+        verify(jedis).get(TEST_ID_KEY.getBytes(UTF_8));
+        verify(jedis).expire(TEST_ID_KEY.getBytes(UTF_8), BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS);
+        assertEquals(nearCache.get(CacheKey.app(TEST_APP_ID)), ser.getBytes(UTF_8));
+    }
+    
+    @Test
+    public void getAppDoesNotCacheValueReadBeforeInvalidation() throws Exception {
+        NearCache nearCache = new NearCache();
+        nearCache.setEnabled(true);
+        cacheProvider.setNearCache(nearCache);
+        
+        App app = App.create();
+        app.setIdentifier(TEST_APP_ID);
+        String ser = BridgeObjectMapper.get().writeValueAsString(app);
+        // The app is updated after this read of Redis, but before the result is held locally.
+        when(jedis.get(TEST_ID_KEY.getBytes(UTF_8))).thenAnswer(invocation -> {
+            nearCache.invalidate(CacheKey.app(TEST_APP_ID));
+            return ser.getBytes(UTF_8);
+        });
+        
+        assertEquals(cacheProvider.getApp(TEST_APP_ID), app);
+        assertNull(nearCache.get(CacheKey.app(TEST_APP_ID)));
+    }
+    
+    @Test
+    public void getObjectDoesNotCacheValueReadBeforeInvalidation() throws Exception {
+        NearCache nearCache = new NearCache();
+        nearCache.setEnabled(true);
+        cacheProvider.setNearCache(nearCache);
+        
+        CacheKey subpopListKey = CacheKey.subpopList(TEST_APP_ID);
+        when(jedisOps.get(subpopListKey.toString())).thenAnswer(invocation -> {
+            nearCache.onInvalidationMessage("otherNode|" + subpopListKey);
+            return "[]";
+        });
+        
+        cacheProvider.getObject(subpopListKey, List.class);
+        cacheProvider.getObject(subpopListKey, List.class, 60);
+        
+        verify(jedisOps, times(2)).get(subpopListKey.toString());
+        assertNull(nearCache.get(subpopListKey));
+    }
+    
+    @Test
+    public void getObjectNotEligibleForNearCache() throws Exception {
+        NearCache nearCache = new NearCache();
+        nearCache.setEnabled(true);
+        cacheProvider.setNearCache(nearCache);
+        
+        RequestInfo info = new RequestInfo.Builder().withUserId(USER_ID).build();
+        when(jedisOps.get(REQUEST_INFO_KEY)).thenReturn(BridgeObjectMapper.get().writeValueAsString(info));
+        
+        cacheProvider.getRequestInfo(USER_ID);
+        cacheProvider.getRequestInfo(USER_ID);
+        
+        verify(jedisOps, times(2)).get(REQUEST_INFO_KEY);
+        assertNull(nearCache.get(CacheKey.requestInfo(USER_ID)));
+    }
+    
+    @Test
+    public void setObjectInvalidatesNearCache() throws Exception {
+        NearCache nearCache = mock(NearCache.class);
+        cacheProvider.setNearCache(nearCache);
+        when(jedis.setex(any(byte[].class), anyInt(), any(byte[].class))).thenReturn("OK");
+        when(jedisOps.set(any(), any())).thenReturn("OK");
+        
+        App app = App.create();
+        app.setIdentifier(TEST_APP_ID);
+        cacheProvider.setApp(app);
+        cacheProvider.setObject(CACHE_KEY, "test");
+        
+        verify(nearCache).invalidate(CacheKey.app(TEST_APP_ID));
+        verify(nearCache).invalidate(CACHE_KEY);
+    }
+    
+    @Test
+    public void removeObjectInvalidatesNearCache() {
+        NearCache nearCache = mock(NearCache.class);
+        cacheProvider.setNearCache(nearCache);
+        
+        cacheProvider.removeApp(TEST_APP_ID);
+        
+        verify(nearCache).invalidate(CacheKey.app(TEST_APP_ID));
+    }
+    
+    @Test
+    public void removeSetOfCacheKeysInvalidatesNearCache() {
+        NearCache nearCache = mock(NearCache.class);
+        cacheProvider.setNearCache(nearCache);
+        doReturn(Sets.newHashSet("key1", "key2")).when(jedisOps).smembers(CACHE_KEY.toString());
+        
+        cacheProvider.removeSetOfCacheKeys(CACHE_KEY);
+        
+        verify(nearCache).invalidate("key1");
+        verify(nearCache).invalidate("key2");
+    }
 }
@@ -0,0 +1,173 @@
+package org.sagebionetworks.bridge.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.sagebionetworks.bridge.TestConstants.TEST_APP_ID;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class NearCacheTest {
+
+    private static final byte[] VALUE = "value".getBytes(UTF_8);
+    private static final CacheKey APP_KEY = CacheKey.app(TEST_APP_ID);
+    private static final CacheKey REQUEST_INFO_KEY = CacheKey.requestInfo("userId");
+
+    @Mock
+    JedisPool mockJedisPool;
+
+    @Mock
+    Jedis mockJedis;
+
+    NearCache nearCache;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        MockitoAnnotations.initMocks(this);
+        when(mockJedisPool.getResource()).thenReturn(mockJedis);
+
+        nearCache = new NearCache();
+        nearCache.setEnabled(true);
+        nearCache.setJedisPool(mockJedisPool);
+    }
+
+    @Test
+    public void putAndGet() {
+        nearCache.put(APP_KEY, VALUE, nearCache.getGeneration(APP_KEY));
+        assertEquals(nearCache.get(APP_KEY), VALUE);
+    }
+
+    @Test
+    public void putAfterInvalidationIsSkipped() {
+        long generation = nearCache.getGeneration(APP_KEY);
+        nearCache.invalidate(APP_KEY);
+
+        // The value was read before the invalidation, so it may be stale.
+        nearCache.put(APP_KEY, VALUE, generation);
+        assertNull(nearCache.get(APP_KEY));
+
+        nearCache.put(APP_KEY, VALUE, nearCache.getGeneration(APP_KEY));
+        assertEquals(nearCache.get(APP_KEY), VALUE);
+    }
+
+    @Test
+    public void putAfterInvalidationMessageIsSkipped() {
+        long generation = nearCache.getGeneration(APP_KEY);
+        nearCache.onInvalidationMessage("otherNode|" + APP_KEY);
+
+        nearCache.put(APP_KEY, VALUE, generation);
+        assertNull(nearCache.get(APP_KEY));
+    }
+
+    @Test
+    public void putAfterInvalidateAllIsSkipped() {
+        long generation = nearCache.getGeneration(APP_KEY);
+        nearCache.invalidateAll();
+
+        nearCache.put(APP_KEY, VALUE, generation);
+        assertNull(nearCache.get(APP_KEY));
+    }
+
+    @Test
+    public void keyTypeWithoutPolicyIsNotCached() {
+        nearCache.put(REQUEST_INFO_KEY, VALUE, nearCache.getGeneration(REQUEST_INFO_KEY));
+        assertNull(nearCache.get(REQUEST_INFO_KEY));
+    }
+
+    @Test
+    public void disabledCachesNothing() {
+        nearCache.setEnabled(false);
+        nearCache.put(APP_KEY, VALUE, nearCache.getGeneration(APP_KEY));
+        assertNull(nearCache.get(APP_KEY));
+
+        nearCache.invalidate(APP_KEY);
+        verifyZeroInteractions(mockJedisPool);
+    }
+
+    @Test
+    public void invalidateRemovesAndPublishes() {
+        nearCache.put(APP_KEY, VALUE, nearCache.getGeneration(APP_KEY));
+
+        nearCache.invalidate(APP_KEY);
+
+        assertNull(nearCache.get(APP_KEY));
+        verify(mockJedis).publish(NearCache.INVALIDATION_CHANNEL, nearCache.getNodeId() + "|" + APP_KEY);
+        verify(mockJedis).close();
+    }
+
+    @Test
+    public void invalidateKeyTypeWithoutPolicyDoesNotPublish() {
+        nearCache.invalidate(REQUEST_INFO_KEY);
+
+        verify(mockJedisPool, never()).getResource();
+    }
+
+    @Test
+    public void publishFailureDoesNotThrow() {
+        when(mockJedis.publish(NearCache.INVALIDATION_CHANNEL, nearCache.getNodeId() + "|" + APP_KEY))
+                .thenThrow(new RuntimeException());
+        nearCache.put(APP_KEY, VALUE, nearCache.getGeneration(APP_KEY));
+
+        nearCache.invalidate(APP_KEY);
+
+        assertNull(nearCache.get(APP_KEY));
+    }
+
+    @Test
+    public void invalidationMessageFromOtherNode() {
+        nearCache.put(APP_KEY, VALUE, nearCache.getGeneration(APP_KEY));
+
+        nearCache.onInvalidationMessage("otherNode|" + APP_KEY);
+
+        assertNull(nearCache.get(APP_KEY));
+    }
+
+    @Test
+    public void invalidationMessageFromThisNodeIgnored() {
+        nearCache.put(APP_KEY, VALUE, nearCache.getGeneration(APP_KEY));
+
+        nearCache.onInvalidationMessage(nearCache.getNodeId() + "|" + APP_KEY);
+
+        assertEquals(nearCache.get(APP_KEY), VALUE);
+    }
+
+    @Test
+    public void malformedInvalidationMessageIgnored() {
+        nearCache.put(APP_KEY, VALUE, nearCache.getGeneration(APP_KEY));
+
+        nearCache.onInvalidationMessage(APP_KEY.toString());
+
+        assertEquals(nearCache.get(APP_KEY), VALUE);
+    }
+
+    @Test
+    public void invalidateAll() {
+        CacheKey subpopListKey = CacheKey.subpopList(TEST_APP_ID);
+        nearCache.put(APP_KEY, VALUE, nearCache.getGeneration(APP_KEY));
+        nearCache.put(subpopListKey, "[]".getBytes(UTF_8), nearCache.getGeneration(subpopListKey));
+
+        nearCache.invalidateAll();
+
+        assertNull(nearCache.get(APP_KEY));
+        assertNull(nearCache.get(subpopListKey));
+    }
+
+    @Test
+    public void subscribeDoesNothingWhenDisabled() {
+        nearCache.setEnabled(false);
+        nearCache.subscribe();
+        nearCache.unsubscribe();
+
+        verify(mockJedisPool, never()).getResource();
+    }
+}
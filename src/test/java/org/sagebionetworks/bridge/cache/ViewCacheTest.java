@@ -1,12 +1,23 @@
 package org.sagebionetworks.bridge.cache;
 
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.fail;
 
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -24,6 +35,7 @@ import com.fasterxml.jackson.databind.ser.FilterProvider;
 import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import com.google.common.base.Supplier;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
 
 public class ViewCacheTest {
     
@@ -199,4 +211,213 @@ public class ViewCacheTest {
         };
     }
     
+    @Test
+    public void concurrentMissesAreCoalesced() throws Exception {
+        CacheProvider provider = mock(CacheProvider.class);
+        ViewCache cache = new ViewCache();
+        cache.setObjectMapper(BridgeObjectMapper.get());
+        cache.setCachePeriod(BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS);
+        cache.setCacheProvider(provider);
+        CacheKey cacheKey = cache.getCacheKey(App.class, app.getIdentifier());
+        
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<App> supplier = () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return app;
+        };
+        
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> cache.getView(cacheKey, supplier));
+            assertEquals(loading.await(5, TimeUnit.SECONDS), true);
+            Future<String> second = executor.submit(() -> cache.getView(cacheKey, supplier));
+            // Wait for the second caller to join the in-flight load
+            while (cache.getCoalescedCount() == 0) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            
+            String expected = mapper.writeValueAsString(app);
+            assertEquals(first.get(5, TimeUnit.SECONDS), expected);
+            assertEquals(second.get(5, TimeUnit.SECONDS), expected);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(loads.get(), 1);
+        assertEquals(cache.getMissCount(), 1);
+        assertEquals(cache.getCoalescedCount(), 1);
+        verify(provider, times(1)).setObject(any(), any(), any(Integer.class));
+    }
+    
+    @Test
+    public void viewRemovedWhileLoadingIsNotCached() throws Exception {
+        CacheProvider provider = mock(CacheProvider.class);
+        ViewCache cache = new ViewCache();
+        cache.setObjectMapper(BridgeObjectMapper.get());
+        cache.setCachePeriod(BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS);
+        cache.setCacheProvider(provider);
+        CacheKey cacheKey = cache.getCacheKey(App.class, app.getIdentifier());
+        
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Supplier<App> staleSupplier = () -> {
+            loading.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return app;
+        };
+        
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> stale = executor.submit(() -> cache.getView(cacheKey, staleSupplier));
+            assertEquals(loading.await(5, TimeUnit.SECONDS), true);
+            
+            // The view is removed while the stale load is in flight. The next caller doesn't wait on
+            // the stale load, but loads the view again.
+            cache.removeView(cacheKey);
+            App updatedApp = TestUtils.getValidApp(ViewCacheTest.class);
+            updatedApp.setName("Updated Name");
+            String updated = cache.getView(cacheKey, () -> updatedApp);
+            assertEquals(updated, mapper.writeValueAsString(updatedApp));
+            
+            release.countDown();
+            assertEquals(stale.get(5, TimeUnit.SECONDS), mapper.writeValueAsString(app));
+        } finally {
+            executor.shutdownNow();
+        }
+        // Only the updated view was cached
+        verify(provider).removeObject(cacheKey);
+        verify(provider, times(1)).setObject(any(), any(), any(Integer.class));
+        verify(provider, never()).setObject(cacheKey, mapper.writeValueAsString(app),
+                BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS);
+        assertEquals(cache.getMissCount(), 2);
+        assertEquals(cache.getCoalescedCount(), 0);
+    }
+    
+    @Test
+    public void countsHits() throws Exception {
+        CacheProvider provider = mock(CacheProvider.class);
+        ViewCache cache = new ViewCache();
+        cache.setObjectMapper(BridgeObjectMapper.get());
+        cache.setCacheProvider(provider);
+        CacheKey cacheKey = cache.getCacheKey(App.class, app.getIdentifier());
+        when(provider.getObject(cacheKey, String.class)).thenReturn("{}");
+        
+        cache.getView(cacheKey, () -> app);
+        cache.getView(cacheKey, () -> app);
+        
+        assertEquals(cache.getHitCount(), 2);
+        assertEquals(cache.getMissCount(), 0);
+    }
+    
+    @Test
+    public void refreshesBeforeExpiration() throws Exception {
+        CacheProvider provider = mock(CacheProvider.class);
+        ViewCache cache = new ViewCache();
+        cache.setObjectMapper(BridgeObjectMapper.get());
+        // Refresh ahead by the whole period, so any hit after loading triggers a refresh
+        cache.setCachePeriod(100);
+        cache.setRefreshAheadPeriod(100);
+        cache.setRefreshExecutor(MoreExecutors.newDirectExecutorService());
+        cache.setCacheProvider(provider);
+        CacheKey cacheKey = cache.getCacheKey(App.class, app.getIdentifier());
+        
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<App> supplier = () -> {
+            loads.incrementAndGet();
+            return app;
+        };
+        
+        cache.getView(cacheKey, supplier);
+        when(provider.getObject(cacheKey, String.class)).thenReturn("{}");
+        String json = cache.getView(cacheKey, supplier);
+        
+        // The cached copy is served, and the view is rebuilt
+        assertEquals(json, "{}");
+        assertEquals(loads.get(), 2);
+        assertEquals(cache.getRefreshCount(), 1);
+        verify(provider, times(2)).setObject(cacheKey, mapper.writeValueAsString(app), 100);
+    }
+    
+    @Test
+    public void viewsLoadedElsewhereAreNotRefreshed() {
+        CacheProvider provider = mock(CacheProvider.class);
+        ViewCache cache = new ViewCache();
+        cache.setObjectMapper(BridgeObjectMapper.get());
+        cache.setCachePeriod(100);
+        cache.setRefreshAheadPeriod(100);
+        cache.setRefreshExecutor(MoreExecutors.newDirectExecutorService());
+        cache.setCacheProvider(provider);
+        CacheKey cacheKey = cache.getCacheKey(App.class, app.getIdentifier());
+        when(provider.getObject(cacheKey, String.class)).thenReturn("{}");
+        
+        cache.getView(cacheKey, () -> {
+            fail("Should not be called");
+            return null;
+        });
+        assertEquals(cache.getRefreshCount(), 0);
+    }
+    
+    @Test
+    public void failedRefreshStopsRefreshingAhead() {
+        CacheProvider provider = mock(CacheProvider.class);
+        ViewCache cache = new ViewCache();
+        cache.setObjectMapper(BridgeObjectMapper.get());
+        cache.setCachePeriod(100);
+        cache.setRefreshAheadPeriod(100);
+        cache.setRefreshExecutor(MoreExecutors.newDirectExecutorService());
+        cache.setCacheProvider(provider);
+        CacheKey cacheKey = cache.getCacheKey(App.class, app.getIdentifier());
+        
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<App> supplier = () -> {
+            if (loads.incrementAndGet() > 1) {
+                throw new BridgeServiceException("failed");
+            }
+            return app;
+        };
+        cache.getView(cacheKey, supplier);
+        when(provider.getObject(cacheKey, String.class)).thenReturn("{}");
+        
+        // Failure is not seen by the caller
+        assertEquals(cache.getView(cacheKey, supplier), "{}");
+        assertEquals(cache.getView(cacheKey, supplier), "{}");
+        assertEquals(loads.get(), 2);
+        assertEquals(cache.getRefreshCount(), 1);
+    }
+    
+    @Test
+    public void rejectedRefreshIsSkipped() {
+        CacheProvider provider = mock(CacheProvider.class);
+        ExecutorService executor = mock(ExecutorService.class);
+        doThrow(new RejectedExecutionException()).when(executor).execute(any());
+        ViewCache cache = new ViewCache();
+        cache.setObjectMapper(BridgeObjectMapper.get());
+        cache.setCachePeriod(100);
+        cache.setRefreshAheadPeriod(100);
+        cache.setRefreshExecutor(executor);
+        cache.setCacheProvider(provider);
+        CacheKey cacheKey = cache.getCacheKey(App.class, app.getIdentifier());
+        
+        cache.getView(cacheKey, () -> app);
+        when(provider.getObject(cacheKey, String.class)).thenReturn("{}");
+        assertEquals(cache.getView(cacheKey, () -> app), "{}");
+        
+        // A later miss is not blocked by an abandoned in-flight refresh
+        when(provider.getObject(cacheKey, String.class)).thenReturn(null);
+        cache.getView(cacheKey, () -> app);
+        assertEquals(cache.getMissCount(), 2);
+        verify(provider, never()).removeObject(cacheKey);
+    }
 }
@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.hibernate;
 
 import static java.lang.Boolean.TRUE;
+import static java.util.stream.Collectors.toList;
 import static org.sagebionetworks.bridge.Roles.ADMIN;
 import static org.sagebionetworks.bridge.Roles.RESEARCHER;
 import static org.sagebionetworks.bridge.Roles.STUDY_COORDINATOR;
@@ -15,10 +16,23 @@ import static org.sagebionetworks.bridge.TestConstants.USER_DATA_GROUPS;
 import static org.sagebionetworks.bridge.TestConstants.TEST_NOTE;
 import static org.sagebionetworks.bridge.dao.AccountDao.MIGRATION_VERSION;
 import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.APP_IDS_FOR_USER_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.DELETE_ACCOUNTS_QUERY;
 import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.DELETE_ALL_ACCOUNTS_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.DELETE_BATCH_SIZE;
 import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.FULL_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.IDS_IN_STUDY_WITH_DATA_GROUP_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.NON_ASCII_TOKEN;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.SEARCH_TOKENS_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.STREAM_BATCH_SIZE;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.SUMMARY_ATTRIBUTES_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.SUMMARY_DATA_GROUPS_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.SUMMARY_ENROLLMENTS_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.SUMMARY_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.SUMMARY_ROLES_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.TOKEN_FILTER;
 import static org.sagebionetworks.bridge.models.SearchTermPredicate.AND;
 import static org.sagebionetworks.bridge.models.StringSearchPosition.INFIX;
+import static org.sagebionetworks.bridge.models.StringSearchPosition.PREFIX;
 import static org.sagebionetworks.bridge.models.accounts.AccountStatus.ENABLED;
 import static org.sagebionetworks.bridge.models.accounts.AccountStatus.UNVERIFIED;
 import static org.sagebionetworks.bridge.models.accounts.PasswordAlgorithm.DEFAULT_PASSWORD_ALGORITHM;
@@ -30,18 +44,23 @@ import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.IntStream;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 
+import org.hibernate.Session;
+import org.hibernate.query.Query;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
 import org.mockito.ArgumentCaptor;
@@ -56,6 +75,7 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.RequestContext;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.models.AccountSummarySearch;
 import org.sagebionetworks.bridge.models.PagedResourceList;
@@ -94,6 +114,7 @@ public class HibernateAccountDaoTest extends Mockito {
 
     private static final String STUDY_A = "studyA";
     private static final String STUDY_B = "studyB";
+    private static final String EMAIL_TOKEN_FILTER = String.format(TOKEN_FILTER, "email");
     private static final Map<String, Object> APP_QUERY_PARAMS = new ImmutableMap.Builder<String, Object>()
             .put("appId", TEST_APP_ID).put("orgId", TEST_ORG_ID).build();
     private static final Map<String, Object> EMAIL_QUERY_PARAMS = new ImmutableMap.Builder<String, Object>()
@@ -174,7 +195,7 @@ public class HibernateAccountDaoTest extends Mockito {
         // execute - We generate a new account ID.
         dao.createAccount(account);
         
-        verify(mockHibernateHelper).create(account);
+        verify(mockHibernateHelper).create(eq(account), any());
     }
 
     @Test
@@ -183,7 +204,7 @@ public class HibernateAccountDaoTest extends Mockito {
         
         dao.updateAccount(account);
         
-        verify(mockHibernateHelper).update(account);
+        verify(mockHibernateHelper).update(eq(account), any());
     }
 
     @Test
@@ -217,7 +238,7 @@ public class HibernateAccountDaoTest extends Mockito {
         // Capture the update
         ArgumentCaptor<HibernateAccount> updatedHibernateAccountCaptor = ArgumentCaptor
                 .forClass(HibernateAccount.class);
-        verify(mockHibernateHelper).update(updatedHibernateAccountCaptor.capture());
+        verify(mockHibernateHelper).update(updatedHibernateAccountCaptor.capture(), any());
 
         HibernateAccount updatedHibernateAccount = updatedHibernateAccountCaptor.getValue();
 
@@ -289,6 +310,34 @@ public class HibernateAccountDaoTest extends Mockito {
         
         verify(mockHibernateHelper).getById(eq(HibernateAccount.class), eq(wrongApp.getUnguardedAccountId().getId()));
     }
+
+    @Test
+    public void getAccountsById() throws Exception {
+        when(dao.generateGUID()).thenReturn(HEALTH_CODE);
+
+        HibernateAccount account1 = makeValidHibernateAccount(false);
+        HibernateAccount account2 = makeValidHibernateAccount(false);
+        account2.setId("other-account-id");
+        account2.setHealthCode(null);
+        List<String> ids = ImmutableList.of(ACCOUNT_ID, "other-account-id");
+        when(mockHibernateHelper.queryGet(eq(HibernateAccountDao.ACCOUNTS_BY_ID_QUERY),
+                eq(ImmutableMap.of("appId", TEST_APP_ID, "ids", ids)), isNull(), isNull(),
+                eq(HibernateAccount.class))).thenReturn(ImmutableList.of(account1, account2));
+        when(mockHibernateHelper.update(any())).thenReturn(account2);
+
+        List<Account> accounts = dao.getAccountsById(TEST_APP_ID, ids);
+        assertEquals(accounts, ImmutableList.of(account1, account2));
+        assertEquals(account2.getHealthCode(), HEALTH_CODE);
+        verify(mockHibernateHelper).update(account2);
+        verify(mockHibernateHelper, never()).update(account1);
+    }
+
+    @Test
+    public void getAccountsByIdNoIds() {
+        List<Account> accounts = dao.getAccountsById(TEST_APP_ID, ImmutableList.of());
+        assertTrue(accounts.isEmpty());
+        verify(mockHibernateHelper, never()).queryGet(any(), any(), any(), any(), any());
+    }
     
     @Test
     public void getByEmailSuccessWithHealthCode() throws Exception {
@@ -474,25 +523,28 @@ public class HibernateAccountDaoTest extends Mockito {
                 + "LEFT JOIN acct.enrollments AS enrollment WITH acct.id = enrollment.accountId "
                 +"WHERE acct.appId = :appId AND admin = 1 AND acct.orgMembership = :orgId";
         
-        Set<Enrollment> set = ImmutableSet.of(
-                Enrollment.create(TEST_APP_ID, STUDY_A, ACCOUNT_ID),
-                Enrollment.create(TEST_APP_ID, STUDY_B, ACCOUNT_ID));
-
         // mock hibernate
-        HibernateAccount hibernateAccount1 = makeValidHibernateAccount(false);
-        hibernateAccount1.setId("account-1");
+        HibernateAccount hibernateAccount1 = summaryAccount("account-1");
         hibernateAccount1.setEmail("email1@example.com");
-        hibernateAccount1.setEnrollments(set);
 
-        HibernateAccount hibernateAccount2 = makeValidHibernateAccount(false);
-        hibernateAccount2.setId("account-2");
+        HibernateAccount hibernateAccount2 = summaryAccount("account-2");
         hibernateAccount2.setEmail("email2@example.com");
-        hibernateAccount2.setEnrollments(set);
 
         when(mockHibernateHelper.queryGet(expQuery, APP_QUERY_PARAMS, 10, 5, String.class))
                 .thenReturn(ImmutableList.of("account-1", "account-2"));
-        when(mockHibernateHelper.getById(HibernateAccount.class, "account-1")).thenReturn(hibernateAccount1);        
-        when(mockHibernateHelper.getById(HibernateAccount.class, "account-2")).thenReturn(hibernateAccount2);
+        // Returned out of order, the summaries should still be in the order of the ID query
+        mockSummaryQueries(ImmutableList.of(hibernateAccount2, hibernateAccount1), ImmutableList.of(
+                Enrollment.create(TEST_APP_ID, STUDY_A, "account-1"),
+                Enrollment.create(TEST_APP_ID, STUDY_B, "account-1"),
+                Enrollment.create(TEST_APP_ID, STUDY_A, "account-2"),
+                Enrollment.create(TEST_APP_ID, STUDY_B, "account-2")));
+        when(mockHibernateHelper.queryGet(eq(SUMMARY_ATTRIBUTES_QUERY), any(), any(), any(), eq(Object[].class)))
+                .thenReturn(ImmutableList.<Object[]>of(new Object[] {"account-1", "foo", "bar"}));
+        when(mockHibernateHelper.queryGet(eq(SUMMARY_ROLES_QUERY), any(), any(), any(), eq(Object[].class)))
+                .thenReturn(ImmutableList.<Object[]>of(new Object[] {"account-2", RESEARCHER}));
+        when(mockHibernateHelper.queryGet(eq(SUMMARY_DATA_GROUPS_QUERY), any(), any(), any(), eq(Object[].class)))
+                .thenReturn(ImmutableList.<Object[]>of(new Object[] {"account-1", "group1"}, 
+                        new Object[] {"account-1", "group2"}));
         when(mockHibernateHelper.queryCount(eq(expCountQuery), any())).thenReturn(12);
 
         // execute and validate
@@ -520,17 +572,143 @@ public class HibernateAccountDaoTest extends Mockito {
         assertEquals(accountSummaryList.get(0).getAppId(), TEST_APP_ID);
         assertEquals(accountSummaryList.get(0).getEmail(), "email1@example.com");
         assertEquals(accountSummaryList.get(0).getStudyIds(), ImmutableSet.of(STUDY_A, STUDY_B));
+        assertEquals(accountSummaryList.get(0).getAttributes(), ImmutableMap.of("foo", "bar"));
+        assertEquals(accountSummaryList.get(0).getDataGroups(), ImmutableSet.of("group1", "group2"));
+        assertTrue(accountSummaryList.get(0).getRoles().isEmpty());
 
         assertEquals(accountSummaryList.get(1).getId(), "account-2");
         assertEquals(accountSummaryList.get(1).getAppId(), TEST_APP_ID);
         assertEquals(accountSummaryList.get(1).getEmail(), "email2@example.com");
         assertEquals(accountSummaryList.get(1).getStudyIds(), ImmutableSet.of(STUDY_A, STUDY_B));
+        assertEquals(accountSummaryList.get(1).getRoles(), ImmutableSet.of(RESEARCHER));
+        assertTrue(accountSummaryList.get(1).getAttributes().isEmpty());
 
         // verify hibernate calls
+        Map<String, Object> idParams = ImmutableMap.of("ids", ImmutableList.of("account-1", "account-2"));
         verify(mockHibernateHelper).queryGet(eq(expQuery), eq(APP_QUERY_PARAMS), eq(10), eq(5), eq(String.class));
-        verify(mockHibernateHelper).getById(HibernateAccount.class, "account-1");
-        verify(mockHibernateHelper).getById(HibernateAccount.class, "account-2");
+        verify(mockHibernateHelper).queryGet(SUMMARY_QUERY, idParams, null, null, HibernateAccount.class);
+        verify(mockHibernateHelper).queryGet(SUMMARY_ATTRIBUTES_QUERY, idParams, null, null, Object[].class);
+        verify(mockHibernateHelper).queryGet(SUMMARY_ROLES_QUERY, idParams, null, null, Object[].class);
+        verify(mockHibernateHelper).queryGet(SUMMARY_DATA_GROUPS_QUERY, idParams, null, null, Object[].class);
+        verify(mockHibernateHelper).queryGet(SUMMARY_ENROLLMENTS_QUERY, idParams, null, null, 
+                HibernateEnrollment.class);
         verify(mockHibernateHelper).queryCount(expCountQuery, APP_QUERY_PARAMS);
+        verify(mockHibernateHelper, never()).getById(any(), any());
+    }
+    
+    @Test
+    public void getPagedWithoutTotal() throws Exception {
+        when(mockHibernateHelper.queryGet(any(), any(), any(), any(), eq(String.class)))
+                .thenReturn(ImmutableList.of("account-1", "account-2"));
+        mockSummaryQueries(ImmutableList.of(summaryAccount("account-1"), summaryAccount("account-2")),
+                ImmutableList.of());
+        
+        AccountSummarySearch search = new AccountSummarySearch.Builder().withIncludeTotal(false).build();
+        PagedResourceList<AccountSummary> retValue = dao.getPagedAccountSummaries(TEST_APP_ID, search);
+        
+        assertEquals(retValue.getItems().size(), 2);
+        assertNull(retValue.getTotal());
+        assertEquals(retValue.getRequestParams().get("includeTotal"), Boolean.FALSE);
+        verify(mockHibernateHelper, never()).queryCount(any(), any());
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void streamAccountSummaries() throws Exception {
+        String expQuery = "SELECT acct.id FROM HibernateAccount AS acct LEFT JOIN acct.enrollments AS "
+                + "enrollment WITH acct.id = enrollment.accountId WHERE acct.appId = :appId AND "
+                + "acct.id > :afterId GROUP BY acct.id ORDER BY acct.id";
+        
+        List<String> batch1 = IntStream.range(0, STREAM_BATCH_SIZE).mapToObj(i -> String.format("id%04d", i))
+                .collect(toList());
+        List<String> batch2 = ImmutableList.of("id9999");
+        when(mockHibernateHelper.queryGet(eq(expQuery), any(), eq(null), eq(STREAM_BATCH_SIZE), eq(String.class)))
+                .thenAnswer(invocation -> {
+                    Map<String, Object> params = invocation.getArgument(1);
+                    return "".equals(params.get("afterId")) ? batch1 : batch2;
+                });
+        when(mockHibernateHelper.queryGet(eq(SUMMARY_QUERY), any(), any(), any(), eq(HibernateAccount.class)))
+                .thenAnswer(invocation -> {
+                    Map<String, Object> params = invocation.getArgument(1);
+                    return ((List<String>)params.get("ids")).stream().map(id -> summaryAccount(id))
+                            .collect(toList());
+                });
+        
+        List<AccountSummary> summaries = new ArrayList<>();
+        dao.streamAccountSummaries(TEST_APP_ID, AccountSummarySearch.EMPTY_SEARCH, summaries::add);
+        
+        assertEquals(summaries.size(), STREAM_BATCH_SIZE + 1);
+        assertEquals(summaries.get(0).getId(), "id0000");
+        assertEquals(summaries.get(STREAM_BATCH_SIZE).getId(), "id9999");
+        
+        verify(mockHibernateHelper, times(2)).queryGet(eq(expQuery), paramCaptor.capture(), eq(null), 
+                eq(STREAM_BATCH_SIZE), eq(String.class));
+        assertEquals(paramCaptor.getAllValues().get(0).get("afterId"), "");
+        assertEquals(paramCaptor.getAllValues().get(1).get("afterId"), "id0499");
+        verify(mockHibernateHelper, never()).queryCount(any(), any());
+    }
+    
+    @Test
+    public void streamAccountSummariesNoAccounts() throws Exception {
+        List<AccountSummary> summaries = new ArrayList<>();
+        dao.streamAccountSummaries(TEST_APP_ID, AccountSummarySearch.EMPTY_SEARCH, summaries::add);
+        
+        assertTrue(summaries.isEmpty());
+        verify(mockHibernateHelper).queryGet(any(), any(), any(), any(), eq(String.class));
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void deleteAccountsInStudyWithDataGroup() {
+        List<String> batch1 = IntStream.range(0, DELETE_BATCH_SIZE).mapToObj(i -> "id" + i).collect(toList());
+        List<String> batch2 = ImmutableList.of("idA", "idB");
+        Map<String, Object> params = ImmutableMap.of("appId", TEST_APP_ID, "studyId", TEST_STUDY_ID, 
+                "dataGroup", "preview");
+        when(mockHibernateHelper.queryGet(IDS_IN_STUDY_WITH_DATA_GROUP_QUERY, params, null, DELETE_BATCH_SIZE,
+                String.class)).thenReturn(batch1, batch2);
+        when(mockHibernateHelper.nativeQueryUpdate(eq(DELETE_ACCOUNTS_QUERY), any())).thenAnswer(invocation -> {
+            Map<String, Object> deleteParams = invocation.getArgument(1);
+            return ((List<String>)deleteParams.get("ids")).size();
+        });
+        
+        int deleted = dao.deleteAccountsInStudyWithDataGroup(TEST_APP_ID, TEST_STUDY_ID, "preview");
+        assertEquals(deleted, DELETE_BATCH_SIZE + 2);
+        
+        verify(mockHibernateHelper).nativeQueryUpdate(DELETE_ACCOUNTS_QUERY, ImmutableMap.of("ids", batch1));
+        verify(mockHibernateHelper).nativeQueryUpdate(DELETE_ACCOUNTS_QUERY, ImmutableMap.of("ids", batch2));
+        verify(mockHibernateHelper, times(2)).queryGet(IDS_IN_STUDY_WITH_DATA_GROUP_QUERY, params, null, 
+                DELETE_BATCH_SIZE, String.class);
+        verify(mockHibernateHelper, never()).queryCount(any(), any());
+    }
+    
+    @Test
+    public void deleteAccountsInStudyWithDataGroupNoAccounts() {
+        int deleted = dao.deleteAccountsInStudyWithDataGroup(TEST_APP_ID, TEST_STUDY_ID, "preview");
+        assertEquals(deleted, 0);
+        
+        verify(mockHibernateHelper, never()).nativeQueryUpdate(any(), any());
+    }
+    
+    @Test
+    public void deleteAccountsInStudyWithDataGroupStopsWhenNothingDeleted() {
+        List<String> batch = IntStream.range(0, DELETE_BATCH_SIZE).mapToObj(i -> "id" + i).collect(toList());
+        when(mockHibernateHelper.queryGet(eq(IDS_IN_STUDY_WITH_DATA_GROUP_QUERY), any(), any(), any(), 
+                eq(String.class))).thenReturn(batch);
+        
+        int deleted = dao.deleteAccountsInStudyWithDataGroup(TEST_APP_ID, TEST_STUDY_ID, "preview");
+        assertEquals(deleted, 0);
+        
+        verify(mockHibernateHelper).nativeQueryUpdate(eq(DELETE_ACCOUNTS_QUERY), any());
+    }
+    
+    @Test
+    public void getPagedNoAccounts() throws Exception {
+        PagedResourceList<AccountSummary> retValue = dao.getPagedAccountSummaries(TEST_APP_ID, 
+                AccountSummarySearch.EMPTY_SEARCH);
+        
+        assertTrue(retValue.getItems().isEmpty());
+        verify(mockHibernateHelper, never()).queryGet(eq(SUMMARY_QUERY), any(), any(), any(), any());
+        verify(mockHibernateHelper, never()).queryGet(eq(SUMMARY_ENROLLMENTS_QUERY), any(), any(), any(), any());
     }
     
     @Test
@@ -584,20 +762,14 @@ public class HibernateAccountDaoTest extends Mockito {
                 .withCallerRoles(ImmutableSet.of(STUDY_COORDINATOR))
                 .withOrgSponsoredStudies(ImmutableSet.of(STUDY_A)).build());
         
-        Set<Enrollment> set = ImmutableSet.of(
-                Enrollment.create(TEST_APP_ID, STUDY_A, ACCOUNT_ID),
-                Enrollment.create(TEST_APP_ID, STUDY_B, ACCOUNT_ID));
-
-        HibernateAccount hibernateAccount1 = makeValidHibernateAccount(false);
-        hibernateAccount1.setId("account-1");
-        hibernateAccount1.setEnrollments(set);
-        HibernateAccount hibernateAccount2 = makeValidHibernateAccount(false);
-        hibernateAccount2.setId("account-2");
-        hibernateAccount2.setEnrollments(set);
-        when(mockHibernateHelper.queryGet(any(), any(), any(), any(), any()))
+        when(mockHibernateHelper.queryGet(any(), any(), any(), any(), eq(String.class)))
                 .thenReturn(ImmutableList.of("account-1", "account-2"));
-        when(mockHibernateHelper.getById(HibernateAccount.class, "account-1")).thenReturn(hibernateAccount1);
-        when(mockHibernateHelper.getById(HibernateAccount.class, "account-2")).thenReturn(hibernateAccount2);
+        mockSummaryQueries(ImmutableList.of(summaryAccount("account-1"), summaryAccount("account-2")),
+                ImmutableList.of(
+                        Enrollment.create(TEST_APP_ID, STUDY_A, "account-1"),
+                        Enrollment.create(TEST_APP_ID, STUDY_B, "account-1"),
+                        Enrollment.create(TEST_APP_ID, STUDY_A, "account-2"),
+                        Enrollment.create(TEST_APP_ID, STUDY_B, "account-2")));
 
         AccountSummarySearch search = new AccountSummarySearch.Builder().build();
         PagedResourceList<AccountSummary> accountSummaryResourceList = dao.getPagedAccountSummaries(TEST_APP_ID, search);
@@ -613,7 +785,7 @@ public class HibernateAccountDaoTest extends Mockito {
         String expBaseQuery = "FROM HibernateAccount AS acct LEFT JOIN acct.enrollments "
                 +"AS enrollment WITH acct.id = enrollment.accountId LEFT JOIN org.sagebionetworks.bridge."
                 +"models.RequestInfo AS ri WITH acct.id = ri.userId WHERE acct.appId = :appId AND "
-                +"admin = 1 AND acct.orgMembership = :orgId AND acct.email LIKE :email AND "
+                +"admin = 1 AND acct.orgMembership = :orgId AND (" + EMAIL_TOKEN_FILTER + " AND acct.email LIKE :email) AND "
                 +"acct.phone.number LIKE :number AND acct.createdOn >= :startTime AND acct.createdOn <= "
                 +":endTime AND :language IN ELEMENTS(acct.languages) AND (:IN1 IN elements(acct.dataGroups) "
                 +"AND :IN2 IN elements(acct.dataGroups)) AND (:NOTIN1 NOT IN elements(acct.dataGroups) AND "
@@ -628,8 +800,7 @@ public class HibernateAccountDaoTest extends Mockito {
         // mock hibernate
         when(mockHibernateHelper.queryGet(eq(expQuery), any(), any(), any(), any()))
                 .thenReturn(ImmutableList.of(ACCOUNT_ID));
-        when(mockHibernateHelper.getById(HibernateAccount.class, ACCOUNT_ID))
-                .thenReturn(makeValidHibernateAccount(false));
+        mockSummaryQueries(ImmutableList.of(summaryAccount(ACCOUNT_ID)), ImmutableList.of());
         when(mockHibernateHelper.queryCount(eq(expCountQuery), any())).thenReturn(11);
 
         // execute and validate - Just validate filters and query, since everything else is tested in getPaged().
@@ -642,7 +813,7 @@ public class HibernateAccountDaoTest extends Mockito {
         PagedResourceList<AccountSummary> accountSummaryResourceList = dao.getPagedAccountSummaries(TEST_APP_ID, search);
 
         Map<String, Object> paramsMap = accountSummaryResourceList.getRequestParams();
-        assertEquals(paramsMap.size(), 15);
+        assertEquals(paramsMap.size(), 16);
         assertEquals(paramsMap.get("pageSize"), 5);
         assertEquals(paramsMap.get("offsetBy"), 10);
         assertEquals(paramsMap.get("emailFilter"), EMAIL);
@@ -676,7 +847,7 @@ public class HibernateAccountDaoTest extends Mockito {
         params.put("orgId", TEST_ORG_ID);
 
         verify(mockHibernateHelper).queryGet(eq(expQuery), paramCaptor.capture(), eq(10), eq(5), eq(String.class));
-        verify(mockHibernateHelper).getById(HibernateAccount.class, ACCOUNT_ID);
+        verify(mockHibernateHelper).queryGet(eq(SUMMARY_QUERY), any(), any(), any(), eq(HibernateAccount.class));
         verify(mockHibernateHelper).queryCount(eq(expCountQuery), paramCaptor.capture());
 
         Map<String, Object> capturedParams = paramCaptor.getAllValues().get(0);
@@ -732,13 +903,13 @@ public class HibernateAccountDaoTest extends Mockito {
     public void getPagedWithOptionalEmptySetParams() throws Exception {
         String expQuery = "SELECT acct.id FROM HibernateAccount AS acct LEFT JOIN acct.enrollments "
                 + "AS enrollment WITH acct.id = enrollment.accountId WHERE acct.appId = :appId AND "
-                + "acct.email LIKE :email AND acct.phone.number LIKE :number AND acct.createdOn >= "
+                + "(" + EMAIL_TOKEN_FILTER + " AND acct.email LIKE :email) AND acct.phone.number LIKE :number AND acct.createdOn >= "
                 + ":startTime AND acct.createdOn <= :endTime AND :language IN ELEMENTS(acct.languages) "
                 + "GROUP BY acct.id";
 
         String expCountQuery = "SELECT COUNT(DISTINCT acct.id) FROM HibernateAccount AS acct LEFT JOIN "
                 + "acct.enrollments AS enrollment WITH acct.id = enrollment.accountId WHERE "
-                + "acct.appId = :appId AND acct.email LIKE :email AND acct.phone.number LIKE "
+                + "acct.appId = :appId AND (" + EMAIL_TOKEN_FILTER + " AND acct.email LIKE :email) AND acct.phone.number LIKE "
                 + ":number AND acct.createdOn >= :startTime AND acct.createdOn <= :endTime AND :language "
                 + "IN ELEMENTS(acct.languages)";
 
@@ -749,8 +920,7 @@ public class HibernateAccountDaoTest extends Mockito {
         // mock hibernate
         when(mockHibernateHelper.queryGet(eq(expQuery), any(), any(), any(), any()))
                 .thenReturn(ImmutableList.of(ACCOUNT_ID));
-        when(mockHibernateHelper.getById(HibernateAccount.class, ACCOUNT_ID))
-            .thenReturn(makeValidHibernateAccount(false));
+        mockSummaryQueries(ImmutableList.of(summaryAccount(ACCOUNT_ID)), ImmutableList.of());
         when(mockHibernateHelper.queryCount(any(), any())).thenReturn(11);
 
         // execute and validate - Just validate filters and query, since everything else is tested in getPaged().
@@ -760,7 +930,7 @@ public class HibernateAccountDaoTest extends Mockito {
         PagedResourceList<AccountSummary> accountSummaryResourceList = dao.getPagedAccountSummaries(TEST_APP_ID, search);
 
         Map<String, Object> paramsMap = accountSummaryResourceList.getRequestParams();
-        assertEquals(paramsMap.size(), 12);
+        assertEquals(paramsMap.size(), 13);
         assertEquals(paramsMap.get("pageSize"), 5);
         assertEquals(paramsMap.get("offsetBy"), 10);
         assertEquals(paramsMap.get("emailFilter"), EMAIL);
@@ -786,7 +956,7 @@ public class HibernateAccountDaoTest extends Mockito {
         params.put("language", "de");
 
         verify(mockHibernateHelper).queryGet(eq(expQuery), paramCaptor.capture(), eq(10), eq(5), eq(String.class));
-        verify(mockHibernateHelper).getById(HibernateAccount.class, ACCOUNT_ID);
+        verify(mockHibernateHelper).queryGet(eq(SUMMARY_QUERY), any(), any(), any(), eq(HibernateAccount.class));
         verify(mockHibernateHelper).queryCount(eq(expCountQuery), paramCaptor.capture());
 
         Map<String, Object> capturedParams = paramCaptor.getAllValues().get(0);
@@ -1052,10 +1222,16 @@ public class HibernateAccountDaoTest extends Mockito {
         QueryBuilder builder = dao.makeQuery(FULL_QUERY, TEST_APP_ID, null, search, false);
 
         String finalQuery = "SELECT acct FROM HibernateAccount AS acct LEFT JOIN acct.enrollments "
-                + "AS enrollment WITH acct.id = enrollment.accountId WHERE acct.appId = :appId AND enrollment.externalId LIKE :extId GROUP BY acct.id";
+                + "AS enrollment WITH acct.id = enrollment.accountId WHERE acct.appId = :appId AND "
+                + "(" + String.format(TOKEN_FILTER, "extId") + " AND enrollment.externalId LIKE :extId) "
+                + "GROUP BY acct.id";
 
         assertEquals(builder.getQuery(), finalQuery);
         assertEquals(builder.getParameters().get("extId"), "%filter%");
+        assertEquals(builder.getParameters().get("extIdField"), "externalId");
+        assertEquals(builder.getParameters().get("extIdTokens"), ImmutableSet.of("fil", "ilt", "lte", "ter"));
+        assertEquals(builder.getParameters().get("extIdTokenCount"), 4L);
+        assertEquals(builder.getParameters().get("nonAsciiToken"), NON_ASCII_TOKEN);
     }
     
     @Test
@@ -1110,10 +1286,198 @@ public class HibernateAccountDaoTest extends Mockito {
 
         String finalQuery = "SELECT acct FROM HibernateAccount AS acct LEFT JOIN acct.enrollments "
                 + "AS enrollment WITH acct.id = enrollment.accountId WHERE acct.appId = :appId AND " 
-                + "acct.attributes['foo'] LIKE :attValue GROUP BY acct.id";
+                + "(" + String.format(TOKEN_FILTER, "attValue") + " AND acct.attributes['foo'] LIKE :attValue) "
+                + "GROUP BY acct.id";
 
         assertEquals(builder.getQuery(), finalQuery);
         assertEquals(builder.getParameters().get("attValue"), "%bar%");
+        assertEquals(builder.getParameters().get("attValueField"), "attribute:foo");
+        assertEquals(builder.getParameters().get("attValueTokens"), ImmutableSet.of("bar"));
+        assertEquals(builder.getParameters().get("attValueTokenCount"), 1L);
+    }
+    
+    @Test
+    public void prefixSearchDoesNotUseSearchTokens() throws Exception {
+        AccountSummarySearch search = new AccountSummarySearch.Builder()
+                .withStringSearchPosition(PREFIX).withExternalIdFilter("filter").build();
+        
+        QueryBuilder builder = dao.makeQuery(FULL_QUERY, TEST_APP_ID, null, search, false);
+
+        String finalQuery = "SELECT acct FROM HibernateAccount AS acct LEFT JOIN acct.enrollments "
+                + "AS enrollment WITH acct.id = enrollment.accountId WHERE acct.appId = :appId AND "
+                + "enrollment.externalId LIKE :extId GROUP BY acct.id";
+
+        assertEquals(builder.getQuery(), finalQuery);
+        assertEquals(builder.getParameters().get("extId"), "filter%");
+        assertFalse(builder.getParameters().containsKey("extIdTokens"));
+    }
+    
+    @Test
+    public void shortInfixSearchDoesNotUseSearchTokens() throws Exception {
+        AccountSummarySearch search = new AccountSummarySearch.Builder()
+                .withEmailFilter("a_b%cd").build();
+        
+        QueryBuilder builder = dao.makeQuery(FULL_QUERY, TEST_APP_ID, null, search, false);
+
+        String finalQuery = "SELECT acct FROM HibernateAccount AS acct LEFT JOIN acct.enrollments "
+                + "AS enrollment WITH acct.id = enrollment.accountId WHERE acct.appId = :appId AND "
+                + "acct.email LIKE :email GROUP BY acct.id";
+
+        assertEquals(builder.getQuery(), finalQuery);
+        assertEquals(builder.getParameters().get("email"), "%a_b%cd%");
+        assertFalse(builder.getParameters().containsKey("emailTokens"));
+    }
+    
+    @Test
+    public void searchTrigramsSkipsWildcards() {
+        assertEquals(HibernateAccountDao.searchTrigrams("AbC_de%fghi"), ImmutableSet.of("abc", "fgh", "ghi"));
+        assertEquals(HibernateAccountDao.searchTrigrams("ab"), ImmutableSet.of());
+    }
+    
+    @Test
+    public void accountSearchTokens() {
+        HibernateAccount account = new HibernateAccount();
+        account.setAppId(TEST_APP_ID);
+        account.setId(ACCOUNT_ID);
+        account.setEmail("Ab@cd");
+        Enrollment en1 = Enrollment.create(TEST_APP_ID, STUDY_A, ACCOUNT_ID, "ext1");
+        Enrollment en2 = Enrollment.create(TEST_APP_ID, STUDY_B, ACCOUNT_ID);
+        account.setEnrollments(ImmutableSet.of(en1, en2));
+        account.setAttributes(ImmutableMap.of("foo", "bar"));
+        
+        Set<HibernateAccountSearchToken> tokens = HibernateAccountDao.accountSearchTokens(account);
+        assertEquals(tokens, ImmutableSet.of(
+                new HibernateAccountSearchToken(TEST_APP_ID, "email", "ab@", ACCOUNT_ID),
+                new HibernateAccountSearchToken(TEST_APP_ID, "email", "b@c", ACCOUNT_ID),
+                new HibernateAccountSearchToken(TEST_APP_ID, "email", "@cd", ACCOUNT_ID),
+                new HibernateAccountSearchToken(TEST_APP_ID, "externalId", "ext", ACCOUNT_ID),
+                new HibernateAccountSearchToken(TEST_APP_ID, "externalId", "xt1", ACCOUNT_ID),
+                new HibernateAccountSearchToken(TEST_APP_ID, "attribute:foo", "bar", ACCOUNT_ID)));
+    }
+    
+    @Test
+    public void accountSearchTokensNonAsciiValue() {
+        HibernateAccount account = new HibernateAccount();
+        account.setAppId(TEST_APP_ID);
+        account.setId(ACCOUNT_ID);
+        account.setEmail("café@example.com");
+        account.setAttributes(ImmutableMap.of("foo", "bar\tbaz"));
+        
+        // Under the collation of the searched columns, "%cafe%" matches "café", so these values are always candidates
+        Set<HibernateAccountSearchToken> tokens = HibernateAccountDao.accountSearchTokens(account);
+        assertEquals(tokens, ImmutableSet.of(
+                new HibernateAccountSearchToken(TEST_APP_ID, "email", NON_ASCII_TOKEN, ACCOUNT_ID),
+                new HibernateAccountSearchToken(TEST_APP_ID, "attribute:foo", NON_ASCII_TOKEN, ACCOUNT_ID)));
+    }
+    
+    @Test
+    public void searchTrigramsNonAscii() {
+        assertEquals(HibernateAccountDao.searchTrigrams("café"), ImmutableSet.of());
+        assertEquals(HibernateAccountDao.searchTrigrams("straße"), ImmutableSet.of());
+    }
+    
+    @Test
+    public void asciiInfixSearchIncludesNonAsciiCandidates() throws Exception {
+        AccountSummarySearch search = new AccountSummarySearch.Builder()
+                .withEmailFilter("cafe").build();
+        
+        QueryBuilder builder = dao.makeQuery(FULL_QUERY, TEST_APP_ID, null, search, false);
+        
+        assertTrue(builder.getQuery().contains(String.format(TOKEN_FILTER, "email")));
+        assertTrue(TOKEN_FILTER.contains("tok.token = :nonAsciiToken"));
+        assertEquals(builder.getParameters().get("emailTokens"), ImmutableSet.of("caf", "afe"));
+        assertEquals(builder.getParameters().get("nonAsciiToken"), NON_ASCII_TOKEN);
+    }
+    
+    @Test
+    public void nonAsciiInfixSearchDoesNotUseSearchTokens() throws Exception {
+        AccountSummarySearch search = new AccountSummarySearch.Builder()
+                .withEmailFilter("café").build();
+        
+        QueryBuilder builder = dao.makeQuery(FULL_QUERY, TEST_APP_ID, null, search, false);
+
+        String finalQuery = "SELECT acct FROM HibernateAccount AS acct LEFT JOIN acct.enrollments "
+                + "AS enrollment WITH acct.id = enrollment.accountId WHERE acct.appId = :appId AND "
+                + "acct.email LIKE :email GROUP BY acct.id";
+
+        assertEquals(builder.getQuery(), finalQuery);
+        assertEquals(builder.getParameters().get("email"), "%café%");
+        assertFalse(builder.getParameters().containsKey("emailTokens"));
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void updateSearchTokensWritesOnlyChanges() {
+        HibernateAccount account = new HibernateAccount();
+        account.setAppId(TEST_APP_ID);
+        account.setId(ACCOUNT_ID);
+        account.setEmail("abcd");
+        
+        HibernateAccountSearchToken kept = new HibernateAccountSearchToken(TEST_APP_ID, "email", "abc", ACCOUNT_ID);
+        HibernateAccountSearchToken added = new HibernateAccountSearchToken(TEST_APP_ID, "email", "bcd", ACCOUNT_ID);
+        HibernateAccountSearchToken removed = new HibernateAccountSearchToken(TEST_APP_ID, "email", "xyz", ACCOUNT_ID);
+        
+        Session mockSession = mock(Session.class);
+        Query<HibernateAccountSearchToken> mockQuery = mock(Query.class);
+        when(mockSession.createQuery(SEARCH_TOKENS_QUERY, HibernateAccountSearchToken.class)).thenReturn(mockQuery);
+        when(mockQuery.setParameter("accountId", ACCOUNT_ID)).thenReturn(mockQuery);
+        when(mockQuery.list()).thenReturn(ImmutableList.of(kept, removed));
+        when(mockHibernateHelper.update(eq(account), any())).thenAnswer(invocation -> {
+            Consumer<Session> consumer = invocation.getArgument(1);
+            consumer.accept(mockSession);
+            return account;
+        });
+        
+        dao.updateAccount(account);
+        
+        // Tokens are written in the same transaction as the account
+        verify(mockHibernateHelper, never()).executeWithExceptionHandling(any(), any());
+        verify(mockSession).delete(removed);
+        verify(mockSession).save(added);
+        verify(mockSession, never()).save(kept);
+        verify(mockSession, never()).delete(kept);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void createAccountWritesSearchTokens() {
+        HibernateAccount account = new HibernateAccount();
+        account.setAppId(TEST_APP_ID);
+        account.setId(ACCOUNT_ID);
+        account.setEmail("abc");
+        
+        Session mockSession = mock(Session.class);
+        Query<HibernateAccountSearchToken> mockQuery = mock(Query.class);
+        when(mockSession.createQuery(SEARCH_TOKENS_QUERY, HibernateAccountSearchToken.class)).thenReturn(mockQuery);
+        when(mockQuery.setParameter("accountId", ACCOUNT_ID)).thenReturn(mockQuery);
+        when(mockQuery.list()).thenReturn(ImmutableList.of());
+        doAnswer(invocation -> {
+            Consumer<Session> consumer = invocation.getArgument(1);
+            consumer.accept(mockSession);
+            return null;
+        }).when(mockHibernateHelper).create(eq(account), any());
+        
+        dao.createAccount(account);
+        
+        verify(mockSession).save(new HibernateAccountSearchToken(TEST_APP_ID, "email", "abc", ACCOUNT_ID));
+    }
+    
+    @Test(expectedExceptions = BridgeServiceException.class)
+    public void updateSearchTokensFailureFailsUpdate() {
+        HibernateAccount account = new HibernateAccount();
+        account.setAppId(TEST_APP_ID);
+        account.setId(ACCOUNT_ID);
+        
+        Session mockSession = mock(Session.class);
+        when(mockSession.createQuery(SEARCH_TOKENS_QUERY, HibernateAccountSearchToken.class))
+                .thenThrow(new BridgeServiceException("Database error"));
+        when(mockHibernateHelper.update(eq(account), any())).thenAnswer(invocation -> {
+            Consumer<Session> consumer = invocation.getArgument(1);
+            consumer.accept(mockSession);
+            return account;
+        });
+        
+        dao.updateAccount(account);
     }
     
     @Test
@@ -1366,6 +1730,22 @@ public class HibernateAccountDaoTest extends Mockito {
     }
 
     // Create minimal Hibernate account for everything that will be used by HibernateAccountDao.
+    private static HibernateAccount summaryAccount(String id) {
+        HibernateAccount account = new HibernateAccount();
+        account.setId(id);
+        account.setAppId(TEST_APP_ID);
+        return account;
+    }
+    
+    private void mockSummaryQueries(List<HibernateAccount> accounts, List<Enrollment> enrollments) {
+        when(mockHibernateHelper.queryGet(eq(SUMMARY_QUERY), any(), any(), any(), eq(HibernateAccount.class)))
+                .thenReturn(accounts);
+        List<HibernateEnrollment> hibernateEnrollments = enrollments.stream()
+                .map(en -> (HibernateEnrollment)en).collect(toList());
+        when(mockHibernateHelper.queryGet(eq(SUMMARY_ENROLLMENTS_QUERY), any(), any(), any(), 
+                eq(HibernateEnrollment.class))).thenReturn(hibernateEnrollments);
+    }
+    
     private static HibernateAccount makeValidHibernateAccount(boolean generatePasswordHash) throws Exception {
         HibernateAccount hibernateAccount = new HibernateAccount();
         hibernateAccount.setId(ACCOUNT_ID);
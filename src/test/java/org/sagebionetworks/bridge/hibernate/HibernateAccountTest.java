@@ -306,7 +306,7 @@ public class HibernateAccountTest {
     @Test
     public void accountSummaryConstructor() {
         HibernateAccount account = new HibernateAccount(new DateTime(123L), TEST_APP_ID, TEST_ORG_ID, "firstName",
-                "lastName", "email", PHONE, "id", UNVERIFIED, SYNAPSE_USER_ID);
+                "lastName", "email", PHONE, "id", UNVERIFIED, SYNAPSE_USER_ID, "note", "America/Chicago");
 
         assertEquals(account.getCreatedOn().getMillis(), 123L);
         assertEquals(account.getAppId(), TEST_APP_ID);
@@ -318,6 +318,8 @@ public class HibernateAccountTest {
         assertEquals(account.getId(), "id");
         assertEquals(account.getStatus(), ENABLED); // thanks to synapseUserId
         assertEquals(account.getSynapseUserId(), SYNAPSE_USER_ID);
+        assertEquals(account.getNote(), "note");
+        assertEquals(account.getClientTimeZone(), "America/Chicago");
     }
     
     @Test
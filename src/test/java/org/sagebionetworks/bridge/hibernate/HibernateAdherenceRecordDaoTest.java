@@ -8,6 +8,8 @@ import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY_ID;
 import static org.sagebionetworks.bridge.TestConstants.TEST_USER_ID;
 import static org.sagebionetworks.bridge.TestConstants.UPLOADED_ON;
 import static org.sagebionetworks.bridge.TestUtils.getAdherenceRecord;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceRecordDao.RECORDS_FOR_UPDATE_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceRecordDao.SESSION_RECORDS_FOR_USERS_QUERY;
 import static org.sagebionetworks.bridge.models.schedules2.adherence.AdherenceRecordType.ASSESSMENT;
 import static org.sagebionetworks.bridge.models.schedules2.adherence.AdherenceRecordType.SESSION;
 import static org.sagebionetworks.bridge.models.schedules2.adherence.SortOrder.ASC;
@@ -15,6 +17,7 @@ import static org.sagebionetworks.bridge.models.schedules2.adherence.SortOrder.D
 import static org.sagebionetworks.bridge.validators.AdherenceRecordsSearchValidator.DEFAULT_PAGE_SIZE;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 import java.util.HashSet;
 import java.util.List;
@@ -29,7 +32,9 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import org.hibernate.Session;
 import org.hibernate.query.NativeQuery;
+import org.hibernate.query.Query;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
@@ -56,7 +61,10 @@ public class HibernateAdherenceRecordDaoTest extends Mockito {
             + " WHERE ar.userId = :userId AND ar.studyId = :studyId AND au.uploadId = :uploadId";
     private static final String BASE_QUERY_WITHOUT_USER_ID = HibernateAdherenceRecordDao.BASE_QUERY
             + " WHERE ar.appId = :appId AND ar.studyId = :studyId";
-    private static final String ORDER = " ORDER BY ar.startedOn ASC";
+    private static final String ORDER = " ORDER BY ar.startedOn ASC, ar.userId ASC, ar.instanceGuid ASC, "
+            + "ar.eventTimestamp ASC, ar.instanceTimestamp ASC";
+    private static final String ORDER_DESC = " ORDER BY ar.startedOn DESC, ar.userId DESC, ar.instanceGuid DESC, "
+            + "ar.eventTimestamp DESC, ar.instanceTimestamp DESC";
 
     private static final DateTime EVENT_TIMESTAMP_START = DateTime.parse("2023-04-11T14:36:47.529Z");
     private static final long EVENT_TIMESTAMP_START_MILLIS = EVENT_TIMESTAMP_START.getMillis();
@@ -78,6 +86,9 @@ public class HibernateAdherenceRecordDaoTest extends Mockito {
 
     @Mock
     NativeQuery<Schedule2> mockQuery;
+    
+    @Mock
+    Query<AdherenceRecord> mockRecordQuery;
 
     @Captor
     ArgumentCaptor<AdherenceRecord> recordCaptor;
@@ -109,7 +120,7 @@ public class HibernateAdherenceRecordDaoTest extends Mockito {
         AdherenceRecordsSearch search = search().build();
 
         when(mockHelper.nativeQueryGet("SELECT * " + BASE_QUERY + ORDER,
-                ImmutableMap.of("studyId", TEST_STUDY_ID, "userId", TEST_USER_ID), 0, DEFAULT_PAGE_SIZE,
+                ImmutableMap.of("studyId", TEST_STUDY_ID, "userId", TEST_USER_ID), 0, DEFAULT_PAGE_SIZE+1,
                 AdherenceRecord.class)).thenReturn(list);
 
         when(mockHelper.nativeQueryCount("SELECT count(*) " + BASE_QUERY + ORDER,
@@ -118,6 +129,127 @@ public class HibernateAdherenceRecordDaoTest extends Mockito {
         PagedResourceList<AdherenceRecord> retValue = dao.getAdherenceRecords(search);
         assertEquals(retValue.getItems(), list);
         assertEquals(retValue.getTotal(), Integer.valueOf(150));
+        assertNull(retValue.getNextPageOffsetKey());
+    }
+    
+    @Test
+    public void getAdherenceRecords_nextPageOffsetKey() {
+        AdherenceRecord rec1 = record("guid1");
+        AdherenceRecord rec2 = record("guid2");
+        rec2.setStartedOn(CREATED_ON);
+        AdherenceRecord rec3 = record("guid3");
+        
+        AdherenceRecordsSearch search = search().withPageSize(2).withIncludeTotal(false).build();
+        
+        when(mockHelper.nativeQueryGet(eq("SELECT * " + BASE_QUERY + ORDER), any(), eq(0), eq(3),
+                eq(AdherenceRecord.class))).thenReturn(ImmutableList.of(rec1, rec2, rec3));
+        
+        PagedResourceList<AdherenceRecord> retValue = dao.getAdherenceRecords(search);
+        assertEquals(retValue.getItems(), ImmutableList.of(rec1, rec2));
+        assertNull(retValue.getTotal());
+        assertEquals(retValue.getNextPageOffsetKey(), CREATED_ON.getMillis() + ":" + TEST_USER_ID + ":"
+                + MODIFIED_ON.getMillis() + ":" + MODIFIED_ON.getMillis() + ":guid2");
+        
+        verify(mockHelper, never()).nativeQueryCount(any(), any());
+    }
+    
+    @Test
+    public void getAdherenceRecords_offsetKeyCountsAllRecords() {
+        AdherenceRecordsSearch search = search().withOffsetKey(":userId:10:20:guid").build();
+        
+        when(mockHelper.nativeQueryGet(any(), any(), any(), any(), eq(AdherenceRecord.class)))
+                .thenReturn(ImmutableList.of(record("guid")));
+        when(mockHelper.nativeQueryCount("SELECT count(*) " + BASE_QUERY + ORDER,
+                ImmutableMap.of("studyId", TEST_STUDY_ID, "userId", TEST_USER_ID))).thenReturn(150);
+        
+        PagedResourceList<AdherenceRecord> retValue = dao.getAdherenceRecords(search);
+        assertEquals(retValue.getTotal(), Integer.valueOf(150));
+    }
+    
+    @Test
+    public void createQuery_offsetKey() {
+        AdherenceRecordsSearch search = search().build();
+        
+        QueryBuilder builder = dao.createQuery(search, "100:userId:10:20:guid");
+        assertEquals(builder.getQuery(), BASE_QUERY + " AND (ar.startedOn > :keyStartedOn OR "
+                + "(ar.startedOn = :keyStartedOn AND " + HibernateAdherenceRecordDao.KEY_COLUMNS + " > "
+                + HibernateAdherenceRecordDao.KEY_PARAMS + "))" + ORDER);
+        assertEquals(builder.getParameters().get("keyStartedOn"), 100L);
+        assertEquals(builder.getParameters().get("keyUserId"), "userId");
+        assertEquals(builder.getParameters().get("keyEventTimestamp"), 10L);
+        assertEquals(builder.getParameters().get("keyInstanceTimestamp"), 20L);
+        assertEquals(builder.getParameters().get("keyInstanceGuid"), "guid");
+    }
+    
+    @Test
+    public void createQuery_offsetKeyDescending() {
+        AdherenceRecordsSearch search = search().withSortOrder(DESC).build();
+        
+        QueryBuilder builder = dao.createQuery(search, "100:userId:10:20:guid");
+        assertEquals(builder.getQuery(), BASE_QUERY + " AND (ar.startedOn < :keyStartedOn OR "
+                + "ar.startedOn IS NULL OR (ar.startedOn = :keyStartedOn AND "
+                + HibernateAdherenceRecordDao.KEY_COLUMNS + " < " + HibernateAdherenceRecordDao.KEY_PARAMS + "))"
+                + ORDER_DESC);
+    }
+    
+    @Test
+    public void createQuery_offsetKeyNullStartedOn() {
+        AdherenceRecordsSearch search = search().build();
+        
+        QueryBuilder builder = dao.createQuery(search, ":userId:10:20:guid");
+        assertEquals(builder.getQuery(), BASE_QUERY + " AND (ar.startedOn IS NOT NULL OR (ar.startedOn IS NULL AND "
+                + HibernateAdherenceRecordDao.KEY_COLUMNS + " > " + HibernateAdherenceRecordDao.KEY_PARAMS + "))"
+                + ORDER);
+        assertNull(builder.getParameters().get("keyStartedOn"));
+    }
+    
+    @Test
+    public void createQuery_offsetKeyNullStartedOnDescending() {
+        AdherenceRecordsSearch search = search().withSortOrder(DESC).build();
+        
+        QueryBuilder builder = dao.createQuery(search, ":userId:10:20:guid");
+        assertEquals(builder.getQuery(), BASE_QUERY + " AND (ar.startedOn IS NULL AND "
+                + HibernateAdherenceRecordDao.KEY_COLUMNS + " < " + HibernateAdherenceRecordDao.KEY_PARAMS + ")"
+                + ORDER_DESC);
+    }
+    
+    @Test(expectedExceptions = BadRequestException.class, 
+            expectedExceptionsMessageRegExp = "Invalid offsetKey: 100:userId:guid")
+    public void createQuery_offsetKeyWrongFormat() {
+        dao.createQuery(search().build(), "100:userId:guid");
+    }
+    
+    @Test(expectedExceptions = BadRequestException.class, 
+            expectedExceptionsMessageRegExp = "Invalid offsetKey: 100:userId:a:20:guid")
+    public void createQuery_offsetKeyBadTimestamp() {
+        dao.createQuery(search().build(), "100:userId:a:20:guid");
+    }
+    
+    @Test
+    public void createOffsetKey() {
+        AdherenceRecord record = record("guid");
+        assertTrue(HibernateAdherenceRecordDao.createOffsetKey(record).startsWith(":" + TEST_USER_ID + ":"));
+    }
+
+    @Test
+    public void getSessionAdherenceRecords() {
+        List<AdherenceRecord> list = ImmutableList.of(getAdherenceRecord(GUID));
+        Set<String> userIds = ImmutableSet.of(TEST_USER_ID, "otherUserId");
+        
+        when(mockHelper.nativeQueryGet(SESSION_RECORDS_FOR_USERS_QUERY,
+                ImmutableMap.of("studyId", TEST_STUDY_ID, "userIds", userIds), null, null,
+                AdherenceRecord.class)).thenReturn(list);
+        
+        List<AdherenceRecord> retValue = dao.getSessionAdherenceRecords(TEST_STUDY_ID, userIds);
+        assertEquals(retValue, list);
+    }
+    
+    @Test
+    public void getSessionAdherenceRecordsNoUsers() {
+        List<AdherenceRecord> retValue = dao.getSessionAdherenceRecords(TEST_STUDY_ID, ImmutableSet.of());
+        assertEquals(retValue, ImmutableList.of());
+        
+        verify(mockHelper, never()).nativeQueryGet(any(), any(), any(), any(), any());
     }
 
     @Test
@@ -225,7 +357,7 @@ public class HibernateAdherenceRecordDaoTest extends Mockito {
         assertEquals(builder.getQuery(),
                 BASE_QUERY + " AND ar.startedOn = (SELECT startedOn FROM AdherenceRecords "
                         + "WHERE userId = :userId AND instanceGuid = ar.instanceGuid ORDER BY "
-                        + "startedOn DESC LIMIT 1) ORDER BY ar.startedOn DESC");
+                        + "startedOn DESC LIMIT 1)" + ORDER_DESC);
         assertEquals(builder.getParameters().get("studyId"), TEST_STUDY_ID);
         assertEquals(builder.getParameters().get("userId"), TEST_USER_ID);
     }
@@ -307,7 +439,7 @@ public class HibernateAdherenceRecordDaoTest extends Mockito {
         AdherenceRecordsSearch search = search().withSortOrder(DESC).build();
 
         QueryBuilder builder = dao.createQuery(search);
-        assertEquals(builder.getQuery(), BASE_QUERY + " ORDER BY ar.startedOn DESC");
+        assertEquals(builder.getQuery(), BASE_QUERY + ORDER_DESC);
         assertEquals(builder.getParameters().get("studyId"), TEST_STUDY_ID);
         assertEquals(builder.getParameters().get("userId"), TEST_USER_ID);
     }
@@ -624,6 +756,88 @@ public class HibernateAdherenceRecordDaoTest extends Mockito {
         verifyNoMoreInteractions(mockHelper);
     }
 
+    @Test
+    public void updateAdherenceRecords() {
+        AdherenceRecord newRecord = record("newGuid");
+        newRecord.setStartedOn(MODIFIED_ON);
+        
+        AdherenceRecord updatedRecord = record("updatedGuid");
+        updatedRecord.setStartedOn(MODIFIED_ON);
+        updatedRecord.setUploadedOn(UPLOADED_ON.plusHours(1));
+        updatedRecord.setUploadIds(new HashSet<>(ImmutableSet.of("upload-id-2")));
+        
+        AdherenceRecord deletedRecord = record("deletedGuid");
+        AdherenceRecord missingRecord = record("missingGuid");
+        
+        // Persisted timestamps are not in the time zone of the submitted records
+        AdherenceRecord persistedUpdated = record("updatedGuid");
+        persistedUpdated.setEventTimestamp(MODIFIED_ON.withZone(DateTimeZone.forID("America/Los_Angeles")));
+        persistedUpdated.setUploadedOn(UPLOADED_ON);
+        persistedUpdated.setUploadIds(ImmutableSet.of("upload-id-1"));
+        AdherenceRecord persistedDeleted = record("deletedGuid");
+        
+        when(mockSession.createQuery(RECORDS_FOR_UPDATE_QUERY, AdherenceRecord.class)).thenReturn(mockRecordQuery);
+        when(mockRecordQuery.setParameter(anyString(), any())).thenReturn(mockRecordQuery);
+        when(mockRecordQuery.list()).thenReturn(ImmutableList.of(persistedUpdated, persistedDeleted));
+        when(mockSession.merge(updatedRecord)).thenReturn(persistedUpdated);
+        
+        dao.updateAdherenceRecords(ImmutableList.of(newRecord, updatedRecord, deletedRecord, missingRecord));
+        
+        verify(mockSession).setJdbcBatchSize(4);
+        verify(mockSession).createQuery(RECORDS_FOR_UPDATE_QUERY, AdherenceRecord.class);
+        verify(mockRecordQuery).setParameter("userId", TEST_USER_ID);
+        verify(mockRecordQuery).setParameter("studyId", TEST_STUDY_ID);
+        verify(mockRecordQuery).setParameter("instanceGuids", 
+                ImmutableSet.of("newGuid", "updatedGuid", "deletedGuid", "missingGuid"));
+        
+        verify(mockSession).save(newRecord);
+        verify(mockSession).merge(updatedRecord);
+        assertEquals(updatedRecord.getUploadedOn(), UPLOADED_ON);
+        assertEquals(updatedRecord.getUploadIds(), ImmutableSet.of("upload-id-1", "upload-id-2"));
+        verify(mockSession).delete(persistedDeleted);
+        verify(mockSession, never()).save(missingRecord);
+        verify(mockSession, never()).delete(missingRecord);
+    }
+    
+    @Test
+    public void updateAdherenceRecords_sameRecordTwice() {
+        AdherenceRecord record1 = record(GUID);
+        record1.setStartedOn(MODIFIED_ON);
+        record1.setUploadIds(new HashSet<>(ImmutableSet.of("upload-id-1")));
+        AdherenceRecord record2 = record(GUID);
+        record2.setStartedOn(MODIFIED_ON);
+        record2.setUploadIds(new HashSet<>(ImmutableSet.of("upload-id-2")));
+        
+        when(mockSession.createQuery(RECORDS_FOR_UPDATE_QUERY, AdherenceRecord.class)).thenReturn(mockRecordQuery);
+        when(mockRecordQuery.setParameter(anyString(), any())).thenReturn(mockRecordQuery);
+        when(mockRecordQuery.list()).thenReturn(ImmutableList.of());
+        
+        dao.updateAdherenceRecords(ImmutableList.of(record1, record2));
+        
+        // The second record is merged with the first one, which is now in the session
+        verify(mockSession).save(record1);
+        verify(mockSession).merge(record2);
+        assertEquals(record2.getUploadIds(), ImmutableSet.of("upload-id-1", "upload-id-2"));
+    }
+    
+    @Test
+    public void updateAdherenceRecords_noRecords() {
+        dao.updateAdherenceRecords(ImmutableList.of());
+        
+        verifyZeroInteractions(mockHelper);
+    }
+    
+    private AdherenceRecord record(String instanceGuid) {
+        AdherenceRecord record = new AdherenceRecord();
+        record.setAppId(TEST_APP_ID);
+        record.setStudyId(TEST_STUDY_ID);
+        record.setUserId(TEST_USER_ID);
+        record.setInstanceGuid(instanceGuid);
+        record.setEventTimestamp(MODIFIED_ON);
+        record.setInstanceTimestamp(MODIFIED_ON);
+        return record;
+    }
+
     private AdherenceRecordsSearch.Builder search() {
         return new AdherenceRecordsSearch.Builder().withUserId(TEST_USER_ID).withStudyId(TEST_STUDY_ID);
     }
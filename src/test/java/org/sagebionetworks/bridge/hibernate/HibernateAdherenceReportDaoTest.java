@@ -23,6 +23,7 @@ import java.math.BigInteger;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
@@ -118,6 +119,29 @@ public class HibernateAdherenceReportDaoTest extends Mockito {
         verify(mockHelper).saveOrUpdate(report);
     }
     
+    @Test
+    public void saveWeeklyAdherenceReports() {
+        when(mockHelper.executeWithExceptionHandling(any(), any())).thenAnswer(args -> {
+            Function<Session, Object> func = args.getArgument(1);
+            return func.apply(mockSession);
+        });
+        WeeklyAdherenceReport report1 = new WeeklyAdherenceReport();
+        WeeklyAdherenceReport report2 = new WeeklyAdherenceReport();
+        
+        dao.saveWeeklyAdherenceReports(ImmutableList.of(report1, report2));
+        
+        verify(mockSession).setJdbcBatchSize(2);
+        verify(mockSession).saveOrUpdate(report1);
+        verify(mockSession).saveOrUpdate(report2);
+    }
+    
+    @Test
+    public void saveWeeklyAdherenceReportsEmpty() {
+        dao.saveWeeklyAdherenceReports(ImmutableList.of());
+        
+        verify(mockHelper, never()).executeWithExceptionHandling(any(), any());
+    }
+    
     @Test
     public void getWeeklyAdherenceReports() {
         List<WeeklyAdherenceReport> reports = ImmutableList.of();
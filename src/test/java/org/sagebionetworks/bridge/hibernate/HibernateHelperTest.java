@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import javax.persistence.OptimisticLockException;
@@ -101,6 +102,41 @@ public class HibernateHelperTest {
         inOrder.verify(mockTransaction).commit();
     }
     
+    @Test
+    public void createWithConsumer() {
+        Object testObj = new Object();
+        Consumer<Session> mockConsumer = mock(Consumer.class);
+        
+        helper.create(testObj, mockConsumer);
+        
+        InOrder inOrder = Mockito.inOrder(mockSession, mockConsumer);
+        inOrder.verify(mockSession).save(testObj);
+        inOrder.verify(mockConsumer).accept(mockSession);
+    }
+    
+    @Test
+    public void createWithConsumerRollsBackOnConsumerException() {
+        reset(helper); // clear @Before setup
+        when(mockSessionFactory.openSession()).thenReturn(mockSession);
+        when(mockSession.beginTransaction()).thenReturn(mockTransaction);
+        
+        RollbackException ex = new RollbackException();
+        Consumer<Session> mockConsumer = mock(Consumer.class);
+        doThrow(ex).when(mockConsumer).accept(mockSession);
+        Object testObj = new Object();
+        when(mockExceptionConverter.convert(ex, testObj)).thenReturn(TEST_EXCEPTION);
+        
+        try {
+            helper.create(testObj, mockConsumer);
+            fail("Should have thrown exception");
+        } catch(Exception e) {
+            assertSame(e, TEST_EXCEPTION);
+        }
+        verify(mockSession).save(testObj);
+        verify(mockTransaction).rollback();
+        verify(mockTransaction, never()).commit();
+    }
+    
     @Test
     public void createOtherException() {
         PersistenceException ex = new PersistenceException();
@@ -346,6 +382,19 @@ public class HibernateHelperTest {
         verify(mockSession).update(testObj);
     }
 
+    @Test
+    public void updateWithConsumer() {
+        Object testObj = new Object();
+        Consumer<Session> mockConsumer = mock(Consumer.class);
+        
+        Object received = helper.update(testObj, mockConsumer);
+        assertSame(received, testObj);
+        
+        InOrder inOrder = Mockito.inOrder(mockSession, mockConsumer);
+        inOrder.verify(mockSession).update(testObj);
+        inOrder.verify(mockConsumer).accept(mockSession);
+    }
+
     @Test
     public void execute() {
         // mock session to produce transaction
@@ -1,8 +1,18 @@
 package org.sagebionetworks.bridge.hibernate;
 
 import static org.sagebionetworks.bridge.TestConstants.TEST_USER_ID;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
 
+import java.util.List;
+import java.util.function.Function;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.hibernate.Session;
+import org.hibernate.query.Query;
 import org.joda.time.DateTime;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
@@ -23,6 +33,12 @@ public class HibernateRequestInfoDaoTest extends Mockito {
     @Mock
     HibernateHelper mockHelper;
     
+    @Mock
+    Session mockSession;
+    
+    @Mock
+    Query<RequestInfo> mockQuery;
+    
     @Captor
     ArgumentCaptor<RequestInfo> requestInfoCaptor;
     
@@ -64,6 +80,25 @@ public class HibernateRequestInfoDaoTest extends Mockito {
         verify(mockHelper).getById(RequestInfo.class, TEST_USER_ID);
     }
 
+    @Test
+    public void getRequestInfos() {
+        List<String> userIds = ImmutableList.of("userA", "userB");
+        RequestInfo info = new RequestInfo.Builder().withUserId("userA").build();
+        when(mockHelper.queryGet(HibernateRequestInfoDao.GET_REQUEST_INFOS_QUERY,
+                ImmutableMap.of("userIds", userIds), null, null, RequestInfo.class))
+                .thenReturn(ImmutableList.of(info));
+
+        List<RequestInfo> retValue = dao.getRequestInfos(userIds);
+        assertEquals(retValue, ImmutableList.of(info));
+    }
+
+    @Test
+    public void getRequestInfosNoIds() {
+        List<RequestInfo> retValue = dao.getRequestInfos(ImmutableList.of());
+        assertTrue(retValue.isEmpty());
+        verify(mockHelper, never()).queryGet(any(), any(), any(), any(), any());
+    }
+
     @Test
     public void removeRequestInfo() {
         RequestInfo existingInfo = new RequestInfo.Builder().withUserId(TEST_USER_ID)
@@ -78,5 +113,44 @@ public class HibernateRequestInfoDaoTest extends Mockito {
     public void removeRequestInfoNoObject() {
         dao.removeRequestInfo(TEST_USER_ID);
         verify(mockHelper, never()).deleteById(any(), any());
-    }       
+    }
+    
+    @Test
+    public void updateRequestInfos() {
+        when(mockHelper.executeWithExceptionHandling(any(), any())).thenAnswer(args -> {
+            Function<Session, Object> func = args.getArgument(1);
+            return func.apply(mockSession);
+        });
+        when(mockSession.createQuery("FROM RequestInfo WHERE userId IN (:userIds)", RequestInfo.class))
+                .thenReturn(mockQuery);
+        when(mockQuery.setParameterList("userIds", ImmutableList.of("existingId", "newId")))
+                .thenReturn(mockQuery);
+        
+        RequestInfo existingInfo = new RequestInfo.Builder().withUserId("existingId")
+                .withSignedInOn(DateTime.now()).build();
+        when(mockQuery.list()).thenReturn(ImmutableList.of(existingInfo));
+        
+        RequestInfo updatedInfo = new RequestInfo.Builder().withUserId("existingId")
+                .withActivitiesAccessedOn(DateTime.now()).build();
+        RequestInfo newInfo = new RequestInfo.Builder().withUserId("newId")
+                .withActivitiesAccessedOn(DateTime.now()).build();
+        
+        dao.updateRequestInfos(ImmutableList.of(updatedInfo, newInfo));
+        
+        verify(mockSession).setJdbcBatchSize(2);
+        verify(mockSession).merge(requestInfoCaptor.capture());
+        RequestInfo merged = requestInfoCaptor.getValue();
+        assertEquals(merged.getUserId(), "existingId");
+        assertNotNull(merged.getActivitiesAccessedOn());
+        assertNotNull(merged.getSignedInOn());
+        
+        verify(mockSession).save(newInfo);
+    }
+    
+    @Test
+    public void updateRequestInfosEmpty() {
+        dao.updateRequestInfos(ImmutableList.of());
+        
+        verify(mockHelper, never()).executeWithExceptionHandling(any(), any());
+    }
 }
@@ -7,9 +7,11 @@ import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY_ID;
 import static org.sagebionetworks.bridge.TestConstants.TEST_USER_ID;
 import static org.sagebionetworks.bridge.hibernate.HibernateStudyActivityEventDao.DELETE_SQL;
 import static org.sagebionetworks.bridge.hibernate.HibernateStudyActivityEventDao.EVENT_ID_FIELD;
+import static org.sagebionetworks.bridge.hibernate.HibernateStudyActivityEventDao.GET_RECENT_FOR_USERS_SQL;
 import static org.sagebionetworks.bridge.hibernate.HibernateStudyActivityEventDao.GET_RECENT_SQL;
 import static org.sagebionetworks.bridge.hibernate.HibernateStudyActivityEventDao.HISTORY_SQL;
 import static org.sagebionetworks.bridge.hibernate.HibernateStudyActivityEventDao.STUDY_ID_FIELD;
+import static org.sagebionetworks.bridge.hibernate.HibernateStudyActivityEventDao.USER_IDS_FIELD;
 import static org.sagebionetworks.bridge.hibernate.HibernateStudyActivityEventDao.USER_ID_FIELD;
 import static org.sagebionetworks.bridge.models.ResourceList.OFFSET_BY;
 import static org.sagebionetworks.bridge.models.ResourceList.PAGE_SIZE;
@@ -17,11 +19,14 @@ import static org.sagebionetworks.bridge.models.activities.ActivityEventObjectTy
 import static org.sagebionetworks.bridge.models.activities.ActivityEventUpdateType.IMMUTABLE;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
@@ -91,6 +96,39 @@ public class HibernateStudyActivityEventDaoTest extends Mockito {
         assertEquals(params.get(STUDY_ID_FIELD), TEST_STUDY_ID);
     }
     
+    @Test
+    public void getRecentStudyActivityEventsForUsers() {
+        Object[] user1Event1 = new Object[12];
+        user1Event1[1] = "user1";
+        Object[] user1Event2 = new Object[12];
+        user1Event2[1] = "user1";
+        Object[] user2Event1 = new Object[12];
+        user2Event1[1] = "user2";
+        List<Object[]> list = ImmutableList.of(user1Event1, user1Event2, user2Event1);
+        when(mockHelper.nativeQuery(any(), any())).thenReturn(list);
+        
+        Set<String> userIds = ImmutableSet.of("user1", "user2", "user3");
+        Map<String, List<StudyActivityEvent>> retValue = dao.getRecentStudyActivityEventsForUsers(
+                userIds, TEST_STUDY_ID);
+        assertEquals(retValue.size(), 2);
+        assertEquals(retValue.get("user1").size(), 2);
+        assertEquals(retValue.get("user2").size(), 1);
+        
+        verify(mockHelper).nativeQuery(eq(GET_RECENT_FOR_USERS_SQL), paramsCaptor.capture());
+        Map<String,Object> params = paramsCaptor.getValue();
+        assertEquals(params.get(USER_IDS_FIELD), userIds);
+        assertEquals(params.get(STUDY_ID_FIELD), TEST_STUDY_ID);
+    }
+    
+    @Test
+    public void getRecentStudyActivityEventsForUsersNoUsers() {
+        Map<String, List<StudyActivityEvent>> retValue = dao.getRecentStudyActivityEventsForUsers(
+                ImmutableSet.of(), TEST_STUDY_ID);
+        assertTrue(retValue.isEmpty());
+        
+        verify(mockHelper, never()).nativeQuery(any(), any());
+    }
+    
     @Test
     public void getRecentStudyActivityEvent() throws Exception {
         StudyActivityEvent event1 = new StudyActivityEvent.Builder()
@@ -0,0 +1,171 @@
+package org.sagebionetworks.bridge.models;
+
+import static java.util.Comparator.comparingLong;
+import static org.sagebionetworks.bridge.TestConstants.TEST_APP_ID;
+import static org.sagebionetworks.bridge.models.OperatingSystem.ANDROID;
+import static org.sagebionetworks.bridge.models.OperatingSystem.IOS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.models.appconfig.AppConfig;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class CompiledCriteriaTest {
+
+    private static final List<String> LANGUAGES = ImmutableList.of("en", "EN", "fr", "de", "zh");
+    private static final List<ClientInfo> CLIENT_INFOS = ImmutableList.of(ClientInfo.UNKNOWN_CLIENT,
+            ClientInfo.fromUserAgentCache("app/4 (deviceName; iPhone OS/3.9) BridgeJavaSDK/12"),
+            ClientInfo.fromUserAgentCache("app/9 (deviceName; Android/3.9) BridgeJavaSDK/12"));
+    private static final Comparator<AppConfig> CREATED_ON = comparingLong(AppConfig::getCreatedOn);
+
+    @Test
+    public void matchesUncompiledFiltering() {
+        // More than 64 groups, so masks span multiple words
+        assertMatchesUncompiled(new Random(1L), 100, 80, 10);
+        assertMatchesUncompiled(new Random(2L), 20, 8, 3);
+    }
+
+    @Test
+    public void returnsObjectsFromListPassedIn() {
+        List<AppConfig> original = ImmutableList.of(appConfig("guid1", "en", "group1"),
+                appConfig("guid2", null, null));
+        CompiledCriteria compiled = CompiledCriteria.compile(original, null, ImmutableList.of());
+
+        List<AppConfig> copy = ImmutableList.of(appConfig("guid1", "en", "group1"),
+                appConfig("guid2", null, null));
+        CriteriaContext context = new CriteriaContext.Builder().withAppId(TEST_APP_ID)
+                .withLanguages(ImmutableList.of("en")).withUserDataGroups(ImmutableSet.of("group1")).build();
+
+        List<AppConfig> results = compiled.filter(context, copy);
+        assertEquals(results.size(), 2);
+        assertSame(results.get(0), copy.get(1));
+        assertSame(results.get(1), copy.get(0));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsDifferentList() {
+        CompiledCriteria compiled = CompiledCriteria.compile(ImmutableList.of(appConfig("guid1", null, null)), null,
+                ImmutableList.of());
+
+        compiled.filter(new CriteriaContext.Builder().withAppId(TEST_APP_ID).build(), ImmutableList.of());
+    }
+
+    @Test
+    public void cacheRecompilesWhenListChanges() {
+        CompiledCriteriaCache<AppConfig> cache = new CompiledCriteriaCache<>(
+                appConfig -> Arrays.asList(appConfig.getGuid(), appConfig.getVersion()), null);
+        CriteriaContext context = new CriteriaContext.Builder().withAppId(TEST_APP_ID)
+                .withUserDataGroups(ImmutableSet.of("group1")).build();
+
+        AppConfig appConfig = appConfig("guid1", null, "group2");
+        appConfig.setVersion(1L);
+        List<AppConfig> results = cache.filterByCriteria(TEST_APP_ID, context, ImmutableList.of(appConfig));
+        assertEquals(results.size(), 0);
+
+        // Same version, same compiled criteria (the changed criteria isn't seen)
+        appConfig.getCriteria().setAllOfGroups(ImmutableSet.of("group1"));
+        results = cache.filterByCriteria(TEST_APP_ID, context, ImmutableList.of(appConfig));
+        assertEquals(results.size(), 0);
+
+        // New version is recompiled
+        appConfig.setVersion(2L);
+        results = cache.filterByCriteria(TEST_APP_ID, context, ImmutableList.of(appConfig));
+        assertEquals(results.size(), 1);
+
+        // Adding an object is recompiled
+        AppConfig appConfig2 = appConfig("guid2", null, null);
+        results = cache.filterByCriteria(TEST_APP_ID, context, ImmutableList.of(appConfig, appConfig2));
+        assertEquals(results, ImmutableList.of(appConfig, appConfig2));
+
+        // Lists are cached per app
+        results = cache.filterByCriteria("otherApp", context, ImmutableList.of(appConfig2));
+        assertEquals(results, ImmutableList.of(appConfig2));
+
+        cache.invalidate(TEST_APP_ID);
+        results = cache.filterByCriteria(TEST_APP_ID, context, ImmutableList.of(appConfig));
+        assertEquals(results, ImmutableList.of(appConfig));
+    }
+
+    private void assertMatchesUncompiled(Random random, int itemCount, int groupCount, int studyCount) {
+        List<AppConfig> items = new ArrayList<>();
+        for (int i=0; i < itemCount; i++) {
+            Criteria criteria = Criteria.create();
+            criteria.setAllOfGroups(randomSubset(random, "group", groupCount, 2));
+            criteria.setNoneOfGroups(randomSubset(random, "group", groupCount, 2));
+            criteria.setAllOfStudyIds(randomSubset(random, "study", studyCount, 1));
+            criteria.setNoneOfStudyIds(randomSubset(random, "study", studyCount, 1));
+            if (random.nextInt(3) == 0) {
+                criteria.setLanguage(LANGUAGES.get(random.nextInt(LANGUAGES.size())));
+            }
+            if (random.nextInt(3) == 0) {
+                criteria.setMinAppVersion(IOS, random.nextInt(8));
+            }
+            if (random.nextInt(3) == 0) {
+                criteria.setMaxAppVersion(ANDROID, random.nextInt(12));
+            }
+            AppConfig appConfig = AppConfig.create();
+            appConfig.setGuid("guid" + i);
+            appConfig.setCreatedOn(random.nextInt(10));
+            appConfig.setCriteria(criteria);
+            items.add(appConfig);
+        }
+        CompiledCriteria compiled = CompiledCriteria.compile(items, CREATED_ON, ImmutableList.of());
+        CompiledCriteria compiledNoComparator = CompiledCriteria.compile(items, null, ImmutableList.of());
+
+        for (int i=0; i < 500; i++) {
+            List<String> languages = new ArrayList<>();
+            int languageCount = random.nextInt(3);
+            for (int j=0; j < languageCount; j++) {
+                languages.add(LANGUAGES.get(random.nextInt(LANGUAGES.size())));
+            }
+            CriteriaContext context = new CriteriaContext.Builder().withAppId(TEST_APP_ID)
+                    .withLanguages(languages)
+                    .withClientInfo(CLIENT_INFOS.get(random.nextInt(CLIENT_INFOS.size())))
+                    .withUserDataGroups(randomSubset(random, "group", groupCount + 5, 20))
+                    .withUserStudyIds(randomSubset(random, "study", studyCount + 2, 3)).build();
+
+            List<AppConfig> expected = CriteriaUtils.filterByCriteria(context, items, CREATED_ON);
+            List<AppConfig> actual = compiled.filter(context, items);
+            assertEquals(actual, expected, "context: " + context);
+            assertNotSame(actual, items);
+
+            expected = CriteriaUtils.filterByCriteria(context, items, null);
+            actual = compiledNoComparator.filter(context, items);
+            assertEquals(actual, expected, "context: " + context);
+        }
+    }
+
+    private static Set<String> randomSubset(Random random, String prefix, int range, int maxSize) {
+        Set<String> set = new HashSet<>();
+        int size = random.nextInt(maxSize + 1);
+        for (int i=0; i < size; i++) {
+            set.add(prefix + random.nextInt(range));
+        }
+        return set;
+    }
+
+    private static AppConfig appConfig(String guid, String language, String allOfGroup) {
+        Criteria criteria = Criteria.create();
+        criteria.setLanguage(language);
+        if (allOfGroup != null) {
+            criteria.setAllOfGroups(ImmutableSet.of(allOfGroup));
+        }
+        AppConfig appConfig = AppConfig.create();
+        appConfig.setGuid(guid);
+        appConfig.setCriteria(criteria);
+        return appConfig;
+    }
+}
@@ -108,6 +108,17 @@ public class PagedResourceListTest {
         assertNull(node.get("endTime"));
     }
     
+    @Test
+    public void totalCanBeNullWhenNotCounted() throws Exception {
+        List<AccountSummary> accounts = Lists.newArrayList(SUMMARY1, SUMMARY2);
+        PagedResourceList<AccountSummary> page = new PagedResourceList<>(accounts, null, true);
+        assertNull(page.getTotal());
+        
+        JsonNode node = BridgeObjectMapper.get().valueToTree(page);
+        assertNull(node.get("total"));
+        assertEquals(node.get("items").size(), 2);
+    }
+    
     @Test(expectedExceptions = NullPointerException.class)
     public void totalCannotBeNull() throws Exception {
         List<AccountSummary> accounts = Lists.newArrayListWithCapacity(2);
@@ -2,7 +2,6 @@ package org.sagebionetworks.bridge.services;
 
 import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
-import static org.sagebionetworks.bridge.BridgeConstants.API_MAXIMUM_PAGE_SIZE;
 import static org.sagebionetworks.bridge.BridgeConstants.PREVIEW_USER_GROUP;
 import static org.sagebionetworks.bridge.BridgeConstants.TEST_USER_GROUP;
 import static org.sagebionetworks.bridge.BridgeUtils.getElement;
@@ -35,6 +34,7 @@ import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
@@ -170,9 +170,6 @@ public class AccountServiceTest extends Mockito {
     @Captor
     ArgumentCaptor<StudyActivityEvent> eventCaptor;
     
-    @Captor
-    ArgumentCaptor<AccountSummarySearch> searchCaptor;
-
     @Captor
     ArgumentCaptor<Alert> alertCaptor;
 
@@ -494,6 +491,15 @@ public class AccountServiceTest extends Mockito {
         assertEquals(returnVal, mockAccountSummaries);
         verify(mockAccountDao).getPagedAccountSummaries(TEST_APP_ID, EMPTY_SEARCH);
     }
+    
+    @Test
+    public void streamAccountSummaries() {
+        Consumer<AccountSummary> consumer = (summary) -> {};
+        
+        service.streamAccountSummaries(TEST_APP_ID, EMPTY_SEARCH, consumer);
+        
+        verify(mockAccountDao).streamAccountSummaries(TEST_APP_ID, EMPTY_SEARCH, consumer);
+    }
 
     @Test
     public void getAccountHealthCode() throws Exception {
@@ -817,7 +823,48 @@ public class AccountServiceTest extends Mockito {
 
         Optional<Account> account = service.getAccount(ACCOUNT_ID);
         assertTrue(account.isPresent());
-        
+
+        RequestContext.set(null);
+    }
+
+    @Test
+    public void getAccountsById() throws Exception {
+        Account accountA = Account.create();
+        accountA.setId(TEST_USER_ID);
+        accountA.setEnrollments(Sets.newHashSet(ACCOUNT_ENROLLMENTS));
+
+        Account accountB = Account.create();
+        accountB.setId("userB");
+        accountB.setEnrollments(Sets.newHashSet(Enrollment.create(TEST_APP_ID, STUDY_B, "userB")));
+
+        List<String> userIds = ImmutableList.of(TEST_USER_ID, "userB", "missingUser");
+        when(mockAccountDao.getAccountsById(TEST_APP_ID, userIds)).thenReturn(ImmutableList.of(accountA, accountB));
+
+        RequestContext.set(new RequestContext.Builder()
+                .withCallerUserId(OTHER_USER_ID)
+                .withOrgSponsoredStudies(ImmutableSet.of(STUDY_B)).build());
+
+        List<Account> retValue = service.getAccountsById(TEST_APP_ID, userIds);
+        assertEquals(retValue, ImmutableList.of(accountB));
+
+        RequestContext.set(null);
+    }
+
+    @Test
+    public void getAccountsByIdNoFilter() throws Exception {
+        Account account = Account.create();
+        account.setId(TEST_USER_ID);
+        account.setEnrollments(Sets.newHashSet(ACCOUNT_ENROLLMENTS));
+
+        List<String> userIds = ImmutableList.of(TEST_USER_ID);
+        when(mockAccountDao.getAccountsById(TEST_APP_ID, userIds)).thenReturn(ImmutableList.of(account));
+
+        RequestContext.set(new RequestContext.Builder()
+                .withOrgSponsoredStudies(ImmutableSet.of(STUDY_B)).build());
+
+        List<Account> retValue = service.getAccountsById(TEST_APP_ID, userIds);
+        assertEquals(retValue, ImmutableList.of(account));
+
         RequestContext.set(null);
     }
 
@@ -876,40 +923,13 @@ public class AccountServiceTest extends Mockito {
         verify(mockAccountDao).deleteAllAccounts(TEST_APP_ID);
     }
     
-    @SuppressWarnings("unchecked")
     @Test
     public void deleteAllPreviewAccounts() {
-        AccountSummary summary1 = new AccountSummary.Builder().withId("user1").build();
-        AccountSummary summary2 = new AccountSummary.Builder().withId("user2").build();
-        AccountSummary summary3 = new AccountSummary.Builder().withId("user3").build();
-        AccountSummary summary4 = new AccountSummary.Builder().withId("user4").build();
-        AccountSummary summary5 = new AccountSummary.Builder().withId("user5").build();
-        AccountSummary summary6 = new AccountSummary.Builder().withId("user6").build();
-        
-        PagedResourceList<AccountSummary> page1 = new PagedResourceList<>(
-                ImmutableList.of(summary1, summary2, summary3), API_MAXIMUM_PAGE_SIZE+1);
-        PagedResourceList<AccountSummary> page2 = new PagedResourceList<>(
-                ImmutableList.of(summary4, summary5, summary6), API_MAXIMUM_PAGE_SIZE+1);
-        PagedResourceList<AccountSummary> page3 = new PagedResourceList<>(
-                ImmutableList.of(), API_MAXIMUM_PAGE_SIZE+1);
-        when(mockAccountDao.getPagedAccountSummaries(eq(TEST_APP_ID), any())).thenReturn(page1, page2, page3);
-        
         service.deleteAllPreviewAccounts(TEST_APP_ID, TEST_STUDY_ID);
         
-        verify(mockAccountDao, times(3)).getPagedAccountSummaries(eq(TEST_APP_ID), searchCaptor.capture());
-        
-        AccountSummarySearch capturedSearch = searchCaptor.getAllValues().get(0);
-        assertEquals(capturedSearch.getPageSize(), API_MAXIMUM_PAGE_SIZE);
-        assertEquals(capturedSearch.getAllOfGroups(), ImmutableSet.of(PREVIEW_USER_GROUP));
-        assertEquals(capturedSearch.getEnrolledInStudyId(), TEST_STUDY_ID);
-        assertEquals(capturedSearch.getOffsetBy(), 0);
-
-        verify(mockAccountDao).deleteAccount("user1");
-        verify(mockAccountDao).deleteAccount("user2");
-        verify(mockAccountDao).deleteAccount("user3");
-        verify(mockAccountDao).deleteAccount("user4");
-        verify(mockAccountDao).deleteAccount("user5");
-        verify(mockAccountDao).deleteAccount("user6");
+        verify(mockAccountDao).deleteAccountsInStudyWithDataGroup(TEST_APP_ID, TEST_STUDY_ID, PREVIEW_USER_GROUP);
+        verify(mockAccountDao, never()).getPagedAccountSummaries(any(), any());
+        verify(mockAccountDao, never()).deleteAccount(any());
     }
     
     @Test
@@ -20,6 +20,7 @@ import static org.sagebionetworks.bridge.models.ResourceList.CURRENT_TIMESTAMPS_
 import static org.sagebionetworks.bridge.models.ResourceList.END_TIME;
 import static org.sagebionetworks.bridge.models.ResourceList.EVENT_TIMESTAMPS;
 import static org.sagebionetworks.bridge.models.ResourceList.INCLUDE_REPEATS;
+import static org.sagebionetworks.bridge.models.ResourceList.INCLUDE_TOTAL;
 import static org.sagebionetworks.bridge.models.ResourceList.INSTANCE_GUIDS;
 import static org.sagebionetworks.bridge.models.ResourceList.OFFSET_BY;
 import static org.sagebionetworks.bridge.models.ResourceList.PAGE_SIZE;
@@ -49,6 +50,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -167,7 +169,7 @@ public class AdherenceServiceTest extends Mockito {
     ArgumentCaptor<StudyActivityEvent> eventCaptor;
     
     @Captor
-    ArgumentCaptor<AdherenceRecord> recordCaptor;
+    ArgumentCaptor<List<AdherenceRecord>> recordsCaptor;
     
     @Captor
     ArgumentCaptor<WeeklyAdherenceReport> weeklyReportCaptor;
@@ -182,6 +184,7 @@ public class AdherenceServiceTest extends Mockito {
     @BeforeMethod
     public void beforeMethod() {
         MockitoAnnotations.initMocks(this);
+        service.setReportPool(ForkJoinPool.commonPool());
         
         when(service.getDateTime()).thenReturn(MOCK_NOW);
     }
@@ -204,10 +207,16 @@ public class AdherenceServiceTest extends Mockito {
         
         service.updateAdherenceRecords(TEST_APP_ID, records);
         
-        verify(mockRecordDao, times(3)).updateAdherenceRecord(recordCaptor.capture());
-        assertEquals(recordCaptor.getAllValues().get(0).getInstanceGuid(), "AAA");
-        assertEquals(recordCaptor.getAllValues().get(1).getInstanceGuid(), "BBB");
-        assertEquals(recordCaptor.getAllValues().get(2).getInstanceGuid(), "sessionInstanceGuid");
+        // Assessments are written in one batch, then the session records in another
+        verify(mockRecordDao, times(2)).updateAdherenceRecords(recordsCaptor.capture());
+        List<AdherenceRecord> assessments = recordsCaptor.getAllValues().get(0);
+        assertEquals(assessments.size(), 2);
+        assertEquals(assessments.get(0).getInstanceGuid(), "AAA");
+        assertEquals(assessments.get(1).getInstanceGuid(), "BBB");
+        List<AdherenceRecord> sessions = recordsCaptor.getAllValues().get(1);
+        assertEquals(sessions.size(), 1);
+        assertEquals(sessions.get(0).getInstanceGuid(), "sessionInstanceGuid");
+        verify(mockRecordDao, never()).updateAdherenceRecord(any());
         
         // Nothing is finished, nothing is published.
         verify(mockStudyActivityEventService, never()).publishEvent(any(), eq(false), eq(true));
@@ -248,8 +257,8 @@ public class AdherenceServiceTest extends Mockito {
         
         service.updateAdherenceRecords(TEST_APP_ID, list);
         
-        verify(mockRecordDao).updateAdherenceRecord(list.getRecords().get(0));
-        verify(mockRecordDao).updateAdherenceRecord(list.getRecords().get(1));
+        verify(mockRecordDao).updateAdherenceRecords(
+                ImmutableList.of(list.getRecords().get(0), list.getRecords().get(1)));
         verify(mockStudyActivityEventService, times(3)).publishEvent(eventCaptor.capture(), eq(false), eq(true));
         
         StudyActivityEvent event = eventCaptor.getAllValues().get(2);
@@ -273,8 +282,8 @@ public class AdherenceServiceTest extends Mockito {
         
         service.updateAdherenceRecords(TEST_APP_ID, list);
         
-        verify(mockRecordDao).updateAdherenceRecord(list.getRecords().get(0));
-        verify(mockRecordDao).updateAdherenceRecord(list.getRecords().get(1));
+        verify(mockRecordDao).updateAdherenceRecords(
+                ImmutableList.of(list.getRecords().get(0), list.getRecords().get(1)));
         verify(mockStudyActivityEventService, times(1)).publishEvent(eventCaptor.capture(), eq(false), eq(true));
         
         StudyActivityEvent event = eventCaptor.getValue();
@@ -343,7 +352,7 @@ public class AdherenceServiceTest extends Mockito {
         MetadataContainer container = new MetadataContainer(mockScheduleService, list.getRecords());
         service.updateSessionState(TEST_APP_ID, container, list.getRecords().get(0));
         
-        verify(mockRecordDao, never()).updateAdherenceRecord(any());
+        verify(mockRecordDao, never()).updateAdherenceRecords(any());
         verify(mockStudyActivityEventService, never()).publishEvent(any(), eq(false), eq(true));
     }
     
@@ -568,9 +577,9 @@ public class AdherenceServiceTest extends Mockito {
         
         service.updateAdherenceRecords(TEST_APP_ID, list);
         
-        verify(mockRecordDao, times(3)).updateAdherenceRecord(recordCaptor.capture());
+        verify(mockRecordDao, times(2)).updateAdherenceRecords(recordsCaptor.capture());
         
-        AdherenceRecord session = recordCaptor.getAllValues().get(2);
+        AdherenceRecord session = recordsCaptor.getAllValues().get(1).get(0);
         assertEquals(session.getStartedOn(), STARTED_ON);
         // based on the assessment records, any value submitted for session is ignored
         assertEquals(session.getFinishedOn(), FINISHED_ON);
@@ -609,12 +618,13 @@ public class AdherenceServiceTest extends Mockito {
         assertSame(retValue, page);
         
         Map<String, Object> rp = retValue.getRequestParams();
-        assertEquals(rp.size(), 17);
+        assertEquals(rp.size(), 18);
         assertEquals(rp.get(ASSESSMENT_IDS), ImmutableSet.of());
         assertEquals(rp.get(START_TIME).toString(), CREATED_ON.toString());
         assertEquals(rp.get(END_TIME).toString(), MODIFIED_ON.toString());
         assertEquals(rp.get(EVENT_TIMESTAMPS), ImmutableMap.of("custom:event1", MODIFIED_ON));
         assertEquals(rp.get(INCLUDE_REPEATS), Boolean.TRUE);
+        assertEquals(rp.get(INCLUDE_TOTAL), Boolean.TRUE);
         assertEquals(rp.get(CURRENT_TIMESTAMPS_ONLY), Boolean.FALSE);
         assertEquals(rp.get(INSTANCE_GUIDS), ImmutableSet.of("AAA@2015-01-26T23:38:32.486Z"));
         assertEquals(rp.get(OFFSET_BY), 10);
@@ -1438,6 +1448,164 @@ public class AdherenceServiceTest extends Mockito {
         verifyZeroInteractions(alertService);
     }
 
+    @Test
+    public void getWeeklyAdherenceReportsForWorker() {
+        Account account1 = Account.create();
+        account1.setAppId(TEST_APP_ID);
+        account1.setId("user1");
+        Account account2 = Account.create();
+        account2.setAppId(TEST_APP_ID);
+        account2.setId("user2");
+        account2.setClientTimeZone(NON_LOCAL_TIME_ZONE);
+        List<Account> accounts = ImmutableList.of(account1, account2);
+        
+        Study study = Study.create();
+        study.setScheduleGuid(SCHEDULE_GUID);
+        study.setAdherenceThresholdPercentage(60);
+        when(mockStudyService.getStudy(TEST_APP_ID, TEST_STUDY_ID, true)).thenReturn(study);
+        when(mockStudyService.getZoneId(TEST_APP_ID, TEST_STUDY_ID, null)).thenReturn(TEST_CLIENT_TIME_ZONE);
+        when(mockStudyService.getStudyActivityEventIdsMap(TEST_APP_ID, TEST_STUDY_ID))
+                .thenReturn(new StudyActivityEventIdsMap());
+        
+        Schedule2 schedule = createValidSchedule();
+        when(mockScheduleService.getScheduleMetadata(SCHEDULE_GUID))
+            .thenReturn(Scheduler.INSTANCE.calculateTimeline(schedule).getMetadata());
+        when(mockScheduleService.getScheduleForStudy(TEST_APP_ID, TEST_STUDY_ID)).thenReturn(Optional.of(schedule));
+        
+        when(mockStudyActivityEventService.getRecentStudyActivityEventsForAccounts(TEST_APP_ID, TEST_STUDY_ID,
+                accounts)).thenReturn(ImmutableMap.of("user1", ImmutableList.of(), "user2", ImmutableList.of()));
+        when(mockRecordDao.getSessionAdherenceRecords(TEST_STUDY_ID, ImmutableSet.of("user1", "user2")))
+                .thenReturn(ImmutableList.of());
+        
+        doAnswer(args -> {
+            Account account = args.getArgument(1);
+            WeeklyAdherenceReport weeklyReport = new WeeklyAdherenceReport();
+            weeklyReport.setUserId(account.getId());
+            weeklyReport.setClientTimeZone(((StudyAdherenceReport)args.getArgument(2)).getClientTimeZone());
+            weeklyReport.setWeeklyAdherencePercent("user1".equals(account.getId()) ? 50 : 80);
+            return weeklyReport;
+        }).when(service).createWeeklyAdherenceReport(any(), any(), any(), any());
+        
+        List<WeeklyAdherenceReport> retValue = service.getWeeklyAdherenceReportsForWorker(
+                TEST_APP_ID, TEST_STUDY_ID, accounts);
+        assertEquals(retValue.size(), 2);
+        assertEquals(retValue.get(0).getUserId(), "user1");
+        assertEquals(retValue.get(0).getClientTimeZone(), TEST_CLIENT_TIME_ZONE);
+        assertEquals(retValue.get(1).getUserId(), "user2");
+        assertEquals(retValue.get(1).getClientTimeZone(), NON_LOCAL_TIME_ZONE);
+        
+        // Shared state is loaded once for the whole batch
+        verify(mockStudyService).getStudy(TEST_APP_ID, TEST_STUDY_ID, true);
+        verify(mockScheduleService).getScheduleMetadata(SCHEDULE_GUID);
+        verify(mockStudyActivityEventService, never()).getRecentStudyActivityEvents(any(), any(), any());
+        verify(mockRecordDao, never()).getAdherenceRecords(any());
+        verify(mockRequestInfoService).getRequestInfos(ImmutableSet.of("user1", "user2"));
+        verify(mockRequestInfoService, never()).getRequestInfo(any());
+        verify(mockReportDao).saveWeeklyAdherenceReports(retValue);
+        verify(mockReportDao, never()).saveWeeklyAdherenceReport(any());
+        
+        verify(alertService).createAlert(alertCaptor.capture());
+        assertEquals(alertCaptor.getValue().getUserId(), "user1");
+        assertEquals(alertCaptor.getValue().getCategory(), AlertCategory.LOW_ADHERENCE);
+    }
+    
+    @Test
+    public void getWeeklyAdherenceReportsForWorker_skipsFailedReports() {
+        Account account1 = Account.create();
+        account1.setId("user1");
+        Account account2 = Account.create();
+        account2.setId("user2");
+        List<Account> accounts = ImmutableList.of(account1, account2);
+        
+        Study study = Study.create();
+        study.setScheduleGuid(SCHEDULE_GUID);
+        when(mockStudyService.getStudy(TEST_APP_ID, TEST_STUDY_ID, true)).thenReturn(study);
+        when(mockStudyService.getStudyActivityEventIdsMap(TEST_APP_ID, TEST_STUDY_ID))
+                .thenReturn(new StudyActivityEventIdsMap());
+        
+        Schedule2 schedule = createValidSchedule();
+        when(mockScheduleService.getScheduleMetadata(SCHEDULE_GUID))
+            .thenReturn(Scheduler.INSTANCE.calculateTimeline(schedule).getMetadata());
+        when(mockScheduleService.getScheduleForStudy(TEST_APP_ID, TEST_STUDY_ID)).thenReturn(Optional.of(schedule));
+        when(mockStudyActivityEventService.getRecentStudyActivityEventsForAccounts(TEST_APP_ID, TEST_STUDY_ID,
+                accounts)).thenReturn(ImmutableMap.of("user1", ImmutableList.of(), "user2", ImmutableList.of()));
+        
+        WeeklyAdherenceReport weeklyReport = new WeeklyAdherenceReport();
+        doThrow(new IllegalStateException()).when(service).createWeeklyAdherenceReport(any(), eq(account1), any(), any());
+        doReturn(weeklyReport).when(service).createWeeklyAdherenceReport(any(), eq(account2), any(), any());
+        
+        List<WeeklyAdherenceReport> retValue = service.getWeeklyAdherenceReportsForWorker(
+                TEST_APP_ID, TEST_STUDY_ID, accounts);
+        assertEquals(retValue, ImmutableList.of(weeklyReport));
+        
+        verify(mockReportDao).saveWeeklyAdherenceReports(ImmutableList.of(weeklyReport));
+        verifyZeroInteractions(alertService);
+    }
+    
+    @Test(expectedExceptions = EntityNotFoundException.class)
+    public void getWeeklyAdherenceReportsForWorker_studyHasNoSchedule() {
+        Account account = Account.create();
+        account.setId(TEST_USER_ID);
+        
+        Study study = Study.create();
+        when(mockStudyService.getStudy(TEST_APP_ID, TEST_STUDY_ID, true)).thenReturn(study);
+        
+        service.getWeeklyAdherenceReportsForWorker(TEST_APP_ID, TEST_STUDY_ID, ImmutableList.of(account));
+    }
+    
+    @Test
+    public void startAndStopReportPool() {
+        AdherenceService service = new AdherenceService();
+        service.startReportPool();
+        
+        ForkJoinPool pool = service.getReportPool();
+        assertFalse(pool.isShutdown());
+        
+        // Starting again does not replace the pool
+        service.startReportPool();
+        assertSame(service.getReportPool(), pool);
+        
+        service.stopReportPool();
+        assertTrue(pool.isShutdown());
+    }
+    
+    @Test
+    public void getWeeklyAdherenceReportsForWorker_noAccounts() {
+        List<WeeklyAdherenceReport> retValue = service.getWeeklyAdherenceReportsForWorker(
+                TEST_APP_ID, TEST_STUDY_ID, ImmutableList.of());
+        assertTrue(retValue.isEmpty());
+        
+        verifyZeroInteractions(mockStudyService);
+        verifyZeroInteractions(mockReportDao);
+    }
+    
+    @Test
+    public void currentSessionRecords() {
+        TimelineMetadata meta = new TimelineMetadata();
+        meta.setGuid("sessionInstanceGuid");
+        meta.setSessionStartEventId("enrollment");
+        Map<String, TimelineMetadata> sessionMetadata = ImmutableMap.of("sessionInstanceGuid", meta);
+        
+        List<StudyActivityEvent> events = ImmutableList.of(createEvent("enrollment", EVENT_TS, null));
+        
+        AdherenceRecord current = new AdherenceRecord();
+        current.setInstanceGuid("sessionInstanceGuid");
+        current.setEventTimestamp(EVENT_TS.withZone(DateTimeZone.forID(NON_LOCAL_TIME_ZONE)));
+        AdherenceRecord previous = new AdherenceRecord();
+        previous.setInstanceGuid("sessionInstanceGuid");
+        previous.setEventTimestamp(EVENT_TS.minusDays(2));
+        AdherenceRecord noMetadata = new AdherenceRecord();
+        noMetadata.setInstanceGuid("otherGuid");
+        noMetadata.setEventTimestamp(EVENT_TS);
+        AdherenceRecord noTimestamp = new AdherenceRecord();
+        noTimestamp.setInstanceGuid("sessionInstanceGuid");
+        
+        List<AdherenceRecord> retValue = service.currentSessionRecords(
+                ImmutableList.of(current, previous, noMetadata, noTimestamp), events, 
+                new StudyActivityEventIdsMap(), sessionMetadata);
+        assertEquals(retValue, ImmutableList.of(current));
+    }
+    
     @Test
     public void getWeeklyAdherenceReports() {
         AdherenceReportSearch search = new AdherenceReportSearch();
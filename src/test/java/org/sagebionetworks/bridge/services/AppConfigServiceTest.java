@@ -10,6 +10,7 @@ import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.sagebionetworks.bridge.BridgeConstants.RESOLVED_APP_CONFIG_EXPIRE_IN_SECONDS;
 import static org.sagebionetworks.bridge.BridgeConstants.SHARED_APP_ID;
 import static org.sagebionetworks.bridge.TestConstants.TEST_APP_ID;
 
@@ -31,6 +32,8 @@ import org.testng.annotations.Test;
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.TestConstants;
 import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.dao.AppConfigDao;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
@@ -55,6 +58,7 @@ import org.sagebionetworks.bridge.models.upload.UploadSchema;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 
 public class AppConfigServiceTest {
@@ -108,6 +112,9 @@ public class AppConfigServiceTest {
     @Mock
     private ReferenceResolver mockReferenceResolver;
     
+    @Mock
+    private CacheProvider mockCacheProvider;
+    
     @Captor
     private ArgumentCaptor<AppConfig> appConfigCaptor;
     
@@ -224,6 +231,50 @@ public class AppConfigServiceTest {
         assertEquals(retValue, appConfig2);
     }
     
+    @Test
+    public void getAppConfigForUserCachesResolvedReferences() {
+        CriteriaContext context = new CriteriaContext.Builder()
+                .withClientInfo(ClientInfo.fromUserAgentCache("app/7 (Motorola Flip-Phone; Android/14) BridgeJavaSDK/10"))
+                .withAppId(TEST_APP_ID).build();
+        
+        AppConfig appConfig2 = setupConfigsForUser();
+        appConfig2.setGuid(GUID);
+        appConfig2.setModifiedOn(TIMESTAMP.getMillis());
+        CacheKey cacheKey = CacheKey.resolvedAppConfig(TEST_APP_ID, GUID, TIMESTAMP.getMillis());
+
+        AppConfig retValue = setupAndTestConfigResolution(() -> service.getAppConfigForUser(context, true));
+        
+        verify(mockCacheProvider).setObject(cacheKey, retValue, RESOLVED_APP_CONFIG_EXPIRE_IN_SECONDS);
+        verify(mockCacheProvider).addCacheKeyToSet(CacheKey.appConfigList(TEST_APP_ID), cacheKey.toString());
+    }
+    
+    @Test
+    public void getAppConfigForUserUsesCachedResolvedReferences() {
+        CriteriaContext context = new CriteriaContext.Builder()
+                .withClientInfo(ClientInfo.fromUserAgentCache("app/7 (Motorola Flip-Phone; Android/14) BridgeJavaSDK/10"))
+                .withAppId(TEST_APP_ID).build();
+        
+        AppConfig appConfig2 = setupConfigsForUser();
+        appConfig2.setGuid(GUID);
+        appConfig2.setModifiedOn(TIMESTAMP.getMillis());
+        
+        AppConfig cached = AppConfig.create();
+        cached.setSurveyReferences(ImmutableList.of(new SurveyReference("theIdentifier", "guid", DateTime.now())));
+        cached.setAssessmentReferences(ImmutableList.of(new AssessmentReference(TEST_APP_ID, GUID)));
+        cached.setConfigElements(ImmutableMap.of("clientData", TestUtils.getClientData()));
+        when(mockCacheProvider.getObject(CacheKey.resolvedAppConfig(TEST_APP_ID, GUID, TIMESTAMP.getMillis()),
+                AppConfig.class)).thenReturn(cached);
+        
+        AppConfig retValue = service.getAppConfigForUser(context, true);
+        assertEquals(retValue, appConfig2);
+        assertEquals(retValue.getSurveyReferences(), cached.getSurveyReferences());
+        assertEquals(retValue.getAssessmentReferences(), cached.getAssessmentReferences());
+        assertEquals(retValue.getConfigElements(), cached.getConfigElements());
+        
+        verify(service, never()).resolveReferences(any(), any());
+        verify(mockCacheProvider, never()).setObject(any(), any(), anyInt());
+    }
+    
     private AppConfig setupAndTestConfigResolution(Supplier<AppConfig> supplier) {
         Survey survey = Survey.create();
         survey.setIdentifier("theIdentifier");
@@ -51,6 +51,8 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.RequestContext;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.dao.AssessmentDao;
 import org.sagebionetworks.bridge.dao.AssessmentResourceDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
@@ -86,6 +88,9 @@ public class AssessmentServiceTest extends Mockito {
     @Mock
     Organization mockOrganization;
     
+    @Mock
+    CacheProvider mockCacheProvider;
+    
     @Captor
     ArgumentCaptor<Assessment> assessmentCaptor;
     
@@ -438,6 +443,7 @@ public class AssessmentServiceTest extends Mockito {
         assertEquals(retValue.getModifiedOn(), MODIFIED_ON);
         
         verify(mockDao).updateAssessment(TEST_APP_ID, retValue);
+        verify(mockCacheProvider).removeSetOfCacheKeys(CacheKey.appConfigList(TEST_APP_ID));
     }
     
     @Test
@@ -1375,6 +1381,7 @@ public class AssessmentServiceTest extends Mockito {
         verify(mockDao).updateAssessment(TEST_APP_ID, assessment);
         assertTrue(assessment.isDeleted());
         assertEquals(assessment.getModifiedOn(), MODIFIED_ON);
+        verify(mockCacheProvider).removeSetOfCacheKeys(CacheKey.appConfigList(TEST_APP_ID));
     }
     
     @Test
@@ -1510,6 +1517,7 @@ public class AssessmentServiceTest extends Mockito {
     public void deleteAllAssessments() {
         service.deleteAllAssessments(TEST_APP_ID);
         verify(mockDao).deleteAllAssessments(TEST_APP_ID);
+        verify(mockCacheProvider).removeSetOfCacheKeys(CacheKey.appConfigList(TEST_APP_ID));
     }
     
     @Test(expectedExceptions = UnauthorizedException.class)
@@ -1,24 +1,44 @@
 package org.sagebionetworks.bridge.services;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static redis.clients.jedis.ScanParams.SCAN_POINTER_START;
+import static org.sagebionetworks.bridge.BridgeConstants.API_MAXIMUM_PAGE_SIZE;
+import static org.sagebionetworks.bridge.BridgeConstants.API_MINIMUM_PAGE_SIZE;
+import static org.sagebionetworks.bridge.models.ResourceList.PAGE_SIZE;
+import static org.sagebionetworks.bridge.models.ResourceList.PATTERN;
+import static org.sagebionetworks.bridge.models.ResourceList.TYPE;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
+import java.util.List;
 import java.util.Set;
 
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.NearCache;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.surveys.Survey;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisDataException;
 
 public class CacheAdminServiceTest {
 
@@ -26,14 +46,28 @@ public class CacheAdminServiceTest {
     
     private CacheAdminService adminService;
     
+    private NearCache nearCache;
+    
+    private Set<String> keys;
+    
+    private List<String> scanPatterns;
+    
     @BeforeMethod
     public void before() {
         adminService = new CacheAdminService();
         
+        keys = Sets.newLinkedHashSet();
+        keys.add(CacheKey.app("foo").toString());
+        keys.add(CacheKey.viewKey(Survey.class, "baz").toString());
+        scanPatterns = Lists.newArrayList();
+        
         JedisPool pool = mock(JedisPool.class);
         when(pool.getResource()).thenReturn(createStubJedis());
 
         adminService.setJedisPool(pool);
+        
+        nearCache = mock(NearCache.class);
+        adminService.setNearCache(nearCache);
     }
     
     @Test
@@ -50,6 +84,8 @@ public class CacheAdminServiceTest {
         adminService.removeItem("foo:App");
         Set<String> set = adminService.listItems();
         assertEquals(set.size(), 1);
+        
+        verify(nearCache).invalidate("foo:App");
     }
     
     @Test(expectedExceptions = BridgeServiceException.class)
@@ -82,17 +118,140 @@ public class CacheAdminServiceTest {
         adminService.removeItem(REQUEST_INFO_KEY);
     }
     
+    @Test
+    public void listsItemsAcrossScanCursors() {
+        keys.add(CacheKey.app("qux").toString());
+        keys.add("aToken:session2");
+        
+        Set<String> set = adminService.listItems();
+        assertEquals(set, ImmutableSet.of("foo:App", "baz:Survey:view", "qux:App"));
+        assertTrue(scanPatterns.stream().allMatch("*"::equals));
+    }
+    
+    @Test
+    public void listsPageOfItems() {
+        keys.add(CacheKey.app("qux").toString());
+        keys.add("aToken:session2");
+        
+        ForwardCursorPagedResourceList<String> page = adminService.listItems(null, "*", null, 5);
+        // The stub returns one key per call, and the session key is skipped
+        assertEquals(page.getItems(), ImmutableList.of("foo:App", "baz:Survey:view", "qux:App"));
+        assertNull(page.getNextPageOffsetKey());
+        assertEquals(page.getRequestParams().get(PAGE_SIZE), 5);
+        assertEquals(page.getRequestParams().get(PATTERN), "*");
+    }
+    
+    @Test
+    public void listsPageOfItemsWithCursor() {
+        for (int i=0; i < 10; i++) {
+            keys.add(CacheKey.app("app" + i).toString());
+        }
+        ForwardCursorPagedResourceList<String> page = adminService.listItems(null, null, null, 5);
+        assertEquals(page.getItems().size(), 5);
+        assertEquals(page.getNextPageOffsetKey(), "5");
+        
+        page = adminService.listItems("5", null, null, 5);
+        assertEquals(page.getItems().size(), 5);
+        assertEquals(page.getNextPageOffsetKey(), "10");
+        
+        page = adminService.listItems("10", null, null, 5);
+        assertEquals(page.getItems(), ImmutableList.of("app8:App", "app9:App"));
+        assertNull(page.getNextPageOffsetKey());
+    }
+    
+    @Test
+    public void listsPageOfItemsFiltersByType() {
+        ForwardCursorPagedResourceList<String> page = adminService.listItems(null, "ba*", "view", 5);
+        assertEquals(page.getItems(), ImmutableList.of("baz:Survey:view"));
+        assertEquals(page.getRequestParams().get(TYPE), "view");
+        assertTrue(scanPatterns.stream().allMatch("ba*"::equals));
+    }
+    
+    @Test
+    public void listPageOfItemsStopsAfterMaxScans() {
+        for (int i=0; i < CacheAdminService.MAX_SCANS_PER_PAGE + 5; i++) {
+            keys.add(i + ":session2");
+        }
+        ForwardCursorPagedResourceList<String> page = adminService.listItems(null, null, "App", 5);
+        assertEquals(page.getItems(), ImmutableList.of("foo:App"));
+        assertEquals(page.getNextPageOffsetKey(), Integer.toString(CacheAdminService.MAX_SCANS_PER_PAGE));
+    }
+    
+    @Test(expectedExceptions = BadRequestException.class)
+    public void listPageOfItemsPageSizeTooSmall() {
+        adminService.listItems(null, null, null, API_MINIMUM_PAGE_SIZE-1);
+    }
+    
+    @Test(expectedExceptions = BadRequestException.class)
+    public void listPageOfItemsPageSizeTooLarge() {
+        adminService.listItems(null, null, null, API_MAXIMUM_PAGE_SIZE+1);
+    }
+    
+    @Test(expectedExceptions = BadRequestException.class, 
+            expectedExceptionsMessageRegExp = "Invalid offsetKey: notACursor")
+    public void listPageOfItemsInvalidCursor() {
+        adminService.listItems("notACursor", null, null, 5);
+    }
+    
+    @Test
+    public void removeItemsByPattern() {
+        keys.add(CacheKey.app("qux").toString());
+        keys.add("aToken:session2");
+        
+        int removed = adminService.removeItems("*:App");
+        // The stub ignores the pattern, but sessions are never removed
+        assertEquals(removed, 3);
+        assertEquals(keys, ImmutableSet.of("aToken:session2"));
+        assertTrue(scanPatterns.stream().allMatch("*:App"::equals));
+        
+        verify(nearCache).invalidate("foo:App");
+        verify(nearCache).invalidate("baz:Survey:view");
+        verify(nearCache).invalidate("qux:App");
+        verify(nearCache, never()).invalidate("aToken:session2");
+    }
+    
+    @Test(expectedExceptions = BadRequestException.class)
+    public void removeItemsRequiresPattern() {
+        adminService.removeItems(" ");
+    }
+    
+    // Returns one key per SCAN call; the cursor is the index of the next key.
     private Jedis createStubJedis() {
-        Set<String> KEYS = Sets.newHashSet(CacheKey.app("foo").toString(),
-                CacheKey.viewKey(Survey.class, "baz").toString());
         return new Jedis("") {
             @Override
-            public Set<String> keys(String pattern) {
-                return ImmutableSet.copyOf(KEYS);
+            public ScanResult<String> scan(String cursor, ScanParams params) {
+                int index;
+                try {
+                    index = Integer.parseInt(cursor);
+                } catch(NumberFormatException e) {
+                    throw new JedisDataException("ERR invalid cursor");
+                }
+                List<String> args = params.getParams().stream()
+                        .map(bytes -> new String(bytes, UTF_8)).collect(toList());
+                for (int i=0; i < args.size() - 1; i++) {
+                    if ("match".equalsIgnoreCase(args.get(i))) {
+                        scanPatterns.add(args.get(i + 1));
+                    }
+                }
+                
+                List<String> list = ImmutableList.copyOf(keys);
+                if (index >= list.size()) {
+                    return new ScanResult<>(SCAN_POINTER_START, ImmutableList.of());
+                }
+                String next = (index + 1 < list.size()) ? Integer.toString(index + 1) : SCAN_POINTER_START;
+                return new ScanResult<>(next, ImmutableList.of(list.get(index)));
             }
             @Override
             public Long del(String key) {
-                return (KEYS.remove(key)) ? 1L : 0L;
+                return (keys.remove(key)) ? 1L : 0L;
+            }
+            @Override
+            public Long del(String... keysToDelete) {
+                long count = 0;
+                for (String key : keysToDelete) {
+                    count += del(key);
+                }
+                return count;
             }
         };
     }
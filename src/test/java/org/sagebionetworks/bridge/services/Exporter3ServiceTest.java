@@ -20,6 +20,7 @@ import static org.sagebionetworks.bridge.TestConstants.TEST_APP_ID;
 import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY_ID;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
@@ -31,6 +32,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.PutObjectRequest;
@@ -39,8 +45,6 @@ import com.amazonaws.services.sns.model.CreateTopicResult;
 import com.amazonaws.services.sns.model.PublishResult;
 import com.amazonaws.services.sns.model.SubscribeRequest;
 import com.amazonaws.services.sns.model.SubscribeResult;
-import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.model.SendMessageResult;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Charsets;
@@ -50,6 +54,7 @@ import com.google.common.collect.ImmutableSet;
 
 import com.google.common.io.CharSource;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.shiro.codec.Hex;
 import org.mockito.ArgumentCaptor;
@@ -82,6 +87,8 @@ import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.RequestContext;
 import org.sagebionetworks.bridge.TestConstants;
 import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.NearCache;
 import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeSynapseException;
@@ -198,6 +205,9 @@ public class Exporter3ServiceTest {
     @Mock
     private HealthDataEx3Service mockHealthDataEx3Service;
 
+    @Mock
+    private NearCache mockNearCache;
+
     @Mock
     private ParticipantVersionService mockParticipantVersionService;
 
@@ -211,7 +221,7 @@ public class Exporter3ServiceTest {
     private AmazonSNS mockSnsClient;
 
     @Mock
-    private AmazonSQS mockSqsClient;
+    private SqsBatchDispatcher mockSqsDispatcher;
 
     @Mock
     private StudyService mockStudyService;
@@ -242,6 +252,9 @@ public class Exporter3ServiceTest {
         // Mock config. This is done separately because we need to set mock config params.
         exporter3Service.setConfig(mockConfig());
 
+        // Publish notifications on the test thread.
+        exporter3Service.setNotificationExecutor(MoreExecutors.newDirectExecutorService());
+
         // Spy getNameScopingToken to make it easier to test.
         doReturn(NAME_SCOPING_TOKEN).when(exporter3Service).getNameScopingToken();
 
@@ -836,6 +849,10 @@ public class Exporter3ServiceTest {
         verify(mockSnsClient, never()).publish(eq(EXPORT_NOTIFICATION_FOR_STUDY_1_ARN), any());
         verifyExportToStudy2Notification();
         verifyNoMoreInteractions(mockSnsClient);
+
+        // The missing study isn't cached, so it's looked up again next time.
+        verify(mockNearCache, never()).put(eq(CacheKey.studyExportTopic(TEST_APP_ID, STUDY_1_ID)), any(),
+                anyLong());
     }
 
     @Test
@@ -898,6 +915,89 @@ public class Exporter3ServiceTest {
         verifyNoMoreInteractions(mockSnsClient);
     }
 
+    @Test
+    public void sendExportNotifications_studyTopicsAreCached() throws Exception {
+        // Setup.
+        App app = App.create();
+        Study study1 = Study.create();
+        Study study2 = Study.create();
+        setupExportNotificationTest(app, study1, study2);
+
+        // Study 2 has no topic. That's cached too.
+        study2.getExporter3Configuration().setExportNotificationTopicArn(null);
+        when(mockNearCache.getGeneration(any())).thenReturn(7L);
+
+        // Execute.
+        exporter3Service.sendExportNotifications(makeExportToAppNotification());
+
+        // Each topic is cached with the generation read before the study was.
+        verify(mockNearCache).put(CacheKey.studyExportTopic(TEST_APP_ID, STUDY_1_ID),
+                EXPORT_NOTIFICATION_FOR_STUDY_1_ARN.getBytes(StandardCharsets.UTF_8), 7L);
+        verify(mockNearCache).put(CacheKey.studyExportTopic(TEST_APP_ID, STUDY_2_ID), new byte[0], 7L);
+        verifyExportToAppNotification();
+        verifyExportToStudy1Notification();
+        verifyNoMoreInteractions(mockSnsClient);
+    }
+
+    @Test
+    public void sendExportNotifications_cachedStudyTopics() throws Exception {
+        // Setup.
+        App app = App.create();
+        Study study1 = Study.create();
+        Study study2 = Study.create();
+        setupExportNotificationTest(app, study1, study2);
+
+        // Study 1's topic is cached. Study 2 is cached as having no topic.
+        when(mockNearCache.get(CacheKey.studyExportTopic(TEST_APP_ID, STUDY_1_ID)))
+                .thenReturn(EXPORT_NOTIFICATION_FOR_STUDY_1_ARN.getBytes(StandardCharsets.UTF_8));
+        when(mockNearCache.get(CacheKey.studyExportTopic(TEST_APP_ID, STUDY_2_ID))).thenReturn(new byte[0]);
+
+        // Execute.
+        exporter3Service.sendExportNotifications(makeExportToAppNotification());
+
+        // Neither study is looked up.
+        verify(mockStudyService, never()).getStudy(TEST_APP_ID, STUDY_1_ID, false);
+        verify(mockStudyService, never()).getStudy(TEST_APP_ID, STUDY_2_ID, false);
+        verifyExportToAppNotification();
+        verifyExportToStudy1Notification();
+        verify(mockSnsClient, never()).publish(eq(EXPORT_NOTIFICATION_FOR_STUDY_2_ARN), any());
+        verifyNoMoreInteractions(mockSnsClient);
+    }
+
+    @Test
+    public void sendExportNotifications_publishedConcurrently() throws Exception {
+        // Setup.
+        App app = App.create();
+        Study study1 = Study.create();
+        Study study2 = Study.create();
+        setupExportNotificationTest(app, study1, study2);
+
+        // Each publish waits until all three are in flight, which only happens if they run at the same time.
+        CountDownLatch allPublishing = new CountDownLatch(3);
+        AtomicBoolean concurrent = new AtomicBoolean(true);
+        when(mockSnsClient.publish(any(), any())).thenAnswer(invocation -> {
+            allPublishing.countDown();
+            if (!allPublishing.await(5, TimeUnit.SECONDS)) {
+                concurrent.set(false);
+            }
+            return new PublishResult();
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            exporter3Service.setNotificationExecutor(executor);
+            exporter3Service.sendExportNotifications(makeExportToAppNotification());
+        } finally {
+            executor.shutdown();
+        }
+
+        // All notifications have been sent by the time the call returns.
+        assertTrue(concurrent.get());
+        verifyExportToAppNotification();
+        verifyExportToStudy1Notification();
+        verifyExportToStudy2Notification();
+    }
+
     private void setupExportNotificationTest(App app, Study study1, Study study2) {
         // Set up app.
         Exporter3Configuration appEx3Config = makeConfiguredEx3Config();
@@ -1217,7 +1317,7 @@ public class Exporter3ServiceTest {
                 TestConstants.HEALTH_CODE)).thenReturn(Optional.of(participantVersion));
 
         // Mock SQS. Return type doesn't actually matter except for logs, but we don't want it to be null.
-        when(mockSqsClient.sendMessage(any(), any())).thenReturn(new SendMessageResult());
+        when(mockSqsDispatcher.sendMessage(any(), any())).thenReturn("test-message-id");
 
         // Execute.
         exporter3Service.completeUpload(app, upload);
@@ -1241,7 +1341,7 @@ public class Exporter3ServiceTest {
 
         // Verify call to SQS.
         ArgumentCaptor<String> requestJsonTextCaptor = ArgumentCaptor.forClass(String.class);
-        verify(mockSqsClient).sendMessage(eq(WORKER_QUEUE_URL), requestJsonTextCaptor.capture());
+        verify(mockSqsDispatcher).sendMessage(eq(WORKER_QUEUE_URL), requestJsonTextCaptor.capture());
 
         String requestJsonText = requestJsonTextCaptor.getValue();
         WorkerRequest workerRequest = BridgeObjectMapper.get().readValue(requestJsonText, WorkerRequest.class);
@@ -1287,7 +1387,7 @@ public class Exporter3ServiceTest {
                 TestConstants.HEALTH_CODE)).thenReturn(Optional.empty());
 
         // Mock SQS. Return type doesn't actually matter except for logs, but we don't want it to be null.
-        when(mockSqsClient.sendMessage(any(), any())).thenReturn(new SendMessageResult());
+        when(mockSqsDispatcher.sendMessage(any(), any())).thenReturn("test-message-id");
 
         // Execute.
         exporter3Service.completeUpload(app, upload);
@@ -1327,7 +1427,7 @@ public class Exporter3ServiceTest {
         when(mockHealthDataEx3Service.createOrUpdateRecord(any())).thenReturn(createdRecord);
 
         // Mock SQS. Return type doesn't actually matter except for logs, but we don't want it to be null.
-        when(mockSqsClient.sendMessage(any(), any())).thenReturn(new SendMessageResult());
+        when(mockSqsDispatcher.sendMessage(any(), any())).thenReturn("test-message-id");
 
         // Execute.
         exporter3Service.completeUpload(app, upload);
@@ -1364,7 +1464,7 @@ public class Exporter3ServiceTest {
         when(mockHealthDataEx3Service.createOrUpdateRecord(any())).thenReturn(createdRecord);
 
         // Mock SQS. Return type doesn't actually matter except for logs, but we don't want it to be null.
-        when(mockSqsClient.sendMessage(any(), any())).thenReturn(new SendMessageResult());
+        when(mockSqsDispatcher.sendMessage(any(), any())).thenReturn("test-message-id");
 
         // Execute.
         exporter3Service.completeUpload(app, upload);
@@ -1403,7 +1503,7 @@ public class Exporter3ServiceTest {
         when(mockHealthDataEx3Service.createOrUpdateRecord(any())).thenReturn(createdRecord);
 
         // Mock SQS. Return type doesn't actually matter except for logs, but we don't want it to be null.
-        when(mockSqsClient.sendMessage(any(), any())).thenReturn(new SendMessageResult());
+        when(mockSqsDispatcher.sendMessage(any(), any())).thenReturn("test-message-id");
 
         // Execute.
         exporter3Service.completeUpload(app, upload);
@@ -1441,7 +1541,7 @@ public class Exporter3ServiceTest {
         when(mockHealthDataEx3Service.createOrUpdateRecord(any())).thenReturn(createdRecord);
 
         // Mock SQS. Return type doesn't actually matter except for logs, but we don't want it to be null.
-        when(mockSqsClient.sendMessage(any(), any())).thenReturn(new SendMessageResult());
+        when(mockSqsDispatcher.sendMessage(any(), any())).thenReturn("test-message-id");
 
         // Execute.
         exporter3Service.completeUpload(app, upload);
@@ -1482,7 +1582,7 @@ public class Exporter3ServiceTest {
         when(mockRequestInfoService.getRequestInfo(USER_ID)).thenReturn(new RequestInfo());
 
         // Mock SQS. Return type doesn't actually matter except for logs, but we don't want it to be null.
-        when(mockSqsClient.sendMessage(any(), any())).thenReturn(new SendMessageResult());
+        when(mockSqsDispatcher.sendMessage(any(), any())).thenReturn("test-message-id");
 
         // Execute.
         exporter3Service.completeUpload(app, upload);
@@ -1525,7 +1625,7 @@ public class Exporter3ServiceTest {
         when(mockRequestInfoService.getRequestInfo(USER_ID)).thenReturn(requestInfo);
 
         // Mock SQS. Return type doesn't actually matter except for logs, but we don't want it to be null.
-        when(mockSqsClient.sendMessage(any(), any())).thenReturn(new SendMessageResult());
+        when(mockSqsDispatcher.sendMessage(any(), any())).thenReturn("test-message-id");
 
         // Execute.
         exporter3Service.completeUpload(app, upload);
@@ -1556,13 +1656,72 @@ public class Exporter3ServiceTest {
         // Mock HealthDataEx3Service.
         HealthDataRecordEx3 createdRecord = HealthDataRecordEx3.create();
         createdRecord.setId(RECORD_ID);
+        createdRecord.setSharingScope(SharingScope.NO_SHARING);
         when(mockHealthDataEx3Service.createOrUpdateRecord(any())).thenReturn(createdRecord);
 
         // Execute.
         exporter3Service.completeUpload(app, upload);
 
-        // No call to SQS.
-        verifyZeroInteractions(mockSqsClient);
+        // The record is saved with the sharing scope, but there's no call to SQS.
+        ArgumentCaptor<HealthDataRecordEx3> recordToCreateCaptor = ArgumentCaptor.forClass(HealthDataRecordEx3.class);
+        verify(mockHealthDataEx3Service).createOrUpdateRecord(recordToCreateCaptor.capture());
+        assertEquals(recordToCreateCaptor.getValue().getSharingScope(), SharingScope.NO_SHARING);
+        verifyZeroInteractions(mockSqsDispatcher);
+    }
+
+    @Test
+    public void saveUploadRecordDoesNotExport() throws Exception {
+        // Set up inputs.
+        Upload upload = Upload.create();
+        upload.setHealthCode(TestConstants.HEALTH_CODE);
+        upload.setUploadId(RECORD_ID);
+
+        // Mock AccountService.
+        Account account = Account.create();
+        account.setSharingScope(SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        when(mockAccountService.getAccount(any())).thenReturn(Optional.of(account));
+
+        // Mock HealthDataEx3Service.
+        HealthDataRecordEx3 createdRecord = HealthDataRecordEx3.create();
+        createdRecord.setId(RECORD_ID);
+        when(mockHealthDataEx3Service.createOrUpdateRecord(any())).thenReturn(createdRecord);
+
+        // Execute.
+        HealthDataRecordEx3 retVal = exporter3Service.saveUploadRecord(app, upload);
+        assertSame(retVal, createdRecord);
+
+        // The export is sent separately.
+        verifyZeroInteractions(mockSqsDispatcher);
+    }
+
+    @Test
+    public void exportUploadRecord() throws Exception {
+        HealthDataRecordEx3 record = HealthDataRecordEx3.create();
+        record.setId(RECORD_ID);
+        record.setSharingScope(SharingScope.SPONSORS_AND_PARTNERS);
+
+        exporter3Service.exportUploadRecord(TestConstants.TEST_APP_ID, record);
+
+        ArgumentCaptor<String> requestJsonTextCaptor = ArgumentCaptor.forClass(String.class);
+        verify(mockSqsDispatcher).sendMessage(eq(WORKER_QUEUE_URL), requestJsonTextCaptor.capture());
+
+        WorkerRequest workerRequest = BridgeObjectMapper.get().readValue(requestJsonTextCaptor.getValue(),
+                WorkerRequest.class);
+        Exporter3Request ex3Request = BridgeObjectMapper.get().convertValue(workerRequest.getBody(),
+                Exporter3Request.class);
+        assertEquals(ex3Request.getAppId(), TestConstants.TEST_APP_ID);
+        assertEquals(ex3Request.getRecordId(), RECORD_ID);
+    }
+
+    @Test
+    public void exportUploadRecord_NoSharing() {
+        HealthDataRecordEx3 record = HealthDataRecordEx3.create();
+        record.setId(RECORD_ID);
+        record.setSharingScope(SharingScope.NO_SHARING);
+
+        exporter3Service.exportUploadRecord(TestConstants.TEST_APP_ID, record);
+
+        verifyZeroInteractions(mockSqsDispatcher);
     }
 
     @Test
@@ -1584,7 +1743,7 @@ public class Exporter3ServiceTest {
         }
 
         // No calls to HealthDataEx3Service or SQS.
-        verifyZeroInteractions(mockHealthDataEx3Service, mockSqsClient);
+        verifyZeroInteractions(mockHealthDataEx3Service, mockSqsDispatcher);
     }
 
     @Test
@@ -47,6 +47,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.model.SendMessageResult;
@@ -907,6 +908,36 @@ public class ParticipantServiceTest extends Mockito {
         participantService.getPagedAccountSummaries(APP, search);
     }
     
+    @Test
+    public void streamAccountSummaries() {
+        AccountSummarySearch search = new AccountSummarySearch.Builder().withEmailFilter("foo").build();
+        Consumer<AccountSummary> consumer = (summary) -> {};
+        
+        participantService.streamAccountSummaries(APP, search, consumer);
+        
+        verify(accountService).streamAccountSummaries(TEST_APP_ID, search, consumer);
+    }
+    
+    @Test(expectedExceptions = InvalidEntityException.class)
+    public void streamAccountSummariesInvalidSearch() {
+        AccountSummarySearch search = new AccountSummarySearch.Builder()
+                .withStartTime(END_DATE).withEndTime(START_DATE).build();
+        
+        participantService.streamAccountSummaries(APP, search, (summary) -> {});
+    }
+    
+    @Test
+    public void streamAccountSummariesAddsTestFlagForDevelopers() {
+        RequestContext.set(new RequestContext.Builder()
+                .withCallerUserId("some-id")
+                .withCallerRoles(ImmutableSet.of(Roles.DEVELOPER)).build());
+        
+        participantService.streamAccountSummaries(APP, AccountSummarySearch.EMPTY_SEARCH, (summary) -> {});
+        
+        verify(accountService).streamAccountSummaries(eq(TEST_APP_ID), searchCaptor.capture(), any());
+        assertEquals(searchCaptor.getValue().getAllOfGroups(), ImmutableSet.of(TEST_USER_GROUP));
+    }
+    
     @Test
     public void getPagedAccountSummariesAddsTestFlagForDevelopers() {
         RequestContext.set(new RequestContext.Builder()
@@ -48,8 +48,6 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
-import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.model.SendMessageResult;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -87,7 +85,7 @@ public class ParticipantVersionServiceTest {
     private ParticipantVersionDao mockParticipantVersionDao;
 
     @Mock
-    private AmazonSQS mockSqsClient;
+    private SqsBatchDispatcher mockSqsDispatcher;
 
     @InjectMocks
     private ParticipantVersionService participantVersionService;
@@ -125,7 +123,7 @@ public class ParticipantVersionServiceTest {
         // in later tests.
         when(mockParticipantVersionDao.getLatestParticipantVersionForHealthCode(TestConstants.TEST_APP_ID,
                 TestConstants.HEALTH_CODE)).thenReturn(Optional.empty());
-        when(mockSqsClient.sendMessage(anyString(), anyString())).thenReturn(new SendMessageResult());
+        when(mockSqsDispatcher.sendMessage(anyString(), anyString())).thenReturn("test-message-id");
         DemographicUser appDemographicUser = new DemographicUser();
         appDemographicUser.setDemographics(APP_DEMOGRAPHICS);
         when(demographicService.getDemographicUser(TestConstants.TEST_APP_ID, null, ACCOUNT_ID)).thenReturn(Optional.of(appDemographicUser));
@@ -239,7 +237,7 @@ public class ParticipantVersionServiceTest {
 
     @Test
     public void createParticipantVersionFromAccount_noAppDemographics() {
-        when(mockSqsClient.sendMessage(anyString(), anyString())).thenReturn(new SendMessageResult());
+        when(mockSqsDispatcher.sendMessage(anyString(), anyString())).thenReturn("test-message-id");
         when(demographicService.getDemographicUser(TestConstants.TEST_APP_ID, null, ACCOUNT_ID))
                 .thenReturn(Optional.empty());
 
@@ -273,7 +271,7 @@ public class ParticipantVersionServiceTest {
         // Mock dependencies.
         when(mockParticipantVersionDao.getLatestParticipantVersionForHealthCode(TestConstants.TEST_APP_ID,
                 TestConstants.HEALTH_CODE)).thenReturn(Optional.empty());
-        when(mockSqsClient.sendMessage(anyString(), anyString())).thenReturn(new SendMessageResult());
+        when(mockSqsDispatcher.sendMessage(anyString(), anyString())).thenReturn("test-message-id");
 
         // Make input.
         ParticipantVersion toCreate = ParticipantVersion.create();
@@ -293,7 +291,7 @@ public class ParticipantVersionServiceTest {
 
         // Verify call to SQS.
         ArgumentCaptor<String> requestJsonTextCaptor = ArgumentCaptor.forClass(String.class);
-        verify(mockSqsClient).sendMessage(eq(WORKER_QUEUE_URL), requestJsonTextCaptor.capture());
+        verify(mockSqsDispatcher).sendMessage(eq(WORKER_QUEUE_URL), requestJsonTextCaptor.capture());
 
         String requestJsonText = requestJsonTextCaptor.getValue();
         WorkerRequest workerRequest = BridgeObjectMapper.get().readValue(requestJsonText, WorkerRequest.class);
@@ -319,7 +317,7 @@ public class ParticipantVersionServiceTest {
 
         when(mockParticipantVersionDao.getLatestParticipantVersionForHealthCode(TestConstants.TEST_APP_ID,
                 TestConstants.HEALTH_CODE)).thenReturn(Optional.of(existing));
-        when(mockSqsClient.sendMessage(anyString(), anyString())).thenReturn(new SendMessageResult());
+        when(mockSqsDispatcher.sendMessage(anyString(), anyString())).thenReturn("test-message-id");
 
         // Make input.
         // Set createdOn to make sure we can't overwrite existing.
@@ -3,6 +3,7 @@ package org.sagebionetworks.bridge.services;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 import static org.sagebionetworks.bridge.RequestContext.NULL_INSTANCE;
 import static org.sagebionetworks.bridge.Roles.ADMIN;
 import static org.sagebionetworks.bridge.Roles.STUDY_COORDINATOR;
@@ -31,11 +32,14 @@ import org.testng.annotations.Test;
 import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.RequestContext;
 import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.NearCache;
 import org.sagebionetworks.bridge.dao.ReportDataDao;
 import org.sagebionetworks.bridge.dao.ReportIndexDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.DateRangeResourceList;
 import org.sagebionetworks.bridge.models.ReportTypeResourceList;
 import org.sagebionetworks.bridge.models.ResourceList;
@@ -76,6 +80,10 @@ public class ReportServiceTest extends Mockito {
             .withReportType(ReportType.PARTICIPANT).withAppId(TEST_APP_ID).withHealthCode(HEALTH_CODE)
             .withIdentifier(IDENTIFIER).build();
     
+    private static final CacheKey STUDY_INDEX_CACHE_KEY = CacheKey.reportIndex(STUDY_REPORT_DATA_KEY);
+    
+    private static final CacheKey PARTICIPANT_INDEX_CACHE_KEY = CacheKey.reportIndex(PARTICIPANT_REPORT_DATA_KEY);
+    
     private static final ReportData CANNED_REPORT = createReport(LocalDate.parse("2015-02-10"), "First", "Name");
     
     @Mock
@@ -84,6 +92,9 @@ public class ReportServiceTest extends Mockito {
     @Mock
     ReportIndexDao mockReportIndexDao;
     
+    @Mock
+    NearCache mockNearCache;
+    
     @Captor
     ArgumentCaptor<ReportData> reportDataCaptor;
     
@@ -93,6 +104,9 @@ public class ReportServiceTest extends Mockito {
     @Captor
     ArgumentCaptor<ReportDataKey> reportDataKeyCaptor;
     
+    @Captor
+    ArgumentCaptor<byte[]> nearCacheValueCaptor;
+    
     @Captor
     ArgumentCaptor<DateTime> startTimeCaptor;
     
@@ -343,6 +357,107 @@ public class ReportServiceTest extends Mockito {
         verify(mockReportIndexDao, never()).addIndex(any(), any());
     }
     
+    @Test
+    public void saveStudyReportCachesIndex() throws Exception {
+        ReportIndex index = ReportIndex.create();
+        index.setIdentifier(IDENTIFIER);
+        when(mockReportIndexDao.getIndex(STUDY_REPORT_DATA_KEY)).thenReturn(index);
+        when(mockNearCache.getGeneration(STUDY_INDEX_CACHE_KEY)).thenReturn(3L);
+        
+        service.saveStudyReport(TEST_APP_ID, IDENTIFIER, createReport(DATE, "First", "Name"));
+        
+        verify(mockNearCache).put(eq(STUDY_INDEX_CACHE_KEY), nearCacheValueCaptor.capture(), eq(3L));
+        ReportIndex cached = BridgeObjectMapper.get().readValue(nearCacheValueCaptor.getValue(), ReportIndex.class);
+        assertEquals(cached.getIdentifier(), IDENTIFIER);
+    }
+    
+    @Test
+    public void saveStudyReportUsesCachedIndex() throws Exception {
+        ReportIndex index = ReportIndex.create();
+        index.setIdentifier(IDENTIFIER);
+        when(mockNearCache.get(STUDY_INDEX_CACHE_KEY)).thenReturn(BridgeObjectMapper.get().writeValueAsBytes(index));
+        
+        service.saveStudyReport(TEST_APP_ID, IDENTIFIER, createReport(DATE, "First", "Name"));
+        
+        verify(mockReportIndexDao, never()).getIndex(any());
+        verify(mockReportIndexDao, never()).addIndex(any(), any());
+        verify(mockReportDataDao).saveReportData(any());
+    }
+    
+    @Test
+    public void saveStudyReportAuthorizesWithCachedIndex() throws Exception {
+        // The cached index restricts the report to studies the caller isn't in.
+        ReportIndex index = setupMismatchedStudies(STUDY_REPORT_DATA_KEY);
+        when(mockNearCache.get(STUDY_INDEX_CACHE_KEY)).thenReturn(BridgeObjectMapper.get().writeValueAsBytes(index));
+        
+        try {
+            service.saveStudyReport(TEST_APP_ID, IDENTIFIER, createReport(DATE, "First", "Name"));
+            fail("Should have thrown exception");
+        } catch (EntityNotFoundException e) {
+            // expected exception
+        }
+        verify(mockReportIndexDao, never()).getIndex(any());
+        verify(mockReportDataDao, never()).saveReportData(any());
+    }
+    
+    @Test
+    public void saveStudyReportDoesNotCacheMissingIndex() {
+        service.saveStudyReport(TEST_APP_ID, IDENTIFIER, createReport(DATE, "First", "Name"));
+        
+        verify(mockReportIndexDao).addIndex(any(), any());
+        verify(mockNearCache, never()).put(any(), any(), anyLong());
+    }
+    
+    @Test
+    public void saveParticipantReportCachesIndex() {
+        when(mockReportIndexDao.getIndex(PARTICIPANT_REPORT_DATA_KEY)).thenReturn(ReportIndex.create());
+        
+        service.saveParticipantReport(TEST_APP_ID, TEST_USER_ID, IDENTIFIER, HEALTH_CODE,
+                createReport(DATE, "First", "Name"));
+        
+        verify(mockNearCache).put(eq(PARTICIPANT_INDEX_CACHE_KEY), any(), anyLong());
+    }
+    
+    @Test
+    public void deleteStudyReportInvalidatesCachedIndex() {
+        service.deleteStudyReport(TEST_APP_ID, IDENTIFIER);
+        
+        verify(mockNearCache).invalidate(STUDY_INDEX_CACHE_KEY);
+    }
+    
+    @Test
+    public void deleteParticipantReportIndexInvalidatesCachedIndex() {
+        service.deleteParticipantReportIndex(TEST_APP_ID, TEST_USER_ID, IDENTIFIER);
+        
+        verify(mockNearCache).invalidate(PARTICIPANT_INDEX_CACHE_KEY);
+    }
+    
+    @Test
+    public void updateReportIndexInvalidatesCachedIndex() {
+        ReportIndex index = ReportIndex.create();
+        index.setIdentifier(IDENTIFIER);
+        when(mockReportIndexDao.getIndex(any())).thenReturn(index);
+        
+        ReportIndex updatedIndex = ReportIndex.create();
+        updatedIndex.setIdentifier(IDENTIFIER);
+        service.updateReportIndex(TEST_APP_ID, ReportType.PARTICIPANT, updatedIndex);
+        
+        verify(mockNearCache).invalidate(PARTICIPANT_INDEX_CACHE_KEY);
+    }
+    
+    @Test
+    public void updateStudyReportIndexInvalidatesCachedIndex() {
+        ReportIndex index = ReportIndex.create();
+        index.setIdentifier(IDENTIFIER);
+        when(mockReportIndexDao.getIndex(STUDY_REPORT_DATA_KEY)).thenReturn(index);
+        
+        ReportIndex updatedIndex = ReportIndex.create();
+        updatedIndex.setIdentifier(IDENTIFIER);
+        service.updateReportIndex(TEST_APP_ID, ReportType.STUDY, updatedIndex);
+        
+        verify(mockNearCache).invalidate(STUDY_INDEX_CACHE_KEY);
+    }
+    
     @Test
     public void deleteStudyReport() {
         service.deleteStudyReport(TEST_APP_ID, IDENTIFIER);
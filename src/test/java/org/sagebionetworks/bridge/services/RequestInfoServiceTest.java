@@ -1,9 +1,17 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.sagebionetworks.bridge.TestConstants.TEST_USER_ID;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
 
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -12,9 +20,12 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.dao.RequestInfoDao;
 import org.sagebionetworks.bridge.models.RequestInfo;
 
+import com.google.common.collect.ImmutableList;
+
 public class RequestInfoServiceTest extends Mockito {
     
     @InjectMocks
@@ -26,6 +37,12 @@ public class RequestInfoServiceTest extends Mockito {
     @Mock
     RequestInfoDao mockRequestInfoDao;
     
+    @Mock
+    BridgeConfig mockConfig;
+    
+    @Captor
+    ArgumentCaptor<List<RequestInfo>> requestInfosCaptor;
+    
     @BeforeMethod
     public void beforeMethod() {
         MockitoAnnotations.initMocks(this);
@@ -77,4 +94,204 @@ public class RequestInfoServiceTest extends Mockito {
         verify(mockRequestInfoDao).removeRequestInfo(TEST_USER_ID);
         verify(mockCacheProvider).removeRequestInfo(TEST_USER_ID);
     }
+    
+    @Test
+    public void configuresBuffer() {
+        when(mockConfig.getInt(RequestInfoService.FLUSH_INTERVAL_PROPERTY)).thenReturn(5000);
+        when(mockConfig.getInt(RequestInfoService.MAX_BUFFERED_PROPERTY)).thenReturn(1);
+        service.setBridgeConfig(mockConfig);
+        
+        service.updateRequestInfo(new RequestInfo.Builder().withUserId("user1").build());
+        service.updateRequestInfo(new RequestInfo.Builder().withUserId("user2").build());
+        
+        assertEquals(service.getBufferedCount(), 1);
+    }
+    
+    @Test
+    public void updateRequestInfoCoalescesUntilFlushed() {
+        service.setFlushIntervalMillis(5000);
+        service.setMaxBuffered(10);
+        DateTime signedInOn = DateTime.now().minusHours(1);
+        DateTime activitiesAccessedOn = DateTime.now();
+        
+        service.updateRequestInfo(new RequestInfo.Builder().withUserId(TEST_USER_ID)
+                .withSignedInOn(signedInOn).build());
+        service.updateRequestInfo(new RequestInfo.Builder().withUserId(TEST_USER_ID)
+                .withActivitiesAccessedOn(activitiesAccessedOn).build());
+        service.updateRequestInfo(new RequestInfo.Builder().withUserId("otherUser").build());
+        
+        verify(mockRequestInfoDao, never()).updateRequestInfo(any());
+        assertEquals(service.getBufferedCount(), 2);
+        
+        service.flush();
+        
+        verify(mockRequestInfoDao).updateRequestInfos(requestInfosCaptor.capture());
+        List<RequestInfo> written = requestInfosCaptor.getValue();
+        assertEquals(written.size(), 2);
+        RequestInfo info = written.stream().filter(i -> i.getUserId().equals(TEST_USER_ID)).findFirst().get();
+        assertEquals(info.getSignedInOn(), signedInOn);
+        assertEquals(info.getActivitiesAccessedOn(), activitiesAccessedOn);
+        assertEquals(service.getBufferedCount(), 0);
+        
+        // Nothing left to write
+        service.flush();
+        verify(mockRequestInfoDao, times(1)).updateRequestInfos(any());
+    }
+    
+    @Test
+    public void getRequestInfoIncludesBufferedUpdates() {
+        service.setFlushIntervalMillis(5000);
+        service.setMaxBuffered(10);
+        DateTime signedInOn = DateTime.now().minusHours(1);
+        DateTime activitiesAccessedOn = DateTime.now();
+        
+        RequestInfo persisted = new RequestInfo.Builder().withUserId(TEST_USER_ID)
+                .withSignedInOn(signedInOn).build();
+        when(mockRequestInfoDao.getRequestInfo(TEST_USER_ID)).thenReturn(persisted);
+        
+        service.updateRequestInfo(new RequestInfo.Builder().withUserId(TEST_USER_ID)
+                .withActivitiesAccessedOn(activitiesAccessedOn).build());
+        
+        RequestInfo retrieved = service.getRequestInfo(TEST_USER_ID);
+        assertEquals(retrieved.getSignedInOn(), signedInOn);
+        assertEquals(retrieved.getActivitiesAccessedOn(), activitiesAccessedOn);
+        verify(mockCacheProvider, never()).getRequestInfo(any());
+    }
+    
+    @Test
+    public void getRequestInfoIncludesUpdatesBeingFlushed() {
+        service.setFlushIntervalMillis(5000);
+        service.setMaxBuffered(10);
+        DateTime activitiesAccessedOn = DateTime.now();
+        service.updateRequestInfo(new RequestInfo.Builder().withUserId(TEST_USER_ID)
+                .withActivitiesAccessedOn(activitiesAccessedOn).build());
+        
+        doAnswer(invocation -> {
+            // The database doesn't have the record yet
+            RequestInfo retrieved = service.getRequestInfo(TEST_USER_ID);
+            assertEquals(retrieved.getActivitiesAccessedOn(), activitiesAccessedOn);
+            return null;
+        }).when(mockRequestInfoDao).updateRequestInfos(any());
+        
+        service.flush();
+        verify(mockRequestInfoDao).updateRequestInfos(any());
+    }
+
+    @Test
+    public void getRequestInfos() {
+        service.setFlushIntervalMillis(5000);
+        service.setMaxBuffered(10);
+        DateTime signedInOn = DateTime.now().minusHours(1);
+        DateTime activitiesAccessedOn = DateTime.now();
+        List<String> userIds = ImmutableList.of("dbUser", "bufferedUser", "cachedUser", "unknownUser");
+
+        RequestInfo persisted = new RequestInfo.Builder().withUserId("dbUser")
+                .withSignedInOn(signedInOn).build();
+        RequestInfo persistedBuffered = new RequestInfo.Builder().withUserId("bufferedUser")
+                .withSignedInOn(signedInOn).build();
+        when(mockRequestInfoDao.getRequestInfos(userIds)).thenReturn(ImmutableList.of(persisted, persistedBuffered));
+
+        RequestInfo cached = new RequestInfo.Builder().withUserId("cachedUser").build();
+        when(mockCacheProvider.getRequestInfo("cachedUser")).thenReturn(cached);
+
+        service.updateRequestInfo(new RequestInfo.Builder().withUserId("bufferedUser")
+                .withActivitiesAccessedOn(activitiesAccessedOn).build());
+
+        Map<String, RequestInfo> retValue = service.getRequestInfos(userIds);
+        assertEquals(retValue.size(), 3);
+        assertSame(retValue.get("dbUser"), persisted);
+        assertEquals(retValue.get("bufferedUser").getSignedInOn(), signedInOn);
+        assertEquals(retValue.get("bufferedUser").getActivitiesAccessedOn(), activitiesAccessedOn);
+        assertSame(retValue.get("cachedUser"), cached);
+        assertNull(retValue.get("unknownUser"));
+
+        // One query for all the users, and the cache is only consulted for users with no record
+        verify(mockRequestInfoDao, never()).getRequestInfo(any());
+        verify(mockCacheProvider, never()).getRequestInfo("dbUser");
+        verify(mockCacheProvider, never()).getRequestInfo("bufferedUser");
+        verify(mockRequestInfoDao).updateRequestInfo(cached);
+    }
+
+    @Test
+    public void updateRequestInfoWritesThroughWhenBufferFull() {
+        service.setFlushIntervalMillis(5000);
+        service.setMaxBuffered(1);
+        
+        RequestInfo info1 = new RequestInfo.Builder().withUserId("user1").build();
+        RequestInfo info1b = new RequestInfo.Builder().withUserId("user1").build();
+        RequestInfo info2 = new RequestInfo.Builder().withUserId("user2").build();
+        service.updateRequestInfo(info1);
+        service.updateRequestInfo(info1b);
+        service.updateRequestInfo(info2);
+        
+        verify(mockRequestInfoDao).updateRequestInfo(info2);
+        verify(mockRequestInfoDao, never()).updateRequestInfo(info1);
+        assertEquals(service.getBufferedCount(), 1);
+    }
+    
+    @Test
+    public void flushFallsBackToIndividualWrites() {
+        service.setFlushIntervalMillis(5000);
+        service.setMaxBuffered(10);
+        RequestInfo info1 = new RequestInfo.Builder().withUserId("user1").build();
+        RequestInfo info2 = new RequestInfo.Builder().withUserId("user2").build();
+        service.updateRequestInfo(info1);
+        service.updateRequestInfo(info2);
+        
+        doThrow(new RuntimeException()).when(mockRequestInfoDao).updateRequestInfos(any());
+        doThrow(new RuntimeException()).when(mockRequestInfoDao).updateRequestInfo(info1);
+        
+        service.flush();
+        
+        verify(mockRequestInfoDao).updateRequestInfo(info1);
+        verify(mockRequestInfoDao).updateRequestInfo(info2);
+        assertEquals(service.getBufferedCount(), 0);
+    }
+    
+    @Test
+    public void removeRequestInfoDropsBufferedUpdate() {
+        service.setFlushIntervalMillis(5000);
+        service.setMaxBuffered(10);
+        service.updateRequestInfo(new RequestInfo.Builder().withUserId(TEST_USER_ID).build());
+        
+        service.removeRequestInfo(TEST_USER_ID);
+        service.flush();
+        
+        verify(mockRequestInfoDao, never()).updateRequestInfos(any());
+    }
+    
+    @Test
+    public void removeRequestInfoDuringFlushSkipsTakenUpdate() {
+        service.setFlushIntervalMillis(5000);
+        service.setMaxBuffered(10);
+        RequestInfo info1 = new RequestInfo.Builder().withUserId("user1").build();
+        RequestInfo info2 = new RequestInfo.Builder().withUserId("user2").build();
+        service.updateRequestInfo(info1);
+        service.updateRequestInfo(info2);
+        
+        // The flush has taken the updates out of the buffer when user1's request info is removed
+        List<RequestInfo> pending = service.takeBuffered();
+        service.removeRequestInfo("user1");
+        service.write(pending);
+        
+        verify(mockRequestInfoDao).removeRequestInfo("user1");
+        verify(mockRequestInfoDao).updateRequestInfos(ImmutableList.of(info2));
+        verify(mockRequestInfoDao, never()).updateRequestInfo(any());
+    }
+    
+    @Test
+    public void stopFlushingWritesBufferAndStopsBuffering() {
+        service.setFlushIntervalMillis(5000);
+        service.setMaxBuffered(10);
+        service.startFlushing();
+        RequestInfo info1 = new RequestInfo.Builder().withUserId("user1").build();
+        service.updateRequestInfo(info1);
+        
+        service.stopFlushing();
+        verify(mockRequestInfoDao).updateRequestInfos(ImmutableList.of(info1));
+        
+        RequestInfo info2 = new RequestInfo.Builder().withUserId("user2").build();
+        service.updateRequestInfo(info2);
+        verify(mockRequestInfoDao).updateRequestInfo(info2);
+    }
 }
@@ -22,6 +22,8 @@ import static org.sagebionetworks.bridge.models.studies.StudyPhase.DESIGN;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
@@ -66,6 +68,7 @@ import org.sagebionetworks.bridge.models.schedules2.Session;
 import org.sagebionetworks.bridge.models.schedules2.SessionTest;
 import org.sagebionetworks.bridge.models.schedules2.TimeWindow;
 import org.sagebionetworks.bridge.models.schedules2.participantschedules.ParticipantSchedule;
+import org.sagebionetworks.bridge.models.schedules2.timelines.ScheduledSession;
 import org.sagebionetworks.bridge.models.schedules2.timelines.Timeline;
 import org.sagebionetworks.bridge.models.schedules2.timelines.TimelineMetadata;
 import org.sagebionetworks.bridge.models.studies.Study;
@@ -1045,6 +1048,58 @@ public class Schedule2ServiceTest extends Mockito {
         assertNotNull(timeline);
     }
     
+    @Test
+    public void getTimelineIsCached() {
+        RequestContext.set(new RequestContext.Builder()
+                .withCallerLanguages(ImmutableList.of("en")).build());
+        Schedule2 schedule = Schedule2Test.createValidSchedule();
+        
+        Timeline timeline = service.getTimeline(schedule);
+        assertSame(service.getTimeline(schedule), timeline);
+        assertEquals(service.getCachedTimelineCount(), 1L);
+        
+        // A modified schedule is calculated again
+        schedule.setModifiedOn(MODIFIED_ON.plusDays(1));
+        assertNotSame(service.getTimeline(schedule), timeline);
+        assertEquals(service.getCachedTimelineCount(), 2L);
+        
+        // Labels depend on the caller's languages, so these are cached separately
+        RequestContext.set(new RequestContext.Builder()
+                .withCallerLanguages(ImmutableList.of("fr")).build());
+        Timeline frTimeline = service.getTimeline(schedule);
+        assertEquals(frTimeline.getLang(), "fr");
+        assertEquals(service.getCachedTimelineCount(), 3L);
+    }
+    
+    @Test
+    public void publishScheduleRemovesCachedTimelines() {
+        permitToAccess();
+        Schedule2 schedule = Schedule2Test.createValidSchedule();
+        schedule.setGuid(GUID);
+        service.getTimeline(schedule);
+        assertEquals(service.getCachedTimelineCount(), 1L);
+        
+        Schedule2 existing = new Schedule2();
+        existing.setGuid(GUID);
+        when(mockDao.getSchedule(TEST_APP_ID, GUID)).thenReturn(Optional.of(existing));
+        
+        service.publishSchedule(TEST_APP_ID, GUID);
+        assertEquals(service.getCachedTimelineCount(), 0L);
+    }
+    
+    @Test
+    public void deleteAllSchedulesRemovesCachedTimelines() {
+        Schedule2 schedule = Schedule2Test.createValidSchedule();
+        schedule.setAppId(TEST_APP_ID);
+        service.getTimeline(schedule);
+        schedule.setAppId("other-app");
+        service.getTimeline(schedule);
+        assertEquals(service.getCachedTimelineCount(), 2L);
+        
+        service.deleteAllSchedules(TEST_APP_ID);
+        assertEquals(service.getCachedTimelineCount(), 1L);
+    }
+    
     @Test
     public void getTimelineMetadata() {
         TimelineMetadata meta = new TimelineMetadata();
@@ -1183,6 +1238,48 @@ public class Schedule2ServiceTest extends Mockito {
         assertEquals(retValue.getCreatedOn(), CREATED_ON.withZone(DateTimeZone.forID("America/Chicago")));
     }
     
+    @Test
+    public void getParticipantScheduleDoesNotChangeCachedTimeline() {
+        RequestContext.set(new RequestContext.Builder()
+                .withCallerUserId(TEST_USER_ID)
+                .withCallerEnrolledStudies(ImmutableSet.of(TEST_STUDY_ID)).build());
+        
+        Account account = Account.create();
+        account.setAppId(TEST_APP_ID);
+        account.setId(TEST_USER_ID);
+        account.setClientTimeZone("America/Chicago");
+        
+        Study study = Study.create();
+        study.setIdentifier(TEST_STUDY_ID);
+        study.setScheduleGuid(SCHEDULE_GUID);
+        when(mockStudyService.getStudy(TEST_APP_ID, TEST_STUDY_ID, false)).thenReturn(study);
+        when(mockStudyService.getZoneId(TEST_APP_ID, TEST_STUDY_ID, "America/Chicago")).thenReturn("America/Chicago");
+        
+        Schedule2 schedule = Schedule2Test.createValidSchedule();
+        when(mockDao.getSchedule(TEST_APP_ID, SCHEDULE_GUID)).thenReturn(Optional.of(schedule));
+        
+        StudyActivityEvent event = new StudyActivityEvent.Builder()
+                .withEventId("timeline_retrieved")
+                .withTimestamp(CREATED_ON.minusDays(2))
+                .build();
+        ResourceList<StudyActivityEvent> events = new ResourceList<>(ImmutableList.of(event));
+        when(mockStudyActivityEventService.getRecentStudyActivityEvents(
+                TEST_APP_ID, TEST_STUDY_ID, TEST_USER_ID)).thenReturn(events);
+        
+        ParticipantSchedule participantSchedule = service.getParticipantSchedule(TEST_APP_ID, TEST_STUDY_ID, account);
+        assertFalse(participantSchedule.getSchedule().isEmpty());
+        for (ScheduledSession schSession : participantSchedule.getSchedule()) {
+            assertNull(schSession.getTimeWindowGuid());
+        }
+        
+        // The cached timeline, which is also served by the timeline APIs, still has its window GUIDs
+        Timeline timeline = service.getTimeline(schedule);
+        assertFalse(timeline.getSchedule().isEmpty());
+        for (ScheduledSession schSession : timeline.getSchedule()) {
+            assertNotNull(schSession.getTimeWindowGuid());
+        }
+    }
+    
     @Test(expectedExceptions = EntityNotFoundException.class,
             expectedExceptionsMessageRegExp = "Schedule not found.")
     public void getParticipantSchedule_noScheduleFound() throws Exception {
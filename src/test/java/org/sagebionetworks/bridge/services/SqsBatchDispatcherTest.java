@@ -0,0 +1,305 @@
+package org.sagebionetworks.bridge.services;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Strings;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.ServiceUnavailableException;
+
+public class SqsBatchDispatcherTest {
+    private static final String QUEUE_URL = "https://sqs.us-east-1.amazonaws.com/111111111111/test-queue";
+    private static final String OTHER_QUEUE_URL = "https://sqs.us-east-1.amazonaws.com/111111111111/other-queue";
+
+    private FakeSqs fakeSqs;
+    private ScheduledExecutorService mockExecutor;
+    private SqsBatchDispatcher dispatcher;
+
+    @BeforeMethod
+    public void before() {
+        BridgeConfig mockConfig = mock(BridgeConfig.class);
+        when(mockConfig.getInt(SqsBatchDispatcher.CONFIG_KEY_LINGER_MILLIS)).thenReturn(10);
+        when(mockConfig.getInt(SqsBatchDispatcher.CONFIG_KEY_BUFFER_CAPACITY)).thenReturn(100);
+        when(mockConfig.getInt(SqsBatchDispatcher.CONFIG_KEY_MAX_ATTEMPTS)).thenReturn(3);
+
+        fakeSqs = new FakeSqs();
+        mockExecutor = mock(ScheduledExecutorService.class);
+
+        dispatcher = new SqsBatchDispatcher();
+        dispatcher.setBridgeConfig(mockConfig);
+        dispatcher.setSqsClient(fakeSqs);
+        dispatcher.setFlushExecutor(mockExecutor);
+    }
+
+    @Test
+    public void synchronousFlush() {
+        dispatcher.setSynchronousFlush(true);
+
+        String messageId = dispatcher.sendMessage(QUEUE_URL, "message-body");
+        assertEquals(messageId, "message-body-id");
+        assertEquals(fakeSqs.batches.size(), 1);
+        assertEquals(fakeSqs.batches.get(0).getQueueUrl(), QUEUE_URL);
+        assertEquals(dispatcher.getPendingCount(), 0);
+        verify(mockExecutor, never()).schedule(any(Runnable.class), anyLong(), any());
+    }
+
+    @Test
+    public void firstMessageSchedulesFlush() {
+        CompletableFuture<String> future1 = dispatcher.sendMessageAsync(QUEUE_URL, "body1");
+        CompletableFuture<String> future2 = dispatcher.sendMessageAsync(QUEUE_URL, "body2");
+
+        // One flush is scheduled for the queue, and nothing is sent until it runs.
+        verify(mockExecutor).schedule(any(Runnable.class), eq(10L), eq(TimeUnit.MILLISECONDS));
+        assertTrue(fakeSqs.batches.isEmpty());
+        assertFalse(future1.isDone());
+        assertEquals(dispatcher.getPendingCount(), 2);
+
+        dispatcher.flush();
+        assertEquals(fakeSqs.batches.size(), 1);
+        assertEquals(fakeSqs.batches.get(0).getEntries().size(), 2);
+        assertEquals(future1.join(), "body1-id");
+        assertEquals(future2.join(), "body2-id");
+
+        // Once the buffer is flushed, the next message schedules another flush.
+        dispatcher.sendMessageAsync(QUEUE_URL, "body3");
+        verify(mockExecutor, times(2)).schedule(any(Runnable.class), eq(10L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void fullBatchFlushesImmediately() {
+        for (int i = 0; i < SqsBatchDispatcher.MAX_BATCH_SIZE; i++) {
+            dispatcher.sendMessageAsync(QUEUE_URL, "body" + i);
+        }
+        verify(mockExecutor).execute(any());
+    }
+
+    @Test
+    public void batchesOfTenPerQueue() {
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            futures.add(dispatcher.sendMessageAsync(QUEUE_URL, "body" + i));
+        }
+        dispatcher.sendMessageAsync(OTHER_QUEUE_URL, "other-body");
+        dispatcher.flush();
+
+        // 25 messages for the first queue take 3 calls. The other queue gets a batch of its own.
+        assertEquals(fakeSqs.batches.size(), 4);
+        int testQueueBatches = 0;
+        for (SendMessageBatchRequest batch : fakeSqs.batches) {
+            if (batch.getQueueUrl().equals(QUEUE_URL)) {
+                testQueueBatches++;
+                assertTrue(batch.getEntries().size() <= SqsBatchDispatcher.MAX_BATCH_SIZE);
+            } else {
+                assertEquals(batch.getEntries().size(), 1);
+            }
+        }
+        assertEquals(testQueueBatches, 3);
+        for (int i = 0; i < 25; i++) {
+            assertEquals(futures.get(i).join(), "body" + i + "-id");
+        }
+
+        JsonNode metrics = dispatcher.getMetrics();
+        assertEquals(metrics.get("messagesSent").longValue(), 26L);
+        assertEquals(metrics.get("batchesSent").longValue(), 4L);
+        assertEquals(metrics.get("pending").intValue(), 0);
+    }
+
+    @Test
+    public void batchesStayUnderPayloadLimit() {
+        String bigBody = Strings.repeat("x", 100 * 1024);
+        for (int i = 0; i < 3; i++) {
+            dispatcher.sendMessageAsync(QUEUE_URL, bigBody + i);
+        }
+        dispatcher.flush();
+
+        // Two 100 KB messages fit in a batch. Three don't.
+        assertEquals(fakeSqs.batches.size(), 2);
+        assertEquals(fakeSqs.batches.get(0).getEntries().size(), 2);
+        assertEquals(fakeSqs.batches.get(1).getEntries().size(), 1);
+    }
+
+    @Test
+    public void failedEntryIsRetried() {
+        fakeSqs.failuresRemaining.add("body1");
+        CompletableFuture<String> future1 = dispatcher.sendMessageAsync(QUEUE_URL, "body1");
+        CompletableFuture<String> future2 = dispatcher.sendMessageAsync(QUEUE_URL, "body2");
+        dispatcher.flush();
+
+        // The first batch sends body2, and body1 goes out in the next one.
+        assertEquals(fakeSqs.batches.size(), 2);
+        assertEquals(future1.join(), "body1-id");
+        assertEquals(future2.join(), "body2-id");
+        assertEquals(dispatcher.getMetrics().get("messagesRetried").longValue(), 1L);
+        assertEquals(dispatcher.getPendingCount(), 0);
+    }
+
+    @Test
+    public void failedEntryGivesUpAfterMaxAttempts() {
+        fakeSqs.alwaysFail = true;
+        dispatcher.setSynchronousFlush(true);
+        try {
+            dispatcher.sendMessage(QUEUE_URL, "body");
+            fail("expected exception");
+        } catch (BridgeServiceException ex) {
+            assertTrue(ex.getMessage().contains("after 3 attempt(s)"));
+        }
+        assertEquals(fakeSqs.batches.size(), 3);
+        assertEquals(dispatcher.getMetrics().get("messagesFailed").longValue(), 1L);
+        assertEquals(dispatcher.getPendingCount(), 0);
+    }
+
+    @Test
+    public void senderFaultIsNotRetried() {
+        fakeSqs.alwaysFail = true;
+        fakeSqs.senderFault = true;
+        dispatcher.setSynchronousFlush(true);
+        try {
+            dispatcher.sendMessage(QUEUE_URL, "body");
+            fail("expected exception");
+        } catch (BridgeServiceException ex) {
+            assertTrue(ex.getMessage().contains("after 1 attempt(s)"));
+        }
+        assertEquals(fakeSqs.batches.size(), 1);
+    }
+
+    @Test
+    public void batchErrorFailsEveryMessage() {
+        fakeSqs.batchException = new AmazonServiceException("SQS is down");
+        CompletableFuture<String> future1 = dispatcher.sendMessageAsync(QUEUE_URL, "body1");
+        CompletableFuture<String> future2 = dispatcher.sendMessageAsync(QUEUE_URL, "body2");
+        dispatcher.flush();
+
+        assertTrue(future1.isCompletedExceptionally());
+        assertTrue(future2.isCompletedExceptionally());
+        assertEquals(dispatcher.getMetrics().get("messagesFailed").longValue(), 2L);
+        assertEquals(dispatcher.getPendingCount(), 0);
+    }
+
+    @Test
+    public void batchErrorIsThrownToSynchronousCaller() {
+        AmazonServiceException sqsEx = new AmazonServiceException("SQS is down");
+        fakeSqs.batchException = sqsEx;
+        dispatcher.setSynchronousFlush(true);
+        try {
+            dispatcher.sendMessage(QUEUE_URL, "body");
+            fail("expected exception");
+        } catch (AmazonServiceException ex) {
+            assertEquals(ex, sqsEx);
+        }
+    }
+
+    @Test
+    public void fullBufferRejectsMessages() {
+        for (int i = 0; i < 100; i++) {
+            dispatcher.sendMessageAsync(QUEUE_URL, "body" + i);
+        }
+        try {
+            dispatcher.sendMessageAsync(QUEUE_URL, "one-too-many");
+            fail("expected exception");
+        } catch (ServiceUnavailableException ex) {
+            // expected exception
+        }
+        assertEquals(dispatcher.getPendingCount(), 100);
+        assertEquals(dispatcher.getMetrics().get("messagesRejected").longValue(), 1L);
+
+        // Once the buffer is flushed, there's room again.
+        dispatcher.flush();
+        assertEquals(dispatcher.getPendingCount(), 0);
+        dispatcher.sendMessageAsync(QUEUE_URL, "room-now");
+    }
+
+    @Test
+    public void stopFlushesBufferedMessages() {
+        CompletableFuture<String> future = dispatcher.sendMessageAsync(QUEUE_URL, "body");
+        dispatcher.stop();
+
+        verify(mockExecutor).shutdown();
+        assertEquals(future.join(), "body-id");
+    }
+
+    @Test
+    public void messagesAfterStopAreSentOnCallersThread() {
+        dispatcher.stop();
+        doThrow(RejectedExecutionException.class).when(mockExecutor).schedule(any(Runnable.class), anyLong(),
+                any());
+        doThrow(RejectedExecutionException.class).when(mockExecutor).execute(any());
+
+        CompletableFuture<String> future = dispatcher.sendMessageAsync(QUEUE_URL, "body");
+        assertEquals(future.join(), "body-id");
+        assertEquals(dispatcher.getPendingCount(), 0);
+
+        // The buffer can still be flushed, so later messages aren't stranded either.
+        for (int i = 0; i < SqsBatchDispatcher.MAX_BATCH_SIZE; i++) {
+            dispatcher.sendMessageAsync(QUEUE_URL, "body" + i);
+        }
+        assertEquals(dispatcher.getPendingCount(), 0);
+        assertEquals(dispatcher.getMetrics().get("messagesSent").longValue(), 11L);
+    }
+
+    /**
+     * Local stand-in for SQS. Records every batch, and returns "[body]-id" as the message ID. Can be told to fail
+     * individual messages or whole batches.
+     */
+    private static class FakeSqs extends AbstractAmazonSQS {
+        final List<SendMessageBatchRequest> batches = new ArrayList<>();
+        final Set<String> failuresRemaining = new HashSet<>();
+        boolean alwaysFail;
+        boolean senderFault;
+        RuntimeException batchException;
+
+        @Override
+        public SendMessageBatchResult sendMessageBatch(SendMessageBatchRequest request) {
+            batches.add(request);
+            if (batchException != null) {
+                throw batchException;
+            }
+
+            Set<String> ids = new HashSet<>();
+            SendMessageBatchResult result = new SendMessageBatchResult();
+            for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+                // Entry IDs must be unique within a batch.
+                assertTrue(ids.add(entry.getId()));
+                if (alwaysFail || failuresRemaining.remove(entry.getMessageBody())) {
+                    result.withFailed(new BatchResultErrorEntry().withId(entry.getId())
+                            .withCode("InternalError").withMessage("try again").withSenderFault(senderFault));
+                } else {
+                    result.withSuccessful(new SendMessageBatchResultEntry().withId(entry.getId())
+                            .withMessageId(entry.getMessageBody() + "-id"));
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -800,6 +800,42 @@ public class StudyActivityEventServiceTest extends Mockito {
         assertEquals(event.getRecordCount(), Integer.valueOf(4));
     }
     
+    @Test
+    public void getRecentStudyActivityEventsForAccounts() {
+        StudyActivityEvent event1 = createEvent(ENROLLMENT_FIELD, ENROLLMENT_TS, null);
+        StudyActivityEvent event2 = createEvent("custom:event1", CREATED_ON, 4);
+        when(mockDao.getRecentStudyActivityEventsForUsers(ImmutableSet.of("user1", "user2"), TEST_STUDY_ID))
+                .thenReturn(ImmutableMap.of("user1", ImmutableList.of(event1, event2)));
+        
+        Map<String, DateTime> map1 = ImmutableMap.of(CREATED_ON_FIELD, CREATED_ON);
+        when(mockActivityEventService.getActivityEventMap(TEST_APP_ID, "healthCode1")).thenReturn(map1);
+        Map<String, DateTime> map2 = ImmutableMap.of(CREATED_ON_FIELD, MODIFIED_ON);
+        when(mockActivityEventService.getActivityEventMap(TEST_APP_ID, "healthCode2")).thenReturn(map2);
+        
+        Account account1 = Account.create();
+        account1.setId("user1");
+        account1.setHealthCode("healthCode1");
+        Account account2 = Account.create();
+        account2.setId("user2");
+        account2.setHealthCode("healthCode2");
+        
+        Map<String, List<StudyActivityEvent>> retValue = service.getRecentStudyActivityEventsForAccounts(
+                TEST_APP_ID, TEST_STUDY_ID, ImmutableList.of(account1, account2));
+        assertEquals(retValue.size(), 2);
+        
+        List<StudyActivityEvent> events1 = retValue.get("user1");
+        assertEquals(events1.size(), 3);
+        assertEquals(TestUtils.findByEventId(events1, ActivityEventObjectType.CREATED_ON).getTimestamp(), CREATED_ON);
+        assertEquals(TestUtils.findByEventId(events1, CUSTOM).getRecordCount(), Integer.valueOf(4));
+        
+        List<StudyActivityEvent> events2 = retValue.get("user2");
+        assertEquals(events2.size(), 1);
+        assertEquals(TestUtils.findByEventId(events2, ActivityEventObjectType.CREATED_ON).getTimestamp(), MODIFIED_ON);
+        
+        verify(mockDao).getRecentStudyActivityEventsForUsers(any(), any());
+        verify(mockAccountService, never()).getAccount(any());
+    }
+    
     @Test(expectedExceptions = EntityNotFoundException.class)
     public void getRecentStudyActivityEvents_noAccount() {
         service.getRecentStudyActivityEvents(TEST_APP_ID, TEST_STUDY_ID, TEST_USER_ID);
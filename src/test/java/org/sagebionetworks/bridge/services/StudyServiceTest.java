@@ -52,6 +52,7 @@ import org.testng.annotations.Test;
 import org.sagebionetworks.bridge.RequestContext;
 import org.sagebionetworks.bridge.cache.CacheKey;
 import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.cache.NearCache;
 import org.sagebionetworks.bridge.dao.OrganizationDao;
 import org.sagebionetworks.bridge.dao.StudyDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
@@ -86,6 +87,9 @@ public class StudyServiceTest extends Mockito {
     @Mock
     private CacheProvider mockCacheProvider;
     
+    @Mock
+    private NearCache mockNearCache;
+    
     @Mock
     private Schedule2Service mockScheduleService;
     
@@ -440,6 +444,7 @@ public class StudyServiceTest extends Mockito {
         
         CacheKey cacheKey = CacheKey.etag(Study.class, TEST_APP_ID, TEST_STUDY_ID);
         verify(mockCacheProvider).setObject(cacheKey, MODIFIED_ON);
+        verify(mockNearCache).invalidate(CacheKey.studyExportTopic(TEST_APP_ID, TEST_STUDY_ID));
     }
     
     @Test
@@ -643,6 +648,7 @@ public class StudyServiceTest extends Mockito {
         
         CacheKey cacheKey = CacheKey.etag(Study.class, TEST_APP_ID, TEST_STUDY_ID);
         verify(mockCacheProvider).removeObject(cacheKey);
+        verify(mockNearCache).invalidate(CacheKey.studyExportTopic(TEST_APP_ID, TEST_STUDY_ID));
 
         // verify alerts for this study are deleted
         verify(alertService).deleteAlertsForStudy(TEST_APP_ID, TEST_STUDY_ID);
@@ -697,6 +703,7 @@ public class StudyServiceTest extends Mockito {
         
         CacheKey cacheKey = CacheKey.etag(Study.class, TEST_APP_ID, TEST_STUDY_ID);
         verify(mockCacheProvider).removeObject(cacheKey);
+        verify(mockNearCache).invalidate(CacheKey.studyExportTopic(TEST_APP_ID, TEST_STUDY_ID));
     }
 
     @Test
@@ -1041,6 +1048,7 @@ public class StudyServiceTest extends Mockito {
         
         CacheKey cacheKey = CacheKey.etag(Study.class, TEST_APP_ID, TEST_STUDY_ID);
         verify(mockCacheProvider).setObject(cacheKey, MODIFIED_ON);
+        verify(mockNearCache).invalidate(CacheKey.studyExportTopic(TEST_APP_ID, TEST_STUDY_ID));
     }
     
     @Test
@@ -1123,6 +1131,7 @@ public class StudyServiceTest extends Mockito {
     
         CacheKey cacheKey = CacheKey.etag(Study.class, TEST_APP_ID, TEST_STUDY_ID);
         verify(mockCacheProvider).setObject(cacheKey, MODIFIED_ON);
+        verify(mockNearCache).invalidate(CacheKey.studyExportTopic(TEST_APP_ID, TEST_STUDY_ID));
     }
     
     @Test 
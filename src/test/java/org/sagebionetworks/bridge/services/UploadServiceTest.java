@@ -2,6 +2,9 @@ package org.sagebionetworks.bridge.services;
 
 import static com.amazonaws.services.s3.Headers.SERVER_SIDE_ENCRYPTION;
 import static com.amazonaws.services.s3.model.ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doNothing;
@@ -48,20 +51,24 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import com.amazonaws.HttpMethod;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.model.SendMessageResult;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
 import org.mockito.ArgumentCaptor;
@@ -73,6 +80,8 @@ import org.mockito.Spy;
 
 import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.dao.HealthCodeDao;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.schedules2.adherence.AdherenceRecord;
@@ -106,6 +115,7 @@ import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordEx3;
 import org.sagebionetworks.bridge.models.upload.Upload;
 import org.sagebionetworks.bridge.models.upload.UploadCompletionClient;
+import org.sagebionetworks.bridge.models.upload.UploadRedriveJob;
 import org.sagebionetworks.bridge.models.upload.UploadRedriveList;
 import org.sagebionetworks.bridge.models.upload.UploadRequest;
 import org.sagebionetworks.bridge.models.upload.UploadSession;
@@ -116,6 +126,7 @@ import org.sagebionetworks.bridge.models.upload.UploadViewEx3;
 import org.sagebionetworks.bridge.models.worker.UploadRedriveWorkerRequest;
 import org.sagebionetworks.bridge.models.worker.WorkerRequest;
 import org.sagebionetworks.bridge.s3.S3Helper;
+import org.sagebionetworks.bridge.upload.UploadValidationMetrics;
 import org.sagebionetworks.bridge.validators.AdherenceRecordsSearchValidator;
 
 @SuppressWarnings("ConstantConditions")
@@ -198,11 +209,17 @@ public class UploadServiceTest {
     BridgeConfig mockConfig;
 
     @Mock
-    private AmazonSQS mockSqsClient;
+    private SqsBatchDispatcher mockSqsDispatcher;
 
     @Mock
     private S3Helper mockS3Helper;
 
+    @Mock
+    private CacheProvider mockCacheProvider;
+
+    @Mock
+    private UploadValidationMetrics mockValidationMetrics;
+
     @Captor
     ArgumentCaptor<AdherenceRecordList> adherenceRecordListCaptor;
     
@@ -214,6 +231,15 @@ public class UploadServiceTest {
 
     @Captor
     ArgumentCaptor<UploadRedriveList> uploadRedriveListArgumentCaptor;
+
+    @Captor
+    ArgumentCaptor<UploadRedriveJob> redriveJobCaptor;
+    
+    @Mock
+    ScheduledExecutorService mockRedriveTimer;
+    
+    @Mock
+    ScheduledFuture<?> mockRedriveTimeout;
     
     @InjectMocks
     @Spy
@@ -229,8 +255,16 @@ public class UploadServiceTest {
         when(mockConfig.getProperty(UploadService.CONFIG_KEY_UPLOAD_BUCKET)).thenReturn(UPLOAD_BUCKET_NAME);
         when(mockConfig.getProperty(UploadService.CONFIG_KEY_BACKFILL_BUCKET)).thenReturn(BACKFILL_BUCKET_NAME);
         when(mockConfig.getProperty(BridgeConstants.CONFIG_KEY_WORKER_SQS_URL)).thenReturn(WORKER_QUEUE_URL);
+        when(mockConfig.getInt(UploadService.CONFIG_KEY_REDRIVE_APP_RATE_PER_SECOND)).thenReturn(1000);
+        when(mockConfig.getInt(UploadService.CONFIG_KEY_REDRIVE_IN_PROCESS_MAX)).thenReturn(10);
         svc.setConfig(mockConfig);
 
+        // Run redrives and completion stages on the test thread.
+        svc.setRedriveExecutor(MoreExecutors.newDirectExecutorService());
+        doReturn(mockRedriveTimeout).when(mockRedriveTimer).schedule(any(Runnable.class), anyLong(), any());
+        svc.setRedriveTimer(mockRedriveTimer);
+        svc.setCompletionExecutor(MoreExecutors.newDirectExecutorService());
+
     }
     
     @AfterMethod
@@ -706,7 +740,7 @@ public class UploadServiceTest {
         svc.uploadComplete(TEST_APP_ID, S3_WORKER, upload, true);
         
         verify(mockUploadDao).uploadComplete(S3_WORKER, upload);
-        verify(mockUploadValidationService).validateUpload(TEST_APP_ID, upload);
+        verify(mockUploadValidationService).validateUpload(TEST_APP_ID, upload, true);
         verify(svc).updateAdherenceWithUploadInfo(TEST_APP_ID, upload);
     }
     
@@ -722,7 +756,7 @@ public class UploadServiceTest {
         
         verify(mockS3Client, never()).getObjectMetadata(any(), any());
         verify(mockUploadDao, never()).uploadComplete(any(), any());
-        verify(mockUploadValidationService, never()).validateUpload(any(), any());
+        verify(mockUploadValidationService, never()).validateUpload(any(), any(), anyBoolean());
         verify(svc, never()).updateAdherenceWithUploadInfo(any(), any());
     }
 
@@ -767,7 +801,7 @@ public class UploadServiceTest {
         svc.uploadComplete(TEST_APP_ID, S3_WORKER, upload, true);
         
         verify(mockUploadDao).uploadComplete(S3_WORKER, upload);
-        verify(mockUploadValidationService, never()).validateUpload(TEST_APP_ID, upload);
+        verify(mockUploadValidationService, never()).validateUpload(TEST_APP_ID, upload, true);
         verify(svc, never()).updateAdherenceWithUploadInfo(any(), any());
     }
 
@@ -809,11 +843,15 @@ public class UploadServiceTest {
         // Mock UploadValidationStatus
         UploadValidationStatus mockValidationStatusForUploadId1 = makeValidationStatus(UPLOAD_ID_1, SUCCEEDED);
         UploadValidationStatus mockValidationStatusForUploadId2 = makeValidationStatus(UPLOAD_ID_2, VALIDATION_FAILED);
-        doReturn(mockValidationStatusForUploadId1).when(svc).pollUploadValidationStatusUntilComplete(UPLOAD_ID_1);
-        doReturn(mockValidationStatusForUploadId2).when(svc).pollUploadValidationStatusUntilComplete(UPLOAD_ID_2);
+        doReturn(CompletableFuture.completedFuture(mockValidationStatusForUploadId1)).when(svc)
+                .waitForUploadValidationStatus(UPLOAD_ID_1);
+        doReturn(CompletableFuture.completedFuture(mockValidationStatusForUploadId2)).when(svc)
+                .waitForUploadValidationStatus(UPLOAD_ID_2);
 
         // Execute
-        svc.redriveUpload(mockSmallRedriveList);
+        UploadRedriveJob job = svc.redriveUpload(mockSmallRedriveList);
+        assertEquals(job.getStatus(), UploadRedriveJob.Status.IN_PROGRESS);
+        assertEquals(job.getUploadCount(), 2);
 
         // Verify call to redriveSmallAmountOfUploads() and upload ids list is sent for redrive.
         verify(svc).redriveUpload(uploadRedriveListArgumentCaptor.capture());
@@ -838,12 +876,142 @@ public class UploadServiceTest {
         verify(svc).uploadComplete(TEST_APP_ID, UploadCompletionClient.REDRIVE, upload1, true);
         verify(svc).uploadComplete(TEST_APP_ID, UploadCompletionClient.REDRIVE, upload2, true);
 
-        // Verify pollUploadValidationStatusUntilComplete()
-        verify(svc).pollUploadValidationStatusUntilComplete(UPLOAD_ID_1);
-        verify(svc).pollUploadValidationStatusUntilComplete(UPLOAD_ID_2);
+        // Verify waitForUploadValidationStatus()
+        verify(svc).waitForUploadValidationStatus(UPLOAD_ID_1);
+        verify(svc).waitForUploadValidationStatus(UPLOAD_ID_2);
 
         // Verify logger
         verify(svc).logErrorMessage(UPLOAD_ID_2, mockValidationStatusForUploadId2);
+
+        // The job is saved when it starts, and as each upload finishes.
+        verify(mockCacheProvider, times(3)).setObject(eq(CacheKey.uploadRedriveJob(job.getJobGuid())),
+                redriveJobCaptor.capture(), eq(UploadService.REDRIVE_JOB_EXPIRE_IN_SECONDS));
+        UploadRedriveJob savedJob = redriveJobCaptor.getValue();
+        assertEquals(savedJob.getStatus(), UploadRedriveJob.Status.COMPLETE);
+        assertEquals(savedJob.getCompletedOn().getMillis(), TIMESTAMP.getMillis());
+        assertEquals(savedJob.getUploadStatuses(), ImmutableMap.of(UPLOAD_ID_1, SUCCEEDED,
+                UPLOAD_ID_2, VALIDATION_FAILED));
+        assertTrue(savedJob.getErrors().isEmpty());
+    }
+
+    @Test
+    public void redriveUpload_smallAmountOfUploadsRecordsErrors() throws IOException {
+        // The first upload can't be found, but the second is still redriven.
+        doThrow(new NotFoundException("Upload ID " + UPLOAD_ID_1 + " not found")).when(svc).getUpload(UPLOAD_ID_1);
+
+        DynamoUpload2 upload2 = new DynamoUpload2();
+        upload2.setUploadId(UPLOAD_ID_2);
+        upload2.setAppId(TEST_APP_ID);
+        doReturn(upload2).when(svc).getUpload(UPLOAD_ID_2);
+        doNothing().when(svc).uploadComplete(TEST_APP_ID, UploadCompletionClient.REDRIVE, upload2, true);
+        doReturn(CompletableFuture.completedFuture(makeValidationStatus(UPLOAD_ID_2, SUCCEEDED))).when(svc)
+                .waitForUploadValidationStatus(UPLOAD_ID_2);
+
+        UploadRedriveJob job = svc.redriveUpload(new UploadRedriveList(ImmutableList.of(UPLOAD_ID_1, UPLOAD_ID_2)));
+
+        verify(mockCacheProvider, times(3)).setObject(eq(CacheKey.uploadRedriveJob(job.getJobGuid())),
+                redriveJobCaptor.capture(), eq(UploadService.REDRIVE_JOB_EXPIRE_IN_SECONDS));
+        UploadRedriveJob savedJob = redriveJobCaptor.getValue();
+        assertEquals(savedJob.getStatus(), UploadRedriveJob.Status.COMPLETE);
+        assertEquals(savedJob.getUploadStatuses(), ImmutableMap.of(UPLOAD_ID_2, SUCCEEDED));
+        assertEquals(savedJob.getErrors(), ImmutableMap.of(UPLOAD_ID_1,
+                "NotFoundException: Upload ID " + UPLOAD_ID_1 + " not found"));
+        verify(svc, never()).waitForUploadValidationStatus(UPLOAD_ID_1);
+    }
+
+    @Test
+    public void redriveUpload_smallAmountOfUploadsDoesNotBlockOnValidation() throws IOException {
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId(UPLOAD_ID_1);
+        upload.setAppId(TEST_APP_ID);
+        doReturn(upload).when(svc).getUpload(UPLOAD_ID_1);
+        doNothing().when(svc).uploadComplete(TEST_APP_ID, UploadCompletionClient.REDRIVE, upload, true);
+        CompletableFuture<UploadValidationStatus> validation = new CompletableFuture<>();
+        doReturn(validation).when(svc).waitForUploadValidationStatus(UPLOAD_ID_1);
+
+        UploadRedriveJob job = svc.redriveUpload(new UploadRedriveList(ImmutableList.of(UPLOAD_ID_1)));
+
+        // The redrive returned while validation is still running. Only the starting job has been saved.
+        verify(mockRedriveTimer).schedule(any(Runnable.class), eq(UploadService.REDRIVE_VALIDATION_TIMEOUT_MILLIS),
+                eq(TimeUnit.MILLISECONDS));
+        verify(mockCacheProvider, times(1)).setObject(eq(CacheKey.uploadRedriveJob(job.getJobGuid())), any(),
+                anyInt());
+
+        validation.complete(makeValidationStatus(UPLOAD_ID_1, SUCCEEDED));
+
+        verify(mockCacheProvider, times(2)).setObject(eq(CacheKey.uploadRedriveJob(job.getJobGuid())),
+                redriveJobCaptor.capture(), eq(UploadService.REDRIVE_JOB_EXPIRE_IN_SECONDS));
+        UploadRedriveJob savedJob = redriveJobCaptor.getValue();
+        assertEquals(savedJob.getStatus(), UploadRedriveJob.Status.COMPLETE);
+        assertEquals(savedJob.getUploadStatuses(), ImmutableMap.of(UPLOAD_ID_1, SUCCEEDED));
+        verify(mockRedriveTimeout).cancel(false);
+    }
+
+    @Test
+    public void redriveUpload_smallAmountOfUploadsTimesOut() throws IOException {
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId(UPLOAD_ID_1);
+        upload.setAppId(TEST_APP_ID);
+        doReturn(upload).when(svc).getUpload(UPLOAD_ID_1);
+        doNothing().when(svc).uploadComplete(TEST_APP_ID, UploadCompletionClient.REDRIVE, upload, true);
+        CompletableFuture<UploadValidationStatus> validation = new CompletableFuture<>();
+        doReturn(validation).when(svc).waitForUploadValidationStatus(UPLOAD_ID_1);
+        doReturn(makeValidationStatus(UPLOAD_ID_1, VALIDATION_IN_PROGRESS)).when(svc)
+                .getUploadValidationStatus(UPLOAD_ID_1);
+
+        UploadRedriveJob job = svc.redriveUpload(new UploadRedriveList(ImmutableList.of(UPLOAD_ID_1)));
+
+        ArgumentCaptor<Runnable> timeoutCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(mockRedriveTimer).schedule(timeoutCaptor.capture(), anyLong(), any());
+        timeoutCaptor.getValue().run();
+
+        assertTrue(validation.isCancelled());
+        verify(mockCacheProvider, times(2)).setObject(eq(CacheKey.uploadRedriveJob(job.getJobGuid())),
+                redriveJobCaptor.capture(), eq(UploadService.REDRIVE_JOB_EXPIRE_IN_SECONDS));
+        UploadRedriveJob savedJob = redriveJobCaptor.getValue();
+        assertEquals(savedJob.getStatus(), UploadRedriveJob.Status.COMPLETE);
+        assertEquals(savedJob.getErrors(), ImmutableMap.of(UPLOAD_ID_1,
+                "BridgeServiceException: Timeout waiting for validation status for upload " + UPLOAD_ID_1));
+    }
+
+    @Test
+    public void redriveUpload_smallAmountOfUploadsTimeoutRechecksStatus() throws IOException {
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId(UPLOAD_ID_1);
+        upload.setAppId(TEST_APP_ID);
+        doReturn(upload).when(svc).getUpload(UPLOAD_ID_1);
+        doNothing().when(svc).uploadComplete(TEST_APP_ID, UploadCompletionClient.REDRIVE, upload, true);
+        doReturn(new CompletableFuture<>()).when(svc).waitForUploadValidationStatus(UPLOAD_ID_1);
+        // The completion notification was missed, but validation has finished.
+        doReturn(makeValidationStatus(UPLOAD_ID_1, SUCCEEDED)).when(svc).getUploadValidationStatus(UPLOAD_ID_1);
+
+        UploadRedriveJob job = svc.redriveUpload(new UploadRedriveList(ImmutableList.of(UPLOAD_ID_1)));
+
+        ArgumentCaptor<Runnable> timeoutCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(mockRedriveTimer).schedule(timeoutCaptor.capture(), anyLong(), any());
+        timeoutCaptor.getValue().run();
+
+        verify(mockCacheProvider, times(2)).setObject(eq(CacheKey.uploadRedriveJob(job.getJobGuid())),
+                redriveJobCaptor.capture(), eq(UploadService.REDRIVE_JOB_EXPIRE_IN_SECONDS));
+        assertEquals(redriveJobCaptor.getValue().getUploadStatuses(), ImmutableMap.of(UPLOAD_ID_1, SUCCEEDED));
+    }
+
+    @Test
+    public void getUploadRedriveJob() {
+        UploadRedriveJob job = new UploadRedriveJob();
+        when(mockCacheProvider.getObject(CacheKey.uploadRedriveJob(GUID), UploadRedriveJob.class)).thenReturn(job);
+
+        assertSame(svc.getUploadRedriveJob(GUID), job);
+    }
+
+    @Test(expectedExceptions = EntityNotFoundException.class)
+    public void getUploadRedriveJobNotFound() {
+        svc.getUploadRedriveJob(GUID);
+    }
+
+    @Test(expectedExceptions = BadRequestException.class)
+    public void getUploadRedriveJobBlankGuid() {
+        svc.getUploadRedriveJob("");
     }
 
     @Test
@@ -860,10 +1028,14 @@ public class UploadServiceTest {
         String mockS3Key = "redrive-upload-id-" + mockCurrentTime;
 
         // Mock SQS. Return type doesn't actually matter except for logs, but we don't want it to be null.
-        when(mockSqsClient.sendMessage(any(), any())).thenReturn(new SendMessageResult());
+        when(mockSqsDispatcher.sendMessage(any(), any())).thenReturn("test-message-id");
 
         // Execute
-        svc.redriveUpload(mockRedriveList);
+        UploadRedriveJob job = svc.redriveUpload(mockRedriveList);
+        assertEquals(job.getStatus(), UploadRedriveJob.Status.SENT_TO_WORKER);
+        assertEquals(job.getUploadCount(), 11);
+        verify(mockCacheProvider).setObject(CacheKey.uploadRedriveJob(job.getJobGuid()), job,
+                UploadService.REDRIVE_JOB_EXPIRE_IN_SECONDS);
 
         // Verify call to redriveLargeAmountOfUploads() and upload ids list is sent for redrive.
         verify(svc).redriveUpload(uploadRedriveListArgumentCaptor.capture());
@@ -881,7 +1053,7 @@ public class UploadServiceTest {
 
         // Verify call to SQS.
         ArgumentCaptor<String> requestJsonTextCaptor = ArgumentCaptor.forClass(String.class);
-        verify(mockSqsClient).sendMessage(eq(WORKER_QUEUE_URL), requestJsonTextCaptor.capture());
+        verify(mockSqsDispatcher).sendMessage(eq(WORKER_QUEUE_URL), requestJsonTextCaptor.capture());
 
         String requestJsonText = requestJsonTextCaptor.getValue();
         WorkerRequest workerRequest = BridgeObjectMapper.get().readValue(requestJsonText, WorkerRequest.class);
@@ -1,29 +1,47 @@
 package org.sagebionetworks.bridge.services;
 
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.TestConstants.TEST_APP_ID;
 import static org.sagebionetworks.bridge.models.upload.UploadCompletionClient.APP;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.util.concurrent.MoreExecutors;
 
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import org.sagebionetworks.bridge.RequestContext;
 import org.sagebionetworks.bridge.TestConstants;
 import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.config.BridgeConfig;
@@ -31,10 +49,15 @@ import org.sagebionetworks.bridge.dao.UploadDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
+import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.exceptions.NotFoundException;
+import org.sagebionetworks.bridge.exceptions.ServiceUnavailableException;
+import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.apps.App;
+import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordEx3;
 import org.sagebionetworks.bridge.models.upload.Upload;
 import org.sagebionetworks.bridge.models.upload.UploadStatus;
+import org.sagebionetworks.bridge.upload.UploadValidationMetrics;
 
 public class UploadServiceUploadCompleteTest {
     private static final String DUPE_UPLOAD_ID = "original-upload-id";
@@ -58,6 +81,9 @@ public class UploadServiceUploadCompleteTest {
     @Mock
     private UploadValidationService mockUploadValidationService;
 
+    @Mock
+    private UploadValidationMetrics mockValidationMetrics;
+
     @InjectMocks
     @Spy
     private UploadService svc;
@@ -69,14 +95,23 @@ public class UploadServiceUploadCompleteTest {
         // Mock config. This is done separately because we need to set mock config params.
         BridgeConfig mockConfig = mock(BridgeConfig.class);
         when(mockConfig.getProperty(UploadService.CONFIG_KEY_UPLOAD_BUCKET)).thenReturn(TEST_BUCKET);
+        when(mockConfig.getInt(UploadService.CONFIG_KEY_COMPLETION_MAX_ATTEMPTS)).thenReturn(3);
         svc.setConfig(mockConfig);
 
+        // Run completion stages on the test thread, unless the test says otherwise.
+        svc.setCompletionExecutor(MoreExecutors.newDirectExecutorService());
+
         // Mock app service. Exporter 3 is disabled for most of the tests.
         app = TestUtils.getValidApp(Exporter3ServiceTest.class);
         app.setExporter3Enabled(false);
         when(mockAppService.getApp(TestConstants.TEST_APP_ID)).thenReturn(app);
     }
 
+    @AfterMethod
+    public void after() {
+        RequestContext.set(null);
+    }
+
     @Test
     public void validationInProgress() throws Exception {
         // set up input
@@ -197,7 +232,8 @@ public class UploadServiceUploadCompleteTest {
         svc.uploadComplete(TEST_APP_ID, APP, upload, false);
 
         // Verify upload DAO, validation, and adherence.
-        verify(mockUploadValidationService, never()).validateUpload(any(String.class), any(Upload.class));
+        verify(mockUploadValidationService, never()).validateUpload(any(String.class), any(Upload.class),
+                anyBoolean());
         verify(svc, never()).updateAdherenceWithUploadInfo(any(), any());
     }
 
@@ -218,10 +254,37 @@ public class UploadServiceUploadCompleteTest {
 
         // Verify upload DAO, validation, and adherence.
         verify(mockUploadDao).uploadComplete(APP, upload);
-        verify(mockUploadValidationService).validateUpload(TEST_APP_ID, upload);
+        verify(mockUploadValidationService).validateUpload(TEST_APP_ID, upload, false);
         verify(svc).updateAdherenceWithUploadInfo(TEST_APP_ID, upload);
     }
 
+    @Test
+    public void validationQueueFull() throws Exception {
+        // set up input
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId(TEST_UPLOAD_ID);
+        upload.setStatus(UploadStatus.REQUESTED);
+
+        // mock S3
+        ObjectMetadata mockObjMetadata = mock(ObjectMetadata.class);
+        when(mockObjMetadata.getSSEAlgorithm()).thenReturn(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        when(mockS3Client.getObjectMetadata(TEST_BUCKET, TEST_UPLOAD_ID)).thenReturn(mockObjMetadata);
+
+        doThrow(new ServiceUnavailableException("full")).when(mockUploadValidationService).checkCapacity(0);
+
+        // execute
+        try {
+            svc.uploadComplete(TEST_APP_ID, APP, upload, false);
+            fail("expected exception");
+        } catch (ServiceUnavailableException ex) {
+            // expected exception
+        }
+
+        // The upload is not marked complete, so it can be completed again later.
+        verifyZeroInteractions(mockUploadDao);
+        verify(mockUploadValidationService, never()).validateUpload(any(), any(), anyBoolean());
+    }
+
     @Test
     public void exporter3Enabled() throws Exception {
         // Enable Exporter 3.
@@ -231,6 +294,8 @@ public class UploadServiceUploadCompleteTest {
         Upload upload = Upload.create();
         upload.setUploadId(TEST_UPLOAD_ID);
         upload.setStatus(UploadStatus.REQUESTED);
+        HealthDataRecordEx3 record = HealthDataRecordEx3.create();
+        when(mockExporter3Service.saveUploadRecord(app, upload)).thenReturn(record);
 
         // Mock S3.
         ObjectMetadata mockObjMetadata = mock(ObjectMetadata.class);
@@ -241,11 +306,12 @@ public class UploadServiceUploadCompleteTest {
         svc.uploadComplete(TEST_APP_ID, APP, upload, false);
 
         // Verify that we call Exporter 3.0
-        verify(mockExporter3Service).completeUpload(same(app), same(upload));
+        verify(mockExporter3Service).saveUploadRecord(same(app), same(upload));
+        verify(mockExporter3Service).exportUploadRecord(TEST_APP_ID, record);
 
         // Verify that we still call Exporter 2.0.
         verify(mockUploadDao).uploadComplete(APP, upload);
-        verify(mockUploadValidationService).validateUpload(TEST_APP_ID, upload);
+        verify(mockUploadValidationService).validateUpload(TEST_APP_ID, upload, false);
         
         // Verify we still update adherence.
         verify(svc).updateAdherenceWithUploadInfo(TEST_APP_ID, upload);
@@ -260,6 +326,8 @@ public class UploadServiceUploadCompleteTest {
         DynamoUpload2 upload = new DynamoUpload2();
         upload.setUploadId(TEST_UPLOAD_ID);
         upload.setStatus(UploadStatus.SUCCEEDED);
+        HealthDataRecordEx3 record = HealthDataRecordEx3.create();
+        when(mockExporter3Service.saveUploadRecord(app, upload)).thenReturn(record);
 
         // mock S3
         ObjectMetadata mockObjMetadata = mock(ObjectMetadata.class);
@@ -270,13 +338,235 @@ public class UploadServiceUploadCompleteTest {
         svc.uploadComplete(TEST_APP_ID, APP, upload, true);
 
         // Verify that we call Exporter 3.0
-        verify(mockExporter3Service).completeUpload(same(app), same(upload));
+        verify(mockExporter3Service).saveUploadRecord(same(app), same(upload));
+        verify(mockExporter3Service).exportUploadRecord(TEST_APP_ID, record);
 
         // Verify upload DAO and validation.
         verify(mockUploadDao).uploadComplete(APP, upload);
-        verify(mockUploadValidationService).validateUpload(TEST_APP_ID, upload);
+        verify(mockUploadValidationService).validateUpload(TEST_APP_ID, upload, true);
         
         // Verify we update adherence.
         verify(svc).updateAdherenceWithUploadInfo(TEST_APP_ID, upload);
     }
+
+    @Test
+    public void completionStagesRunAfterRequestReturns() throws Exception {
+        app.setExporter3Enabled(true);
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+        svc.setCompletionExecutor(mockExecutor);
+        RequestContext.set(new RequestContext.Builder().withCallerUserId(TestConstants.TEST_USER_ID).build());
+
+        Upload upload = Upload.create();
+        upload.setUploadId(TEST_UPLOAD_ID);
+        upload.setStatus(UploadStatus.REQUESTED);
+        mockS3Metadata();
+
+        // The upload is marked complete, but nothing else runs on the request thread.
+        svc.uploadComplete(TEST_APP_ID, APP, upload, false);
+        verify(mockUploadDao).uploadComplete(APP, upload);
+        verifyZeroInteractions(mockAppService, mockExporter3Service);
+        verify(mockUploadValidationService, never()).validateUpload(any(), any(), anyBoolean());
+
+        // Run the stages on another thread, as the executor would. They see the caller's request context.
+        ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(mockExecutor).execute(runnableCaptor.capture());
+        AtomicReference<String> callerUserId = new AtomicReference<>();
+        doAnswer(invocation -> {
+            callerUserId.set(RequestContext.get().getCallerUserId());
+            return null;
+        }).when(mockExporter3Service).saveUploadRecord(app, upload);
+
+        Thread thread = new Thread(runnableCaptor.getValue());
+        thread.start();
+        thread.join();
+
+        assertEquals(callerUserId.get(), TestConstants.TEST_USER_ID);
+        verify(mockUploadValidationService).validateUpload(TEST_APP_ID, upload, false);
+        verify(svc).updateAdherenceWithUploadInfo(TEST_APP_ID, upload);
+    }
+
+    @Test
+    public void uploadsAwaitingValidationCountTowardCapacity() throws Exception {
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+        svc.setCompletionExecutor(mockExecutor);
+        ObjectMetadata mockObjMetadata = mock(ObjectMetadata.class);
+        when(mockObjMetadata.getSSEAlgorithm()).thenReturn(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        when(mockS3Client.getObjectMetadata(eq(TEST_BUCKET), any())).thenReturn(mockObjMetadata);
+
+        Upload upload1 = Upload.create();
+        upload1.setUploadId("upload1");
+        upload1.setStatus(UploadStatus.REQUESTED);
+        svc.uploadComplete(TEST_APP_ID, APP, upload1, false);
+        verify(mockUploadValidationService).checkCapacity(0);
+        assertEquals(svc.getAwaitingValidationCount(), 1);
+
+        // The first upload's stages haven't run, so it counts against the second upload.
+        Upload upload2 = Upload.create();
+        upload2.setUploadId("upload2");
+        upload2.setStatus(UploadStatus.REQUESTED);
+        svc.uploadComplete(TEST_APP_ID, APP, upload2, false);
+        verify(mockUploadValidationService).checkCapacity(1);
+        assertEquals(svc.getAwaitingValidationCount(), 2);
+
+        // Once validation has been submitted, the validation queue counts the upload instead.
+        ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(mockExecutor, times(2)).execute(runnableCaptor.capture());
+        runnableCaptor.getAllValues().get(0).run();
+        verify(mockUploadValidationService).validateUpload(TEST_APP_ID, upload1, false);
+        assertEquals(svc.getAwaitingValidationCount(), 1);
+    }
+
+    @Test
+    public void failedValidationSubmissionIsNoLongerAwaitingValidation() {
+        doThrow(new IllegalStateException()).when(mockUploadValidationService).validateUpload(any(), any(),
+                anyBoolean());
+
+        Upload upload = Upload.create();
+        upload.setUploadId(TEST_UPLOAD_ID);
+        svc.submitCompletionStages(TEST_APP_ID, upload, false);
+
+        assertEquals(svc.getAwaitingValidationCount(), 0);
+    }
+
+    @Test
+    public void completionInProgressIsNotSubmittedAgain() {
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+        svc.setCompletionExecutor(mockExecutor);
+
+        Upload upload = Upload.create();
+        upload.setUploadId(TEST_UPLOAD_ID);
+
+        // The first submission hasn't run yet, so a redrive of the same upload is dropped.
+        svc.submitCompletionStages(TEST_APP_ID, upload, false);
+        svc.submitCompletionStages(TEST_APP_ID, upload, true);
+        ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(mockExecutor).execute(runnableCaptor.capture());
+
+        // Once it has run, the upload can be submitted again.
+        runnableCaptor.getValue().run();
+        svc.submitCompletionStages(TEST_APP_ID, upload, true);
+        verify(mockExecutor, times(2)).execute(any());
+    }
+
+    @Test
+    public void failedStageIsRetriedAndDoesNotBlockLaterStages() throws Exception {
+        app.setExporter3Enabled(true);
+        Upload upload = Upload.create();
+        upload.setUploadId(TEST_UPLOAD_ID);
+        upload.setStatus(UploadStatus.REQUESTED);
+        mockS3Metadata();
+
+        AmazonServiceException ex = new AmazonServiceException("DynamoDB is down");
+        ex.setStatusCode(500);
+        doThrow(ex).when(mockExporter3Service).saveUploadRecord(app, upload);
+
+        svc.uploadComplete(TEST_APP_ID, APP, upload, false);
+
+        // Exporter 3 is attempted up to the max, and every attempt is recorded. Nothing is exported.
+        verify(mockExporter3Service, times(3)).saveUploadRecord(app, upload);
+        verify(mockValidationMetrics, times(3)).recordCompletionStage(
+                eq(UploadService.COMPLETION_STAGE_EXPORTER_3), anyLong(), same(ex));
+        verify(mockExporter3Service, never()).exportUploadRecord(any(), any());
+
+        // Legacy validation and adherence still run.
+        verify(mockUploadValidationService).validateUpload(TEST_APP_ID, upload, false);
+        verify(svc).updateAdherenceWithUploadInfo(TEST_APP_ID, upload);
+        verify(mockValidationMetrics).recordCompletionStage(eq(UploadService.COMPLETION_STAGE_VALIDATION),
+                anyLong(), isNull());
+    }
+
+    @Test
+    public void clientErrorIsNotRetried() throws Exception {
+        app.setExporter3Enabled(true);
+        Upload upload = Upload.create();
+        upload.setUploadId(TEST_UPLOAD_ID);
+        upload.setStatus(UploadStatus.REQUESTED);
+        mockS3Metadata();
+
+        doThrow(new EntityNotFoundException(StudyParticipant.class)).when(mockExporter3Service)
+                .saveUploadRecord(app, upload);
+
+        svc.uploadComplete(TEST_APP_ID, APP, upload, false);
+
+        verify(mockExporter3Service, times(1)).saveUploadRecord(app, upload);
+        verify(mockUploadValidationService).validateUpload(TEST_APP_ID, upload, false);
+    }
+
+    @Test
+    public void failedExportIsNotRetried() throws Exception {
+        app.setExporter3Enabled(true);
+        Upload upload = Upload.create();
+        upload.setUploadId(TEST_UPLOAD_ID);
+        upload.setStatus(UploadStatus.REQUESTED);
+        mockS3Metadata();
+
+        HealthDataRecordEx3 record = HealthDataRecordEx3.create();
+        when(mockExporter3Service.saveUploadRecord(app, upload)).thenReturn(record);
+
+        // The send may have reached the queue even though it timed out, so it isn't sent again.
+        BridgeServiceException ex = new BridgeServiceException("Timeout sending message to SQS");
+        doThrow(ex).when(mockExporter3Service).exportUploadRecord(TEST_APP_ID, record);
+
+        svc.uploadComplete(TEST_APP_ID, APP, upload, false);
+
+        verify(mockExporter3Service, times(1)).saveUploadRecord(app, upload);
+        verify(mockExporter3Service, times(1)).exportUploadRecord(TEST_APP_ID, record);
+        verify(mockValidationMetrics).recordCompletionStage(eq(UploadService.COMPLETION_STAGE_EXPORTER_3_EXPORT),
+                anyLong(), same(ex));
+
+        // Legacy validation and adherence still run.
+        verify(mockUploadValidationService).validateUpload(TEST_APP_ID, upload, false);
+        verify(svc).updateAdherenceWithUploadInfo(TEST_APP_ID, upload);
+    }
+
+    @Test
+    public void recordIsSavedAgainButExportedOnce() throws Exception {
+        app.setExporter3Enabled(true);
+        Upload upload = Upload.create();
+        upload.setUploadId(TEST_UPLOAD_ID);
+        upload.setStatus(UploadStatus.REQUESTED);
+        mockS3Metadata();
+
+        HealthDataRecordEx3 record = HealthDataRecordEx3.create();
+        when(mockExporter3Service.saveUploadRecord(app, upload)).thenThrow(new ServiceUnavailableException("busy"))
+                .thenReturn(record);
+
+        svc.uploadComplete(TEST_APP_ID, APP, upload, false);
+
+        verify(mockExporter3Service, times(2)).saveUploadRecord(app, upload);
+        verify(mockExporter3Service, times(1)).exportUploadRecord(TEST_APP_ID, record);
+    }
+
+    @Test
+    public void isRetryable() {
+        // Server errors and throttling are retried.
+        assertTrue(UploadService.isRetryable(new BridgeServiceException("server error")));
+        assertTrue(UploadService.isRetryable(new ServiceUnavailableException("busy")));
+        AmazonServiceException serverError = new AmazonServiceException("server error");
+        serverError.setStatusCode(503);
+        assertTrue(UploadService.isRetryable(serverError));
+        AmazonServiceException throttled = new AmazonServiceException("slow down");
+        throttled.setStatusCode(400);
+        throttled.setErrorCode("ThrottlingException");
+        assertTrue(UploadService.isRetryable(throttled));
+
+        // So are network errors talking to AWS.
+        assertTrue(UploadService.isRetryable(new SdkClientException("connection reset", new IOException())));
+
+        // Client errors and bugs aren't.
+        assertFalse(UploadService.isRetryable(new NotFoundException("not found")));
+        AmazonServiceException clientError = new AmazonServiceException("access denied");
+        clientError.setStatusCode(403);
+        assertFalse(UploadService.isRetryable(clientError));
+        assertFalse(UploadService.isRetryable(new SdkClientException("unable to marshall request")));
+        assertFalse(UploadService.isRetryable(new NullPointerException()));
+        assertFalse(UploadService.isRetryable(new RuntimeException()));
+        assertFalse(UploadService.isRetryable(new IOException()));
+    }
+
+    private void mockS3Metadata() {
+        ObjectMetadata mockObjMetadata = mock(ObjectMetadata.class);
+        when(mockObjMetadata.getSSEAlgorithm()).thenReturn(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        when(mockS3Client.getObjectMetadata(TEST_BUCKET, TEST_UPLOAD_ID)).thenReturn(mockObjMetadata);
+    }
 }
@@ -0,0 +1,94 @@
+package org.sagebionetworks.bridge.services;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.exceptions.NotFoundException;
+import org.sagebionetworks.bridge.models.upload.UploadStatus;
+import org.sagebionetworks.bridge.models.upload.UploadValidationStatus;
+import org.sagebionetworks.bridge.upload.UploadValidationNotifier;
+
+public class UploadServiceWaitForStatusTest {
+    private static final String UPLOAD_ID = "test-upload";
+
+    private CompletableFuture<Void> completion;
+    private UploadService svc;
+
+    @BeforeMethod
+    public void setup() {
+        completion = new CompletableFuture<>();
+        UploadValidationNotifier mockNotifier = mock(UploadValidationNotifier.class);
+        when(mockNotifier.register(UPLOAD_ID)).thenReturn(completion);
+
+        // Spy service, so we can mock a call to getValidationStatus() instead of tightly coupling to that logic.
+        svc = spy(new UploadService());
+        svc.setUploadValidationNotifier(mockNotifier);
+    }
+
+    @Test
+    public void alreadyComplete() {
+        doReturn(makeValidationStatus(UploadStatus.SUCCEEDED)).when(svc).getUploadValidationStatus(UPLOAD_ID);
+
+        CompletableFuture<UploadValidationStatus> future = svc.waitForUploadValidationStatus(UPLOAD_ID);
+        assertEquals(future.join().getStatus(), UploadStatus.SUCCEEDED);
+        assertTrue(completion.isCancelled());
+        verify(svc, times(1)).getUploadValidationStatus(UPLOAD_ID);
+    }
+
+    @Test
+    public void completesOnNotification() {
+        doReturn(makeValidationStatus(UploadStatus.VALIDATION_IN_PROGRESS))
+                .doReturn(makeValidationStatus(UploadStatus.SUCCEEDED)).when(svc).getUploadValidationStatus(UPLOAD_ID);
+
+        CompletableFuture<UploadValidationStatus> future = svc.waitForUploadValidationStatus(UPLOAD_ID);
+        assertFalse(future.isDone());
+
+        completion.complete(null);
+        assertEquals(future.join().getStatus(), UploadStatus.SUCCEEDED);
+        verify(svc, times(2)).getUploadValidationStatus(UPLOAD_ID);
+    }
+
+    @Test
+    public void cancelStopsListening() {
+        doReturn(makeValidationStatus(UploadStatus.VALIDATION_IN_PROGRESS)).when(svc).getUploadValidationStatus(
+                UPLOAD_ID);
+
+        CompletableFuture<UploadValidationStatus> future = svc.waitForUploadValidationStatus(UPLOAD_ID);
+        future.cancel(false);
+        assertTrue(completion.isCancelled());
+    }
+
+    @Test
+    public void errorStopsListening() {
+        doThrow(new NotFoundException("Upload ID " + UPLOAD_ID + " not found")).when(svc)
+                .getUploadValidationStatus(UPLOAD_ID);
+
+        try {
+            svc.waitForUploadValidationStatus(UPLOAD_ID);
+            fail("expected exception");
+        } catch (NotFoundException ex) {
+            // expected exception
+        }
+        assertTrue(completion.isCancelled());
+    }
+
+    private UploadValidationStatus makeValidationStatus(UploadStatus uploadStatus) {
+        return new UploadValidationStatus.Builder().withId(UPLOAD_ID).withMessageList(ImmutableList.of())
+                .withStatus(uploadStatus).build();
+    }
+}
@@ -26,8 +26,6 @@ import java.util.Optional;
 import com.amazonaws.HttpMethod;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
-import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.model.SendMessageResult;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -82,7 +80,7 @@ public class UploadTableServiceTest {
     private AmazonS3 mockS3Client;
 
     @Mock
-    private AmazonSQS mockSqsClient;
+    private SqsBatchDispatcher mockSqsDispatcher;
 
     @Mock
     private StudyService mockStudyService;
@@ -315,7 +313,7 @@ public class UploadTableServiceTest {
                 TestConstants.TEST_STUDY_ID, 0, 1)).thenReturn(jobList);
 
         // Mock SQS. Return type doesn't actually matter except for logs, but we don't want it to be null.
-        when(mockSqsClient.sendMessage(any(), any())).thenReturn(new SendMessageResult());
+        when(mockSqsDispatcher.sendMessage(any(), any())).thenReturn("test-message-id");
 
         // Execute and verify.
         UploadTableJobGuidHolder jobGuidHolder = service.requestUploadTableForStudy(TestConstants.TEST_APP_ID,
@@ -334,7 +332,7 @@ public class UploadTableServiceTest {
 
         // Verify call to SQS.
         ArgumentCaptor<String> requestJsonTextCaptor = ArgumentCaptor.forClass(String.class);
-        verify(mockSqsClient).sendMessage(eq(WORKER_QUEUE_URL), requestJsonTextCaptor.capture());
+        verify(mockSqsDispatcher).sendMessage(eq(WORKER_QUEUE_URL), requestJsonTextCaptor.capture());
 
         String requestJsonText = requestJsonTextCaptor.getValue();
         WorkerRequest workerRequest = BridgeObjectMapper.get().readValue(requestJsonText, WorkerRequest.class);
@@ -365,7 +363,7 @@ public class UploadTableServiceTest {
                 .thenReturn(new ForwardCursorPagedResourceList<>(ImmutableList.of(new UploadView.Builder().build()), null));
 
         // Mock SQS. Return type doesn't actually matter except for logs, but we don't want it to be null.
-        when(mockSqsClient.sendMessage(any(), any())).thenReturn(new SendMessageResult());
+        when(mockSqsDispatcher.sendMessage(any(), any())).thenReturn("test-message-id");
 
         // Execute and verify.
         UploadTableJobGuidHolder jobGuidHolder = service.requestUploadTableForStudy(TestConstants.TEST_APP_ID,
@@ -374,7 +372,7 @@ public class UploadTableServiceTest {
 
         // Verify call to back-ends. We don't care about the parameters. This was tested in the previous test.
         verify(mockUploadTableJobDao).saveUploadTableJob(any());
-        verify(mockSqsClient).sendMessage(eq(WORKER_QUEUE_URL), any());
+        verify(mockSqsDispatcher).sendMessage(eq(WORKER_QUEUE_URL), any());
     }
 
     @Test(expectedExceptions = EntityNotFoundException.class)
@@ -1,49 +1,199 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
-import java.util.concurrent.ExecutorService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import org.sagebionetworks.bridge.RequestContext;
 import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
+import org.sagebionetworks.bridge.exceptions.ServiceUnavailableException;
+import org.sagebionetworks.bridge.models.Metrics;
 import org.sagebionetworks.bridge.models.apps.App;
 import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.services.UploadValidationService.PrioritizedTask;
+import org.sagebionetworks.bridge.upload.UploadValidationMetrics;
 import org.sagebionetworks.bridge.upload.UploadValidationTask;
 import org.sagebionetworks.bridge.upload.UploadValidationTaskFactory;
 
 public class UploadValidationServiceTest {
-    @Test
-    public void test() {
-        // UploadValidationService is a simple call-through to the task factory and the async thread pool. As such, our
-        // test strategy is to verify that execution flows through to these dependencies.
+    private App app;
+    private Upload upload;
+    private UploadValidationTask mockTask;
+    private ThreadPoolExecutor mockExecutor;
+    private UploadValidationMetrics validationMetrics;
+    private UploadValidationService svc;
 
-        // inputs
-        App app = TestUtils.getValidApp(UploadValidationServiceTest.class);
-        Upload upload = new DynamoUpload2();
+    @AfterMethod
+    public void after() {
+        RequestContext.set(null);
+    }
 
-        // mock task
-        UploadValidationTask mockTask = mock(UploadValidationTask.class);
+    @BeforeMethod
+    public void before() {
+        app = TestUtils.getValidApp(UploadValidationServiceTest.class);
+        upload = new DynamoUpload2();
+        upload.setUploadId("upload-id");
 
-        // mock task factory
+        mockTask = mock(UploadValidationTask.class);
         UploadValidationTaskFactory mockTaskFactory = mock(UploadValidationTaskFactory.class);
         when(mockTaskFactory.newTask(app.getIdentifier(), upload)).thenReturn(mockTask);
 
-        // mock async thread pool
-        ExecutorService mockExecutor = mock(ExecutorService.class);
+        mockExecutor = mock(ThreadPoolExecutor.class);
+        when(mockExecutor.getQueue()).thenReturn(new PriorityBlockingQueue<>());
 
-        // set up service
-        UploadValidationService svc = new UploadValidationService();
-        svc.setAsyncExecutorService(mockExecutor);
+        validationMetrics = new UploadValidationMetrics();
+
+        svc = new UploadValidationService();
+        svc.setValidationMetrics(validationMetrics);
+        svc.setValidationExecutor(mockExecutor);
         svc.setTaskFactory(mockTaskFactory);
+        svc.setQueueCapacity(2);
+        svc.setShutdownWaitSeconds(1);
+    }
+
+    @Test
+    public void test() {
+        // UploadValidationService is a simple call-through to the task factory and the validation thread pool. As 
+        // such, our test strategy is to verify that execution flows through to these dependencies.
+        svc.validateUpload(app.getIdentifier(), upload, false);
+
+        ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(mockExecutor).execute(runnableCaptor.capture());
+        assertSame(((PrioritizedTask)runnableCaptor.getValue()).getTask(), mockTask);
+    }
+
+    @Test
+    public void getValidationMetrics() {
+        validationMetrics.recordUpload(100L);
+        validationMetrics.recordHandler("DecryptHandler", 20L, null);
+        when(mockExecutor.getActiveCount()).thenReturn(3);
+
+        ObjectNode node = svc.getValidationMetrics();
+        assertEquals(node.get("uploadCount").longValue(), 1L);
+        assertEquals(node.get("handlers").get("DecryptHandler").get("count").longValue(), 1L);
+        assertEquals(node.get("queueDepth").intValue(), 0);
+        assertEquals(node.get("inFlight").intValue(), 3);
+        assertEquals(node.get("rejectedCount").longValue(), 0L);
+    }
+
+    @Test
+    public void redrivesRunBeforeFreshUploads() {
+        PriorityBlockingQueue<PrioritizedTask> queue = new PriorityBlockingQueue<>();
+        PrioritizedTask fresh1 = new PrioritizedTask(mockTask, "fresh1", false, 1);
+        PrioritizedTask fresh2 = new PrioritizedTask(mockTask, "fresh2", false, 2);
+        PrioritizedTask redrive = new PrioritizedTask(mockTask, "redrive", true, 3);
+        queue.add(fresh2);
+        queue.add(redrive);
+        queue.add(fresh1);
+
+        List<PrioritizedTask> order = new ArrayList<>();
+        queue.drainTo(order);
+        assertEquals(order, ImmutableList.of(redrive, fresh1, fresh2));
+    }
+
+    @Test
+    public void checkCapacity() {
+        // Queue is not full.
+        mockExecutor.getQueue().add(new PrioritizedTask(mockTask, "upload1", false, 1));
+        svc.checkCapacity(0);
 
-        // execute
-        svc.validateUpload(app.getIdentifier(), upload);
+        // Queue is full.
+        mockExecutor.getQueue().add(new PrioritizedTask(mockTask, "upload2", false, 2));
+        try {
+            svc.checkCapacity(0);
+            fail("Should have thrown exception");
+        } catch (ServiceUnavailableException e) {
+            // expected
+        }
+        assertEquals(svc.getRejectedCount(), 1L);
+        assertEquals(svc.getQueueDepth(), 2);
+    }
+
+    @Test
+    public void checkCapacityCountsPendingUploads() {
+        mockExecutor.getQueue().add(new PrioritizedTask(mockTask, "upload1", false, 1));
+        
+        // One upload is queued and one has been accepted but not yet submitted, so the queue is full.
+        try {
+            svc.checkCapacity(1);
+            fail("Should have thrown exception");
+        } catch (ServiceUnavailableException e) {
+            // expected
+        }
+        assertEquals(svc.getRejectedCount(), 1L);
+    }
+
+    @Test
+    public void checkCapacityRecordsQueueMetrics() {
+        Metrics metrics = new Metrics("request-id");
+        RequestContext.set(new RequestContext.Builder().withMetrics(metrics).build());
+        mockExecutor.getQueue().add(new PrioritizedTask(mockTask, "upload1", false, 1));
+        when(mockExecutor.getActiveCount()).thenReturn(3);
+        
+        svc.checkCapacity(0);
+        
+        assertEquals(metrics.getJson().get("upload_validation_queue_depth").intValue(), 1);
+        assertEquals(metrics.getJson().get("upload_validation_in_flight").intValue(), 3);
+    }
+
+    @Test
+    public void drainWaitsForQueuedValidations() throws Exception {
+        when(mockExecutor.awaitTermination(1, TimeUnit.SECONDS)).thenReturn(true);
+
+        svc.drain();
+
+        verify(mockExecutor).shutdown();
+        verify(mockExecutor, never()).shutdownNow();
+    }
+
+    @Test
+    public void drainStopsAfterTimeout() throws Exception {
+        when(mockExecutor.awaitTermination(1, TimeUnit.SECONDS)).thenReturn(false);
+        when(mockExecutor.shutdownNow()).thenReturn(ImmutableList.of(
+                new PrioritizedTask(mockTask, "upload1", false, 1)));
+
+        svc.drain();
+
+        verify(mockExecutor).shutdown();
+        verify(mockExecutor).shutdownNow();
+    }
+
+    @Test
+    public void startExecutorCreatesPool() {
+        BridgeConfig mockConfig = mock(BridgeConfig.class);
+        when(mockConfig.getInt(UploadValidationService.THREAD_COUNT_PROPERTY)).thenReturn(3);
+        when(mockConfig.getInt(UploadValidationService.QUEUE_CAPACITY_PROPERTY)).thenReturn(10);
+        when(mockConfig.getInt(UploadValidationService.SHUTDOWN_WAIT_SECONDS_PROPERTY)).thenReturn(1);
 
-        // validate
-        verify(mockExecutor).execute(mockTask);
+        UploadValidationService service = new UploadValidationService();
+        service.setBridgeConfig(mockConfig);
+        service.startExecutor();
+        try {
+            assertEquals(service.getQueueDepth(), 0);
+            assertEquals(service.getInFlightCount(), 0);
+            assertTrue(service.getRejectedCount() == 0L);
+        } finally {
+            service.drain();
+        }
     }
 }
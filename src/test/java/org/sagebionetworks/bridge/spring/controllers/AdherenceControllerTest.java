@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.spring.controllers;
 
 import static org.sagebionetworks.bridge.BridgeConstants.API_DEFAULT_PAGE_SIZE;
+import static org.sagebionetworks.bridge.BridgeConstants.API_MAXIMUM_PAGE_SIZE;
 import static org.sagebionetworks.bridge.RequestContext.NULL_INSTANCE;
 import static org.sagebionetworks.bridge.Roles.DEVELOPER;
 import static org.sagebionetworks.bridge.Roles.RESEARCHER;
@@ -26,6 +27,7 @@ import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -43,6 +45,7 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.exceptions.UnauthorizedException;
 import org.sagebionetworks.bridge.models.schedules2.adherence.AdherencePostProcessingAttributes;
@@ -54,6 +57,7 @@ import org.sagebionetworks.bridge.RequestContext;
 import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.models.AdherenceReportSearch;
 import org.sagebionetworks.bridge.models.PagedResourceList;
+import org.sagebionetworks.bridge.models.ResourceList;
 import org.sagebionetworks.bridge.models.StatusMessage;
 import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.AccountId;
@@ -141,6 +145,7 @@ public class AdherenceControllerTest extends Mockito {
         assertDelete(AdherenceController.class, "deleteAdherenceRecord");
         assertPost(AdherenceController.class, "updateAdherencePostProcessingAttributes");
         assertGet(AdherenceController.class, "getDetailedParticipantAdherenceReport");
+        assertPost(AdherenceController.class, "getWeeklyAdherenceReportsForWorker");
     }
     
     @Test
@@ -735,6 +740,45 @@ public class AdherenceControllerTest extends Mockito {
         controller.getWeeklyAdherenceReportForWorker(TEST_APP_ID, TEST_STUDY_ID, TEST_USER_ID);
     }
     
+    @Test
+    public void getWeeklyAdherenceReportsForWorker() throws Exception {
+        doReturn(session).when(controller).getAuthenticatedSession(WORKER);
+        mockRequestBody(mockRequest, ImmutableList.of(TEST_USER_ID, "missingUserId"));
+        
+        // The accounts are loaded together, and IDs without an account are skipped
+        Account account = Account.create();
+        when(mockAccountService.getAccountsById(TEST_APP_ID, ImmutableList.of(TEST_USER_ID, "missingUserId")))
+            .thenReturn(ImmutableList.of(account));
+        
+        List<WeeklyAdherenceReport> reports = ImmutableList.of(new WeeklyAdherenceReport());
+        when(mockService.getWeeklyAdherenceReportsForWorker(TEST_APP_ID, TEST_STUDY_ID, ImmutableList.of(account)))
+            .thenReturn(reports);
+        
+        ResourceList<WeeklyAdherenceReport> retValue = controller.getWeeklyAdherenceReportsForWorker(
+                TEST_APP_ID, TEST_STUDY_ID);
+        assertEquals(retValue.getItems(), reports);        verify(mockAccountService, never()).getAccount(any());
+    }
+    
+    @Test(expectedExceptions = BadRequestException.class)
+    public void getWeeklyAdherenceReportsForWorker_tooManyUserIds() throws Exception {
+        doReturn(session).when(controller).getAuthenticatedSession(WORKER);
+        
+        List<String> userIds = new ArrayList<>();
+        for (int i=0; i <= API_MAXIMUM_PAGE_SIZE; i++) {
+            userIds.add("user" + i);
+        }
+        mockRequestBody(mockRequest, userIds);
+        
+        controller.getWeeklyAdherenceReportsForWorker(TEST_APP_ID, TEST_STUDY_ID);
+    }
+    
+    @Test(expectedExceptions = UnauthorizedException.class)
+    public void getWeeklyAdherenceReportsForWorker_rejectsNonWorker() {
+        doThrow(new UnauthorizedException()).when(controller).getAuthenticatedSession(WORKER);
+        
+        controller.getWeeklyAdherenceReportsForWorker(TEST_APP_ID, TEST_STUDY_ID);
+    }
+    
     @Test
     public void getStudyAdherenceReport() {
         doReturn(session).when(controller).getAuthenticatedSession(DEVELOPER, RESEARCHER, STUDY_DESIGNER, STUDY_COORDINATOR);
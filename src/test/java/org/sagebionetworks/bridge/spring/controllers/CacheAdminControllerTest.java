@@ -1,5 +1,6 @@
 package org.sagebionetworks.bridge.spring.controllers;
 
+import static org.sagebionetworks.bridge.BridgeConstants.API_DEFAULT_PAGE_SIZE;
 import static org.sagebionetworks.bridge.Roles.ADMIN;
 import static org.sagebionetworks.bridge.Roles.SUPERADMIN;
 import static org.sagebionetworks.bridge.TestConstants.ACCOUNT_ID;
@@ -9,6 +10,7 @@ import static org.sagebionetworks.bridge.TestUtils.assertCrossOrigin;
 import static org.sagebionetworks.bridge.TestUtils.assertDelete;
 import static org.sagebionetworks.bridge.TestUtils.assertGet;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
 
 import java.util.Optional;
 import java.util.Set;
@@ -16,6 +18,7 @@ import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
 import org.mockito.InjectMocks;
@@ -27,6 +30,7 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.exceptions.UnauthorizedException;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.StatusMessage;
 import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
@@ -76,6 +80,8 @@ public class CacheAdminControllerTest extends Mockito {
     public void verifyAnnotations() throws Exception {
         assertCrossOrigin(CacheAdminController.class);
         assertGet(CacheAdminController.class, "listItems");
+        assertGet(CacheAdminController.class, "listItemsPage");
+        assertDelete(CacheAdminController.class, "removeItems");
         assertDelete(CacheAdminController.class, "removeItem");
     }    
     
@@ -106,6 +112,47 @@ public class CacheAdminControllerTest extends Mockito {
         controller.listItems();
     }
     
+    @Test
+    public void listItemsPage() throws Exception {
+        ForwardCursorPagedResourceList<String> page = new ForwardCursorPagedResourceList<>(
+                ImmutableList.of("A", "B"), "nextCursor");
+        when(mockCacheAdminService.listItems("cursor", "*:App", "App", 20)).thenReturn(page);
+        
+        ForwardCursorPagedResourceList<String> result = controller.listItemsPage("cursor", "*:App", "App", "20");
+        assertSame(result, page);
+    }
+    
+    @Test
+    public void listItemsPageDefaultsPageSize() throws Exception {
+        controller.listItemsPage(null, null, null, null);
+        
+        verify(mockCacheAdminService).listItems(null, null, null, API_DEFAULT_PAGE_SIZE);
+    }
+    
+    @Test(expectedExceptions = UnauthorizedException.class)
+    public void listItemsPageRejectsAppAdmin() throws Exception {
+        session.setParticipant(new StudyParticipant.Builder()
+                .withRoles(ImmutableSet.of(ADMIN)).withId(TEST_USER_ID).build());
+        
+        controller.listItemsPage(null, null, null, null);
+    }
+    
+    @Test
+    public void removeItems() throws Exception {
+        when(mockCacheAdminService.removeItems("*:App")).thenReturn(3);
+        
+        StatusMessage result = controller.removeItems("*:App");
+        assertEquals(result.getMessage(), "3 item(s) removed from cache.");
+    }
+    
+    @Test(expectedExceptions = UnauthorizedException.class)
+    public void removeItemsRejectsAppAdmin() throws Exception {
+        session.setParticipant(new StudyParticipant.Builder()
+                .withRoles(ImmutableSet.of(ADMIN)).withId(TEST_USER_ID).build());
+        
+        controller.removeItems("*:App");
+    }
+    
     @Test
     public void removeItem() throws Exception {
         session.setAppId(TEST_APP_ID);
@@ -43,19 +43,27 @@ import static org.sagebionetworks.bridge.models.accounts.SharingScope.NO_SHARING
 import static org.sagebionetworks.bridge.models.accounts.SharingScope.SPONSORS_AND_PARTNERS;
 import static org.sagebionetworks.bridge.models.sms.SmsType.PROMOTIONAL;
 import static org.sagebionetworks.bridge.spring.controllers.StudyParticipantController.INSTALL_LINK_SEND_MSG;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -94,6 +102,7 @@ import org.sagebionetworks.bridge.dynamodb.DynamoActivityEvent;
 import org.sagebionetworks.bridge.dynamodb.DynamoScheduledActivity;
 import org.sagebionetworks.bridge.dynamodb.DynamoApp;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
 import org.sagebionetworks.bridge.exceptions.NotAuthenticatedException;
@@ -224,6 +233,8 @@ public class ParticipantControllerTest extends Mockito {
 
     @Mock
     HttpServletResponse mockResponse;
+    
+    ServletOutputStream mockResponseOutputStream;
 
     @Captor
     ArgumentCaptor<StudyParticipant> participantCaptor;
@@ -331,6 +342,7 @@ public class ParticipantControllerTest extends Mockito {
         assertPost(ParticipantController.class, "searchForAccountSummaries");
         assertGet(ParticipantController.class, "getParticipantsForWorker");
         assertPost(ParticipantController.class, "searchForAccountSummariesForWorker");
+        assertPost(ParticipantController.class, "streamAccountSummariesForWorker");
         assertCreate(ParticipantController.class, "createParticipant");
         assertGet(ParticipantController.class, "getParticipant");
         assertGet(ParticipantController.class, "getParticipantForWorker");
@@ -1648,6 +1660,111 @@ public class ParticipantControllerTest extends Mockito {
         assertEquals(search, payload);
     }
     
+    @Test
+    public void streamAccountSummariesForWorker() throws Exception {
+        session.setParticipant(new StudyParticipant.Builder().copyOf(session.getParticipant())
+                .withRoles(ImmutableSet.of(Roles.WORKER)).build());
+
+        AccountSummarySearch payload = setAccountSummarySearch();
+        
+        ByteArrayOutputStream out = mockResponseOutputStream();
+        doAnswer(invocation -> {
+            Consumer<AccountSummary> consumer = invocation.getArgument(2);
+            consumer.accept(new AccountSummary.Builder().withId("user1").build());
+            consumer.accept(new AccountSummary.Builder().withId("user2").build());
+            return null;
+        }).when(mockParticipantService).streamAccountSummaries(eq(app), any(), any());
+
+        controller.streamAccountSummariesForWorker(app.getIdentifier());
+        
+        JsonNode node = BridgeObjectMapper.get().readTree(out.toByteArray());
+        assertEquals(node.size(), 2);
+        assertEquals(node.get(0).get("id").textValue(), "user1");
+        assertEquals(node.get(1).get("id").textValue(), "user2");
+        
+        verify(mockResponse).setContentType(APPLICATION_JSON_VALUE);
+        verify(mockParticipantService).streamAccountSummaries(eq(app), searchCaptor.capture(), any());
+        assertEquals(searchCaptor.getValue(), payload);
+    }
+    
+    @Test
+    public void streamAccountSummariesForWorkerNoResults() throws Exception {
+        session.setParticipant(new StudyParticipant.Builder().copyOf(session.getParticipant())
+                .withRoles(ImmutableSet.of(Roles.WORKER)).build());
+        setAccountSummarySearch();
+        ByteArrayOutputStream out = mockResponseOutputStream();
+        
+        controller.streamAccountSummariesForWorker(app.getIdentifier());
+        
+        JsonNode node = BridgeObjectMapper.get().readTree(out.toByteArray());
+        assertTrue(node.isArray());
+        assertEquals(node.size(), 0);
+    }
+    
+    @Test
+    public void streamAccountSummariesForWorkerErrorBeforeResults() throws Exception {
+        session.setParticipant(new StudyParticipant.Builder().copyOf(session.getParticipant())
+                .withRoles(ImmutableSet.of(Roles.WORKER)).build());
+        setAccountSummarySearch();
+        ByteArrayOutputStream out = mockResponseOutputStream();
+        doThrow(new InvalidEntityException("invalid search")).when(mockParticipantService)
+                .streamAccountSummaries(eq(app), any(), any());
+        
+        try {
+            controller.streamAccountSummariesForWorker(app.getIdentifier());
+            fail("Should have thrown exception");
+        } catch (InvalidEntityException e) {
+            // expected exception
+        }
+        // Nothing was written or flushed, so the error can still be returned.
+        assertEquals(out.size(), 0);
+        verify(mockResponseOutputStream, never()).flush();
+        verify(mockResponseOutputStream, never()).close();
+    }
+    
+    @Test
+    public void streamAccountSummariesForWorkerErrorAfterResults() throws Exception {
+        session.setParticipant(new StudyParticipant.Builder().copyOf(session.getParticipant())
+                .withRoles(ImmutableSet.of(Roles.WORKER)).build());
+        setAccountSummarySearch();
+        ByteArrayOutputStream out = mockResponseOutputStream();
+        doAnswer(invocation -> {
+            Consumer<AccountSummary> consumer = invocation.getArgument(2);
+            consumer.accept(new AccountSummary.Builder().withId("user1").build());
+            throw new BridgeServiceException("database error");
+        }).when(mockParticipantService).streamAccountSummaries(eq(app), any(), any());
+        
+        try {
+            controller.streamAccountSummariesForWorker(app.getIdentifier());
+            fail("Should have thrown exception");
+        } catch (BridgeServiceException e) {
+            // expected exception
+        }
+        // The generator is closed, which writes the partial array, but the array isn't ended.
+        String output = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(output.startsWith("[{"));
+        assertFalse(output.endsWith("]"));
+    }
+    
+    private ByteArrayOutputStream mockResponseOutputStream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mockResponseOutputStream = spy(new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                out.write(b);
+            }
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        });
+        when(mockResponse.getOutputStream()).thenReturn(mockResponseOutputStream);
+        return out;
+    }
+    
     @Test
     public void getEnrollments() {
         doReturn(session).when(controller).getAuthenticatedSession(false, RESEARCHER);
@@ -618,6 +618,9 @@ public class SurveyControllerTest extends Mockito {
         // This call now hits the mockSurveyService, not the cache, for what should be one hit
         controller.getSurvey(SURVEY_GUID, CREATED_ON.toString());
         verify(mockSurveyService, times(getCount)).getSurvey(any(), any(), anyBoolean(), anyBoolean());
+        
+        // App configs with resolved survey references are also expired
+        verify(mockCacheProvider).removeSetOfCacheKeys(CacheKey.appConfigList(TEST_APP_ID));
     }
 
     private Survey getSurvey(boolean makeNew) {
@@ -12,19 +12,23 @@ import static org.sagebionetworks.bridge.TestConstants.TEST_USER_ID;
 import static org.sagebionetworks.bridge.TestUtils.createJson;
 import static org.sagebionetworks.bridge.TestUtils.mockRequestBody;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 import java.net.URL;
 import java.util.EnumSet;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
@@ -35,6 +39,7 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -42,18 +47,20 @@ import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.dao.HealthCodeDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
+import org.sagebionetworks.bridge.exceptions.NotFoundException;
 import org.sagebionetworks.bridge.exceptions.UnauthorizedException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.Metrics;
 import org.sagebionetworks.bridge.models.RequestInfo;
-import org.sagebionetworks.bridge.models.StatusMessage;
 import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
 import org.sagebionetworks.bridge.models.upload.Upload;
 import org.sagebionetworks.bridge.models.upload.UploadCompletionClient;
+import org.sagebionetworks.bridge.models.upload.UploadRedriveJob;
 import org.sagebionetworks.bridge.models.upload.UploadRedriveList;
 import org.sagebionetworks.bridge.models.upload.UploadSession;
 import org.sagebionetworks.bridge.models.upload.UploadStatus;
@@ -64,6 +71,7 @@ import org.sagebionetworks.bridge.services.AccountService;
 import org.sagebionetworks.bridge.services.HealthDataService;
 import org.sagebionetworks.bridge.services.RequestInfoService;
 import org.sagebionetworks.bridge.services.UploadService;
+import org.sagebionetworks.bridge.services.UploadValidationService;
 
 public class UploadControllerTest extends Mockito {
     private static final String RECORD_ID = "record-id";
@@ -79,6 +87,9 @@ public class UploadControllerTest extends Mockito {
     @Mock
     UploadService mockUploadService;
     
+    @Mock
+    UploadValidationService mockUploadValidationService;
+
     @Mock
     HealthDataService mockHealthDataService;
     
@@ -191,7 +202,7 @@ public class UploadControllerTest extends Mockito {
         doReturn(mockWorkerSession).when(controller).getAuthenticatedSession();
 
         // execute and validate
-        String result = controller.uploadComplete(UPLOAD_ID, false, false);
+        String result = (String) controller.uploadComplete(UPLOAD_ID, false, false).getResult();
         validateValidationStatus(result);
 
         // verify back-end calls
@@ -213,7 +224,7 @@ public class UploadControllerTest extends Mockito {
         doReturn(TEST_APP_ID).when(mockHealthCodeDao).getAppId(HEALTH_CODE);
 
         // execute and validate
-        String result = controller.uploadComplete(UPLOAD_ID, false, false);
+        String result = (String) controller.uploadComplete(UPLOAD_ID, false, false).getResult();
         validateValidationStatus(result);
 
         // verify back-end calls
@@ -227,6 +238,18 @@ public class UploadControllerTest extends Mockito {
         verify(mockUploadService, never()).pollUploadValidationStatusUntilComplete(any());
     }
 
+    @Test
+    public void getValidationMetrics() {
+        doReturn(new UserSession()).when(controller).getAuthenticatedSession(SUPERADMIN, WORKER);
+
+        ObjectNode metricsNode = BridgeObjectMapper.get().createObjectNode();
+        metricsNode.put("queueDepth", 2);
+        when(mockUploadValidationService.getValidationMetrics()).thenReturn(metricsNode);
+
+        JsonNode result = controller.getValidationMetrics();
+        assertSame(result, metricsNode);
+    }
+
     @Test
     public void redriveUploads() throws Exception {
         // Mock session
@@ -236,9 +259,12 @@ public class UploadControllerTest extends Mockito {
         mockRequestBody(mockRequest, createJson(
                 "{'uploadIds': ['upload1', 'upload2']}"));
 
+        UploadRedriveJob job = new UploadRedriveJob();
+        when(mockUploadService.redriveUpload(any())).thenReturn(job);
+
         // Execute and validate
-        StatusMessage message = controller.redriveUploads();
-        assertSame(message, UploadController.REDRIVE_COMPLETE_MSG);
+        UploadRedriveJob result = controller.redriveUploads();
+        assertSame(result, job);
 
         // Verify service call.
         ArgumentCaptor<UploadRedriveList> svcInputCaptor = ArgumentCaptor.forClass(UploadRedriveList.class);
@@ -247,6 +273,17 @@ public class UploadControllerTest extends Mockito {
         assertEquals(svcInput.getUploadIds(), ImmutableList.of(UPLOAD_ID_1, UPLOAD_ID_2));
     }
 
+    @Test
+    public void getUploadRedriveJob() {
+        doReturn(new UserSession()).when(controller).getAuthenticatedSession(SUPERADMIN);
+
+        UploadRedriveJob job = new UploadRedriveJob();
+        when(mockUploadService.getUploadRedriveJob("job-guid")).thenReturn(job);
+
+        UploadRedriveJob result = controller.getUploadRedriveJob("job-guid");
+        assertSame(result, job);
+    }
+
     @Test
     public void uploadCompleteAcceptsConsentedUser() throws Exception {
         // setup controller
@@ -254,7 +291,7 @@ public class UploadControllerTest extends Mockito {
         doReturn(mockConsentedUserSession).when(controller).getAuthenticatedAndConsentedSession();
 
         // execute and validate
-        String result = controller.uploadComplete(UPLOAD_ID, false, false);
+        String result = (String) controller.uploadComplete(UPLOAD_ID, false, false).getResult();
         validateValidationStatus(result);
 
         // verify back-end calls
@@ -296,15 +333,63 @@ public class UploadControllerTest extends Mockito {
         doReturn(mockConsentedUserSession).when(controller).getAuthenticatedSession();
         doReturn(mockConsentedUserSession).when(controller).getAuthenticatedAndConsentedSession();
 
+        // Validation completes after the controller returns.
+        CompletableFuture<UploadValidationStatus> future = new CompletableFuture<>();
+        when(mockUploadService.waitForUploadValidationStatus(UPLOAD_ID)).thenReturn(future);
+
         // execute and validate
-        String result = controller.uploadComplete(UPLOAD_ID, true, false);
-        validateValidationStatus(result);
+        DeferredResult<String> result = controller.uploadComplete(UPLOAD_ID, true, false);
+        assertFalse(result.hasResult());
+
+        future.complete(mockUploadService.getUploadValidationStatus(UPLOAD_ID));
+        validateValidationStatus((String) result.getResult());
 
         // verify back-end calls
         verify(mockUploadService).uploadComplete(eq("consented-user-app-id"),
                 eq(UploadCompletionClient.APP), any(), eq(false));
-        verify(mockUploadService).pollUploadValidationStatusUntilComplete(UPLOAD_ID);
-        verify(mockUploadService, never()).getUploadValidationStatus(any());
+        verify(mockUploadService).waitForUploadValidationStatus(UPLOAD_ID);
+        verify(mockUploadService, never()).pollUploadValidationStatusUntilComplete(any());
+    }
+
+    @Test
+    public void uploadCompleteSynchronousModeError() throws Exception {
+        doReturn(mockConsentedUserSession).when(controller).getAuthenticatedSession();
+        doReturn(mockConsentedUserSession).when(controller).getAuthenticatedAndConsentedSession();
+
+        CompletableFuture<UploadValidationStatus> future = new CompletableFuture<>();
+        when(mockUploadService.waitForUploadValidationStatus(UPLOAD_ID)).thenReturn(future);
+
+        DeferredResult<String> result = controller.uploadComplete(UPLOAD_ID, true, false);
+
+        NotFoundException ex = new NotFoundException("Upload ID " + UPLOAD_ID + " not found");
+        future.completeExceptionally(ex);
+        assertSame(result.getResult(), ex);
+    }
+
+    @Test
+    public void uploadCompleteSynchronousModeTimeoutStillInProgress() {
+        UploadValidationStatus inProgressStatus = new UploadValidationStatus.Builder().withId(UPLOAD_ID)
+                .withMessageList(ImmutableList.of()).withStatus(UploadStatus.VALIDATION_IN_PROGRESS).build();
+        doReturn(inProgressStatus).when(mockUploadService).getUploadValidationStatus(UPLOAD_ID);
+
+        DeferredResult<String> result = new DeferredResult<>();
+        CompletableFuture<UploadValidationStatus> future = new CompletableFuture<>();
+        controller.onValidationStatusTimeout(result, future, UPLOAD_ID);
+
+        assertTrue(future.isCancelled());
+        BridgeServiceException ex = (BridgeServiceException) result.getResult();
+        assertEquals(ex.getMessage(), "Timeout waiting for validation status for upload " + UPLOAD_ID);
+    }
+
+    @Test
+    public void uploadCompleteSynchronousModeTimeoutMissedNotification() throws Exception {
+        // Validation finished, but the notification was missed. The final check returns the status.
+        DeferredResult<String> result = new DeferredResult<>();
+        CompletableFuture<UploadValidationStatus> future = new CompletableFuture<>();
+        controller.onValidationStatusTimeout(result, future, UPLOAD_ID);
+
+        assertTrue(future.isCancelled());
+        validateValidationStatus((String) result.getResult());
     }
 
     @Test
@@ -314,7 +399,7 @@ public class UploadControllerTest extends Mockito {
         doReturn(mockConsentedUserSession).when(controller).getAuthenticatedAndConsentedSession();
 
         // execute and validate
-        String result = controller.uploadComplete(UPLOAD_ID, false, true);
+        String result = (String) controller.uploadComplete(UPLOAD_ID, false, true).getResult();
         validateValidationStatus(result);
 
         // verify back-end calls
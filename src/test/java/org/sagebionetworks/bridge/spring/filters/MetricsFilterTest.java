@@ -8,6 +8,9 @@ import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.FilterChain;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -15,6 +18,7 @@ import javax.servlet.http.HttpServletResponse;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import org.joda.time.DateTimeUtils;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -123,4 +127,27 @@ public class MetricsFilterTest extends Mockito {
         
         assertEquals("5.6.7.8", node.get("remote_address").textValue());
     }
+
+    @Test
+    public void metricsForAsyncRequestRecordedOnComplete() throws Exception {
+        AsyncContext mockAsyncContext = mock(AsyncContext.class);
+        when(mockRequest.isAsyncStarted()).thenReturn(true);
+        when(mockRequest.getAsyncContext()).thenReturn(mockAsyncContext);
+        when(mockResponse.getStatus()).thenReturn(200);
+
+        filter.doFilter(mockRequest, mockResponse, mockFilterChain);
+
+        // Nothing is recorded until the response is complete.
+        Metrics metrics = RequestContext.get().getMetrics();
+        assertFalse(metrics.getJson().has("status"));
+        assertFalse(metrics.getJson().has("end"));
+
+        ArgumentCaptor<AsyncListener> listenerCaptor = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(mockAsyncContext).addListener(listenerCaptor.capture());
+        listenerCaptor.getValue().onComplete(new AsyncEvent(mockAsyncContext));
+
+        JsonNode node = metrics.getJson();
+        assertEquals(200, node.get("status").intValue());
+        assertEquals(TIMESTAMP.toString(), node.get("end").textValue());
+    }
 }
@@ -0,0 +1,196 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.S3Object;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.file.InMemoryFileHelper;
+import org.sagebionetworks.bridge.services.UploadArchiveService;
+
+public class StreamingUnzipHandlerTest {
+    private static final String UPLOAD_ID = "test-upload-id";
+    private static final Map<String, byte[]> UNZIPPED_FILE_MAP = ImmutableMap.of(
+            "foo", "foo data".getBytes(Charsets.UTF_8),
+            "bar", "bar data".getBytes(Charsets.UTF_8),
+            "baz", "baz data".getBytes(Charsets.UTF_8));
+
+    private UploadValidationContext ctx;
+    private InMemoryFileHelper inMemoryFileHelper;
+    private DynamoUpload2 upload;
+    private AmazonS3 mockS3Client;
+    private UploadArchiveService uploadArchiveService;
+    private UploadValidationMetrics mockValidationMetrics;
+    private StreamingUnzipHandler handler;
+    private byte[] zippedData;
+
+    @BeforeMethod
+    public void before() {
+        inMemoryFileHelper = new InMemoryFileHelper();
+        File tmpDir = inMemoryFileHelper.createTempDir();
+
+        // Use a real archive service for unzipping, so the limits are applied to the stream.
+        uploadArchiveService = spy(new UploadArchiveService());
+        uploadArchiveService.setMaxZipEntrySize(1000000);
+        uploadArchiveService.setMaxNumZipEntries(1000000);
+        zippedData = uploadArchiveService.zip(UNZIPPED_FILE_MAP);
+
+        mockS3Client = mock(AmazonS3.class);
+        mockValidationMetrics = mock(UploadValidationMetrics.class);
+
+        handler = new StreamingUnzipHandler();
+        handler.setFileHelper(inMemoryFileHelper);
+        handler.setS3Client(mockS3Client);
+        handler.setUploadArchiveService(uploadArchiveService);
+        handler.setValidationMetrics(mockValidationMetrics);
+
+        upload = new DynamoUpload2();
+        upload.setUploadId(UPLOAD_ID);
+        upload.setFilename("test.zip");
+        upload.setEncrypted(false);
+        upload.setZipped(true);
+
+        ctx = new UploadValidationContext();
+        ctx.setAppId(TestConstants.TEST_APP_ID);
+        ctx.setUpload(upload);
+        ctx.setTempDir(tmpDir);
+    }
+
+    private void mockS3Object(byte[] content) {
+        S3Object s3Object = new S3Object();
+        s3Object.setObjectContent(new ByteArrayInputStream(content));
+        when(mockS3Client.getObject(TestConstants.UPLOAD_BUCKET, UPLOAD_ID)).thenReturn(s3Object);
+    }
+
+    @Test
+    public void zipped() throws Exception {
+        mockS3Object(zippedData);
+
+        handler.handle(ctx);
+
+        // Every entry is unzipped.
+        Map<String, File> unzippedFileMap = ctx.getUnzippedDataFileMap();
+        assertEquals(unzippedFileMap.size(), UNZIPPED_FILE_MAP.size());
+        for (String oneUnzippedFileName : UNZIPPED_FILE_MAP.keySet()) {
+            File unzippedFile = unzippedFileMap.get(oneUnzippedFileName);
+            assertEquals(inMemoryFileHelper.getBytes(unzippedFile), UNZIPPED_FILE_MAP.get(oneUnzippedFileName));
+        }
+
+        // The decrypted file contains the whole zip, including the central directory.
+        assertEquals(inMemoryFileHelper.getBytes(ctx.getDecryptedDataFile()), zippedData);
+        verify(uploadArchiveService, never()).decrypt(any(), any(Supplier.class));
+
+        // Only unzipping is recorded, with the total size of the entries.
+        verify(mockValidationMetrics).recordHandlerStage(eq(StreamingUnzipHandler.STAGE_UNZIP), anyLong(),
+                eq(24L));
+        verify(mockValidationMetrics, never()).recordHandlerStage(eq(StreamingUnzipHandler.STAGE_DECRYPT),
+                anyLong(), anyLong());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void encrypted() throws Exception {
+        upload.setEncrypted(true);
+        doReturn(new ByteArrayInputStream(zippedData)).when(uploadArchiveService)
+                .decrypt(eq(TestConstants.TEST_APP_ID), any(Supplier.class));
+
+        handler.handle(ctx);
+
+        assertEquals(ctx.getUnzippedDataFileMap().size(), UNZIPPED_FILE_MAP.size());
+        assertEquals(inMemoryFileHelper.getBytes(ctx.getDecryptedDataFile()), zippedData);
+
+        // Decrypting and unzipping are recorded separately.
+        verify(mockValidationMetrics).recordHandlerStage(eq(StreamingUnzipHandler.STAGE_DECRYPT), anyLong(),
+                eq((long) zippedData.length));
+        verify(mockValidationMetrics).recordHandlerStage(eq(StreamingUnzipHandler.STAGE_UNZIP), anyLong(),
+                eq(24L));
+    }
+
+    @Test
+    public void notZipped() throws Exception {
+        upload.setZipped(false);
+        mockS3Object("test data".getBytes(Charsets.UTF_8));
+
+        handler.handle(ctx);
+
+        Map<String, File> unzippedDataFileMap = ctx.getUnzippedDataFileMap();
+        assertEquals(unzippedDataFileMap.size(), 1);
+        assertSame(unzippedDataFileMap.get(upload.getFilename()), ctx.getDecryptedDataFile());
+        assertEquals(new String(inMemoryFileHelper.getBytes(ctx.getDecryptedDataFile()), Charsets.UTF_8),
+                "test data");
+
+        // Neither decrypted nor unzipped, so there are no stages to record.
+        verifyZeroInteractions(mockValidationMetrics);
+    }
+
+    @Test
+    public void tooManyZipEntries() throws Exception {
+        uploadArchiveService.setMaxNumZipEntries(2);
+        mockS3Object(zippedData);
+
+        try {
+            handler.handle(ctx);
+            fail("expected exception");
+        } catch (BadRequestException ex) {
+            // expected exception
+        }
+
+        // Failures are recorded for the handler as a whole, not for its stages.
+        verifyZeroInteractions(mockValidationMetrics);
+    }
+
+    @Test
+    public void timedStreamCountsBytesAndTime() throws Exception {
+        InputStream source = new ByteArrayInputStream("abcdef".getBytes(Charsets.UTF_8));
+        StreamingUnzipHandler.TimedInputStream timed = new StreamingUnzipHandler.TimedInputStream(source, 5L);
+
+        assertEquals(timed.read(), 'a');
+        assertEquals(timed.skip(2), 2);
+        assertEquals(timed.read(new byte[10], 0, 10), 3);
+        assertEquals(timed.read(), -1);
+
+        assertEquals(timed.getBytesRead(), 6L);
+        assertTrue(timed.getElapsedNanos() >= 5L);
+    }
+
+    @Test
+    public void teeStreamCopiesSkippedBytes() throws Exception {
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        InputStream source = new ByteArrayInputStream("abcdef".getBytes(Charsets.UTF_8));
+        StreamingUnzipHandler.TeeInputStream tee = new StreamingUnzipHandler.TeeInputStream(source, copy);
+
+        assertEquals(tee.read(), 'a');
+        assertEquals(tee.skip(2), 2);
+        assertEquals(tee.read(new byte[10], 0, 10), 3);
+        tee.close();
+
+        assertEquals(new String(copy.toByteArray(), Charsets.UTF_8), "abcdef");
+    }
+}
@@ -332,6 +332,8 @@ public class UploadHandlersEndToEndTest {
         taskFactory.setHandlerList(handlerList);
         taskFactory.setUploadDao(mockUploadDao);
         taskFactory.setHealthDataService(mockHealthDataService);
+        taskFactory.setValidationMetrics(new UploadValidationMetrics());
+        taskFactory.setValidationNotifier(mock(UploadValidationNotifier.class));
 
         // create task, execute
         UploadValidationTask task = taskFactory.newTask(TEST_APP_ID, upload);
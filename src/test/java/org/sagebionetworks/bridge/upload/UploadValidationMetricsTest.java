@@ -0,0 +1,107 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.testng.annotations.Test;
+
+public class UploadValidationMetricsTest {
+    @Test
+    public void emptySnapshot() {
+        JsonNode node = new UploadValidationMetrics().snapshot();
+        assertEquals(node.get("uploadCount").longValue(), 0L);
+        assertEquals(node.get("totalBytes").longValue(), 0L);
+        assertEquals(node.get("maxBytes").longValue(), 0L);
+        assertEquals(node.get("handlers").size(), 0);
+        assertEquals(node.get("completionStages").size(), 0);
+        assertEquals(node.get("handlerStages").size(), 0);
+    }
+
+    @Test
+    public void recordUpload() {
+        UploadValidationMetrics metrics = new UploadValidationMetrics();
+        metrics.recordUpload(100L);
+        metrics.recordUpload(300L);
+
+        JsonNode node = metrics.snapshot();
+        assertEquals(node.get("uploadCount").longValue(), 2L);
+        assertEquals(node.get("totalBytes").longValue(), 400L);
+        assertEquals(node.get("maxBytes").longValue(), 300L);
+    }
+
+    @Test
+    public void latencyBucketsAreCumulative() {
+        UploadValidationMetrics metrics = new UploadValidationMetrics();
+        metrics.recordHandler("DecryptHandler", 5L, null);
+        metrics.recordHandler("DecryptHandler", 10L, null);
+        metrics.recordHandler("DecryptHandler", 75L, null);
+        metrics.recordHandler("DecryptHandler", 120000L, null);
+
+        JsonNode handlerNode = metrics.snapshot().get("handlers").get("DecryptHandler");
+        assertEquals(handlerNode.get("count").longValue(), 4L);
+        assertEquals(handlerNode.get("totalMillis").longValue(), 120090L);
+        assertEquals(handlerNode.get("maxMillis").longValue(), 120000L);
+
+        JsonNode bucketsNode = handlerNode.get("latencyMillis");
+        assertEquals(bucketsNode.size(), UploadValidationMetrics.LATENCY_BUCKETS_MILLIS.length + 1);
+        assertEquals(bucketsNode.get("10").longValue(), 2L);
+        assertEquals(bucketsNode.get("50").longValue(), 2L);
+        assertEquals(bucketsNode.get("100").longValue(), 3L);
+        assertEquals(bucketsNode.get("60000").longValue(), 3L);
+        assertEquals(bucketsNode.get(UploadValidationMetrics.OVERFLOW_BUCKET).longValue(), 4L);
+    }
+
+    @Test
+    public void failuresByExceptionType() {
+        UploadValidationMetrics metrics = new UploadValidationMetrics();
+        metrics.recordHandler("UnzipHandler", 1L, new IOException());
+        metrics.recordHandler("UnzipHandler", 1L, new IOException());
+        metrics.recordHandler("UnzipHandler", 1L, new UploadValidationException("bad zip"));
+        metrics.recordHandler("UnzipHandler", 1L, null);
+        metrics.recordHandler("IosSchemaValidationHandler2", 1L, null);
+
+        JsonNode handlersNode = metrics.snapshot().get("handlers");
+        JsonNode failuresNode = handlersNode.get("UnzipHandler").get("failures");
+        assertEquals(failuresNode.size(), 2);
+        assertEquals(failuresNode.get(IOException.class.getName()).longValue(), 2L);
+        assertEquals(failuresNode.get(UploadValidationException.class.getName()).longValue(), 1L);
+        assertEquals(handlersNode.get("UnzipHandler").get("count").longValue(), 4L);
+        assertEquals(handlersNode.get("IosSchemaValidationHandler2").get("failures").size(), 0);
+    }
+
+    @Test
+    public void completionStagesAreSeparateFromHandlers() {
+        UploadValidationMetrics metrics = new UploadValidationMetrics();
+        metrics.recordCompletionStage("Exporter3", 40L, null);
+        metrics.recordCompletionStage("Exporter3", 200L, new IllegalStateException());
+
+        JsonNode node = metrics.snapshot();
+        assertEquals(node.get("handlers").size(), 0);
+        JsonNode stageNode = node.get("completionStages").get("Exporter3");
+        assertEquals(stageNode.get("count").longValue(), 2L);
+        assertEquals(stageNode.get("maxMillis").longValue(), 200L);
+        assertEquals(stageNode.get("latencyMillis").get("50").longValue(), 1L);
+        assertEquals(stageNode.get("failures").get(IllegalStateException.class.getName()).longValue(), 1L);
+    }
+
+    @Test
+    public void handlerStagesCountBytes() {
+        UploadValidationMetrics metrics = new UploadValidationMetrics();
+        metrics.recordHandlerStage("StreamingUnzipHandler.Decrypt", 30L, 1000L);
+        metrics.recordHandlerStage("StreamingUnzipHandler.Decrypt", 70L, 500L);
+        metrics.recordHandlerStage("StreamingUnzipHandler.Unzip", 20L, 4000L);
+
+        JsonNode node = metrics.snapshot();
+        assertEquals(node.get("handlers").size(), 0);
+        JsonNode decryptNode = node.get("handlerStages").get("StreamingUnzipHandler.Decrypt");
+        assertEquals(decryptNode.get("count").longValue(), 2L);
+        assertEquals(decryptNode.get("totalMillis").longValue(), 100L);
+        assertEquals(decryptNode.get("latencyMillis").get("50").longValue(), 1L);
+        assertEquals(decryptNode.get("totalBytes").longValue(), 1500L);
+        JsonNode unzipNode = node.get("handlerStages").get("StreamingUnzipHandler.Unzip");
+        assertEquals(unzipNode.get("count").longValue(), 1L);
+        assertEquals(unzipNode.get("totalBytes").longValue(), 4000L);
+    }
+}
@@ -0,0 +1,91 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+public class UploadValidationNotifierTest {
+    private static final String UPLOAD_ID = "upload-id";
+    private static final String OTHER_UPLOAD_ID = "other-upload-id";
+
+    private Jedis mockJedis;
+    private UploadValidationNotifier notifier;
+
+    @BeforeMethod
+    public void before() {
+        mockJedis = mock(Jedis.class);
+        JedisPool mockJedisPool = mock(JedisPool.class);
+        when(mockJedisPool.getResource()).thenReturn(mockJedis);
+
+        notifier = new UploadValidationNotifier();
+        notifier.setJedisPool(mockJedisPool);
+        notifier.setCallbackExecutor(MoreExecutors.newDirectExecutorService());
+    }
+
+    @Test
+    public void notifyCompletesWaitersAndPublishes() {
+        CompletableFuture<Void> future1 = notifier.register(UPLOAD_ID);
+        CompletableFuture<Void> future2 = notifier.register(UPLOAD_ID);
+        CompletableFuture<Void> otherFuture = notifier.register(OTHER_UPLOAD_ID);
+
+        notifier.notifyValidationComplete(UPLOAD_ID);
+        assertTrue(future1.isDone());
+        assertTrue(future2.isDone());
+        assertFalse(otherFuture.isDone());
+        assertEquals(notifier.getWaitingUploadCount(), 1);
+
+        verify(mockJedis).publish(UploadValidationNotifier.CHANNEL, UPLOAD_ID);
+        verify(mockJedis).close();
+    }
+
+    @Test
+    public void notificationFromAnotherServer() {
+        CompletableFuture<Void> future = notifier.register(UPLOAD_ID);
+        notifier.completeWaiters(UPLOAD_ID);
+        assertTrue(future.isDone());
+        assertEquals(notifier.getWaitingUploadCount(), 0);
+    }
+
+    @Test
+    public void cancelledWaiterIsRemoved() {
+        CompletableFuture<Void> future1 = notifier.register(UPLOAD_ID);
+        CompletableFuture<Void> future2 = notifier.register(UPLOAD_ID);
+
+        future1.cancel(false);
+        assertEquals(notifier.getWaitingUploadCount(), 1);
+
+        future2.cancel(false);
+        assertEquals(notifier.getWaitingUploadCount(), 0);
+    }
+
+    @Test
+    public void notifyWithNoWaiters() {
+        notifier.notifyValidationComplete(UPLOAD_ID);
+        verify(mockJedis).publish(UploadValidationNotifier.CHANNEL, UPLOAD_ID);
+    }
+
+    @Test
+    public void publishErrorIsNotThrown() {
+        doThrow(new JedisConnectionException("connection lost")).when(mockJedis).publish(
+                UploadValidationNotifier.CHANNEL, UPLOAD_ID);
+        CompletableFuture<Void> future = notifier.register(UPLOAD_ID);
+
+        notifier.notifyValidationComplete(UPLOAD_ID);
+
+        // Local waiters are still completed.
+        assertTrue(future.isDone());
+    }
+}
@@ -18,6 +18,7 @@ import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.util.List;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 
@@ -57,6 +58,8 @@ public class UploadValidationTaskTest {
     private UploadValidationContext ctx;
     private InMemoryFileHelper inMemoryFileHelper;
     private UploadDao mockDao;
+    private UploadValidationMetrics validationMetrics;
+    private UploadValidationNotifier mockNotifier;
     private UploadValidationTask task;
     private Upload upload;
 
@@ -72,6 +75,7 @@ public class UploadValidationTaskTest {
 
         upload = Upload.create();
         upload.setUploadId("test-upload");
+        upload.setContentLength(1024L);
 
         ctx = new UploadValidationContext();
         ctx.setAppId(app.getIdentifier());
@@ -80,6 +84,8 @@ public class UploadValidationTaskTest {
         // Set up other pre-reqs
         inMemoryFileHelper = new InMemoryFileHelper();
         mockDao = mock(UploadDao.class);
+        validationMetrics = new UploadValidationMetrics();
+        mockNotifier = mock(UploadValidationNotifier.class);
 
         // Set up task. Spy so we can verify some calls.
         task = spy(new UploadValidationTask(ctx));
@@ -87,6 +93,8 @@ public class UploadValidationTaskTest {
         task.setHandlerList(handlerList);
         task.setHealthDataService(healthDataService);
         task.setUploadDao(mockDao);
+        task.setValidationMetrics(validationMetrics);
+        task.setValidationNotifier(mockNotifier);
     }
 
     @Test
@@ -103,6 +111,15 @@ public class UploadValidationTaskTest {
         assertEquals(messageList.get(0), "foo was here");
         assertEquals(messageList.get(1), "bar was here");
         assertEquals(messageList.get(2), "kilroy was here");
+
+        // validate metrics
+        JsonNode metricsNode = validationMetrics.snapshot();
+        assertEquals(metricsNode.get("uploadCount").longValue(), 1L);
+        assertEquals(metricsNode.get("totalBytes").longValue(), 1024L);
+        JsonNode handlersNode = metricsNode.get("handlers");
+        assertEquals(handlersNode.get("MessageHandler").get("count").longValue(), 3L);
+        assertEquals(handlersNode.get("MessageHandler").get("failures").size(), 0);
+        assertEquals(handlersNode.get("RecordIdHandler").get("count").longValue(), 1L);
     }
 
     @Test
@@ -146,6 +163,14 @@ public class UploadValidationTaskTest {
         assertEquals(messageList.size(), 2);
         assertEquals(messageList.get(0), "foo succeeded");
         assertFalse(Strings.isNullOrEmpty(messageList.get(1)));
+
+        // Failure is counted against the failing handler, and handlers after it never ran.
+        JsonNode handlersNode = validationMetrics.snapshot().get("handlers");
+        JsonNode barNode = handlersNode.get(barHandler.getClass().getSimpleName());
+        assertEquals(barNode.get("count").longValue(), 1L);
+        assertEquals(barNode.get("failures").get(exClass.getName()).longValue(), 1L);
+        assertEquals(handlersNode.get("MessageHandler").get("failures").size(), 0);
+        assertFalse(handlersNode.has("RecordIdHandler"));
     }
 
     // helper test method, encapsulating core setup and validation
@@ -162,6 +187,9 @@ public class UploadValidationTaskTest {
         // validate the upload dao write validation status call
         verify(mockDao).writeValidationStatus(upload, expectedStatus, ctx.getMessageList(), expectedRecordId);
 
+        // Waiters are notified once the status is written.
+        verify(mockNotifier).notifyValidationComplete("test-upload");
+
         // Validate that we clean up the temp directory.
         assertTrue(inMemoryFileHelper.isEmpty());
     }
@@ -184,6 +212,9 @@ public class UploadValidationTaskTest {
 
         // verify log helper was called
         verify(task).logWriteValidationStatusException(UploadStatus.SUCCEEDED, toThrow);
+
+        // Since the status wasn't written, waiters aren't notified. They'll time out instead.
+        verifyZeroInteractions(mockNotifier);
     }
 
     // Test handler that makes its presence known only by writing a message to the validation context.
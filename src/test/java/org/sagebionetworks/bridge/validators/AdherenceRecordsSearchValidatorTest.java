@@ -29,6 +29,8 @@ import static org.sagebionetworks.bridge.validators.AdherenceRecordsSearchValida
 import static org.sagebionetworks.bridge.validators.AdherenceRecordsSearchValidator.MAX_SET_SIZE;
 import static org.sagebionetworks.bridge.validators.AdherenceRecordsSearchValidator.MAX_SET_SIZE_ERROR;
 import static org.sagebionetworks.bridge.validators.AdherenceRecordsSearchValidator.OFFSET_BY_FIELD;
+import static org.sagebionetworks.bridge.validators.AdherenceRecordsSearchValidator.OFFSET_KEY_AND_OFFSET_BY_ERROR;
+import static org.sagebionetworks.bridge.validators.AdherenceRecordsSearchValidator.OFFSET_KEY_FIELD;
 import static org.sagebionetworks.bridge.validators.AdherenceRecordsSearchValidator.PAGE_SIZE_ERROR;
 import static org.sagebionetworks.bridge.validators.AdherenceRecordsSearchValidator.PAGE_SIZE_FIELD;
 import static org.sagebionetworks.bridge.validators.AdherenceRecordsSearchValidator.SESSION_GUIDS_FIELD;
@@ -214,6 +216,14 @@ public class AdherenceRecordsSearchValidatorTest extends Mockito {
         assertValidatorMessage(INSTANCE, search, OFFSET_BY_FIELD, CANNOT_BE_NEGATIVE);
     }
     
+    @Test
+    public void offsetKeyWithOffsetBy() {
+        AdherenceRecordsSearch search = search()
+                .withOffsetKey("100:userId:10:20:guid")
+                .withOffsetBy(10).build();
+        assertValidatorMessage(INSTANCE, search, OFFSET_KEY_FIELD, OFFSET_KEY_AND_OFFSET_BY_ERROR);
+    }
+    
     @Test
     public void pageSizeTooSmall() {
         AdherenceRecordsSearch search = search()